@@ -0,0 +1,61 @@
+package net.respectnetwork.sdk.csp.bench;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.respectnetwork.sdk.csp.BasicCSP;
+import net.respectnetwork.sdk.csp.CloudNameRegistration;
+import xdi2.core.xri3.XDI3Segment;
+
+/**
+ * Measures whole BasicCSP availability checks against a ReplayXDIClient: building the message,
+ * parsing a canned response and reading the result, without serialization or the network.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BasicCSPBenchmark {
+
+	@Param({ "1", "10", "50" })
+	public int batchSize;
+
+	private BasicCSP basicCSP;
+	private List<XDI3Segment> cloudNames;
+
+	@Setup
+	public void setup() throws Exception {
+
+		this.cloudNames = BenchmarkData.makeCloudNames(this.batchSize);
+
+		this.basicCSP = new BasicCSP(BenchmarkData.makeCSPInformation());
+		this.basicCSP.setXdiClientRespectNetworkRegistrationService(new BenchmarkData.ReplayXDIClient(BenchmarkData.serialize(BenchmarkData.makeRegisteredResultGraph(this.cloudNames))));
+	}
+
+	@Benchmark
+	public CloudNameRegistration checkCloudNameAvailable() throws Exception {
+
+		return this.basicCSP.checkCloudNameAvailable(this.cloudNames.get(0));
+	}
+
+	@Benchmark
+	public Map<XDI3Segment, CloudNameRegistration> checkCloudNamesAvailable() throws Exception {
+
+		return this.basicCSP.checkCloudNamesAvailable(this.cloudNames);
+	}
+}
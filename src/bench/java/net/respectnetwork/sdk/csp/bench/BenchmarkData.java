@@ -0,0 +1,126 @@
+package net.respectnetwork.sdk.csp.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import net.respectnetwork.sdk.csp.BasicCSPInformation;
+import net.respectnetwork.sdk.csp.CSPInformation;
+import net.respectnetwork.sdk.csp.transport.PooledXDITransportConfiguration;
+import xdi2.client.XDIClient;
+import xdi2.client.exceptions.Xdi2ClientException;
+import xdi2.core.Graph;
+import xdi2.core.constants.XDIDictionaryConstants;
+import xdi2.core.features.nodetypes.XdiPeerRoot;
+import xdi2.core.impl.memory.MemoryGraphFactory;
+import xdi2.core.io.XDIReaderRegistry;
+import xdi2.core.io.XDIWriterRegistry;
+import xdi2.core.xri3.XDI3Segment;
+import xdi2.core.xri3.XDI3Statement;
+import xdi2.messaging.MessageEnvelope;
+import xdi2.messaging.MessageResult;
+
+/**
+ * Fixtures shared by the benchmarks: a CSPInformation, Cloud Names, and canned registrar responses.
+ */
+public final class BenchmarkData {
+
+	private BenchmarkData() { }
+
+	public static CSPInformation makeCSPInformation() {
+
+		XDI3Segment cspCloudNumber = XDI3Segment.create("[@]!:uuid:0baea650-823b-2475-0bae-a650823b2475");
+		String cspSecretToken = "s3cr3t";
+		String hostingEnvironmentRegistryXdiEndpoint = "http://localhost:14440/registry";
+		String hostingEnvironmentCloudBaseXdiEndpoint = "http://localhost:14440/users/";
+
+		return new BasicCSPInformation(cspCloudNumber, cspSecretToken, hostingEnvironmentRegistryXdiEndpoint, hostingEnvironmentCloudBaseXdiEndpoint);
+	}
+
+	public static List<XDI3Segment> makeCloudNames(int count) {
+
+		List<XDI3Segment> cloudNames = new ArrayList<XDI3Segment> ();
+
+		for (int i=0; i<count; i++) cloudNames.add(XDI3Segment.create("=bench.name." + i));
+
+		return cloudNames;
+	}
+
+	public static XDI3Segment makeCloudNumber(int i) {
+
+		return XDI3Segment.create("[=]!:uuid:" + new UUID(0x0baea650823b2475L, i).toString());
+	}
+
+	public static XDI3Segment makePeerRootXri(XDI3Segment xri) {
+
+		return XDI3Segment.fromComponent(XdiPeerRoot.createPeerRootArcXri(xri));
+	}
+
+	/**
+	 * Builds the graph a registrar returns when all the given Cloud Names are registered.
+	 */
+	public static Graph makeRegisteredResultGraph(List<XDI3Segment> cloudNames) throws Exception {
+
+		Graph graph = MemoryGraphFactory.getInstance().openGraph();
+
+		for (int i=0; i<cloudNames.size(); i++) {
+
+			graph.setStatement(XDI3Statement.fromRelationComponents(makePeerRootXri(cloudNames.get(i)), XDIDictionaryConstants.XRI_S_REF, makePeerRootXri(makeCloudNumber(i))));
+		}
+
+		return graph;
+	}
+
+	public static byte[] serialize(Graph graph) throws Exception {
+
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream(1024);
+		Writer writer = new OutputStreamWriter(buffer, "UTF-8");
+
+		XDIWriterRegistry.forMimeType(PooledXDITransportConfiguration.DEFAULT_SEND_MIME_TYPE).write(graph, writer);
+		writer.flush();
+
+		return buffer.toByteArray();
+	}
+
+	public static void parse(byte[] bytes, Graph graph) throws Exception {
+
+		XDIReaderRegistry.forMimeType(PooledXDITransportConfiguration.DEFAULT_RECV_MIME_TYPE).read(graph, new ByteArrayInputStream(bytes));
+	}
+
+	/**
+	 * An XDIClient that answers every message by parsing the same canned response, so that
+	 * BasicCSP operations can be measured without a network.
+	 */
+	public static class ReplayXDIClient implements XDIClient {
+
+		private final byte[] response;
+
+		public ReplayXDIClient(byte[] response) {
+
+			this.response = response;
+		}
+
+		public MessageResult send(MessageEnvelope messageEnvelope, MessageResult messageResult) throws Xdi2ClientException {
+
+			if (messageResult == null) messageResult = new MessageResult();
+
+			try {
+
+				parse(this.response, messageResult.getGraph());
+			} catch (Exception ex) {
+
+				throw new Xdi2ClientException("Cannot parse canned response: " + ex.getMessage(), ex, null);
+			}
+
+			return messageResult;
+		}
+
+		public void close() {
+
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package net.respectnetwork.sdk.csp.bench;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.respectnetwork.sdk.csp.BasicCSP;
+import net.respectnetwork.sdk.csp.CSPInformation;
+import net.respectnetwork.sdk.csp.CSPMessageTemplate;
+import xdi2.core.constants.XDIConstants;
+import xdi2.core.constants.XDIDictionaryConstants;
+import xdi2.core.util.XDI3Util;
+import xdi2.core.xri3.XDI3Segment;
+import xdi2.core.xri3.XDI3Statement;
+import xdi2.messaging.Message;
+import xdi2.messaging.MessageEnvelope;
+
+/**
+ * Measures building the MessageEnvelopes that BasicCSP sends, for single and batched messages.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageBuildBenchmark {
+
+	@Param({ "1", "10", "50" })
+	public int batchSize;
+
+	private CSPInformation cspInformation;
+	private CSPMessageTemplate messageTemplate;
+	private List<XDI3Segment> cloudNames;
+	private XDI3Segment cloudNumberPeerRootXri;
+
+	@Setup
+	public void setup() {
+
+		this.cspInformation = BenchmarkData.makeCSPInformation();
+		this.messageTemplate = CSPMessageTemplate.forRespectNetworkRegistrationService(this.cspInformation);
+		this.cloudNames = BenchmarkData.makeCloudNames(this.batchSize);
+		this.cloudNumberPeerRootXri = BenchmarkData.makePeerRootXri(BenchmarkData.makeCloudNumber(0));
+	}
+
+	@Benchmark
+	public MessageEnvelope checkCloudNamesAvailable() {
+
+		Message message = this.messageTemplate.createMessage();
+
+		for (int i=0; i<this.cloudNames.size(); i++) message.createGetOperation(BenchmarkData.makePeerRootXri(this.cloudNames.get(i)));
+
+		return message.getMessageEnvelope();
+	}
+
+	@Benchmark
+	public MessageEnvelope registerCloudNames() {
+
+		Message message = this.messageTemplate.createMessage();
+
+		for (int i=0; i<this.cloudNames.size(); i++) message.createSetOperation(XDI3Statement.fromRelationComponents(BenchmarkData.makePeerRootXri(this.cloudNames.get(i)), XDIDictionaryConstants.XRI_S_REF, XDIConstants.XRI_S_VARIABLE));
+
+		return message.getMessageEnvelope();
+	}
+
+	@Benchmark
+	public MessageEnvelope registerCloud() {
+
+		Message message = CSPMessageTemplate.forHostingEnvironmentRegistry(this.cspInformation).createMessage();
+
+		String cloudXdiEndpoint = BasicCSP.makeCloudXdiEndpoint(this.cspInformation, BenchmarkData.makeCloudNumber(0));
+
+		message.createSetOperation(Arrays.asList(new XDI3Statement[] {
+				XDI3Statement.fromRelationComponents(BenchmarkData.makePeerRootXri(this.cloudNames.get(0)), XDIDictionaryConstants.XRI_S_REF, this.cloudNumberPeerRootXri),
+				XDI3Statement.fromLiteralComponents(XDI3Util.concatXris(this.cloudNumberPeerRootXri, BasicCSP.XRI_S_XDI_URI), cloudXdiEndpoint)
+		}).iterator());
+		message.createOperation(BasicCSP.XRI_S_DO_DIGEST_SECRET_TOKEN, Arrays.asList(new XDI3Statement[] {
+				XDI3Statement.fromLiteralComponents(XDI3Util.concatXris(this.cloudNumberPeerRootXri, BasicCSP.XRI_S_DIGEST_SECRET_TOKEN_VALUE), "s3cr3t")
+		}).iterator());
+
+		return message.getMessageEnvelope();
+	}
+}
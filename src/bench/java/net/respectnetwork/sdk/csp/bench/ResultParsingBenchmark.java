@@ -0,0 +1,117 @@
+package net.respectnetwork.sdk.csp.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import net.respectnetwork.sdk.csp.transport.XDIJSONScanner;
+import xdi2.core.Graph;
+import xdi2.core.Relation;
+import xdi2.core.constants.XDIDictionaryConstants;
+import xdi2.core.features.nodetypes.XdiPeerRoot;
+import xdi2.core.impl.memory.MemoryGraphFactory;
+import xdi2.core.xri3.XDI3Segment;
+
+/**
+ * Measures parsing a registrar response and pulling out the $ref relation and the
+ * Cloud Number of every Cloud Name, the way BasicCSP reads a MessageResult, compared
+ * with scanning the $ref relations from the response with an XDIJSONScanner.
+ * Run with "-prof gc" to compare allocation as well as latency.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResultParsingBenchmark {
+
+	@Param({ "1", "10", "50" })
+	public int batchSize;
+
+	private List<XDI3Segment> cloudNamePeerRootXris;
+	private Set<String> cloudNamePeerRootXriStrings;
+	private Graph resultGraph;
+	private byte[] resultBytes;
+
+	@Setup
+	public void setup() throws Exception {
+
+		List<XDI3Segment> cloudNames = BenchmarkData.makeCloudNames(this.batchSize);
+
+		this.cloudNamePeerRootXris = new ArrayList<XDI3Segment> ();
+		for (int i=0; i<cloudNames.size(); i++) this.cloudNamePeerRootXris.add(BenchmarkData.makePeerRootXri(cloudNames.get(i)));
+
+		this.cloudNamePeerRootXriStrings = new HashSet<String> ();
+		for (int i=0; i<this.cloudNamePeerRootXris.size(); i++) this.cloudNamePeerRootXriStrings.add(this.cloudNamePeerRootXris.get(i).toString());
+
+		this.resultGraph = BenchmarkData.makeRegisteredResultGraph(cloudNames);
+		this.resultBytes = BenchmarkData.serialize(this.resultGraph);
+	}
+
+	@Benchmark
+	public Graph parseResult() throws Exception {
+
+		Graph graph = MemoryGraphFactory.getInstance().openGraph();
+		BenchmarkData.parse(this.resultBytes, graph);
+
+		return graph;
+	}
+
+	@Benchmark
+	public void readCloudNumbers(Blackhole blackhole) {
+
+		readCloudNumbers(this.resultGraph, this.cloudNamePeerRootXris, blackhole);
+	}
+
+	@Benchmark
+	public void parseResultAndReadCloudNumbers(Blackhole blackhole) throws Exception {
+
+		Graph graph = MemoryGraphFactory.getInstance().openGraph();
+		BenchmarkData.parse(this.resultBytes, graph);
+
+		readCloudNumbers(graph, this.cloudNamePeerRootXris, blackhole);
+	}
+
+	@Benchmark
+	public void scanResultAndReadCloudNumbers(Blackhole blackhole) throws Exception {
+
+		Map<String, String> relationTargets = XDIJSONScanner.scanRelations(new InputStreamReader(new ByteArrayInputStream(this.resultBytes), "UTF-8"), XDIDictionaryConstants.XRI_S_REF.toString(), this.cloudNamePeerRootXriStrings);
+
+		for (int i=0; i<this.cloudNamePeerRootXris.size(); i++) {
+
+			XDI3Segment cloudNumberPeerRootXri = XDI3Segment.create(relationTargets.get(this.cloudNamePeerRootXris.get(i).toString()));
+
+			blackhole.consume(XdiPeerRoot.getXriOfPeerRootArcXri(cloudNumberPeerRootXri.getFirstSubSegment()));
+		}
+	}
+
+	private static void readCloudNumbers(Graph graph, List<XDI3Segment> cloudNamePeerRootXris, Blackhole blackhole) {
+
+		for (int i=0; i<cloudNamePeerRootXris.size(); i++) {
+
+			Relation relation = graph.getDeepRelation(cloudNamePeerRootXris.get(i), XDIDictionaryConstants.XRI_S_REF);
+			XDI3Segment cloudNumberPeerRootXri = relation.getTargetContextNodeXri();
+
+			blackhole.consume(XdiPeerRoot.getXriOfPeerRootArcXri(cloudNumberPeerRootXri.getFirstSubSegment()));
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package net.respectnetwork.sdk.csp.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.respectnetwork.sdk.csp.CSPMessageTemplate;
+import xdi2.core.xri3.XDI3Segment;
+import xdi2.messaging.Message;
+import xdi2.messaging.MessageEnvelope;
+
+/**
+ * Measures serializing a checkCloudNamesAvailable MessageEnvelope in the default send format.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+	@Param({ "1", "10", "50" })
+	public int batchSize;
+
+	private MessageEnvelope messageEnvelope;
+
+	@Setup
+	public void setup() {
+
+		List<XDI3Segment> cloudNames = BenchmarkData.makeCloudNames(this.batchSize);
+		Message message = CSPMessageTemplate.forRespectNetworkRegistrationService(BenchmarkData.makeCSPInformation()).createMessage();
+
+		for (int i=0; i<cloudNames.size(); i++) message.createGetOperation(BenchmarkData.makePeerRootXri(cloudNames.get(i)));
+
+		this.messageEnvelope = message.getMessageEnvelope();
+	}
+
+	@Benchmark
+	public byte[] serializeMessageEnvelope() throws Exception {
+
+		return BenchmarkData.serialize(this.messageEnvelope.getGraph());
+	}
+}
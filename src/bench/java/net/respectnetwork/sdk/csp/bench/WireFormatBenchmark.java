@@ -0,0 +1,103 @@
+package net.respectnetwork.sdk.csp.bench;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.respectnetwork.sdk.csp.BasicCSP;
+import net.respectnetwork.sdk.csp.BasicCSPInformation;
+import net.respectnetwork.sdk.csp.CloudNameRegistration;
+import net.respectnetwork.sdk.csp.simulator.CSPSimulator;
+import net.respectnetwork.sdk.csp.transport.PooledXDITransport;
+import net.respectnetwork.sdk.csp.transport.XDICompression;
+import net.respectnetwork.sdk.csp.transport.XDIWireSettings;
+import xdi2.core.xri3.XDI3Segment;
+
+/**
+ * Measures batched availability checks over HTTP against the CSPSimulator for each wire format and
+ * request compression, half of the Cloud Names being registered. The bytes per message on the wire
+ * are printed at the end of each trial, since the time alone hides what a slower link would pay.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WireFormatBenchmark {
+
+	@Param({ XDIWireSettings.MIME_TYPE_XDI_JSON, XDIWireSettings.MIME_TYPE_XDI_JSON_INNER, XDIWireSettings.MIME_TYPE_XDI_DISPLAY })
+	public String mimeType;
+
+	@Param({ "NONE", "GZIP", "DEFLATE" })
+	public XDICompression compression;
+
+	@Param({ "1", "50" })
+	public int batchSize;
+
+	private CSPSimulator simulator;
+	private PooledXDITransport xdiTransport;
+	private BasicCSP basicCSP;
+	private List<XDI3Segment> cloudNames;
+
+	private long requestCount;
+	private long requestBytes;
+	private long responseBytes;
+
+	@Setup
+	public void setup() throws Exception {
+
+		this.simulator = new CSPSimulator();
+		this.simulator.start();
+
+		this.cloudNames = BenchmarkData.makeCloudNames(this.batchSize * 2);
+
+		BasicCSPInformation cspInformation = (BasicCSPInformation) this.simulator.makeCSPInformation();
+		cspInformation.setRespectNetworkRegistrationServiceWireSettings(new XDIWireSettings(this.mimeType, this.mimeType, this.compression, this.compression != XDICompression.NONE));
+
+		this.xdiTransport = new PooledXDITransport();
+		this.basicCSP = new BasicCSP(cspInformation, this.xdiTransport);
+
+		for (int i = 0; i < this.cloudNames.size(); i += 2) this.basicCSP.registerCloudName(this.cloudNames.get(i));
+
+		this.cloudNames = this.cloudNames.subList(this.batchSize / 2, this.batchSize / 2 + this.batchSize);
+
+		this.requestCount = this.simulator.getRequestCount();
+		this.requestBytes = this.simulator.getRequestBytes();
+		this.responseBytes = this.simulator.getResponseBytes();
+	}
+
+	@TearDown
+	public void tearDown() {
+
+		long requestCount = this.simulator.getRequestCount() - this.requestCount;
+
+		if (requestCount > 0) {
+
+			System.out.println();
+			System.out.println("Bytes per request: " + (this.simulator.getRequestBytes() - this.requestBytes) / requestCount + ", per response: " + (this.simulator.getResponseBytes() - this.responseBytes) / requestCount);
+		}
+
+		this.xdiTransport.close();
+		this.simulator.stop();
+	}
+
+	@Benchmark
+	public Map<XDI3Segment, CloudNameRegistration> checkCloudNamesAvailable() throws Exception {
+
+		return this.basicCSP.checkCloudNamesAvailable(this.cloudNames);
+	}
+}
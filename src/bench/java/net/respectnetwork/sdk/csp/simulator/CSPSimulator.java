@@ -0,0 +1,506 @@
+package net.respectnetwork.sdk.csp.simulator;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import net.respectnetwork.sdk.csp.BasicCSP;
+import net.respectnetwork.sdk.csp.BasicCSPInformation;
+import net.respectnetwork.sdk.csp.CSPInformation;
+import net.respectnetwork.sdk.csp.transport.XDICompression;
+import net.respectnetwork.sdk.csp.transport.XDIWireSettings;
+import net.respectnetwork.sdk.csp.util.ExecutorUtil;
+import xdi2.core.Graph;
+import xdi2.core.constants.XDIConstants;
+import xdi2.core.constants.XDIDictionaryConstants;
+import xdi2.core.features.nodetypes.XdiPeerRoot;
+import xdi2.core.impl.memory.MemoryGraphFactory;
+import xdi2.core.io.MimeType;
+import xdi2.core.io.XDIReader;
+import xdi2.core.io.XDIReaderRegistry;
+import xdi2.core.io.XDIWriter;
+import xdi2.core.io.XDIWriterRegistry;
+import xdi2.core.xri3.XDI3Segment;
+import xdi2.core.xri3.XDI3Statement;
+import xdi2.messaging.DoOperation;
+import xdi2.messaging.GetOperation;
+import xdi2.messaging.Message;
+import xdi2.messaging.MessageEnvelope;
+import xdi2.messaging.Operation;
+import xdi2.messaging.SetOperation;
+
+/**
+ * An in-process simulator of the Respect Network Registration Service and a Hosting Environment
+ * Registry, on a local HTTP server. It understands the messages BasicCSP sends:
+ * 
+ * <ul>
+ * <li>$get of a Cloud Name peer root, answered with its $ref relation if registered</li>
+ * <li>$get of a Cloud Number's $xdi&lt;$uri&gt;&amp; literal, answered with the literal if set</li>
+ * <li>$set of a Cloud Name peer root $ref {}, which registers the name with a new Cloud Number</li>
+ * <li>$set of a Cloud Name peer root $ref to a Cloud Number peer root, which registers the name with a Cloud Number generated by the CSP (Registration Service), or hosts it (Hosting Environment)</li>
+ * <li>$set of a Cloud Number's $xdi&lt;$uri&gt;&amp; literal</li>
+ * <li>$do&lt;$digest&gt;&lt;$secret&gt;&lt;$token&gt; with a Cloud Number's secret token</li>
+ * </ul>
+ * 
+ * Requests may be gzip or deflate compressed. Responses are written in the format of the Accept
+ * header if there is a writer for it, and compressed if the Accept-Encoding header allows it.
+ * The bytes of requests and responses are counted as they were on the wire.
+ * 
+ * Each service has a configurable latency distribution and error rate; a failed request is
+ * answered with HTTP 500. Requests are handled by a fixed number of threads, so overload shows
+ * up as queueing just as it would on a real server.
+ */
+public class CSPSimulator {
+
+	private static final Logger log = LoggerFactory.getLogger(CSPSimulator.class);
+
+	public static final String REGISTRATION_SERVICE_PATH = "/registration";
+	public static final String HOSTING_ENVIRONMENT_REGISTRY_PATH = "/registry";
+	public static final String HOSTING_ENVIRONMENT_CLOUD_BASE_PATH = "/users/";
+
+	public static final int DEFAULT_THREADS = 64;
+
+	private final int port;
+	private final Random random;
+
+	private final ConcurrentMap<XDI3Segment, XDI3Segment> registeredCloudNumberPeerRootXris;
+	private final ConcurrentMap<XDI3Segment, XDI3Segment> hostedCloudNumberPeerRootXris;
+	private final ConcurrentMap<XDI3Segment, String> registeredCloudXdiEndpoints;
+	private final ConcurrentMap<XDI3Segment, String> hostedCloudXdiEndpoints;
+	private final ConcurrentMap<XDI3Segment, String> secretTokens;
+
+	private final AtomicLong requestCount;
+	private final AtomicLong errorCount;
+	private final AtomicLong requestBytes;
+	private final AtomicLong responseBytes;
+
+	private int threads;
+	private volatile LatencyDistribution registrationServiceLatency;
+	private volatile LatencyDistribution hostingEnvironmentLatency;
+	private volatile double registrationServiceErrorRate;
+	private volatile double hostingEnvironmentErrorRate;
+
+	private HttpServer httpServer;
+	private ExecutorService executorService;
+
+	/**
+	 * @param port The port to listen on, or 0 for any free port.
+	 */
+	public CSPSimulator(int port) {
+
+		this.port = port;
+		this.random = new Random();
+
+		this.registeredCloudNumberPeerRootXris = new ConcurrentHashMap<XDI3Segment, XDI3Segment> ();
+		this.hostedCloudNumberPeerRootXris = new ConcurrentHashMap<XDI3Segment, XDI3Segment> ();
+		this.registeredCloudXdiEndpoints = new ConcurrentHashMap<XDI3Segment, String> ();
+		this.hostedCloudXdiEndpoints = new ConcurrentHashMap<XDI3Segment, String> ();
+		this.secretTokens = new ConcurrentHashMap<XDI3Segment, String> ();
+
+		this.requestCount = new AtomicLong();
+		this.errorCount = new AtomicLong();
+		this.requestBytes = new AtomicLong();
+		this.responseBytes = new AtomicLong();
+
+		this.threads = DEFAULT_THREADS;
+		this.registrationServiceLatency = LatencyDistribution.NONE;
+		this.hostingEnvironmentLatency = LatencyDistribution.NONE;
+		this.registrationServiceErrorRate = 0;
+		this.hostingEnvironmentErrorRate = 0;
+	}
+
+	public CSPSimulator() {
+
+		this(0);
+	}
+
+	public synchronized void start() throws IOException {
+
+		if (this.httpServer != null) throw new IllegalStateException("Simulator is already started.");
+
+		this.executorService = Executors.newFixedThreadPool(this.threads, ExecutorUtil.newThreadFactory("csp-simulator"));
+
+		this.httpServer = HttpServer.create(new InetSocketAddress("127.0.0.1", this.port), 1024);
+		this.httpServer.createContext(REGISTRATION_SERVICE_PATH, new XdiHandler(true));
+		this.httpServer.createContext(HOSTING_ENVIRONMENT_REGISTRY_PATH, new XdiHandler(false));
+		this.httpServer.setExecutor(this.executorService);
+		this.httpServer.start();
+
+		log.info("CSP simulator listening on " + this.getBaseUrl());
+	}
+
+	public synchronized void stop() {
+
+		if (this.httpServer == null) return;
+
+		this.httpServer.stop(0);
+		this.executorService.shutdownNow();
+
+		this.httpServer = null;
+		this.executorService = null;
+	}
+
+	/**
+	 * Returns a CSPInformation whose endpoints point to this simulator.
+	 */
+	public CSPInformation makeCSPInformation() {
+
+		XDI3Segment cspCloudNumber = XDI3Segment.create("[@]!:uuid:0baea650-823b-2475-0bae-a650823b2475");
+		String cspSecretToken = "s3cr3t";
+
+		return new BasicCSPInformation(
+				cspCloudNumber,
+				cspSecretToken,
+				this.getBaseUrl() + HOSTING_ENVIRONMENT_REGISTRY_PATH,
+				this.getBaseUrl() + HOSTING_ENVIRONMENT_CLOUD_BASE_PATH,
+				this.getBaseUrl() + REGISTRATION_SERVICE_PATH,
+				BasicCSPInformation.DEFAULT_RESPECT_NETWORK_CLOUD_NUMBER);
+	}
+
+	public String getBaseUrl() {
+
+		if (this.httpServer == null) throw new IllegalStateException("Simulator is not started.");
+
+		return "http://127.0.0.1:" + this.httpServer.getAddress().getPort();
+	}
+
+	/**
+	 * Forgets all registered Cloud Names and Clouds.
+	 */
+	public void clear() {
+
+		this.registeredCloudNumberPeerRootXris.clear();
+		this.hostedCloudNumberPeerRootXris.clear();
+		this.registeredCloudXdiEndpoints.clear();
+		this.hostedCloudXdiEndpoints.clear();
+		this.secretTokens.clear();
+	}
+
+	/*
+	 * Message handling
+	 */
+
+	private class XdiHandler implements HttpHandler {
+
+		private final boolean registrationService;
+
+		private XdiHandler(boolean registrationService) {
+
+			this.registrationService = registrationService;
+		}
+
+		public void handle(HttpExchange exchange) throws IOException {
+
+			CSPSimulator.this.requestCount.incrementAndGet();
+
+			try {
+
+				LatencyDistribution latency = this.registrationService ? CSPSimulator.this.registrationServiceLatency : CSPSimulator.this.hostingEnvironmentLatency;
+				double errorRate = this.registrationService ? CSPSimulator.this.registrationServiceErrorRate : CSPSimulator.this.hostingEnvironmentErrorRate;
+
+				long latencyMicros = latency.sampleMicros(CSPSimulator.this.random);
+				if (latencyMicros > 0) TimeUnit.MICROSECONDS.sleep(latencyMicros);
+
+				if (errorRate > 0 && CSPSimulator.this.random.nextDouble() < errorRate) {
+
+					CSPSimulator.this.errorCount.incrementAndGet();
+					exchange.sendResponseHeaders(500, -1);
+
+					return;
+				}
+
+				String recvMimeType = exchange.getRequestHeaders().getFirst("Accept");
+				XDIWriter writer = recvMimeType == null ? null : XDIWriterRegistry.forMimeType(new MimeType(recvMimeType));
+
+				if (writer == null) {
+
+					recvMimeType = XDIWireSettings.DEFAULT.getRecvMimeType();
+					writer = XDIWriterRegistry.forMimeType(new MimeType(recvMimeType));
+				}
+
+				XDICompression responseCompression = responseCompression(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+				byte[] responseBody = responseCompression.compress(CSPSimulator.this.execute(exchange, this.registrationService, writer));
+
+				exchange.getResponseHeaders().set("Content-Type", recvMimeType);
+				if (responseCompression != XDICompression.NONE) exchange.getResponseHeaders().set("Content-Encoding", responseCompression.getContentCoding());
+				exchange.sendResponseHeaders(200, responseBody.length);
+				exchange.getResponseBody().write(responseBody);
+
+				CSPSimulator.this.responseBytes.addAndGet(responseBody.length);
+			} catch (Exception ex) {
+
+				CSPSimulator.this.errorCount.incrementAndGet();
+				if (log.isDebugEnabled()) log.debug("Simulated request failed: " + ex.getMessage(), ex);
+
+				exchange.sendResponseHeaders(500, -1);
+			} finally {
+
+				exchange.close();
+			}
+		}
+	}
+
+	private byte[] execute(HttpExchange exchange, boolean registrationService, XDIWriter writer) throws Exception {
+
+		String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+		String contentEncoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+
+		XDIReader reader = contentType == null ? null : XDIReaderRegistry.forMimeType(new MimeType(contentType));
+		if (reader == null) reader = XDIReaderRegistry.getAuto();
+
+		byte[] requestBody = readFully(exchange.getRequestBody());
+		this.requestBytes.addAndGet(requestBody.length);
+
+		InputStream requestStream = new ByteArrayInputStream(requestBody);
+		if ("gzip".equalsIgnoreCase(contentEncoding)) requestStream = new GZIPInputStream(requestStream);
+		else if ("deflate".equalsIgnoreCase(contentEncoding)) requestStream = new InflaterInputStream(requestStream);
+		else if (contentEncoding != null && ! "identity".equalsIgnoreCase(contentEncoding)) throw new RuntimeException("Unsupported Content-Encoding: " + contentEncoding);
+
+		Graph requestGraph = MemoryGraphFactory.getInstance().openGraph();
+		reader.read(requestGraph, requestStream);
+
+		MessageEnvelope messageEnvelope = MessageEnvelope.fromGraph(requestGraph);
+		Graph resultGraph = MemoryGraphFactory.getInstance().openGraph();
+
+		for (Iterator<Message> messages = messageEnvelope.getMessages(); messages.hasNext(); ) {
+
+			for (Iterator<Operation> operations = messages.next().getOperations(); operations.hasNext(); ) {
+
+				Operation operation = operations.next();
+
+				if (operation instanceof GetOperation) {
+
+					this.executeGet(operation.getTargetAddress(), resultGraph, registrationService);
+				} else if (operation instanceof SetOperation) {
+
+					for (Iterator<XDI3Statement> targetStatements = operation.getTargetStatements(); targetStatements.hasNext(); ) this.executeSet(targetStatements.next(), resultGraph, registrationService);
+				} else if (operation instanceof DoOperation && BasicCSP.XRI_S_DO_DIGEST_SECRET_TOKEN.equals(operation.getOperationXri())) {
+
+					for (Iterator<XDI3Statement> targetStatements = operation.getTargetStatements(); targetStatements.hasNext(); ) this.executeDoDigestSecretToken(targetStatements.next());
+				} else {
+
+					throw new RuntimeException("Unsupported operation: " + operation.getOperationXri());
+				}
+			}
+		}
+
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+		writer.write(resultGraph, buffer);
+
+		return buffer.toByteArray();
+	}
+
+	private static XDICompression responseCompression(String acceptEncoding) {
+
+		if (acceptEncoding == null) return XDICompression.NONE;
+		if (acceptEncoding.contains("gzip")) return XDICompression.GZIP;
+		if (acceptEncoding.contains("deflate")) return XDICompression.DEFLATE;
+
+		return XDICompression.NONE;
+	}
+
+	private static byte[] readFully(InputStream inputStream) throws IOException {
+
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream(1024);
+		byte[] bytes = new byte[4096];
+
+		for (int count; (count = inputStream.read(bytes)) != -1; ) buffer.write(bytes, 0, count);
+
+		return buffer.toByteArray();
+	}
+
+	private void executeGet(XDI3Segment targetAddress, Graph resultGraph, boolean registrationService) {
+
+		if (targetAddress.toString().endsWith(BasicCSP.XRI_S_XDI_URI.toString())) {
+
+			XDI3Segment cloudNumberPeerRootXri = XDI3Segment.fromComponent(targetAddress.getFirstSubSegment());
+			String cloudXdiEndpoint = registrationService ? this.registeredCloudXdiEndpoints.get(cloudNumberPeerRootXri) : this.hostedCloudXdiEndpoints.get(cloudNumberPeerRootXri);
+
+			if (cloudXdiEndpoint != null) resultGraph.setStatement(XDI3Statement.fromLiteralComponents(targetAddress, cloudXdiEndpoint));
+
+			return;
+		}
+
+		XDI3Segment cloudNamePeerRootXri = targetAddress;
+		XDI3Segment cloudNumberPeerRootXri = registrationService ? this.registeredCloudNumberPeerRootXris.get(cloudNamePeerRootXri) : this.hostedCloudNumberPeerRootXris.get(cloudNamePeerRootXri);
+
+		if (cloudNumberPeerRootXri != null) resultGraph.setStatement(XDI3Statement.fromRelationComponents(cloudNamePeerRootXri, XDIDictionaryConstants.XRI_S_REF, cloudNumberPeerRootXri));
+	}
+
+	private void executeSet(XDI3Statement targetStatement, Graph resultGraph, boolean registrationService) {
+
+		if (targetStatement.isRelationStatement() && XDIDictionaryConstants.XRI_S_REF.equals(targetStatement.getPredicate())) {
+
+			XDI3Segment cloudNamePeerRootXri = targetStatement.getContextNodeXri();
+			XDI3Segment cloudNumberPeerRootXri = targetStatement.getTargetContextNodeXri();
+
+			if (XDIConstants.XRI_S_VARIABLE.equals(cloudNumberPeerRootXri)) {
+
+				if (! registrationService) throw new RuntimeException("Cannot assign a Cloud Number in the Hosting Environment.");
+
+				cloudNumberPeerRootXri = XDI3Segment.fromComponent(XdiPeerRoot.createPeerRootArcXri(XDI3Segment.create("[=]!:uuid:" + UUID.randomUUID().toString())));
+
+				if (this.registeredCloudNumberPeerRootXris.putIfAbsent(cloudNamePeerRootXri, cloudNumberPeerRootXri) != null) throw new RuntimeException("Cloud Name " + cloudNamePeerRootXri + " is already registered.");
+			} else {
+
+				if (registrationService) {
+
+					XDI3Segment registeredCloudNumberPeerRootXri = this.registeredCloudNumberPeerRootXris.putIfAbsent(cloudNamePeerRootXri, cloudNumberPeerRootXri);
+					if (registeredCloudNumberPeerRootXri != null && ! registeredCloudNumberPeerRootXri.equals(cloudNumberPeerRootXri)) throw new RuntimeException("Cloud Name " + cloudNamePeerRootXri + " is already registered.");
+				} else {
+
+					this.hostedCloudNumberPeerRootXris.put(cloudNamePeerRootXri, cloudNumberPeerRootXri);
+				}
+			}
+
+			resultGraph.setStatement(XDI3Statement.fromRelationComponents(cloudNamePeerRootXri, XDIDictionaryConstants.XRI_S_REF, cloudNumberPeerRootXri));
+		} else if (targetStatement.isLiteralStatement() && targetStatement.getContextNodeXri().toString().endsWith(BasicCSP.XRI_S_XDI_URI.toString())) {
+
+			if (registrationService) {
+
+				this.registeredCloudXdiEndpoints.put(cloudNumberPeerRootXri(targetStatement), String.valueOf(targetStatement.getLiteralData()));
+			} else {
+
+				this.hostedCloudXdiEndpoints.put(cloudNumberPeerRootXri(targetStatement), String.valueOf(targetStatement.getLiteralData()));
+			}
+		} else {
+
+			throw new RuntimeException("Unsupported $set statement: " + targetStatement);
+		}
+	}
+
+	private void executeDoDigestSecretToken(XDI3Statement targetStatement) {
+
+		if (! targetStatement.isLiteralStatement()) throw new RuntimeException("Unsupported $do statement: " + targetStatement);
+
+		this.secretTokens.put(cloudNumberPeerRootXri(targetStatement), String.valueOf(targetStatement.getLiteralData()));
+	}
+
+	private static XDI3Segment cloudNumberPeerRootXri(XDI3Statement literalStatement) {
+
+		return XDI3Segment.fromComponent(literalStatement.getContextNodeXri().getFirstSubSegment());
+	}
+
+	/*
+	 * Getters and setters
+	 */
+
+	public long getRequestCount() {
+
+		return this.requestCount.get();
+	}
+
+	public long getErrorCount() {
+
+		return this.errorCount.get();
+	}
+
+	/**
+	 * Returns the number of request bytes received, before decompression.
+	 */
+	public long getRequestBytes() {
+
+		return this.requestBytes.get();
+	}
+
+	/**
+	 * Returns the number of response bytes sent, after compression.
+	 */
+	public long getResponseBytes() {
+
+		return this.responseBytes.get();
+	}
+
+	public int getRegisteredCloudNameCount() {
+
+		return this.registeredCloudNumberPeerRootXris.size();
+	}
+
+	/**
+	 * Returns the Cloud XDI URL registered at the Registration Service for a Cloud Number.
+	 */
+	public String getCloudXdiEndpoint(XDI3Segment cloudNumberPeerRootXri) {
+
+		return this.registeredCloudXdiEndpoints.get(cloudNumberPeerRootXri);
+	}
+
+	public String getSecretToken(XDI3Segment cloudNumberPeerRootXri) {
+
+		return this.secretTokens.get(cloudNumberPeerRootXri);
+	}
+
+	public int getThreads() {
+
+		return this.threads;
+	}
+
+	/**
+	 * Sets the number of request handling threads; applies when the simulator is started.
+	 */
+	public void setThreads(int threads) {
+
+		if (threads < 1) throw new IllegalArgumentException("Invalid number of threads: " + threads);
+
+		this.threads = threads;
+	}
+
+	public LatencyDistribution getRegistrationServiceLatency() {
+
+		return this.registrationServiceLatency;
+	}
+
+	public void setRegistrationServiceLatency(LatencyDistribution registrationServiceLatency) {
+
+		this.registrationServiceLatency = registrationServiceLatency;
+	}
+
+	public LatencyDistribution getHostingEnvironmentLatency() {
+
+		return this.hostingEnvironmentLatency;
+	}
+
+	public void setHostingEnvironmentLatency(LatencyDistribution hostingEnvironmentLatency) {
+
+		this.hostingEnvironmentLatency = hostingEnvironmentLatency;
+	}
+
+	public double getRegistrationServiceErrorRate() {
+
+		return this.registrationServiceErrorRate;
+	}
+
+	public void setRegistrationServiceErrorRate(double registrationServiceErrorRate) {
+
+		this.registrationServiceErrorRate = registrationServiceErrorRate;
+	}
+
+	public double getHostingEnvironmentErrorRate() {
+
+		return this.hostingEnvironmentErrorRate;
+	}
+
+	public void setHostingEnvironmentErrorRate(double hostingEnvironmentErrorRate) {
+
+		this.hostingEnvironmentErrorRate = hostingEnvironmentErrorRate;
+	}
+}
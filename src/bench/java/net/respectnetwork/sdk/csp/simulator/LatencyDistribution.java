@@ -0,0 +1,87 @@
+package net.respectnetwork.sdk.csp.simulator;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A distribution of simulated service latencies.
+ */
+public abstract class LatencyDistribution {
+
+	/**
+	 * Z-score of the 99th percentile of a standard normal distribution.
+	 */
+	private static final double Z_99 = 2.326347874d;
+
+	public static final LatencyDistribution NONE = fixed(0);
+
+	/**
+	 * Returns a latency in microseconds.
+	 */
+	public abstract long sampleMicros(Random random);
+
+	public static LatencyDistribution fixed(final long millis) {
+
+		return new LatencyDistribution() {
+
+			@Override
+			public long sampleMicros(Random random) {
+
+				return TimeUnit.MILLISECONDS.toMicros(millis);
+			}
+
+			@Override
+			public String toString() {
+
+				return "fixed(" + millis + "ms)";
+			}
+		};
+	}
+
+	public static LatencyDistribution uniform(final long minMillis, final long maxMillis) {
+
+		if (maxMillis < minMillis) throw new IllegalArgumentException("Invalid latency range: " + minMillis + ".." + maxMillis);
+
+		return new LatencyDistribution() {
+
+			@Override
+			public long sampleMicros(Random random) {
+
+				return TimeUnit.MILLISECONDS.toMicros(minMillis) + (long) (random.nextDouble() * TimeUnit.MILLISECONDS.toMicros(maxMillis - minMillis));
+			}
+
+			@Override
+			public String toString() {
+
+				return "uniform(" + minMillis + "ms.." + maxMillis + "ms)";
+			}
+		};
+	}
+
+	/**
+	 * A log-normal distribution with the given median and 99th percentile, which has the long tail
+	 * typical of real services.
+	 */
+	public static LatencyDistribution logNormal(final double medianMillis, final double p99Millis) {
+
+		if (medianMillis <= 0 || p99Millis < medianMillis) throw new IllegalArgumentException("Invalid latency percentiles: " + medianMillis + "/" + p99Millis);
+
+		final double mu = Math.log(medianMillis * 1000d);
+		final double sigma = Math.log(p99Millis / medianMillis) / Z_99;
+
+		return new LatencyDistribution() {
+
+			@Override
+			public long sampleMicros(Random random) {
+
+				return (long) Math.exp(mu + sigma * random.nextGaussian());
+			}
+
+			@Override
+			public String toString() {
+
+				return "logNormal(p50=" + medianMillis + "ms, p99=" + p99Millis + "ms)";
+			}
+		};
+	}
+}
@@ -0,0 +1,272 @@
+package net.respectnetwork.sdk.csp.simulator;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.respectnetwork.sdk.csp.BasicCSP;
+import net.respectnetwork.sdk.csp.CSP;
+import net.respectnetwork.sdk.csp.CloudNameRegistration;
+import net.respectnetwork.sdk.csp.CloudRegistration;
+import net.respectnetwork.sdk.csp.metrics.Histogram;
+import net.respectnetwork.sdk.csp.transport.PooledXDITransport;
+import net.respectnetwork.sdk.csp.util.TokenBucket;
+import xdi2.core.xri3.XDI3Segment;
+
+/**
+ * Runs a CSP operation on fresh Cloud Names from a number of threads, optionally at a target rate,
+ * and reports throughput and latency percentiles.
+ * 
+ * Without a target rate every thread runs operations back to back (closed loop); with one, the
+ * threads share a TokenBucket and latency is measured from each operation's scheduled start.
+ */
+public class LoadDriver {
+
+	public static final int DEFAULT_CONCURRENCY = 16;
+	public static final long DEFAULT_DURATION_MILLIS = 10000;
+
+	private final CSP csp;
+	private final LoadOperation operation;
+
+	private int concurrency;
+	private double targetRate;
+	private long durationMillis;
+	private String secretToken;
+
+	private final AtomicLong nameCounter;
+
+	public LoadDriver(CSP csp, LoadOperation operation) {
+
+		this.csp = csp;
+		this.operation = operation;
+
+		this.concurrency = DEFAULT_CONCURRENCY;
+		this.targetRate = 0;
+		this.durationMillis = DEFAULT_DURATION_MILLIS;
+		this.secretToken = "s3cr3t";
+
+		this.nameCounter = new AtomicLong();
+	}
+
+	public LoadReport run() throws InterruptedException {
+
+		final TokenBucket tokenBucket = this.targetRate > 0 ? new TokenBucket(this.targetRate, 1) : null;
+		final Histogram latency = new Histogram();
+		final AtomicLong operationCount = new AtomicLong();
+		final AtomicLong errorCount = new AtomicLong();
+		final ConcurrentMap<String, AtomicLong> errorCountsByType = new ConcurrentHashMap<String, AtomicLong> ();
+		final String runId = Long.toString(System.currentTimeMillis(), 36);
+
+		final long start = System.nanoTime();
+		final long deadline = start + TimeUnit.MILLISECONDS.toNanos(this.durationMillis);
+
+		List<Thread> threads = new ArrayList<Thread> ();
+
+		for (int i=0; i<this.concurrency; i++) {
+
+			Thread thread = new Thread("load-driver-" + i) {
+
+				@Override
+				public void run() {
+
+					while (true) {
+
+						long scheduled = System.nanoTime();
+
+						if (tokenBucket != null) {
+
+							long waitNanos = tokenBucket.reserve();
+							scheduled += waitNanos;
+
+							try {
+
+								if (waitNanos > 0) TimeUnit.NANOSECONDS.sleep(waitNanos);
+							} catch (InterruptedException ex) {
+
+								return;
+							}
+						}
+
+						if (scheduled >= deadline) return;
+
+						operationCount.incrementAndGet();
+
+						try {
+
+							LoadDriver.this.execute(XDI3Segment.create("=load." + runId + "." + LoadDriver.this.nameCounter.incrementAndGet()));
+						} catch (Exception ex) {
+
+							errorCount.incrementAndGet();
+
+							String type = ex.getClass().getSimpleName();
+							AtomicLong counter = errorCountsByType.putIfAbsent(type, new AtomicLong(1));
+							if (counter != null) counter.incrementAndGet();
+						}
+
+						latency.record(System.nanoTime() - scheduled);
+					}
+				}
+			};
+
+			thread.setDaemon(true);
+			thread.start();
+			threads.add(thread);
+		}
+
+		for (Thread thread : threads) thread.join();
+
+		long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		Map<String, Long> errorCounts = new TreeMap<String, Long> ();
+		for (Map.Entry<String, AtomicLong> entry : errorCountsByType.entrySet()) errorCounts.put(entry.getKey(), Long.valueOf(entry.getValue().get()));
+
+		return new LoadReport(this.operation, operationCount.get(), errorCount.get(), elapsedMillis, latency, errorCounts);
+	}
+
+	private void execute(XDI3Segment cloudName) throws Exception {
+
+		switch (this.operation) {
+
+			case CHECK_CLOUD_NAME_AVAILABLE:
+
+				this.csp.checkCloudNameAvailable(cloudName);
+				break;
+
+			case REGISTER_CLOUD_NAME:
+
+				this.csp.registerCloudName(cloudName);
+				break;
+
+			case PROVISION_CLOUD:
+
+				CloudNameRegistration cloudNameRegistration = this.csp.registerCloudName(cloudName);
+				CloudRegistration cloudRegistration = this.csp.registerCloud(cloudNameRegistration, this.secretToken);
+				this.csp.registerCloudXdiUrl(cloudNameRegistration, cloudRegistration);
+				break;
+		}
+	}
+
+	/**
+	 * Starts a CSPSimulator, runs a LoadDriver against it through a PooledXDITransport, and prints the report.
+	 * Arguments are key=value pairs: operation, concurrency, rate, seconds, threads (simulator threads),
+	 * p50 and p99 (simulated latency in milliseconds) and errorRate.
+	 */
+	public static void main(String[] args) throws Exception {
+
+		Map<String, String> arguments = new HashMap<String, String> ();
+
+		for (String arg : args) {
+
+			int index = arg.indexOf('=');
+			if (index < 1) throw new IllegalArgumentException("Invalid argument (expected key=value): " + arg);
+
+			arguments.put(arg.substring(0, index), arg.substring(index + 1));
+		}
+
+		CSPSimulator simulator = new CSPSimulator();
+		simulator.setThreads(Integer.parseInt(argument(arguments, "threads", Integer.toString(CSPSimulator.DEFAULT_THREADS))));
+
+		double p50 = Double.parseDouble(argument(arguments, "p50", "0"));
+		double p99 = Double.parseDouble(argument(arguments, "p99", Double.toString(p50)));
+		double errorRate = Double.parseDouble(argument(arguments, "errorRate", "0"));
+
+		LatencyDistribution latency = p50 > 0 ? LatencyDistribution.logNormal(p50, p99) : LatencyDistribution.NONE;
+
+		simulator.setRegistrationServiceLatency(latency);
+		simulator.setHostingEnvironmentLatency(latency);
+		simulator.setRegistrationServiceErrorRate(errorRate);
+		simulator.setHostingEnvironmentErrorRate(errorRate);
+		simulator.start();
+
+		PooledXDITransport xdiTransport = new PooledXDITransport();
+
+		try {
+
+			LoadDriver loadDriver = new LoadDriver(new BasicCSP(simulator.makeCSPInformation(), xdiTransport), LoadOperation.valueOf(argument(arguments, "operation", LoadOperation.CHECK_CLOUD_NAME_AVAILABLE.name())));
+			loadDriver.setConcurrency(Integer.parseInt(argument(arguments, "concurrency", Integer.toString(DEFAULT_CONCURRENCY))));
+			loadDriver.setTargetRate(Double.parseDouble(argument(arguments, "rate", "0")));
+			loadDriver.setDurationMillis(TimeUnit.SECONDS.toMillis(Long.parseLong(argument(arguments, "seconds", Long.toString(TimeUnit.MILLISECONDS.toSeconds(DEFAULT_DURATION_MILLIS))))));
+
+			System.out.println("Simulated latency " + latency + ", error rate " + errorRate);
+			System.out.print(loadDriver.run());
+		} finally {
+
+			xdiTransport.close();
+			simulator.stop();
+		}
+	}
+
+	private static String argument(Map<String, String> arguments, String key, String defaultValue) {
+
+		String value = arguments.get(key);
+
+		return value == null ? defaultValue : value;
+	}
+
+	/*
+	 * Getters and setters
+	 */
+
+	public CSP getCsp() {
+
+		return this.csp;
+	}
+
+	public LoadOperation getOperation() {
+
+		return this.operation;
+	}
+
+	public int getConcurrency() {
+
+		return this.concurrency;
+	}
+
+	public void setConcurrency(int concurrency) {
+
+		if (concurrency < 1) throw new IllegalArgumentException("Invalid concurrency: " + concurrency);
+
+		this.concurrency = concurrency;
+	}
+
+	public double getTargetRate() {
+
+		return this.targetRate;
+	}
+
+	/**
+	 * Sets the target number of operations per second, or 0 to run as fast as the threads allow.
+	 */
+	public void setTargetRate(double targetRate) {
+
+		this.targetRate = targetRate;
+	}
+
+	public long getDurationMillis() {
+
+		return this.durationMillis;
+	}
+
+	public void setDurationMillis(long durationMillis) {
+
+		if (durationMillis < 1) throw new IllegalArgumentException("Invalid duration: " + durationMillis);
+
+		this.durationMillis = durationMillis;
+	}
+
+	public String getSecretToken() {
+
+		return this.secretToken;
+	}
+
+	public void setSecretToken(String secretToken) {
+
+		this.secretToken = secretToken;
+	}
+}
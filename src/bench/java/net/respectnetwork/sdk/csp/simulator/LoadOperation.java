@@ -0,0 +1,22 @@
+package net.respectnetwork.sdk.csp.simulator;
+
+/**
+ * The CSP operations a LoadDriver can run.
+ */
+public enum LoadOperation {
+
+	/**
+	 * checkCloudNameAvailable of a fresh Cloud Name.
+	 */
+	CHECK_CLOUD_NAME_AVAILABLE,
+
+	/**
+	 * registerCloudName of a fresh Cloud Name.
+	 */
+	REGISTER_CLOUD_NAME,
+
+	/**
+	 * registerCloudName, registerCloud and registerCloudXdiUrl of a fresh Cloud Name.
+	 */
+	PROVISION_CLOUD
+}
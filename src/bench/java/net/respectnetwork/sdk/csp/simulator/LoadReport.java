@@ -0,0 +1,87 @@
+package net.respectnetwork.sdk.csp.simulator;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import net.respectnetwork.sdk.csp.metrics.Histogram;
+
+/**
+ * The result of a LoadDriver run. Latencies are measured from when an operation was due to start,
+ * so time spent waiting behind a slow operation at a target rate is included.
+ */
+public class LoadReport {
+
+	private final LoadOperation operation;
+	private final long operationCount;
+	private final long errorCount;
+	private final long elapsedMillis;
+	private final Histogram latency;
+	private final Map<String, Long> errorCountsByType;
+
+	public LoadReport(LoadOperation operation, long operationCount, long errorCount, long elapsedMillis, Histogram latency, Map<String, Long> errorCountsByType) {
+
+		this.operation = operation;
+		this.operationCount = operationCount;
+		this.errorCount = errorCount;
+		this.elapsedMillis = elapsedMillis;
+		this.latency = latency;
+		this.errorCountsByType = errorCountsByType;
+	}
+
+	public LoadOperation getOperation() {
+
+		return this.operation;
+	}
+
+	public long getOperationCount() {
+
+		return this.operationCount;
+	}
+
+	public long getErrorCount() {
+
+		return this.errorCount;
+	}
+
+	public long getElapsedMillis() {
+
+		return this.elapsedMillis;
+	}
+
+	/**
+	 * Returns the number of successful operations per second.
+	 */
+	public double getThroughput() {
+
+		return this.elapsedMillis == 0 ? 0 : (this.operationCount - this.errorCount) * 1000d / this.elapsedMillis;
+	}
+
+	public double getLatencyMillis(double fraction) {
+
+		return this.latency.getPercentile(fraction) / (double) TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	public Histogram getLatency() {
+
+		return this.latency;
+	}
+
+	public Map<String, Long> getErrorCountsByType() {
+
+		return this.errorCountsByType;
+	}
+
+	@Override
+	public String toString() {
+
+		StringBuilder buffer = new StringBuilder();
+
+		buffer.append(this.operation + ": " + this.operationCount + " operations, " + this.errorCount + " errors in " + this.elapsedMillis + " ms\n");
+		buffer.append(String.format("throughput: %.1f/s\n", Double.valueOf(this.getThroughput())));
+		buffer.append(String.format("latency: p50=%.2fms p99=%.2fms p999=%.2fms max=%.2fms\n", Double.valueOf(this.getLatencyMillis(0.5d)), Double.valueOf(this.getLatencyMillis(0.99d)), Double.valueOf(this.getLatencyMillis(0.999d)), Double.valueOf(this.latency.getMax() / (double) TimeUnit.MILLISECONDS.toNanos(1))));
+
+		for (Map.Entry<String, Long> entry : this.errorCountsByType.entrySet()) buffer.append("errors: " + entry.getKey() + " x " + entry.getValue() + "\n");
+
+		return buffer.toString();
+	}
+}
@@ -0,0 +1,24 @@
+package net.respectnetwork.sdk.csp;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+import xdi2.core.xri3.XDI3Segment;
+
+/**
+ * This interface represents the asynchronous variant of the CSP-related functionality of this SDK.
+ * Every call returns immediately with a Future; an Xdi2ClientException thrown by the
+ * underlying call is reported as the cause of the Future's ExecutionException.
+ */
+public interface AsyncCSP {
+
+	public Future<CloudNameRegistration> checkCloudNameAvailable(XDI3Segment cloudName);
+	public Future<Map<XDI3Segment, CloudNameRegistration>> checkCloudNamesAvailable(Collection<XDI3Segment> cloudNames);
+	public Future<CloudNameRegistration> registerCloudName(XDI3Segment cloudName);
+	public Future<CloudNameRegistration> registerCloudName(XDI3Segment cloudName, XDI3Segment cloudNumber);
+	public Future<CloudRegistration> registerCloud(CloudNameRegistration cloudNameRegistration, String secretToken);
+	public Future<Void> registerCloudXdiUrl(CloudNameRegistration cloudNameRegistration, CloudRegistration cloudRegistration);
+	public Future<Void> generateCloudSecretToken(CloudNameRegistration cloudNameRegistration, String secretToken);
+	public Future<Void> generateCloudSecretTokens(Map<CloudNameRegistration, String> secretTokens);
+}
@@ -0,0 +1,170 @@
+package net.respectnetwork.sdk.csp;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import net.respectnetwork.sdk.csp.util.ExecutorUtil;
+import xdi2.core.xri3.XDI3Segment;
+
+/**
+ * An AsyncCSP that runs the calls of a CSP on a bounded executor.
+ * If no executor is given, one is created that uses virtual threads when the JVM supports them.
+ */
+public class BasicAsyncCSP implements AsyncCSP {
+
+	public static final int DEFAULT_MAX_CONCURRENCY = 256;
+	public static final int DEFAULT_QUEUE_CAPACITY = 4096;
+
+	private BatchCSP csp;
+	private ExecutorService executorService;
+
+	public BasicAsyncCSP(BatchCSP csp, ExecutorService executorService) {
+
+		this.csp = csp;
+		this.executorService = executorService;
+	}
+
+	public BasicAsyncCSP(BatchCSP csp, int maxConcurrency, int queueCapacity) {
+
+		this(csp, ExecutorUtil.newBoundedExecutorService("csp-async", maxConcurrency, queueCapacity));
+	}
+
+	public BasicAsyncCSP(BatchCSP csp) {
+
+		this(csp, DEFAULT_MAX_CONCURRENCY, DEFAULT_QUEUE_CAPACITY);
+	}
+
+	public BasicAsyncCSP(CSPInformation cspInformation) {
+
+		this(new BasicCSP(cspInformation));
+	}
+
+	public Future<CloudNameRegistration> checkCloudNameAvailable(final XDI3Segment cloudName) {
+
+		return this.getExecutorService().submit(new Callable<CloudNameRegistration>() {
+
+			public CloudNameRegistration call() throws Exception {
+
+				return BasicAsyncCSP.this.getCsp().checkCloudNameAvailable(cloudName);
+			}
+		});
+	}
+
+	public Future<Map<XDI3Segment, CloudNameRegistration>> checkCloudNamesAvailable(final Collection<XDI3Segment> cloudNames) {
+
+		return this.getExecutorService().submit(new Callable<Map<XDI3Segment, CloudNameRegistration>>() {
+
+			public Map<XDI3Segment, CloudNameRegistration> call() throws Exception {
+
+				return BasicAsyncCSP.this.getCsp().checkCloudNamesAvailable(cloudNames);
+			}
+		});
+	}
+
+	public Future<CloudNameRegistration> registerCloudName(final XDI3Segment cloudName) {
+
+		return this.getExecutorService().submit(new Callable<CloudNameRegistration>() {
+
+			public CloudNameRegistration call() throws Exception {
+
+				return BasicAsyncCSP.this.getCsp().registerCloudName(cloudName);
+			}
+		});
+	}
+
+	public Future<CloudNameRegistration> registerCloudName(final XDI3Segment cloudName, final XDI3Segment cloudNumber) {
+
+		return this.getExecutorService().submit(new Callable<CloudNameRegistration>() {
+
+			public CloudNameRegistration call() throws Exception {
+
+				return BasicAsyncCSP.this.getCsp().registerCloudName(cloudName, cloudNumber);
+			}
+		});
+	}
+
+	public Future<CloudRegistration> registerCloud(final CloudNameRegistration cloudNameRegistration, final String secretToken) {
+
+		return this.getExecutorService().submit(new Callable<CloudRegistration>() {
+
+			public CloudRegistration call() throws Exception {
+
+				return BasicAsyncCSP.this.getCsp().registerCloud(cloudNameRegistration, secretToken);
+			}
+		});
+	}
+
+	public Future<Void> registerCloudXdiUrl(final CloudNameRegistration cloudNameRegistration, final CloudRegistration cloudRegistration) {
+
+		return this.getExecutorService().submit(new Callable<Void>() {
+
+			public Void call() throws Exception {
+
+				BasicAsyncCSP.this.getCsp().registerCloudXdiUrl(cloudNameRegistration, cloudRegistration);
+
+				return null;
+			}
+		});
+	}
+
+	public Future<Void> generateCloudSecretToken(final CloudNameRegistration cloudNameRegistration, final String secretToken) {
+
+		return this.getExecutorService().submit(new Callable<Void>() {
+
+			public Void call() throws Exception {
+
+				BasicAsyncCSP.this.getCsp().generateCloudSecretToken(cloudNameRegistration, secretToken);
+
+				return null;
+			}
+		});
+	}
+
+	public Future<Void> generateCloudSecretTokens(final Map<CloudNameRegistration, String> secretTokens) {
+
+		return this.getExecutorService().submit(new Callable<Void>() {
+
+			public Void call() throws Exception {
+
+				BasicAsyncCSP.this.getCsp().generateCloudSecretTokens(secretTokens);
+
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Stops accepting new calls. Calls that are already submitted still complete.
+	 */
+	public void shutdown() {
+
+		this.getExecutorService().shutdown();
+	}
+
+	/*
+	 * Getters and setters
+	 */
+
+	public BatchCSP getCsp() {
+
+		return this.csp;
+	}
+
+	public void setCsp(BatchCSP csp) {
+
+		this.csp = csp;
+	}
+
+	public ExecutorService getExecutorService() {
+
+		return this.executorService;
+	}
+
+	public void setExecutorService(ExecutorService executorService) {
+
+		this.executorService = executorService;
+	}
+}
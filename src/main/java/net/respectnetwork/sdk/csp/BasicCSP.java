@@ -2,14 +2,29 @@ package net.respectnetwork.sdk.csp;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import net.respectnetwork.sdk.csp.metrics.CSPMetrics;
+import net.respectnetwork.sdk.csp.metrics.OperationMetrics;
+import net.respectnetwork.sdk.csp.transport.LoadBalancingXDIClient;
+import net.respectnetwork.sdk.csp.transport.StreamingMessageResult;
+import net.respectnetwork.sdk.csp.transport.XDIHttpTransport;
+import net.respectnetwork.sdk.csp.transport.XDITransport;
+import net.respectnetwork.sdk.csp.transport.XDIWireSettings;
 import xdi2.client.XDIClient;
 import xdi2.client.exceptions.Xdi2ClientException;
 import xdi2.client.http.XDIHttpClient;
+import xdi2.core.Literal;
 import xdi2.core.Relation;
 import xdi2.core.constants.XDIAuthenticationConstants;
 import xdi2.core.constants.XDIConstants;
@@ -19,173 +34,819 @@ import xdi2.core.util.XDI3Util;
 import xdi2.core.xri3.XDI3Segment;
 import xdi2.core.xri3.XDI3Statement;
 import xdi2.messaging.Message;
-import xdi2.messaging.MessageEnvelope;
 import xdi2.messaging.MessageResult;
 
-public class BasicCSP implements CSP {
+public class BasicCSP implements BatchCSP {
 
 	private static final Logger log = LoggerFactory.getLogger(BasicCSP.class);
 
 	public static final XDI3Segment REGISTRAR_LINK_CONTRACT = XDI3Segment.create("+registrar$do");
+	public static final XDI3Segment HOSTING_ENVIRONMENT_LINK_CONTRACT = XDI3Segment.create("$do");
+
+	public static final XDI3Segment XRI_S_XDI_URI = XDI3Segment.create("$xdi<$uri>&");
+	public static final XDI3Segment XRI_S_DO_DIGEST_SECRET_TOKEN = XDI3Segment.create("$do<$digest><$secret><$token>");
+	public static final XDI3Segment XRI_S_DIGEST_SECRET_TOKEN_VALUE = XDI3Util.concatXris(XDIAuthenticationConstants.XRI_S_DIGEST_SECRET_TOKEN, XDIConstants.XRI_S_VALUE);
+
+	public static final int DEFAULT_MAX_OPERATIONS_PER_MESSAGE = 50;
+
+	public static final String OPERATION_CHECK_CLOUD_NAME_AVAILABLE = "checkCloudNameAvailable";
+	public static final String OPERATION_CHECK_CLOUD_NAMES_AVAILABLE = "checkCloudNamesAvailable";
+	public static final String OPERATION_REGISTER_CLOUD_NAME = "registerCloudName";
+	public static final String OPERATION_REGISTER_CLOUD_NAME_WITH_CLOUD_NUMBER = "registerCloudNameWithCloudNumber";
+	public static final String OPERATION_REGISTER_CLOUD = "registerCloud";
+	public static final String OPERATION_REGISTER_CLOUD_XDI_URL = "registerCloudXdiUrl";
+	public static final String OPERATION_GENERATE_CLOUD_SECRET_TOKEN = "generateCloudSecretToken";
+	public static final String OPERATION_GENERATE_CLOUD_SECRET_TOKENS = "generateCloudSecretTokens";
+	public static final String OPERATION_CHECK_CLOUD_NAMES_HOSTED = "checkCloudNamesHosted";
+	public static final String OPERATION_GET_CLOUD_XDI_URLS = "getCloudXdiUrls";
 	
-	private CSPInformation cspInformation;
-
-	private XDIClient xdiClientRespectNetworkRegistrationService;
-	private XDIClient xdiClientHostingEnvironmentRegistry;
+	private volatile Configuration configuration;
+	private int maxOperationsPerMessage;
+	private volatile CSPMetrics metrics;
+	private boolean streamingResults;
 
 	public BasicCSP(CSPInformation cspInformation) {
 
-		this.cspInformation = cspInformation;
+		this.maxOperationsPerMessage = DEFAULT_MAX_OPERATIONS_PER_MESSAGE;
+		this.streamingResults = true;
+
+		this.configuration = new Configuration(
+				cspInformation,
+				makeXdiClient(getRespectNetworkRegistrationServiceXdiEndpoints(cspInformation), getRespectNetworkRegistrationServiceWireSettings(cspInformation)),
+				makeXdiClient(getHostingEnvironmentRegistryXdiEndpoints(cspInformation), getHostingEnvironmentRegistryWireSettings(cspInformation)));
+	}
+
+	/**
+	 * Creates a CSP that obtains its XDI clients from the given transport.
+	 * Use this with a shared PooledXDITransport to reuse connections across CSP objects.
+	 * Services with several XDI endpoints are reached through a LoadBalancingXDIClient over the transport.
+	 */
+	public BasicCSP(CSPInformation cspInformation, XDITransport xdiTransport) {
+
+		this.maxOperationsPerMessage = DEFAULT_MAX_OPERATIONS_PER_MESSAGE;
+		this.streamingResults = true;
 
-		this.xdiClientHostingEnvironmentRegistry = new XDIHttpClient(cspInformation.getHostingEnvironmentRegistryXdiEndpoint());
-		this.xdiClientRespectNetworkRegistrationService = new XDIHttpClient(cspInformation.getRespectNetworkRegistrationServiceXdiEndpoint());
+		this.configuration = new Configuration(
+				cspInformation,
+				makeXdiClient(getRespectNetworkRegistrationServiceXdiEndpoints(cspInformation), xdiTransport, getRespectNetworkRegistrationServiceWireSettings(cspInformation)),
+				makeXdiClient(getHostingEnvironmentRegistryXdiEndpoints(cspInformation), xdiTransport, getHostingEnvironmentRegistryWireSettings(cspInformation)));
+	}
+
+	/**
+	 * Creates a CSP that uses the given XDI clients, e.g. ones shared with other CSP objects.
+	 */
+	public BasicCSP(CSPInformation cspInformation, XDIClient xdiClientRespectNetworkRegistrationService, XDIClient xdiClientHostingEnvironmentRegistry) {
+
+		this.maxOperationsPerMessage = DEFAULT_MAX_OPERATIONS_PER_MESSAGE;
+		this.streamingResults = true;
+
+		this.configuration = new Configuration(cspInformation, xdiClientRespectNetworkRegistrationService, xdiClientHostingEnvironmentRegistry);
 	}
 
 	public CloudNameRegistration checkCloudNameAvailable(XDI3Segment cloudName) throws Xdi2ClientException {
 
-		XDI3Segment cloudNamePeerRootXri;
-		XDI3Segment cloudNumberPeerRootXri;
-		XDI3Segment cloudNumber;
+		OperationMetrics metrics = this.getOperationMetrics(OPERATION_CHECK_CLOUD_NAME_AVAILABLE);
+		long start = System.nanoTime();
 
-		MessageEnvelope messageEnvelope = new MessageEnvelope();
+		try {
 
-		Message message = messageEnvelope.createMessage(this.getCspInformation().getCspCloudNumber());
-		message.setToAuthority(XDI3Segment.fromComponent(XdiPeerRoot.createPeerRootArcXri(this.getCspInformation().getRespectNetworkCloudNumber())));
-		message.setLinkContractXri(REGISTRAR_LINK_CONTRACT);
-		message.getContextNode().setDeepLiteral(XDI3Util.concatXris(XDIAuthenticationConstants.XRI_S_SECRET_TOKEN, XDIConstants.XRI_S_VALUE), this.getCspInformation().getCspSecretToken());
+			XDI3Segment cloudNamePeerRootXri;
 
-		cloudNamePeerRootXri = XDI3Segment.fromComponent(XdiPeerRoot.createPeerRootArcXri(cloudName));
+			Configuration configuration = this.getConfiguration();
 
-		XDI3Segment targetAddress = cloudNamePeerRootXri;
+			Message message = configuration.getRespectNetworkRegistrationServiceMessageTemplate().createMessage();
 
-		message.createGetOperation(targetAddress);
+			cloudNamePeerRootXri = XDI3Segment.fromComponent(XdiPeerRoot.createPeerRootArcXri(cloudName));
 
-		MessageResult messageResult = this.getXdiClientRespectNetworkRegistrationService().send(message.getMessageEnvelope(), null);
+			XDI3Segment targetAddress = cloudNamePeerRootXri;
 
-		Relation relation = messageResult.getGraph().getDeepRelation(cloudNamePeerRootXri, XDIDictionaryConstants.XRI_S_REF);
+			message.createGetOperation(targetAddress);
 
-		if (relation == null) {
+			MessageResult messageResult = send(configuration.getXdiClientRespectNetworkRegistrationService(), message, this.newMessageResult(Collections.singleton(cloudNamePeerRootXri)), 1, metrics, start);
 
-			log.debug("Cloud Name " + cloudName + " is available");
+			long parseStart = System.nanoTime();
+			CloudNameRegistration cloudNameRegistration = readCloudNameAvailable(messageResult, cloudName, cloudNamePeerRootXri);
+			recordSuccess(metrics, start, parseStart);
 
-			return null;
-		} else {
+			return cloudNameRegistration;
+		} catch (Xdi2ClientException ex) {
+
+			recordError(metrics, start, ex);
+			throw ex;
+		} catch (RuntimeException ex) {
+
+			recordError(metrics, start, ex);
+			throw ex;
+		}
+	}
+
+	public Map<XDI3Segment, CloudNameRegistration> checkCloudNamesAvailable(Collection<XDI3Segment> cloudNames) throws Xdi2ClientException {
+
+		Map<XDI3Segment, CloudNameRegistration> cloudNameRegistrations = new LinkedHashMap<XDI3Segment, CloudNameRegistration> ();
+
+		Iterator<XDI3Segment> cloudNamesIterator = cloudNames.iterator();
+
+		while (cloudNamesIterator.hasNext()) {
+
+			OperationMetrics metrics = this.getOperationMetrics(OPERATION_CHECK_CLOUD_NAMES_AVAILABLE);
+			long start = System.nanoTime();
+
+			try {
+
+				List<XDI3Segment> chunkCloudNames = new ArrayList<XDI3Segment> ();
+				List<XDI3Segment> chunkCloudNamePeerRootXris = new ArrayList<XDI3Segment> ();
+
+				Configuration configuration = this.getConfiguration();
+
+				Message message = configuration.getRespectNetworkRegistrationServiceMessageTemplate().createMessage();
+
+				while (cloudNamesIterator.hasNext() && chunkCloudNames.size() < this.getMaxOperationsPerMessage()) {
+
+					XDI3Segment cloudName = cloudNamesIterator.next();
+					if (cloudNameRegistrations.containsKey(cloudName) || chunkCloudNames.contains(cloudName)) continue;
+
+					XDI3Segment cloudNamePeerRootXri = XDI3Segment.fromComponent(XdiPeerRoot.createPeerRootArcXri(cloudName));
+
+					message.createGetOperation(cloudNamePeerRootXri);
+
+					chunkCloudNames.add(cloudName);
+					chunkCloudNamePeerRootXris.add(cloudNamePeerRootXri);
+				}
+
+				if (chunkCloudNames.isEmpty()) continue;
+
+				MessageResult messageResult = send(configuration.getXdiClientRespectNetworkRegistrationService(), message, this.newMessageResult(chunkCloudNamePeerRootXris), chunkCloudNames.size(), metrics, start);
+
+				long parseStart = System.nanoTime();
+
+				for (int i=0; i<chunkCloudNames.size(); i++) {
+
+					XDI3Segment cloudName = chunkCloudNames.get(i);
+
+					cloudNameRegistrations.put(cloudName, readCloudNameAvailable(messageResult, cloudName, chunkCloudNamePeerRootXris.get(i)));
+				}
+
+				recordSuccess(metrics, start, parseStart);
+
+				if (log.isDebugEnabled()) log.debug("Checked availability of " + chunkCloudNames.size() + " Cloud Names in one message");
+			} catch (Xdi2ClientException ex) {
+
+				recordError(metrics, start, ex);
+				throw ex;
+			} catch (RuntimeException ex) {
+
+				recordError(metrics, start, ex);
+				throw ex;
+			}
+		}
+
+		return cloudNameRegistrations;
+	}
+
+	public CloudNameRegistration registerCloudName(XDI3Segment cloudName) throws Xdi2ClientException {
+
+		OperationMetrics metrics = this.getOperationMetrics(OPERATION_REGISTER_CLOUD_NAME);
+		long start = System.nanoTime();
+
+		try {
+
+			XDI3Segment cloudNamePeerRootXri;
+			XDI3Segment cloudNumberPeerRootXri;
+			XDI3Segment cloudNumber;
+
+			Configuration configuration = this.getConfiguration();
+
+			Message message = configuration.getRespectNetworkRegistrationServiceMessageTemplate().createMessage();
+
+			cloudNamePeerRootXri = XDI3Segment.fromComponent(XdiPeerRoot.createPeerRootArcXri(cloudName));
+
+			XDI3Statement targetStatement = XDI3Statement.fromRelationComponents(cloudNamePeerRootXri, XDIDictionaryConstants.XRI_S_REF, XDIConstants.XRI_S_VARIABLE);
+
+			message.createSetOperation(targetStatement);
+
+			MessageResult messageResult = send(configuration.getXdiClientRespectNetworkRegistrationService(), message, this.newMessageResult(Collections.singleton(cloudNamePeerRootXri)), 1, metrics, start);
+
+			long parseStart = System.nanoTime();
+
+			cloudNumberPeerRootXri = readRefTarget(messageResult, cloudNamePeerRootXri);
+			if (cloudNumberPeerRootXri == null) throw new RuntimeException("Cloud Number not registered.");
 
-			cloudNumberPeerRootXri = relation.getTargetContextNodeXri();
 			cloudNumber = XdiPeerRoot.getXriOfPeerRootArcXri(cloudNumberPeerRootXri.getFirstSubSegment());
 
-			log.debug("Cloud Name " + cloudName + " is already registered with Cloud Number " + cloudNumber);
+			recordSuccess(metrics, start, parseStart);
+
+			if (log.isDebugEnabled()) log.debug("Cloud Name " + cloudName + " registered with Cloud Number " + cloudNumber);
 
 			return new CloudNameRegistration(cloudName, cloudNamePeerRootXri, cloudNumber, cloudNumberPeerRootXri);
+		} catch (Xdi2ClientException ex) {
+
+			recordError(metrics, start, ex);
+			throw ex;
+		} catch (RuntimeException ex) {
+
+			recordError(metrics, start, ex);
+			throw ex;
 		}
 	}
 
-	public CloudNameRegistration registerCloudName(XDI3Segment cloudName) throws Xdi2ClientException {
+	/**
+	 * Registers a Cloud Name with a Cloud Number generated by the CSP, e.g. with CloudNumberGenerator,
+	 * instead of having the Respect Network Registration Service allocate one. Since the Cloud Number is known
+	 * in advance, the Cloud can be registered in the Hosting Environment before or during this call.
+	 */
+	public CloudNameRegistration registerCloudName(XDI3Segment cloudName, XDI3Segment cloudNumber) throws Xdi2ClientException {
 
-		XDI3Segment cloudNamePeerRootXri;
-		XDI3Segment cloudNumberPeerRootXri;
-		XDI3Segment cloudNumber;
+		OperationMetrics metrics = this.getOperationMetrics(OPERATION_REGISTER_CLOUD_NAME_WITH_CLOUD_NUMBER);
+		long start = System.nanoTime();
 
-		MessageEnvelope messageEnvelope = new MessageEnvelope();
+		try {
 
-		Message message = messageEnvelope.createMessage(this.getCspInformation().getCspCloudNumber());
-		message.setToAuthority(XDI3Segment.fromComponent(XdiPeerRoot.createPeerRootArcXri(this.getCspInformation().getRespectNetworkCloudNumber())));
-		message.setLinkContractXri(REGISTRAR_LINK_CONTRACT);
-		message.getContextNode().setDeepLiteral(XDI3Util.concatXris(XDIAuthenticationConstants.XRI_S_SECRET_TOKEN, XDIConstants.XRI_S_VALUE), this.getCspInformation().getCspSecretToken());
+			CloudNameRegistration cloudNameRegistration = makeCloudNameRegistration(cloudName, cloudNumber);
 
-		cloudNamePeerRootXri = XDI3Segment.fromComponent(XdiPeerRoot.createPeerRootArcXri(cloudName));
+			Configuration configuration = this.getConfiguration();
 
-		XDI3Statement targetStatement = XDI3Statement.fromRelationComponents(cloudNamePeerRootXri, XDIDictionaryConstants.XRI_S_REF, XDIConstants.XRI_S_VARIABLE);
+			Message message = configuration.getRespectNetworkRegistrationServiceMessageTemplate().createMessage();
 
-		message.createSetOperation(targetStatement);
+			XDI3Statement targetStatement = XDI3Statement.fromRelationComponents(cloudNameRegistration.getCloudNamePeerRootXri(), XDIDictionaryConstants.XRI_S_REF, cloudNameRegistration.getCloudNumberPeerRootXri());
 
-		MessageResult messageResult = this.getXdiClientRespectNetworkRegistrationService().send(message.getMessageEnvelope(), null);
+			message.createSetOperation(targetStatement);
 
-		Relation relation = messageResult.getGraph().getDeepRelation(cloudNamePeerRootXri, XDIDictionaryConstants.XRI_S_REF);
-		if (relation == null) throw new RuntimeException("Cloud Number not registered.");
+			MessageResult messageResult = send(configuration.getXdiClientRespectNetworkRegistrationService(), message, this.newMessageResult(Collections.singleton(cloudNameRegistration.getCloudNamePeerRootXri())), 1, metrics, start);
 
-		cloudNumberPeerRootXri = relation.getTargetContextNodeXri();
-		cloudNumber = XdiPeerRoot.getXriOfPeerRootArcXri(cloudNumberPeerRootXri.getFirstSubSegment());
+			long parseStart = System.nanoTime();
 
-		log.debug("Cloud Name " + cloudName + " registered with Cloud Number " + cloudNumber);
+			XDI3Segment registeredCloudNumberPeerRootXri = readRefTarget(messageResult, cloudNameRegistration.getCloudNamePeerRootXri());
+			if (registeredCloudNumberPeerRootXri != null && ! registeredCloudNumberPeerRootXri.equals(cloudNameRegistration.getCloudNumberPeerRootXri())) throw new RuntimeException("Cloud Name " + cloudName + " is registered with another Cloud Number " + registeredCloudNumberPeerRootXri);
 
-		return new CloudNameRegistration(cloudName, cloudNamePeerRootXri, cloudNumber, cloudNumberPeerRootXri);
+			recordSuccess(metrics, start, parseStart);
+
+			if (log.isDebugEnabled()) log.debug("Cloud Name " + cloudName + " registered with Cloud Number " + cloudNumber);
+
+			return cloudNameRegistration;
+		} catch (Xdi2ClientException ex) {
+
+			recordError(metrics, start, ex);
+			throw ex;
+		} catch (RuntimeException ex) {
+
+			recordError(metrics, start, ex);
+			throw ex;
+		}
 	}
 
 	public CloudRegistration registerCloud(CloudNameRegistration cloudNameRegistration, String secretToken) throws Xdi2ClientException {
 
-		String cloudXdiEndpoint;
+		OperationMetrics metrics = this.getOperationMetrics(OPERATION_REGISTER_CLOUD);
+		long start = System.nanoTime();
+
+		try {
+
+			String cloudXdiEndpoint;
+
+			Configuration configuration = this.getConfiguration();
+
+			Message message = configuration.getHostingEnvironmentRegistryMessageTemplate().createMessage();
+
+			cloudXdiEndpoint = makeCloudXdiEndpoint(configuration.getCspInformation(), cloudNameRegistration.getCloudNumber());
+
+			XDI3Statement[] targetStatementsSet = new XDI3Statement[] {
+					XDI3Statement.fromRelationComponents(cloudNameRegistration.getCloudNamePeerRootXri(), XDIDictionaryConstants.XRI_S_REF, cloudNameRegistration.getCloudNumberPeerRootXri()),
+					XDI3Statement.fromLiteralComponents(XDI3Util.concatXris(cloudNameRegistration.getCloudNumberPeerRootXri(), XRI_S_XDI_URI), cloudXdiEndpoint)
+			};
+
+			XDI3Statement[] targetStatementsDoDigestSecretToken = new XDI3Statement[] {
+					XDI3Statement.fromLiteralComponents(XDI3Util.concatXris(cloudNameRegistration.getCloudNumberPeerRootXri(), XRI_S_DIGEST_SECRET_TOKEN_VALUE), secretToken)
+			};
 
-		MessageEnvelope messageEnvelope = new MessageEnvelope();
+			message.createSetOperation(Arrays.asList(targetStatementsSet).iterator());
+			message.createOperation(XRI_S_DO_DIGEST_SECRET_TOKEN, Arrays.asList(targetStatementsDoDigestSecretToken).iterator());
 
-		Message message = messageEnvelope.createMessage(this.getCspInformation().getCspCloudNumber());
-		message.setToAuthority(XDI3Segment.fromComponent(XdiPeerRoot.createPeerRootArcXri(this.getCspInformation().getCspCloudNumber())));
-		message.setLinkContractXri(XDI3Segment.create("$do"));
-		message.getContextNode().setDeepLiteral(XDI3Util.concatXris(XDIAuthenticationConstants.XRI_S_SECRET_TOKEN, XDIConstants.XRI_S_VALUE), this.getCspInformation().getCspSecretToken());
+			send(configuration.getXdiClientHostingEnvironmentRegistry(), message, null, 2, metrics, start);
+
+			recordSuccess(metrics, start, System.nanoTime());
+
+			if (log.isDebugEnabled()) log.debug("Cloud registered with Cloud Number " + cloudNameRegistration.getCloudNumber() + " and Secret Token and Cloud XDI endpoint " + cloudXdiEndpoint);
+
+			return new CloudRegistration(cloudXdiEndpoint);
+		} catch (Xdi2ClientException ex) {
+
+			recordError(metrics, start, ex);
+			throw ex;
+		} catch (RuntimeException ex) {
+
+			recordError(metrics, start, ex);
+			throw ex;
+		}
+	}
+
+	public void registerCloudXdiUrl(CloudNameRegistration cloudNameRegistration, CloudRegistration cloudRegistration) throws Xdi2ClientException {
+
+		OperationMetrics metrics = this.getOperationMetrics(OPERATION_REGISTER_CLOUD_XDI_URL);
+		long start = System.nanoTime();
 
 		try {
 
-			cloudXdiEndpoint = this.getCspInformation().getHostingEnvironmentCloudBaseXdiEndpoint() + URLEncoder.encode(cloudNameRegistration.getCloudNumber().toString(), "UTF-8");
+			Configuration configuration = this.getConfiguration();
+
+			Message message = configuration.getRespectNetworkRegistrationServiceMessageTemplate().createMessage();
+
+			XDI3Statement targetStatement = XDI3Statement.fromLiteralComponents(XDI3Util.concatXris(cloudNameRegistration.getCloudNumberPeerRootXri(), XRI_S_XDI_URI), cloudRegistration.getCloudXdiEndpoint());
+
+			message.createSetOperation(targetStatement);
+
+			send(configuration.getXdiClientRespectNetworkRegistrationService(), message, null, 1, metrics, start);
+
+			recordSuccess(metrics, start, System.nanoTime());
+
+			if (log.isDebugEnabled()) log.debug("Cloud XDI URL " + "registered with Cloud Number " + cloudNameRegistration.getCloudNumber() + " and Cloud XDI endpoint " + cloudRegistration.getCloudXdiEndpoint());
+		} catch (Xdi2ClientException ex) {
+
+			recordError(metrics, start, ex);
+			throw ex;
+		} catch (RuntimeException ex) {
+
+			recordError(metrics, start, ex);
+			throw ex;
+		}
+	}
+
+	public void generateCloudSecretToken(CloudNameRegistration cloudNameRegistration, String secretToken) throws Xdi2ClientException {
+
+		OperationMetrics metrics = this.getOperationMetrics(OPERATION_GENERATE_CLOUD_SECRET_TOKEN);
+		long start = System.nanoTime();
+
+		try {
+
+			Configuration configuration = this.getConfiguration();
+
+			Message message = configuration.getHostingEnvironmentRegistryMessageTemplate().createMessage();
+
+			XDI3Statement[] targetStatementsDoDigestSecretToken = new XDI3Statement[] {
+					XDI3Statement.fromLiteralComponents(XDI3Util.concatXris(cloudNameRegistration.getCloudNumberPeerRootXri(), XRI_S_DIGEST_SECRET_TOKEN_VALUE), secretToken)
+			};
+
+			message.createOperation(XRI_S_DO_DIGEST_SECRET_TOKEN, Arrays.asList(targetStatementsDoDigestSecretToken).iterator());
+
+			send(configuration.getXdiClientHostingEnvironmentRegistry(), message, null, 1, metrics, start);
+
+			recordSuccess(metrics, start, System.nanoTime());
+
+			if (log.isDebugEnabled()) log.debug("Secret Token generated with Cloud Number " + cloudNameRegistration.getCloudNumber());
+		} catch (Xdi2ClientException ex) {
+
+			recordError(metrics, start, ex);
+			throw ex;
+		} catch (RuntimeException ex) {
+
+			recordError(metrics, start, ex);
+			throw ex;
+		}
+	}
+
+	/**
+	 * Generates the Secret Tokens of many Clouds, sending up to maxOperationsPerMessage digest statements
+	 * in one $do<$digest><$secret><$token> operation per message. Messages are sent one after another;
+	 * if one fails, the exception is thrown and the Clouds of later messages are left unchanged.
+	 */
+	public void generateCloudSecretTokens(Map<CloudNameRegistration, String> secretTokens) throws Xdi2ClientException {
+
+		Iterator<Map.Entry<CloudNameRegistration, String>> secretTokensIterator = secretTokens.entrySet().iterator();
+
+		while (secretTokensIterator.hasNext()) {
+
+			OperationMetrics metrics = this.getOperationMetrics(OPERATION_GENERATE_CLOUD_SECRET_TOKENS);
+			long start = System.nanoTime();
+
+			try {
+
+				List<XDI3Statement> targetStatementsDoDigestSecretToken = new ArrayList<XDI3Statement> ();
+
+				Configuration configuration = this.getConfiguration();
+
+				Message message = configuration.getHostingEnvironmentRegistryMessageTemplate().createMessage();
+
+				while (secretTokensIterator.hasNext() && targetStatementsDoDigestSecretToken.size() < this.getMaxOperationsPerMessage()) {
+
+					Map.Entry<CloudNameRegistration, String> secretToken = secretTokensIterator.next();
+
+					targetStatementsDoDigestSecretToken.add(XDI3Statement.fromLiteralComponents(XDI3Util.concatXris(secretToken.getKey().getCloudNumberPeerRootXri(), XRI_S_DIGEST_SECRET_TOKEN_VALUE), secretToken.getValue()));
+				}
+
+				message.createOperation(XRI_S_DO_DIGEST_SECRET_TOKEN, targetStatementsDoDigestSecretToken.iterator());
+
+				send(configuration.getXdiClientHostingEnvironmentRegistry(), message, null, targetStatementsDoDigestSecretToken.size(), metrics, start);
+
+				recordSuccess(metrics, start, System.nanoTime());
+
+				if (log.isDebugEnabled()) log.debug("Secret Tokens generated for " + targetStatementsDoDigestSecretToken.size() + " Clouds in one message");
+			} catch (Xdi2ClientException ex) {
+
+				recordError(metrics, start, ex);
+				throw ex;
+			} catch (RuntimeException ex) {
+
+				recordError(metrics, start, ex);
+				throw ex;
+			}
+		}
+	}
+
+	/**
+	 * Looks up which of the given Cloud Names have a Cloud in the Hosting Environment, in messages of up to
+	 * maxOperationsPerMessage $get operations. Returns the registration of every Cloud Name as the Hosting
+	 * Environment Registry knows it, or null if it has no Cloud for the Cloud Name.
+	 */
+	public Map<XDI3Segment, CloudNameRegistration> checkCloudNamesHosted(Collection<XDI3Segment> cloudNames) throws Xdi2ClientException {
+
+		Map<XDI3Segment, CloudNameRegistration> cloudNameRegistrations = new LinkedHashMap<XDI3Segment, CloudNameRegistration> ();
+
+		Iterator<XDI3Segment> cloudNamesIterator = cloudNames.iterator();
+
+		while (cloudNamesIterator.hasNext()) {
+
+			OperationMetrics metrics = this.getOperationMetrics(OPERATION_CHECK_CLOUD_NAMES_HOSTED);
+			long start = System.nanoTime();
+
+			try {
+
+				List<XDI3Segment> chunkCloudNames = new ArrayList<XDI3Segment> ();
+				List<XDI3Segment> chunkCloudNamePeerRootXris = new ArrayList<XDI3Segment> ();
+
+				Configuration configuration = this.getConfiguration();
+
+				Message message = configuration.getHostingEnvironmentRegistryMessageTemplate().createMessage();
+
+				while (cloudNamesIterator.hasNext() && chunkCloudNames.size() < this.getMaxOperationsPerMessage()) {
+
+					XDI3Segment cloudName = cloudNamesIterator.next();
+					if (cloudNameRegistrations.containsKey(cloudName) || chunkCloudNames.contains(cloudName)) continue;
+
+					XDI3Segment cloudNamePeerRootXri = XDI3Segment.fromComponent(XdiPeerRoot.createPeerRootArcXri(cloudName));
+
+					message.createGetOperation(cloudNamePeerRootXri);
+
+					chunkCloudNames.add(cloudName);
+					chunkCloudNamePeerRootXris.add(cloudNamePeerRootXri);
+				}
+
+				if (chunkCloudNames.isEmpty()) continue;
+
+				MessageResult messageResult = send(configuration.getXdiClientHostingEnvironmentRegistry(), message, this.newMessageResult(chunkCloudNamePeerRootXris), chunkCloudNames.size(), metrics, start);
+
+				long parseStart = System.nanoTime();
+
+				for (int i=0; i<chunkCloudNames.size(); i++) {
+
+					XDI3Segment cloudNumberPeerRootXri = readRefTarget(messageResult, chunkCloudNamePeerRootXris.get(i));
+					XDI3Segment cloudNumber = cloudNumberPeerRootXri == null ? null : XdiPeerRoot.getXriOfPeerRootArcXri(cloudNumberPeerRootXri.getFirstSubSegment());
+
+					cloudNameRegistrations.put(chunkCloudNames.get(i), cloudNumber == null ? null : new CloudNameRegistration(chunkCloudNames.get(i), chunkCloudNamePeerRootXris.get(i), cloudNumber, cloudNumberPeerRootXri));
+				}
+
+				recordSuccess(metrics, start, parseStart);
+
+				if (log.isDebugEnabled()) log.debug("Checked hosting of " + chunkCloudNames.size() + " Cloud Names in one message");
+			} catch (Xdi2ClientException ex) {
+
+				recordError(metrics, start, ex);
+				throw ex;
+			} catch (RuntimeException ex) {
+
+				recordError(metrics, start, ex);
+				throw ex;
+			}
+		}
+
+		return cloudNameRegistrations;
+	}
+
+	/**
+	 * Looks up the Cloud XDI URLs registered at the Respect Network Registration Service for the Cloud Numbers
+	 * of the given registrations, in messages of up to maxOperationsPerMessage $get operations. Returns the
+	 * Cloud XDI URL of every Cloud Number, or null if none is registered.
+	 */
+	public Map<XDI3Segment, String> getCloudXdiUrls(Collection<CloudNameRegistration> cloudNameRegistrations) throws Xdi2ClientException {
+
+		Map<XDI3Segment, String> cloudXdiUrls = new LinkedHashMap<XDI3Segment, String> ();
+
+		Iterator<CloudNameRegistration> cloudNameRegistrationsIterator = cloudNameRegistrations.iterator();
+
+		while (cloudNameRegistrationsIterator.hasNext()) {
+
+			OperationMetrics metrics = this.getOperationMetrics(OPERATION_GET_CLOUD_XDI_URLS);
+			long start = System.nanoTime();
+
+			try {
+
+				List<XDI3Segment> chunkCloudNumbers = new ArrayList<XDI3Segment> ();
+				List<XDI3Segment> chunkCloudXdiUrlXris = new ArrayList<XDI3Segment> ();
+
+				Configuration configuration = this.getConfiguration();
+
+				Message message = configuration.getRespectNetworkRegistrationServiceMessageTemplate().createMessage();
+
+				while (cloudNameRegistrationsIterator.hasNext() && chunkCloudNumbers.size() < this.getMaxOperationsPerMessage()) {
+
+					CloudNameRegistration cloudNameRegistration = cloudNameRegistrationsIterator.next();
+					if (cloudXdiUrls.containsKey(cloudNameRegistration.getCloudNumber()) || chunkCloudNumbers.contains(cloudNameRegistration.getCloudNumber())) continue;
+
+					XDI3Segment cloudXdiUrlXri = XDI3Util.concatXris(cloudNameRegistration.getCloudNumberPeerRootXri(), XRI_S_XDI_URI);
+
+					message.createGetOperation(cloudXdiUrlXri);
+
+					chunkCloudNumbers.add(cloudNameRegistration.getCloudNumber());
+					chunkCloudXdiUrlXris.add(cloudXdiUrlXri);
+				}
+
+				if (chunkCloudNumbers.isEmpty()) continue;
+
+				MessageResult messageResult = send(configuration.getXdiClientRespectNetworkRegistrationService(), message, null, chunkCloudNumbers.size(), metrics, start);
+
+				long parseStart = System.nanoTime();
+
+				for (int i=0; i<chunkCloudNumbers.size(); i++) cloudXdiUrls.put(chunkCloudNumbers.get(i), readLiteralData(messageResult, chunkCloudXdiUrlXris.get(i)));
+
+				recordSuccess(metrics, start, parseStart);
+
+				if (log.isDebugEnabled()) log.debug("Looked up Cloud XDI URLs of " + chunkCloudNumbers.size() + " Cloud Numbers in one message");
+			} catch (Xdi2ClientException ex) {
+
+				recordError(metrics, start, ex);
+				throw ex;
+			} catch (RuntimeException ex) {
+
+				recordError(metrics, start, ex);
+				throw ex;
+			}
+		}
+
+		return cloudXdiUrls;
+	}
+
+	/**
+	 * Runs the active health checks of the XDI clients that balance across several replicas, by sending each
+	 * replica a $get of the CSP's Cloud Number. Replicas that answer are readmitted, the others count a failure.
+	 * Schedule this periodically, e.g. with a ScheduledExecutorService; it does nothing for single endpoints.
+	 */
+	public void checkHealth() {
+
+		Configuration configuration = this.getConfiguration();
+
+		XDI3Segment cspCloudNumberPeerRootXri = XDI3Segment.fromComponent(XdiPeerRoot.createPeerRootArcXri(configuration.getCspInformation().getCspCloudNumber()));
+
+		XDIClient xdiClientRespectNetworkRegistrationService = configuration.getXdiClientRespectNetworkRegistrationService();
+		XDIClient xdiClientHostingEnvironmentRegistry = configuration.getXdiClientHostingEnvironmentRegistry();
+
+		if (xdiClientRespectNetworkRegistrationService instanceof LoadBalancingXDIClient) {
+
+			Message message = configuration.getRespectNetworkRegistrationServiceMessageTemplate().createMessage();
+			message.createGetOperation(cspCloudNumberPeerRootXri);
+
+			((LoadBalancingXDIClient) xdiClientRespectNetworkRegistrationService).checkHealth(message.getMessageEnvelope());
+		}
+
+		if (xdiClientHostingEnvironmentRegistry instanceof LoadBalancingXDIClient) {
+
+			Message message = configuration.getHostingEnvironmentRegistryMessageTemplate().createMessage();
+			message.createGetOperation(cspCloudNumberPeerRootXri);
+
+			((LoadBalancingXDIClient) xdiClientHostingEnvironmentRegistry).checkHealth(message.getMessageEnvelope());
+		}
+	}
+
+	/*
+	 * Helper methods
+	 */
+
+	/**
+	 * Returns the current Configuration, with its message templates rebuilt if the CSPInformation
+	 * has been changed in the meantime.
+	 */
+	private Configuration getConfiguration() {
+
+		Configuration configuration = this.configuration;
+		if (configuration.isCurrent()) return configuration;
+
+		Configuration newConfiguration = new Configuration(configuration.getCspInformation(), configuration.getXdiClientRespectNetworkRegistrationService(), configuration.getXdiClientHostingEnvironmentRegistry());
+
+		synchronized (this) {
+
+			if (this.configuration == configuration) this.configuration = newConfiguration;
+		}
+
+		return newConfiguration;
+	}
+
+	/**
+	 * Creates the XDI client for a service with the given XDI endpoints: a plain XDIHttpClient for a single
+	 * endpoint, or a LoadBalancingXDIClient across the replicas.
+	 */
+	public static XDIClient makeXdiClient(List<String> endpoints) {
+
+		if (endpoints.size() == 1) return new XDIHttpClient(endpoints.get(0));
+
+		return new LoadBalancingXDIClient(endpoints, new XDIHttpTransport(), null, true);
+	}
+
+	/**
+	 * Creates the XDI client for a service with the given XDI endpoints from the given transport: the transport's
+	 * client for a single endpoint, or a LoadBalancingXDIClient across the replicas.
+	 */
+	public static XDIClient makeXdiClient(List<String> endpoints, XDITransport xdiTransport) {
+
+		if (endpoints.size() == 1) return xdiTransport.getXdiClient(endpoints.get(0));
+
+		return new LoadBalancingXDIClient(endpoints, xdiTransport);
+	}
+
+	/**
+	 * Creates the XDI client for a service with the given XDI endpoints, sending with the given XDIWireSettings
+	 * if they are not null. XDIHttpClient only supports the formats; requests are not compressed.
+	 */
+	public static XDIClient makeXdiClient(List<String> endpoints, XDIWireSettings wireSettings) {
+
+		if (wireSettings == null) return makeXdiClient(endpoints);
+
+		if (endpoints.size() == 1) return new XDIHttpTransport().getXdiClient(endpoints.get(0), wireSettings);
+
+		return new LoadBalancingXDIClient(endpoints, new XDIHttpTransport(), wireSettings, true);
+	}
+
+	/**
+	 * Creates the XDI client for a service with the given XDI endpoints from the given transport, sending with
+	 * the given XDIWireSettings if they are not null.
+	 */
+	public static XDIClient makeXdiClient(List<String> endpoints, XDITransport xdiTransport, XDIWireSettings wireSettings) {
+
+		if (endpoints.size() == 1) return xdiTransport.getXdiClient(endpoints.get(0), wireSettings);
+
+		return new LoadBalancingXDIClient(endpoints, xdiTransport, wireSettings);
+	}
+
+	/**
+	 * Returns the XDI endpoints of the Hosting Environment Registry: those of all replicas for a
+	 * ReplicatedCSPInformation, or else the single XDI endpoint.
+	 */
+	public static List<String> getHostingEnvironmentRegistryXdiEndpoints(CSPInformation cspInformation) {
+
+		if (cspInformation instanceof ReplicatedCSPInformation) return ((ReplicatedCSPInformation) cspInformation).getHostingEnvironmentRegistryXdiEndpoints();
+
+		return Collections.singletonList(cspInformation.getHostingEnvironmentRegistryXdiEndpoint());
+	}
+
+	/**
+	 * Returns the XDI endpoints of the Respect Network Registration Service: those of all replicas for a
+	 * ReplicatedCSPInformation, or else the single XDI endpoint.
+	 */
+	public static List<String> getRespectNetworkRegistrationServiceXdiEndpoints(CSPInformation cspInformation) {
+
+		if (cspInformation instanceof ReplicatedCSPInformation) return ((ReplicatedCSPInformation) cspInformation).getRespectNetworkRegistrationServiceXdiEndpoints();
+
+		return Collections.singletonList(cspInformation.getRespectNetworkRegistrationServiceXdiEndpoint());
+	}
+
+	/**
+	 * Returns the XDIWireSettings of the Hosting Environment Registry for a WireSettingsCSPInformation,
+	 * or else null, which selects those of the XDITransport.
+	 */
+	public static XDIWireSettings getHostingEnvironmentRegistryWireSettings(CSPInformation cspInformation) {
+
+		if (cspInformation instanceof WireSettingsCSPInformation) return ((WireSettingsCSPInformation) cspInformation).getHostingEnvironmentRegistryWireSettings();
+
+		return null;
+	}
+
+	/**
+	 * Returns the XDIWireSettings of the Respect Network Registration Service for a WireSettingsCSPInformation,
+	 * or else null, which selects those of the XDITransport.
+	 */
+	public static XDIWireSettings getRespectNetworkRegistrationServiceWireSettings(CSPInformation cspInformation) {
+
+		if (cspInformation instanceof WireSettingsCSPInformation) return ((WireSettingsCSPInformation) cspInformation).getRespectNetworkRegistrationServiceWireSettings();
+
+		return null;
+	}
+
+	/**
+	 * Creates the registration of a Cloud Name with a known Cloud Number, as registerCloudName() returns it.
+	 */
+	public static CloudNameRegistration makeCloudNameRegistration(XDI3Segment cloudName, XDI3Segment cloudNumber) {
+
+		XDI3Segment cloudNamePeerRootXri = XDI3Segment.fromComponent(XdiPeerRoot.createPeerRootArcXri(cloudName));
+		XDI3Segment cloudNumberPeerRootXri = XDI3Segment.fromComponent(XdiPeerRoot.createPeerRootArcXri(cloudNumber));
+
+		return new CloudNameRegistration(cloudName, cloudNamePeerRootXri, cloudNumber, cloudNumberPeerRootXri);
+	}
+
+	/**
+	 * Creates the registration of a Cloud in the CSP's Hosting Environment, as registerCloud() returns it.
+	 */
+	public static CloudRegistration makeCloudRegistration(CSPInformation cspInformation, XDI3Segment cloudNumber) {
+
+		return new CloudRegistration(makeCloudXdiEndpoint(cspInformation, cloudNumber));
+	}
+
+	/**
+	 * Computes the XDI endpoint of a Cloud in the CSP's Hosting Environment from its Cloud Number.
+	 */
+	public static String makeCloudXdiEndpoint(CSPInformation cspInformation, XDI3Segment cloudNumber) {
+
+		try {
+
+			return cspInformation.getHostingEnvironmentCloudBaseXdiEndpoint() + URLEncoder.encode(cloudNumber.toString(), "UTF-8");
 		} catch (UnsupportedEncodingException ex) {
 
 			throw new RuntimeException(ex.getMessage(), ex);
 		}
+	}
 
-		XDI3Statement[] targetStatementsSet = new XDI3Statement[] {
-				XDI3Statement.fromRelationComponents(cloudNameRegistration.getCloudNamePeerRootXri(), XDIDictionaryConstants.XRI_S_REF, cloudNameRegistration.getCloudNumberPeerRootXri()),
-				XDI3Statement.fromLiteralComponents(XDI3Util.concatXris(cloudNameRegistration.getCloudNumberPeerRootXri(), XDI3Segment.create("$xdi<$uri>&")), cloudXdiEndpoint)
-		};
+	/**
+	 * Sends a message, recording the time spent building it (since start), the time spent sending it
+	 * and its number of operations.
+	 */
+	private static MessageResult send(XDIClient xdiClient, Message message, MessageResult messageResult, int operationCount, OperationMetrics metrics, long start) throws Xdi2ClientException {
 
-		XDI3Statement[] targetStatementsDoDigestSecretToken = new XDI3Statement[] {
-				XDI3Statement.fromLiteralComponents(XDI3Util.concatXris(cloudNameRegistration.getCloudNumberPeerRootXri(), XDIAuthenticationConstants.XRI_S_DIGEST_SECRET_TOKEN, XDIConstants.XRI_S_VALUE), secretToken)
-		};
+		long sendStart = System.nanoTime();
 
-		message.createSetOperation(Arrays.asList(targetStatementsSet).iterator());
-		message.createOperation(XDI3Segment.create("$do<$digest><$secret><$token>"), Arrays.asList(targetStatementsDoDigestSecretToken).iterator());
+		messageResult = xdiClient.send(message.getMessageEnvelope(), messageResult);
 
-		this.getXdiClientHostingEnvironmentRegistry().send(message.getMessageEnvelope(), null);
+		if (metrics != null) {
 
-		log.debug("Cloud registered with Cloud Number " + cloudNameRegistration.getCloudNumber() + " and Secret Token and Cloud XDI endpoint " + cloudXdiEndpoint);
+			metrics.recordBuild(sendStart - start);
+			metrics.recordSend(System.nanoTime() - sendStart);
+			metrics.recordPayloadSize(operationCount);
+		}
 
-		return new CloudRegistration(cloudXdiEndpoint);
+		return messageResult;
 	}
 
-	public void registerCloudXdiUrl(CloudNameRegistration cloudNameRegistration, CloudRegistration cloudRegistration) throws Xdi2ClientException {
+	private static void recordSuccess(OperationMetrics metrics, long start, long parseStart) {
+
+		if (metrics == null) return;
 
-		MessageEnvelope messageEnvelope = new MessageEnvelope();
+		metrics.recordParse(System.nanoTime() - parseStart);
+		metrics.recordSuccess(start);
+	}
+
+	private static void recordError(OperationMetrics metrics, long start, Throwable ex) {
 
-		Message message = messageEnvelope.createMessage(this.getCspInformation().getCspCloudNumber());
-		message.setToAuthority(XDI3Segment.fromComponent(XdiPeerRoot.createPeerRootArcXri(this.getCspInformation().getRespectNetworkCloudNumber())));
-		message.setLinkContractXri(REGISTRAR_LINK_CONTRACT);
-		message.getContextNode().setDeepLiteral(XDI3Util.concatXris(XDIAuthenticationConstants.XRI_S_SECRET_TOKEN, XDIConstants.XRI_S_VALUE), this.getCspInformation().getCspSecretToken());
+		if (metrics == null) return;
 
-		XDI3Statement targetStatement = XDI3Statement.fromLiteralComponents(XDI3Util.concatXris(cloudNameRegistration.getCloudNumberPeerRootXri(), XDI3Segment.create("$xdi<$uri>&")), cloudRegistration.getCloudXdiEndpoint());
+		metrics.recordError(start, ex);
+	}
 
-		message.createSetOperation(targetStatement);
+	private OperationMetrics getOperationMetrics(String operation) {
 
-		this.getXdiClientRespectNetworkRegistrationService().send(message.getMessageEnvelope(), null);
+		CSPMetrics metrics = this.metrics;
 
-		log.debug("Cloud XDI URL " + "registered with Cloud Number " + cloudNameRegistration.getCloudNumber() + " and Cloud XDI endpoint " + cloudRegistration.getCloudXdiEndpoint());
+		return metrics == null ? null : metrics.getOperationMetrics(operation);
 	}
 
-	public void generateCloudSecretToken(CloudNameRegistration cloudNameRegistration, String secretToken) throws Xdi2ClientException {
+	/**
+	 * Returns a MessageResult that lets the XDIClient extract the $ref relations of the given
+	 * peer roots without parsing the whole response, or null if this is disabled.
+	 */
+	private MessageResult newMessageResult(Collection<XDI3Segment> peerRootXris) {
+
+		return this.isStreamingResults() ? new StreamingMessageResult(XDIDictionaryConstants.XRI_S_REF, peerRootXris) : null;
+	}
+
+	private static XDI3Segment readRefTarget(MessageResult messageResult, XDI3Segment peerRootXri) {
 
-		MessageEnvelope messageEnvelope = new MessageEnvelope();
+		if (messageResult instanceof StreamingMessageResult) return ((StreamingMessageResult) messageResult).getRelationTarget(peerRootXri);
 
-		Message message = messageEnvelope.createMessage(this.getCspInformation().getCspCloudNumber());
-		message.setToAuthority(XDI3Segment.fromComponent(XdiPeerRoot.createPeerRootArcXri(this.getCspInformation().getCspCloudNumber())));
-		message.setLinkContractXri(XDI3Segment.create("$do"));
-		message.getContextNode().setDeepLiteral(XDI3Util.concatXris(XDIAuthenticationConstants.XRI_S_SECRET_TOKEN, XDIConstants.XRI_S_VALUE), this.getCspInformation().getCspSecretToken());
+		Relation relation = messageResult.getGraph().getDeepRelation(peerRootXri, XDIDictionaryConstants.XRI_S_REF);
 
-		XDI3Statement[] targetStatementsDoDigestSecretToken = new XDI3Statement[] {
-				XDI3Statement.fromLiteralComponents(XDI3Util.concatXris(cloudNameRegistration.getCloudNumberPeerRootXri(), XDIAuthenticationConstants.XRI_S_DIGEST_SECRET_TOKEN, XDIConstants.XRI_S_VALUE), secretToken)
-		};
+		return relation == null ? null : relation.getTargetContextNodeXri();
+	}
 
-		message.createOperation(XDI3Segment.create("$do<$digest><$secret><$token>"), Arrays.asList(targetStatementsDoDigestSecretToken).iterator());
+	private static String readLiteralData(MessageResult messageResult, XDI3Segment contextNodeXri) {
 
-		this.getXdiClientHostingEnvironmentRegistry().send(message.getMessageEnvelope(), null);
+		Literal literal = messageResult.getGraph().getDeepLiteral(contextNodeXri);
 
-		log.debug("Secret Token generated with Cloud Number " + cloudNameRegistration.getCloudNumber());
+		return literal == null ? null : String.valueOf(literal.getLiteralData());
+	}
+
+	private static CloudNameRegistration readCloudNameAvailable(MessageResult messageResult, XDI3Segment cloudName, XDI3Segment cloudNamePeerRootXri) {
+
+		XDI3Segment cloudNumberPeerRootXri;
+		XDI3Segment cloudNumber;
+
+		cloudNumberPeerRootXri = readRefTarget(messageResult, cloudNamePeerRootXri);
+
+		if (cloudNumberPeerRootXri == null) {
+
+			if (log.isDebugEnabled()) log.debug("Cloud Name " + cloudName + " is available");
+
+			return null;
+		} else {
+
+			cloudNumber = XdiPeerRoot.getXriOfPeerRootArcXri(cloudNumberPeerRootXri.getFirstSubSegment());
+
+			if (log.isDebugEnabled()) log.debug("Cloud Name " + cloudName + " is already registered with Cloud Number " + cloudNumber);
+
+			return new CloudNameRegistration(cloudName, cloudNamePeerRootXri, cloudNumber, cloudNumberPeerRootXri);
+		}
 	}
 
 	/*
@@ -194,31 +855,169 @@ public class BasicCSP implements CSP {
 
 	public CSPInformation getCspInformation() {
 
-		return this.cspInformation;
+		return this.configuration.getCspInformation();
+	}
+
+	public synchronized void setCspInformation(CSPInformation cspInformation) {
+
+		Configuration configuration = this.configuration;
+
+		this.configuration = new Configuration(cspInformation, configuration.getXdiClientRespectNetworkRegistrationService(), configuration.getXdiClientHostingEnvironmentRegistry());
 	}
 
-	public void setCspInformation(CSPInformation cspInformation) {
+	/**
+	 * Switches to new CSPInformation and XDI clients at once, so that no message is sent with the credentials
+	 * of one CSPInformation to the endpoints of another. Use this when the endpoints change together with the CSPInformation.
+	 */
+	public void setCspInformation(CSPInformation cspInformation, XDIClient xdiClientRespectNetworkRegistrationService, XDIClient xdiClientHostingEnvironmentRegistry) {
+
+		Configuration configuration = new Configuration(cspInformation, xdiClientRespectNetworkRegistrationService, xdiClientHostingEnvironmentRegistry);
+
+		synchronized (this) {
 
-		this.cspInformation = cspInformation;
+			this.configuration = configuration;
+		}
+	}
+
+	/**
+	 * Returns the template for messages to the Respect Network Registration Service.
+	 * The template is rebuilt if the CSPInformation has been changed in the meantime.
+	 */
+	public CSPMessageTemplate getRespectNetworkRegistrationServiceMessageTemplate() {
+
+		return this.getConfiguration().getRespectNetworkRegistrationServiceMessageTemplate();
+	}
+
+	/**
+	 * Returns the template for messages to the Hosting Environment Registry.
+	 * The template is rebuilt if the CSPInformation has been changed in the meantime.
+	 */
+	public CSPMessageTemplate getHostingEnvironmentRegistryMessageTemplate() {
+
+		return this.getConfiguration().getHostingEnvironmentRegistryMessageTemplate();
 	}
 
 	public XDIClient getXdiClientRespectNetworkRegistrationService() {
 
-		return this.xdiClientRespectNetworkRegistrationService;
+		return this.configuration.getXdiClientRespectNetworkRegistrationService();
 	}
 
-	public void setXdiClientRespectNetworkRegistrationService(XDIClient xdiClientRespectNetworkRegistrationService) {
+	public synchronized void setXdiClientRespectNetworkRegistrationService(XDIClient xdiClientRespectNetworkRegistrationService) {
 
-		this.xdiClientRespectNetworkRegistrationService = xdiClientRespectNetworkRegistrationService;
+		Configuration configuration = this.configuration;
+
+		this.configuration = new Configuration(configuration.getCspInformation(), xdiClientRespectNetworkRegistrationService, configuration.getXdiClientHostingEnvironmentRegistry(), configuration.getRespectNetworkRegistrationServiceMessageTemplate(), configuration.getHostingEnvironmentRegistryMessageTemplate());
 	}
 
 	public XDIClient getXdiClientHostingEnvironmentRegistry() {
 
-		return this.xdiClientHostingEnvironmentRegistry;
+		return this.configuration.getXdiClientHostingEnvironmentRegistry();
+	}
+
+	public synchronized void setXdiClientHostingEnvironmentRegistry(XDIClient xdiClientHostingEnvironmentRegistry) {
+
+		Configuration configuration = this.configuration;
+
+		this.configuration = new Configuration(configuration.getCspInformation(), configuration.getXdiClientRespectNetworkRegistrationService(), xdiClientHostingEnvironmentRegistry, configuration.getRespectNetworkRegistrationServiceMessageTemplate(), configuration.getHostingEnvironmentRegistryMessageTemplate());
 	}
 
-	public void setXdiClientHostingEnvironmentRegistry(XDIClient xdiClientHostingEnvironmentRegistry) {
+	public CSPMetrics getMetrics() {
 
-		this.xdiClientHostingEnvironmentRegistry = xdiClientHostingEnvironmentRegistry;
+		return this.metrics;
+	}
+
+	/**
+	 * Enables recording of per-operation latencies, errors and payload sizes. Set to null to disable.
+	 */
+	public void setMetrics(CSPMetrics metrics) {
+
+		this.metrics = metrics;
+	}
+
+	public boolean isStreamingResults() {
+
+		return this.streamingResults;
+	}
+
+	/**
+	 * If true (the default), $ref relations are scanned directly from responses where the XDIClient
+	 * supports it (see StreamingMessageResult) instead of parsing them into a graph.
+	 */
+	public void setStreamingResults(boolean streamingResults) {
+
+		this.streamingResults = streamingResults;
+	}
+
+	public int getMaxOperationsPerMessage() {
+
+		return this.maxOperationsPerMessage;
+	}
+
+	public void setMaxOperationsPerMessage(int maxOperationsPerMessage) {
+
+		if (maxOperationsPerMessage < 1) throw new IllegalArgumentException("Invalid maximum number of operations per message: " + maxOperationsPerMessage);
+
+		this.maxOperationsPerMessage = maxOperationsPerMessage;
+	}
+
+	/**
+	 * The CSPInformation of a BasicCSP together with the XDI clients and message templates made from it.
+	 * It is immutable and replaced as a whole, so that every operation sees a consistent set.
+	 */
+	private static class Configuration {
+
+		private final CSPInformation cspInformation;
+		private final XDIClient xdiClientRespectNetworkRegistrationService;
+		private final XDIClient xdiClientHostingEnvironmentRegistry;
+		private final CSPMessageTemplate respectNetworkRegistrationServiceMessageTemplate;
+		private final CSPMessageTemplate hostingEnvironmentRegistryMessageTemplate;
+
+		private Configuration(CSPInformation cspInformation, XDIClient xdiClientRespectNetworkRegistrationService, XDIClient xdiClientHostingEnvironmentRegistry) {
+
+			this(cspInformation, xdiClientRespectNetworkRegistrationService, xdiClientHostingEnvironmentRegistry, CSPMessageTemplate.forRespectNetworkRegistrationService(cspInformation), CSPMessageTemplate.forHostingEnvironmentRegistry(cspInformation));
+		}
+
+		private Configuration(CSPInformation cspInformation, XDIClient xdiClientRespectNetworkRegistrationService, XDIClient xdiClientHostingEnvironmentRegistry, CSPMessageTemplate respectNetworkRegistrationServiceMessageTemplate, CSPMessageTemplate hostingEnvironmentRegistryMessageTemplate) {
+
+			this.cspInformation = cspInformation;
+			this.xdiClientRespectNetworkRegistrationService = xdiClientRespectNetworkRegistrationService;
+			this.xdiClientHostingEnvironmentRegistry = xdiClientHostingEnvironmentRegistry;
+			this.respectNetworkRegistrationServiceMessageTemplate = respectNetworkRegistrationServiceMessageTemplate;
+			this.hostingEnvironmentRegistryMessageTemplate = hostingEnvironmentRegistryMessageTemplate;
+		}
+
+		/**
+		 * Returns false if the CSPInformation has been changed since the message templates were built.
+		 */
+		private boolean isCurrent() {
+
+			return this.respectNetworkRegistrationServiceMessageTemplate.isCurrent(this.cspInformation, this.cspInformation.getRespectNetworkCloudNumber()) &&
+					this.hostingEnvironmentRegistryMessageTemplate.isCurrent(this.cspInformation, this.cspInformation.getCspCloudNumber());
+		}
+
+		private CSPInformation getCspInformation() {
+
+			return this.cspInformation;
+		}
+
+		private XDIClient getXdiClientRespectNetworkRegistrationService() {
+
+			return this.xdiClientRespectNetworkRegistrationService;
+		}
+
+		private XDIClient getXdiClientHostingEnvironmentRegistry() {
+
+			return this.xdiClientHostingEnvironmentRegistry;
+		}
+
+		private CSPMessageTemplate getRespectNetworkRegistrationServiceMessageTemplate() {
+
+			return this.respectNetworkRegistrationServiceMessageTemplate;
+		}
+
+		private CSPMessageTemplate getHostingEnvironmentRegistryMessageTemplate() {
+
+			return this.hostingEnvironmentRegistryMessageTemplate;
+		}
 	}
 }
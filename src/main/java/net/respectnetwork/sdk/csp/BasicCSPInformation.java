@@ -1,10 +1,14 @@
 package net.respectnetwork.sdk.csp;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
+import net.respectnetwork.sdk.csp.transport.XDIWireSettings;
 import xdi2.core.xri3.XDI3Segment;
 
-public class BasicCSPInformation implements CSPInformation, Serializable {
+public class BasicCSPInformation implements ReplicatedCSPInformation, WireSettingsCSPInformation, Serializable {
 
 	private static final long serialVersionUID = 4621748646529792450L;
 
@@ -14,8 +18,12 @@ public class BasicCSPInformation implements CSPInformation, Serializable {
 	private XDI3Segment cspCloudNumber;
 	private String cspSecretToken;
 	private String hostingEnvironmentRegistryXdiEndpoint;
+	private ArrayList<String> hostingEnvironmentRegistryXdiEndpoints;
+	private XDIWireSettings hostingEnvironmentRegistryWireSettings;
 	private String hostingEnvironmentCloudBaseXdiEndpoint;
 	private String respectNetworkRegistrationServiceXdiEndpoint;
+	private ArrayList<String> respectNetworkRegistrationServiceXdiEndpoints;
+	private XDIWireSettings respectNetworkRegistrationServiceWireSettings;
 	private XDI3Segment respectNetworkCloudNumber;
 
 	public BasicCSPInformation(XDI3Segment cspCloudNumber, String cspSecretToken, String hostingEnvironmentRegistryXdiEndpoint, String hostingEnvironmentCloudBaseXdiEndpoint, String respectNetworkRegistrationServiceXdiEndpoint, XDI3Segment respectNetworkCloudNumber) {
@@ -70,6 +78,39 @@ public class BasicCSPInformation implements CSPInformation, Serializable {
 	public void setHostingEnvironmentRegistryXdiEndpoint(String hostingEnvironmentRegistryXdiEndpoint) {
 
 		this.hostingEnvironmentRegistryXdiEndpoint = hostingEnvironmentRegistryXdiEndpoint;
+		this.hostingEnvironmentRegistryXdiEndpoints = null;
+	}
+
+	public List<String> getHostingEnvironmentRegistryXdiEndpoints() {
+
+		if (this.hostingEnvironmentRegistryXdiEndpoints == null) return Collections.singletonList(this.hostingEnvironmentRegistryXdiEndpoint);
+
+		return Collections.unmodifiableList(this.hostingEnvironmentRegistryXdiEndpoints);
+	}
+
+	/**
+	 * Sets the XDI endpoints of all replicas of the Hosting Environment Registry.
+	 * The first one also becomes the single Hosting Environment Registry XDI endpoint.
+	 */
+	public void setHostingEnvironmentRegistryXdiEndpoints(List<String> hostingEnvironmentRegistryXdiEndpoints) {
+
+		if (hostingEnvironmentRegistryXdiEndpoints.isEmpty()) throw new IllegalArgumentException("No Hosting Environment Registry XDI endpoints.");
+
+		this.hostingEnvironmentRegistryXdiEndpoint = hostingEnvironmentRegistryXdiEndpoints.get(0);
+		this.hostingEnvironmentRegistryXdiEndpoints = new ArrayList<String> (hostingEnvironmentRegistryXdiEndpoints);
+	}
+
+	public XDIWireSettings getHostingEnvironmentRegistryWireSettings() {
+
+		return this.hostingEnvironmentRegistryWireSettings;
+	}
+
+	/**
+	 * Sets the format and compression of messages to the Hosting Environment Registry, or null for those of the XDITransport.
+	 */
+	public void setHostingEnvironmentRegistryWireSettings(XDIWireSettings hostingEnvironmentRegistryWireSettings) {
+
+		this.hostingEnvironmentRegistryWireSettings = hostingEnvironmentRegistryWireSettings;
 	}
 
 	public String getHostingEnvironmentCloudBaseXdiEndpoint() {
@@ -90,6 +131,39 @@ public class BasicCSPInformation implements CSPInformation, Serializable {
 	public void setRespectNetworkRegistrationServiceXdiEndpoint(String respectNetworkRegistrationServiceXdiEndpoint) {
 
 		this.respectNetworkRegistrationServiceXdiEndpoint = respectNetworkRegistrationServiceXdiEndpoint;
+		this.respectNetworkRegistrationServiceXdiEndpoints = null;
+	}
+
+	public List<String> getRespectNetworkRegistrationServiceXdiEndpoints() {
+
+		if (this.respectNetworkRegistrationServiceXdiEndpoints == null) return Collections.singletonList(this.respectNetworkRegistrationServiceXdiEndpoint);
+
+		return Collections.unmodifiableList(this.respectNetworkRegistrationServiceXdiEndpoints);
+	}
+
+	/**
+	 * Sets the XDI endpoints of all replicas of the Respect Network Registration Service.
+	 * The first one also becomes the single Respect Network Registration Service XDI endpoint.
+	 */
+	public void setRespectNetworkRegistrationServiceXdiEndpoints(List<String> respectNetworkRegistrationServiceXdiEndpoints) {
+
+		if (respectNetworkRegistrationServiceXdiEndpoints.isEmpty()) throw new IllegalArgumentException("No Respect Network Registration Service XDI endpoints.");
+
+		this.respectNetworkRegistrationServiceXdiEndpoint = respectNetworkRegistrationServiceXdiEndpoints.get(0);
+		this.respectNetworkRegistrationServiceXdiEndpoints = new ArrayList<String> (respectNetworkRegistrationServiceXdiEndpoints);
+	}
+
+	public XDIWireSettings getRespectNetworkRegistrationServiceWireSettings() {
+
+		return this.respectNetworkRegistrationServiceWireSettings;
+	}
+
+	/**
+	 * Sets the format and compression of messages to the Respect Network Registration Service, or null for those of the XDITransport.
+	 */
+	public void setRespectNetworkRegistrationServiceWireSettings(XDIWireSettings respectNetworkRegistrationServiceWireSettings) {
+
+		this.respectNetworkRegistrationServiceWireSettings = respectNetworkRegistrationServiceWireSettings;
 	}
 
 	public XDI3Segment getRespectNetworkCloudNumber() {
@@ -0,0 +1,19 @@
+package net.respectnetwork.sdk.csp;
+
+import java.util.Collection;
+import java.util.Map;
+
+import xdi2.client.exceptions.Xdi2ClientException;
+import xdi2.core.xri3.XDI3Segment;
+
+/**
+ * This interface extends CSP with calls for many Cloud Names or Clouds at once, and for
+ * registering a Cloud Name with a Cloud Number chosen by the CSP.
+ * It is separate from CSP so that existing implementations of CSP do not have to change.
+ */
+public interface BatchCSP extends CSP {
+
+	public Map<XDI3Segment, CloudNameRegistration> checkCloudNamesAvailable(Collection<XDI3Segment> cloudNames) throws Xdi2ClientException;
+	public CloudNameRegistration registerCloudName(XDI3Segment cloudName, XDI3Segment cloudNumber) throws Xdi2ClientException;
+	public void generateCloudSecretTokens(Map<CloudNameRegistration, String> secretTokens) throws Xdi2ClientException;
+}
@@ -4,6 +4,8 @@ import xdi2.core.xri3.XDI3Segment;
 
 /**
  * This interface represents information required for using the SDK.
+ * Services that run as several replicas are described by ReplicatedCSPInformation,
+ * and how messages are put on the wire by WireSettingsCSPInformation.
  */
 public interface CSPInformation {
 
@@ -0,0 +1,12 @@
+package net.respectnetwork.sdk.csp;
+
+/**
+ * Looks up the CSPInformation of a tenant for a CSPManager, e.g. from a database.
+ */
+public interface CSPInformationProvider {
+
+	/**
+	 * Returns the CSPInformation of the given tenant, or null if there is no such tenant.
+	 */
+	public CSPInformation getCspInformation(String tenantId) throws Exception;
+}
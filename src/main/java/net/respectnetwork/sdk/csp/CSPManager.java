@@ -0,0 +1,425 @@
+package net.respectnetwork.sdk.csp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.respectnetwork.sdk.csp.transport.LoadBalancingXDIClient;
+import net.respectnetwork.sdk.csp.transport.PooledXDITransport;
+import net.respectnetwork.sdk.csp.transport.XDITransport;
+import net.respectnetwork.sdk.csp.transport.XDIWireSettings;
+import xdi2.client.XDIClient;
+
+/**
+ * Manages the BasicCSPs of many tenants (CSPs) on one shared XDITransport.
+ * 
+ * A tenant's BasicCSP is created on first use from the CSPInformation returned by a CSPInformationProvider,
+ * and at most maxTenants of them are kept; the least recently used ones are evicted and recreated when
+ * needed again. All tenants get their XDIClients from the same transport, so tenants on the same endpoints
+ * share clients and connection pools, and memory does not grow with the number of tenants beyond maxTenants.
+ * 
+ * Services with several replicas are reached through a LoadBalancingXDIClient, which is shared by all tenants
+ * with the same replicas and XDIWireSettings, so that they share its view of the replicas' health and load.
+ * It is closed when no tenant uses it any more. Schedule checkHealth() to run the active health checks of
+ * all of them.
+ * 
+ * Tenant credentials and endpoints can be changed at runtime with reload(). Callers should obtain the CSP
+ * with getCsp() for every unit of work instead of holding on to it, so that they see evictions and reloads.
+ */
+public class CSPManager {
+
+	private static final Logger log = LoggerFactory.getLogger(CSPManager.class);
+
+	public static final int DEFAULT_MAX_TENANTS = 1000;
+
+	private final XDITransport xdiTransport;
+	private final boolean ownsXdiTransport;
+	private final CSPInformationProvider cspInformationProvider;
+	private final int maxTenants;
+
+	private final Map<String, BasicCSP> csps;
+	private final Map<SharedXdiClientKey, SharedXdiClient> sharedXdiClients;
+	private final Map<XDIClient, SharedXdiClient> sharedXdiClientsByXdiClient;
+
+	private final AtomicLong createdCount = new AtomicLong();
+	private final AtomicLong evictedCount = new AtomicLong();
+
+	public CSPManager(XDITransport xdiTransport, CSPInformationProvider cspInformationProvider, int maxTenants) {
+
+		this(xdiTransport, false, cspInformationProvider, maxTenants);
+	}
+
+	/**
+	 * Creates a CSPManager with its own PooledXDITransport, which is closed by close().
+	 */
+	public CSPManager(CSPInformationProvider cspInformationProvider) {
+
+		this(new PooledXDITransport(), true, cspInformationProvider, DEFAULT_MAX_TENANTS);
+	}
+
+	private CSPManager(XDITransport xdiTransport, boolean ownsXdiTransport, CSPInformationProvider cspInformationProvider, int maxTenants) {
+
+		if (maxTenants < 1) throw new IllegalArgumentException("Invalid maximum number of tenants: " + maxTenants);
+
+		this.xdiTransport = xdiTransport;
+		this.ownsXdiTransport = ownsXdiTransport;
+		this.cspInformationProvider = cspInformationProvider;
+		this.maxTenants = maxTenants;
+
+		this.csps = new LinkedHashMap<String, BasicCSP> (16, 0.75f, true) {
+
+			private static final long serialVersionUID = 4208916389384720261L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, BasicCSP> eldest) {
+
+				if (this.size() <= CSPManager.this.maxTenants) return false;
+
+				CSPManager.this.evictedCount.incrementAndGet();
+				if (log.isDebugEnabled()) log.debug("Evicting CSP of tenant " + eldest.getKey());
+
+				CSPManager.this.releaseXdiClients(eldest.getValue());
+
+				return true;
+			}
+		};
+
+		this.sharedXdiClients = new HashMap<SharedXdiClientKey, SharedXdiClient> ();
+		this.sharedXdiClientsByXdiClient = new IdentityHashMap<XDIClient, SharedXdiClient> ();
+	}
+
+	/**
+	 * Returns the CSP of a tenant, creating it if necessary.
+	 * @throws IllegalArgumentException If the provider does not know the tenant.
+	 */
+	public BatchCSP getCsp(String tenantId) {
+
+		BasicCSP csp;
+
+		synchronized (this.csps) {
+
+			csp = this.csps.get(tenantId);
+		}
+
+		if (csp != null) return csp;
+
+		CSPInformation cspInformation = this.lookupCspInformation(tenantId);
+
+		synchronized (this.csps) {
+
+			csp = this.csps.get(tenantId);
+
+			if (csp == null) {
+
+				csp = new BasicCSP(
+						cspInformation,
+						this.acquireXdiClient(BasicCSP.getRespectNetworkRegistrationServiceXdiEndpoints(cspInformation), BasicCSP.getRespectNetworkRegistrationServiceWireSettings(cspInformation)),
+						this.acquireXdiClient(BasicCSP.getHostingEnvironmentRegistryXdiEndpoints(cspInformation), BasicCSP.getHostingEnvironmentRegistryWireSettings(cspInformation)));
+
+				this.csps.put(tenantId, csp);
+				this.createdCount.incrementAndGet();
+			}
+		}
+
+		return csp;
+	}
+
+	/**
+	 * Reloads a tenant's CSPInformation from the provider. If the tenant's CSP exists, it switches to the new
+	 * credentials and endpoints immediately; otherwise the new information is used when it is created.
+	 */
+	public void reload(String tenantId) {
+
+		synchronized (this.csps) {
+
+			if (! this.csps.containsKey(tenantId)) return;
+		}
+
+		CSPInformation cspInformation = this.lookupCspInformation(tenantId);
+
+		synchronized (this.csps) {
+
+			BasicCSP csp = this.csps.get(tenantId);
+			if (csp == null) return;
+
+			this.reload(csp, cspInformation);
+		}
+
+		log.info("Reloaded CSP information of tenant " + tenantId);
+	}
+
+	/**
+	 * Removes a tenant's CSP; it is recreated from the provider when used again.
+	 */
+	public void evict(String tenantId) {
+
+		synchronized (this.csps) {
+
+			BasicCSP csp = this.csps.remove(tenantId);
+			if (csp != null) this.releaseXdiClients(csp);
+		}
+	}
+
+	public void evictAll() {
+
+		synchronized (this.csps) {
+
+			for (BasicCSP csp : this.csps.values()) this.releaseXdiClients(csp);
+
+			this.csps.clear();
+		}
+	}
+
+	/**
+	 * Evicts all tenants, and closes the XDITransport if this CSPManager created it.
+	 */
+	public void close() {
+
+		this.evictAll();
+
+		if (this.ownsXdiTransport) this.xdiTransport.close();
+	}
+
+	/**
+	 * Runs the active health checks of the shared LoadBalancingXDIClients, through the CSPs of tenants that use them.
+	 * See BasicCSP.checkHealth(). Schedule this periodically, e.g. with a ScheduledExecutorService.
+	 */
+	public void checkHealth() {
+
+		List<BasicCSP> csps = new ArrayList<BasicCSP> ();
+
+		synchronized (this.csps) {
+
+			// one tenant per shared client is enough, since all of its tenants see the same replicas
+
+			Map<XDIClient, Boolean> checkedXdiClients = new IdentityHashMap<XDIClient, Boolean> ();
+
+			for (BasicCSP csp : this.csps.values()) {
+
+				XDIClient xdiClientRespectNetworkRegistrationService = csp.getXdiClientRespectNetworkRegistrationService();
+				XDIClient xdiClientHostingEnvironmentRegistry = csp.getXdiClientHostingEnvironmentRegistry();
+
+				boolean check = false;
+
+				if (this.sharedXdiClientsByXdiClient.containsKey(xdiClientRespectNetworkRegistrationService) && checkedXdiClients.put(xdiClientRespectNetworkRegistrationService, Boolean.TRUE) == null) check = true;
+				if (this.sharedXdiClientsByXdiClient.containsKey(xdiClientHostingEnvironmentRegistry) && checkedXdiClients.put(xdiClientHostingEnvironmentRegistry, Boolean.TRUE) == null) check = true;
+
+				if (check) csps.add(csp);
+			}
+		}
+
+		for (BasicCSP csp : csps) {
+
+			try {
+
+				csp.checkHealth();
+			} catch (RuntimeException ex) {
+
+				log.warn("Cannot check health of replicas: " + ex.getMessage(), ex);
+			}
+		}
+	}
+
+	/*
+	 * Helper methods
+	 */
+
+	private CSPInformation lookupCspInformation(String tenantId) {
+
+		CSPInformation cspInformation;
+
+		try {
+
+			cspInformation = this.cspInformationProvider.getCspInformation(tenantId);
+		} catch (Exception ex) {
+
+			throw new RuntimeException("Cannot look up CSP information of tenant " + tenantId + ": " + ex.getMessage(), ex);
+		}
+
+		if (cspInformation == null) throw new IllegalArgumentException("Unknown tenant: " + tenantId);
+
+		return cspInformation;
+	}
+
+	/**
+	 * Switches a CSP to new CSPInformation. Must be called while holding the lock on csps.
+	 */
+	private void reload(BasicCSP csp, CSPInformation cspInformation) {
+
+		XDIClient oldXdiClientRespectNetworkRegistrationService = csp.getXdiClientRespectNetworkRegistrationService();
+		XDIClient oldXdiClientHostingEnvironmentRegistry = csp.getXdiClientHostingEnvironmentRegistry();
+
+		// unchanged endpoints and settings get the same shared client back
+
+		XDIClient xdiClientRespectNetworkRegistrationService = this.acquireXdiClient(BasicCSP.getRespectNetworkRegistrationServiceXdiEndpoints(cspInformation), BasicCSP.getRespectNetworkRegistrationServiceWireSettings(cspInformation));
+		XDIClient xdiClientHostingEnvironmentRegistry = this.acquireXdiClient(BasicCSP.getHostingEnvironmentRegistryXdiEndpoints(cspInformation), BasicCSP.getHostingEnvironmentRegistryWireSettings(cspInformation));
+
+		// publish the new clients and CSPInformation together, so that no message goes to the new endpoints with the old credentials
+
+		csp.setCspInformation(cspInformation, xdiClientRespectNetworkRegistrationService, xdiClientHostingEnvironmentRegistry);
+
+		this.releaseXdiClient(oldXdiClientRespectNetworkRegistrationService);
+		this.releaseXdiClient(oldXdiClientHostingEnvironmentRegistry);
+	}
+
+	/**
+	 * Returns the XDIClient for a service: the transport's client for a single endpoint, or else the shared
+	 * LoadBalancingXDIClient for the replicas and settings, which is created if necessary.
+	 * Must be called while holding the lock on csps, and paired with releaseXdiClient().
+	 */
+	private XDIClient acquireXdiClient(List<String> endpoints, XDIWireSettings wireSettings) {
+
+		if (endpoints.size() == 1) return this.xdiTransport.getXdiClient(endpoints.get(0), wireSettings);
+
+		SharedXdiClientKey key = new SharedXdiClientKey(endpoints, wireSettings);
+		SharedXdiClient sharedXdiClient = this.sharedXdiClients.get(key);
+
+		if (sharedXdiClient == null) {
+
+			sharedXdiClient = new SharedXdiClient(key, new LoadBalancingXDIClient(endpoints, this.xdiTransport, wireSettings));
+
+			this.sharedXdiClients.put(key, sharedXdiClient);
+			this.sharedXdiClientsByXdiClient.put(sharedXdiClient.xdiClient, sharedXdiClient);
+
+			if (log.isDebugEnabled()) log.debug("Created shared XDI client for " + endpoints);
+		}
+
+		sharedXdiClient.references++;
+
+		return sharedXdiClient.xdiClient;
+	}
+
+	/**
+	 * Gives back an XDIClient returned by acquireXdiClient(), and closes it if it is shared and no longer used.
+	 * Must be called while holding the lock on csps.
+	 */
+	private void releaseXdiClient(XDIClient xdiClient) {
+
+		SharedXdiClient sharedXdiClient = this.sharedXdiClientsByXdiClient.get(xdiClient);
+		if (sharedXdiClient == null) return;
+
+		if (--sharedXdiClient.references > 0) return;
+
+		this.sharedXdiClients.remove(sharedXdiClient.key);
+		this.sharedXdiClientsByXdiClient.remove(xdiClient);
+
+		xdiClient.close();
+
+		if (log.isDebugEnabled()) log.debug("Closed shared XDI client for " + sharedXdiClient.key.endpoints);
+	}
+
+	private void releaseXdiClients(BasicCSP csp) {
+
+		this.releaseXdiClient(csp.getXdiClientRespectNetworkRegistrationService());
+		this.releaseXdiClient(csp.getXdiClientHostingEnvironmentRegistry());
+	}
+
+	private static boolean equals(Object object1, Object object2) {
+
+		return object1 == null ? object2 == null : object1.equals(object2);
+	}
+
+	/**
+	 * The replicas and XDIWireSettings of a shared LoadBalancingXDIClient.
+	 */
+	private static class SharedXdiClientKey {
+
+		private final List<String> endpoints;
+		private final XDIWireSettings wireSettings;
+
+		private SharedXdiClientKey(List<String> endpoints, XDIWireSettings wireSettings) {
+
+			this.endpoints = new ArrayList<String> (endpoints);
+			this.wireSettings = wireSettings;
+		}
+
+		@Override
+		public boolean equals(Object object) {
+
+			if (object == this) return true;
+			if (! (object instanceof SharedXdiClientKey)) return false;
+
+			SharedXdiClientKey other = (SharedXdiClientKey) object;
+
+			return this.endpoints.equals(other.endpoints) && CSPManager.equals(this.wireSettings, other.wireSettings);
+		}
+
+		@Override
+		public int hashCode() {
+
+			return 31 * this.endpoints.hashCode() + (this.wireSettings == null ? 0 : this.wireSettings.hashCode());
+		}
+	}
+
+	/**
+	 * A shared LoadBalancingXDIClient, and the number of tenant services that use it.
+	 */
+	private static class SharedXdiClient {
+
+		private final SharedXdiClientKey key;
+		private final LoadBalancingXDIClient xdiClient;
+		private int references;
+
+		private SharedXdiClient(SharedXdiClientKey key, LoadBalancingXDIClient xdiClient) {
+
+			this.key = key;
+			this.xdiClient = xdiClient;
+			this.references = 0;
+		}
+	}
+
+	/*
+	 * Getters
+	 */
+
+	public XDITransport getXdiTransport() {
+
+		return this.xdiTransport;
+	}
+
+	public CSPInformationProvider getCspInformationProvider() {
+
+		return this.cspInformationProvider;
+	}
+
+	public int getMaxTenants() {
+
+		return this.maxTenants;
+	}
+
+	public int size() {
+
+		synchronized (this.csps) {
+
+			return this.csps.size();
+		}
+	}
+
+	/**
+	 * Returns the number of LoadBalancingXDIClients currently shared by the tenants.
+	 */
+	public int getSharedXdiClientCount() {
+
+		synchronized (this.csps) {
+
+			return this.sharedXdiClients.size();
+		}
+	}
+
+	public long getCreatedCount() {
+
+		return this.createdCount.get();
+	}
+
+	public long getEvictedCount() {
+
+		return this.evictedCount.get();
+	}
+}
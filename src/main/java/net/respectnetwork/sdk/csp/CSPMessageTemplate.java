@@ -0,0 +1,105 @@
+package net.respectnetwork.sdk.csp;
+
+import xdi2.core.constants.XDIAuthenticationConstants;
+import xdi2.core.constants.XDIConstants;
+import xdi2.core.features.nodetypes.XdiPeerRoot;
+import xdi2.core.util.XDI3Util;
+import xdi2.core.xri3.XDI3Segment;
+import xdi2.messaging.Message;
+import xdi2.messaging.MessageEnvelope;
+
+/**
+ * An immutable template for the messages a CSP sends to one target.
+ * All XRIs of the common message prefix (sender, TO authority, link contract, secret token)
+ * are computed once, so creating a message only needs to add the operations.
+ */
+public class CSPMessageTemplate {
+
+	public static final XDI3Segment XRI_S_SECRET_TOKEN_VALUE = XDI3Util.concatXris(XDIAuthenticationConstants.XRI_S_SECRET_TOKEN, XDIConstants.XRI_S_VALUE);
+
+	private final XDI3Segment senderXri;
+	private final XDI3Segment toAuthorityCloudNumber;
+	private final XDI3Segment toAuthority;
+	private final XDI3Segment linkContractXri;
+	private final String secretToken;
+
+	public CSPMessageTemplate(XDI3Segment senderXri, XDI3Segment toAuthorityCloudNumber, XDI3Segment linkContractXri, String secretToken) {
+
+		this.senderXri = senderXri;
+		this.toAuthorityCloudNumber = toAuthorityCloudNumber;
+		this.toAuthority = XDI3Segment.fromComponent(XdiPeerRoot.createPeerRootArcXri(toAuthorityCloudNumber));
+		this.linkContractXri = linkContractXri;
+		this.secretToken = secretToken;
+	}
+
+	/**
+	 * Creates a template for messages to the Respect Network Registration Service.
+	 */
+	public static CSPMessageTemplate forRespectNetworkRegistrationService(CSPInformation cspInformation) {
+
+		return new CSPMessageTemplate(cspInformation.getCspCloudNumber(), cspInformation.getRespectNetworkCloudNumber(), BasicCSP.REGISTRAR_LINK_CONTRACT, cspInformation.getCspSecretToken());
+	}
+
+	/**
+	 * Creates a template for messages to the CSP's own Hosting Environment Registry.
+	 */
+	public static CSPMessageTemplate forHostingEnvironmentRegistry(CSPInformation cspInformation) {
+
+		return new CSPMessageTemplate(cspInformation.getCspCloudNumber(), cspInformation.getCspCloudNumber(), BasicCSP.HOSTING_ENVIRONMENT_LINK_CONTRACT, cspInformation.getCspSecretToken());
+	}
+
+	/**
+	 * Creates a new message in a new message envelope, with the common prefix already set.
+	 */
+	public Message createMessage() {
+
+		MessageEnvelope messageEnvelope = new MessageEnvelope();
+
+		Message message = messageEnvelope.createMessage(this.senderXri);
+		message.setToAuthority(this.toAuthority);
+		message.setLinkContractXri(this.linkContractXri);
+		message.getContextNode().setDeepLiteral(XRI_S_SECRET_TOKEN_VALUE, this.secretToken);
+
+		return message;
+	}
+
+	/**
+	 * Checks if this template was built from the current values of the given CSPInformation
+	 * for the given TO authority, i.e. if it can still be used.
+	 */
+	boolean isCurrent(CSPInformation cspInformation, XDI3Segment toAuthorityCloudNumber) {
+
+		return equals(this.senderXri, cspInformation.getCspCloudNumber()) &&
+				equals(this.toAuthorityCloudNumber, toAuthorityCloudNumber) &&
+				equals(this.secretToken, cspInformation.getCspSecretToken());
+	}
+
+	private static boolean equals(Object object1, Object object2) {
+
+		return object1 == null ? object2 == null : object1.equals(object2);
+	}
+
+	/*
+	 * Getters
+	 */
+
+	public XDI3Segment getSenderXri() {
+
+		return this.senderXri;
+	}
+
+	public XDI3Segment getToAuthority() {
+
+		return this.toAuthority;
+	}
+
+	public XDI3Segment getLinkContractXri() {
+
+		return this.linkContractXri;
+	}
+
+	public String getSecretToken() {
+
+		return this.secretToken;
+	}
+}
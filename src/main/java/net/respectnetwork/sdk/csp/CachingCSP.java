@@ -0,0 +1,369 @@
+package net.respectnetwork.sdk.csp;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import xdi2.client.exceptions.Xdi2ClientException;
+import xdi2.core.xri3.XDI3Segment;
+
+/**
+ * A CSP that caches the results of Cloud Name availability checks of another CSP.
+ * Registered Cloud Names are cached for the positive TTL, available Cloud Names for the (usually much shorter)
+ * negative TTL. The cache holds at most maxSize Cloud Names and evicts the least recently used ones.
+ * Registering a Cloud Name through this CSP updates its cache entry.
+ * Invalidating a Cloud Name bumps its version, and a lookup that was in flight while the version changed
+ * does not cache its (possibly stale) result. Versions are kept per stripe of Cloud Names, so an
+ * invalidation may occasionally keep another Cloud Name's lookup from being cached as well.
+ */
+public class CachingCSP implements BatchCSP {
+
+	private static final Logger log = LoggerFactory.getLogger(CachingCSP.class);
+
+	public static final long DEFAULT_POSITIVE_TTL_MILLIS = TimeUnit.HOURS.toMillis(1);
+	public static final long DEFAULT_NEGATIVE_TTL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+	public static final int DEFAULT_MAX_SIZE = 10000;
+
+	private static final int VERSION_STRIPES = 1024;
+
+	private BatchCSP csp;
+	private long positiveTtlMillis;
+	private long negativeTtlMillis;
+	private int maxSize;
+
+	private final Map<XDI3Segment, CacheEntry> cache;
+	private final long[] versions;
+
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
+	private final AtomicLong expirationCount = new AtomicLong();
+
+	public CachingCSP(BatchCSP csp, long positiveTtlMillis, long negativeTtlMillis, int maxSize) {
+
+		if (maxSize < 1) throw new IllegalArgumentException("Invalid maximum size: " + maxSize);
+
+		this.csp = csp;
+		this.positiveTtlMillis = positiveTtlMillis;
+		this.negativeTtlMillis = negativeTtlMillis;
+		this.maxSize = maxSize;
+
+		this.cache = new LinkedHashMap<XDI3Segment, CacheEntry> (16, 0.75f, true) {
+
+			private static final long serialVersionUID = -2735622471209846283L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<XDI3Segment, CacheEntry> eldest) {
+
+				if (this.size() <= CachingCSP.this.getMaxSize()) return false;
+
+				CachingCSP.this.evictionCount.incrementAndGet();
+
+				return true;
+			}
+		};
+		this.versions = new long[VERSION_STRIPES];
+	}
+
+	public CachingCSP(BatchCSP csp) {
+
+		this(csp, DEFAULT_POSITIVE_TTL_MILLIS, DEFAULT_NEGATIVE_TTL_MILLIS, DEFAULT_MAX_SIZE);
+	}
+
+	public CloudNameRegistration checkCloudNameAvailable(XDI3Segment cloudName) throws Xdi2ClientException {
+
+		CacheEntry cacheEntry = this.get(cloudName);
+		if (cacheEntry != null) return cacheEntry.cloudNameRegistration;
+
+		long version = this.getVersion(cloudName);
+
+		CloudNameRegistration cloudNameRegistration = this.getCsp().checkCloudNameAvailable(cloudName);
+
+		this.put(cloudName, cloudNameRegistration, version);
+
+		return cloudNameRegistration;
+	}
+
+	public Map<XDI3Segment, CloudNameRegistration> checkCloudNamesAvailable(Collection<XDI3Segment> cloudNames) throws Xdi2ClientException {
+
+		Map<XDI3Segment, CloudNameRegistration> cloudNameRegistrations = new LinkedHashMap<XDI3Segment, CloudNameRegistration> ();
+		List<XDI3Segment> missingCloudNames = new ArrayList<XDI3Segment> ();
+		List<Long> missingVersions = new ArrayList<Long> ();
+
+		for (XDI3Segment cloudName : cloudNames) {
+
+			if (cloudNameRegistrations.containsKey(cloudName)) continue;
+
+			CacheEntry cacheEntry = this.get(cloudName);
+
+			if (cacheEntry != null) {
+
+				cloudNameRegistrations.put(cloudName, cacheEntry.cloudNameRegistration);
+			} else {
+
+				cloudNameRegistrations.put(cloudName, null);
+				missingCloudNames.add(cloudName);
+				missingVersions.add(Long.valueOf(this.getVersion(cloudName)));
+			}
+		}
+
+		if (! missingCloudNames.isEmpty()) {
+
+			Map<XDI3Segment, CloudNameRegistration> missingCloudNameRegistrations = this.getCsp().checkCloudNamesAvailable(missingCloudNames);
+
+			for (int i = 0; i < missingCloudNames.size(); i++) {
+
+				XDI3Segment cloudName = missingCloudNames.get(i);
+				CloudNameRegistration cloudNameRegistration = missingCloudNameRegistrations.get(cloudName);
+
+				this.put(cloudName, cloudNameRegistration, missingVersions.get(i).longValue());
+				cloudNameRegistrations.put(cloudName, cloudNameRegistration);
+			}
+		}
+
+		return cloudNameRegistrations;
+	}
+
+	public CloudNameRegistration registerCloudName(XDI3Segment cloudName) throws Xdi2ClientException {
+
+		this.invalidate(cloudName);
+
+		CloudNameRegistration cloudNameRegistration = this.getCsp().registerCloudName(cloudName);
+
+		if (cloudNameRegistration != null) this.replace(cloudName, cloudNameRegistration);
+
+		return cloudNameRegistration;
+	}
+
+	public CloudNameRegistration registerCloudName(XDI3Segment cloudName, XDI3Segment cloudNumber) throws Xdi2ClientException {
+
+		this.invalidate(cloudName);
+
+		CloudNameRegistration cloudNameRegistration = this.getCsp().registerCloudName(cloudName, cloudNumber);
+
+		if (cloudNameRegistration != null) this.replace(cloudName, cloudNameRegistration);
+
+		return cloudNameRegistration;
+	}
+
+	public CloudRegistration registerCloud(CloudNameRegistration cloudNameRegistration, String secretToken) throws Xdi2ClientException {
+
+		return this.getCsp().registerCloud(cloudNameRegistration, secretToken);
+	}
+
+	public void registerCloudXdiUrl(CloudNameRegistration cloudNameRegistration, CloudRegistration cloudRegistration) throws Xdi2ClientException {
+
+		this.getCsp().registerCloudXdiUrl(cloudNameRegistration, cloudRegistration);
+	}
+
+	public void generateCloudSecretToken(CloudNameRegistration cloudNameRegistration, String secretToken) throws Xdi2ClientException {
+
+		this.getCsp().generateCloudSecretToken(cloudNameRegistration, secretToken);
+	}
+
+	public void generateCloudSecretTokens(Map<CloudNameRegistration, String> secretTokens) throws Xdi2ClientException {
+
+		this.getCsp().generateCloudSecretTokens(secretTokens);
+	}
+
+	/*
+	 * Cache methods
+	 */
+
+	public void invalidate(XDI3Segment cloudName) {
+
+		synchronized (this.cache) {
+
+			this.cache.remove(cloudName);
+			this.versions[stripe(cloudName)]++;
+		}
+	}
+
+	public void invalidateAll() {
+
+		synchronized (this.cache) {
+
+			this.cache.clear();
+			for (int i = 0; i < this.versions.length; i++) this.versions[i]++;
+		}
+	}
+
+	public int size() {
+
+		synchronized (this.cache) {
+
+			return this.cache.size();
+		}
+	}
+
+	private CacheEntry get(XDI3Segment cloudName) {
+
+		CacheEntry cacheEntry;
+
+		synchronized (this.cache) {
+
+			cacheEntry = this.cache.get(cloudName);
+
+			if (cacheEntry != null && cacheEntry.expires - System.nanoTime() <= 0) {
+
+				this.cache.remove(cloudName);
+				this.expirationCount.incrementAndGet();
+
+				cacheEntry = null;
+			}
+		}
+
+		if (cacheEntry != null) {
+
+			this.hitCount.incrementAndGet();
+
+			if (log.isDebugEnabled()) log.debug("Cache hit for Cloud Name " + cloudName);
+		} else {
+
+			this.missCount.incrementAndGet();
+		}
+
+		return cacheEntry;
+	}
+
+	private long getVersion(XDI3Segment cloudName) {
+
+		synchronized (this.cache) {
+
+			return this.versions[stripe(cloudName)];
+		}
+	}
+
+	/**
+	 * Caches the result of a lookup, unless the Cloud Name was invalidated since the lookup started.
+	 */
+	private void put(XDI3Segment cloudName, CloudNameRegistration cloudNameRegistration, long version) {
+
+		long ttlMillis = cloudNameRegistration != null ? this.getPositiveTtlMillis() : this.getNegativeTtlMillis();
+		if (ttlMillis <= 0) return;
+
+		CacheEntry cacheEntry = new CacheEntry(cloudNameRegistration, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttlMillis));
+
+		synchronized (this.cache) {
+
+			if (this.versions[stripe(cloudName)] != version) {
+
+				if (log.isDebugEnabled()) log.debug("Not caching Cloud Name " + cloudName + ", since it was invalidated during the lookup.");
+				return;
+			}
+
+			this.cache.put(cloudName, cacheEntry);
+		}
+	}
+
+	/**
+	 * Caches a registration, and keeps lookups that are still in flight from overwriting it.
+	 */
+	private void replace(XDI3Segment cloudName, CloudNameRegistration cloudNameRegistration) {
+
+		long ttlMillis = this.getPositiveTtlMillis();
+
+		CacheEntry cacheEntry = ttlMillis > 0 ? new CacheEntry(cloudNameRegistration, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttlMillis)) : null;
+
+		synchronized (this.cache) {
+
+			this.versions[stripe(cloudName)]++;
+
+			if (cacheEntry != null) this.cache.put(cloudName, cacheEntry); else this.cache.remove(cloudName);
+		}
+	}
+
+	private static int stripe(XDI3Segment cloudName) {
+
+		return (cloudName.hashCode() & 0x7fffffff) % VERSION_STRIPES;
+	}
+
+	private static class CacheEntry {
+
+		private final CloudNameRegistration cloudNameRegistration;
+		private final long expires;
+
+		private CacheEntry(CloudNameRegistration cloudNameRegistration, long expires) {
+
+			this.cloudNameRegistration = cloudNameRegistration;
+			this.expires = expires;
+		}
+	}
+
+	/*
+	 * Statistics
+	 */
+
+	public long getHitCount() {
+
+		return this.hitCount.get();
+	}
+
+	public long getMissCount() {
+
+		return this.missCount.get();
+	}
+
+	public long getEvictionCount() {
+
+		return this.evictionCount.get();
+	}
+
+	public long getExpirationCount() {
+
+		return this.expirationCount.get();
+	}
+
+	/*
+	 * Getters and setters
+	 */
+
+	public BatchCSP getCsp() {
+
+		return this.csp;
+	}
+
+	public void setCsp(BatchCSP csp) {
+
+		this.csp = csp;
+	}
+
+	public long getPositiveTtlMillis() {
+
+		return this.positiveTtlMillis;
+	}
+
+	public void setPositiveTtlMillis(long positiveTtlMillis) {
+
+		this.positiveTtlMillis = positiveTtlMillis;
+	}
+
+	public long getNegativeTtlMillis() {
+
+		return this.negativeTtlMillis;
+	}
+
+	public void setNegativeTtlMillis(long negativeTtlMillis) {
+
+		this.negativeTtlMillis = negativeTtlMillis;
+	}
+
+	public int getMaxSize() {
+
+		return this.maxSize;
+	}
+
+	public void setMaxSize(int maxSize) {
+
+		if (maxSize < 1) throw new IllegalArgumentException("Invalid maximum size: " + maxSize);
+
+		this.maxSize = maxSize;
+	}
+}
@@ -0,0 +1,223 @@
+package net.respectnetwork.sdk.csp;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import xdi2.client.exceptions.Xdi2ClientException;
+import xdi2.core.xri3.XDI3Segment;
+
+/**
+ * A CSP that coalesces concurrent identical checkCloudNameAvailable() and registerCloudName() calls to another CSP.
+ * While a call for a Cloud Name is in flight, further calls of the same operation for the same Cloud Name wait
+ * for it instead of sending their own message. A call that starts after the in-flight call has completed sends
+ * a new message. All other calls are passed through, including registerCloudName() with a Cloud Number,
+ * whose callers may depend on their own Cloud Number being registered.
+ * 
+ * Coalesced checkCloudNameAvailable() calls return the result of the call in flight or throw its exception.
+ * A registration belongs to one signup only, so a coalesced registerCloudName() call never returns the
+ * registration of the call in flight: if that call succeeded, it throws an Xdi2ClientException as if the
+ * Cloud Name had already been registered, and otherwise it throws the same exception.
+ */
+public class CoalescingCSP implements BatchCSP {
+
+	private static final Logger log = LoggerFactory.getLogger(CoalescingCSP.class);
+
+	private BatchCSP csp;
+
+	private final ConcurrentMap<InFlightKey, FutureTask<CloudNameRegistration>> inFlight;
+
+	private final AtomicLong callCount = new AtomicLong();
+	private final AtomicLong coalescedCount = new AtomicLong();
+
+	public CoalescingCSP(BatchCSP csp) {
+
+		this.csp = csp;
+		this.inFlight = new ConcurrentHashMap<InFlightKey, FutureTask<CloudNameRegistration>> ();
+	}
+
+	public CloudNameRegistration checkCloudNameAvailable(final XDI3Segment cloudName) throws Xdi2ClientException {
+
+		return this.coalesce(BasicCSP.OPERATION_CHECK_CLOUD_NAME_AVAILABLE, cloudName, true, new Callable<CloudNameRegistration>() {
+
+			public CloudNameRegistration call() throws Exception {
+
+				return CoalescingCSP.this.getCsp().checkCloudNameAvailable(cloudName);
+			}
+		});
+	}
+
+	public Map<XDI3Segment, CloudNameRegistration> checkCloudNamesAvailable(Collection<XDI3Segment> cloudNames) throws Xdi2ClientException {
+
+		return this.getCsp().checkCloudNamesAvailable(cloudNames);
+	}
+
+	public CloudNameRegistration registerCloudName(final XDI3Segment cloudName) throws Xdi2ClientException {
+
+		return this.coalesce(BasicCSP.OPERATION_REGISTER_CLOUD_NAME, cloudName, false, new Callable<CloudNameRegistration>() {
+
+			public CloudNameRegistration call() throws Exception {
+
+				return CoalescingCSP.this.getCsp().registerCloudName(cloudName);
+			}
+		});
+	}
+
+	public CloudNameRegistration registerCloudName(XDI3Segment cloudName, XDI3Segment cloudNumber) throws Xdi2ClientException {
+
+		return this.getCsp().registerCloudName(cloudName, cloudNumber);
+	}
+
+	public CloudRegistration registerCloud(CloudNameRegistration cloudNameRegistration, String secretToken) throws Xdi2ClientException {
+
+		return this.getCsp().registerCloud(cloudNameRegistration, secretToken);
+	}
+
+	public void registerCloudXdiUrl(CloudNameRegistration cloudNameRegistration, CloudRegistration cloudRegistration) throws Xdi2ClientException {
+
+		this.getCsp().registerCloudXdiUrl(cloudNameRegistration, cloudRegistration);
+	}
+
+	public void generateCloudSecretToken(CloudNameRegistration cloudNameRegistration, String secretToken) throws Xdi2ClientException {
+
+		this.getCsp().generateCloudSecretToken(cloudNameRegistration, secretToken);
+	}
+
+	public void generateCloudSecretTokens(Map<CloudNameRegistration, String> secretTokens) throws Xdi2ClientException {
+
+		this.getCsp().generateCloudSecretTokens(secretTokens);
+	}
+
+	/*
+	 * Helper methods
+	 */
+
+	/**
+	 * Runs the call in the calling thread, unless the same operation for the same Cloud Name is already
+	 * in flight, in which case its completion is awaited. Unless shareResult is set, a successful result
+	 * is only returned to the caller that ran the call.
+	 */
+	private CloudNameRegistration coalesce(String operation, XDI3Segment cloudName, boolean shareResult, Callable<CloudNameRegistration> callable) throws Xdi2ClientException {
+
+		this.callCount.incrementAndGet();
+
+		InFlightKey key = new InFlightKey(operation, cloudName);
+		FutureTask<CloudNameRegistration> task = new FutureTask<CloudNameRegistration> (callable);
+		FutureTask<CloudNameRegistration> inFlightTask = this.inFlight.putIfAbsent(key, task);
+		boolean coalesced = inFlightTask != null;
+
+		if (! coalesced) {
+
+			try {
+
+				task.run();
+			} finally {
+
+				this.inFlight.remove(key, task);
+			}
+		} else {
+
+			this.coalescedCount.incrementAndGet();
+
+			if (log.isDebugEnabled()) log.debug("Coalescing " + operation + " for Cloud Name " + cloudName + " with the call in flight");
+
+			task = inFlightTask;
+		}
+
+		CloudNameRegistration cloudNameRegistration;
+
+		try {
+
+			cloudNameRegistration = task.get();
+		} catch (InterruptedException ex) {
+
+			Thread.currentThread().interrupt();
+
+			throw new Xdi2ClientException("Interrupted while waiting for " + operation + " of Cloud Name " + cloudName, ex, null);
+		} catch (ExecutionException ex) {
+
+			Throwable cause = ex.getCause();
+
+			if (cause instanceof Xdi2ClientException) throw (Xdi2ClientException) cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			if (cause instanceof Error) throw (Error) cause;
+
+			throw new RuntimeException(cause.getMessage(), cause);
+		}
+
+		if (coalesced && ! shareResult) throw new Xdi2ClientException("Cloud Name " + cloudName + " has been registered by a concurrent " + operation + " call.", null, null);
+
+		return cloudNameRegistration;
+	}
+
+	private static class InFlightKey {
+
+		private final String operation;
+		private final XDI3Segment cloudName;
+
+		private InFlightKey(String operation, XDI3Segment cloudName) {
+
+			this.operation = operation;
+			this.cloudName = cloudName;
+		}
+
+		@Override
+		public boolean equals(Object object) {
+
+			if (object == this) return true;
+			if (! (object instanceof InFlightKey)) return false;
+
+			InFlightKey other = (InFlightKey) object;
+
+			return this.operation.equals(other.operation) && this.cloudName.equals(other.cloudName);
+		}
+
+		@Override
+		public int hashCode() {
+
+			return 31 * this.operation.hashCode() + this.cloudName.hashCode();
+		}
+	}
+
+	/*
+	 * Statistics
+	 */
+
+	/**
+	 * Returns the number of checkCloudNameAvailable() and registerCloudName() calls.
+	 */
+	public long getCallCount() {
+
+		return this.callCount.get();
+	}
+
+	/**
+	 * Returns the number of calls that waited for a call in flight instead of sending a message.
+	 */
+	public long getCoalescedCount() {
+
+		return this.coalescedCount.get();
+	}
+
+	/*
+	 * Getters and setters
+	 */
+
+	public BatchCSP getCsp() {
+
+		return this.csp;
+	}
+
+	public void setCsp(BatchCSP csp) {
+
+		this.csp = csp;
+	}
+}
@@ -0,0 +1,132 @@
+package net.respectnetwork.sdk.csp;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.respectnetwork.sdk.csp.index.CloudIndex;
+import net.respectnetwork.sdk.csp.index.CloudIndexEntry;
+import xdi2.client.exceptions.Xdi2ClientException;
+import xdi2.core.xri3.XDI3Segment;
+
+/**
+ * A CSP that records the Clouds provisioned through another CSP in a local CloudIndex.
+ * The index is updated after every successful registerCloudName(), registerCloud() and registerCloudXdiUrl().
+ * Failures to update the index are logged, but do not fail the registration, which has already succeeded.
+ */
+public class IndexingCSP implements BatchCSP {
+
+	private static final Logger log = LoggerFactory.getLogger(IndexingCSP.class);
+
+	private BatchCSP csp;
+	private CloudIndex cloudIndex;
+
+	public IndexingCSP(BatchCSP csp, CloudIndex cloudIndex) {
+
+		this.csp = csp;
+		this.cloudIndex = cloudIndex;
+	}
+
+	public CloudNameRegistration checkCloudNameAvailable(XDI3Segment cloudName) throws Xdi2ClientException {
+
+		return this.getCsp().checkCloudNameAvailable(cloudName);
+	}
+
+	public Map<XDI3Segment, CloudNameRegistration> checkCloudNamesAvailable(Collection<XDI3Segment> cloudNames) throws Xdi2ClientException {
+
+		return this.getCsp().checkCloudNamesAvailable(cloudNames);
+	}
+
+	public CloudNameRegistration registerCloudName(XDI3Segment cloudName) throws Xdi2ClientException {
+
+		CloudNameRegistration cloudNameRegistration = this.getCsp().registerCloudName(cloudName);
+
+		if (cloudNameRegistration != null) this.index(cloudNameRegistration, null);
+
+		return cloudNameRegistration;
+	}
+
+	public CloudNameRegistration registerCloudName(XDI3Segment cloudName, XDI3Segment cloudNumber) throws Xdi2ClientException {
+
+		CloudNameRegistration cloudNameRegistration = this.getCsp().registerCloudName(cloudName, cloudNumber);
+
+		if (cloudNameRegistration != null) this.index(cloudNameRegistration, null);
+
+		return cloudNameRegistration;
+	}
+
+	public CloudRegistration registerCloud(CloudNameRegistration cloudNameRegistration, String secretToken) throws Xdi2ClientException {
+
+		CloudRegistration cloudRegistration = this.getCsp().registerCloud(cloudNameRegistration, secretToken);
+
+		this.index(cloudNameRegistration, cloudRegistration);
+
+		return cloudRegistration;
+	}
+
+	public void registerCloudXdiUrl(CloudNameRegistration cloudNameRegistration, CloudRegistration cloudRegistration) throws Xdi2ClientException {
+
+		this.getCsp().registerCloudXdiUrl(cloudNameRegistration, cloudRegistration);
+
+		this.index(cloudNameRegistration, cloudRegistration);
+	}
+
+	public void generateCloudSecretToken(CloudNameRegistration cloudNameRegistration, String secretToken) throws Xdi2ClientException {
+
+		this.getCsp().generateCloudSecretToken(cloudNameRegistration, secretToken);
+	}
+
+	public void generateCloudSecretTokens(Map<CloudNameRegistration, String> secretTokens) throws Xdi2ClientException {
+
+		this.getCsp().generateCloudSecretTokens(secretTokens);
+	}
+
+	/*
+	 * Helper methods
+	 */
+
+	private void index(CloudNameRegistration cloudNameRegistration, CloudRegistration cloudRegistration) {
+
+		if (cloudNameRegistration.getCloudName() == null) return;
+
+		CloudIndexEntry cloudIndexEntry = new CloudIndexEntry(
+				cloudNameRegistration.getCloudName().toString(), 
+				cloudNameRegistration.getCloudNumber() == null ? null : cloudNameRegistration.getCloudNumber().toString(), 
+				cloudRegistration == null ? null : cloudRegistration.getCloudXdiEndpoint());
+
+		try {
+
+			this.getCloudIndex().update(cloudIndexEntry);
+		} catch (IOException ex) {
+
+			log.error("Cannot update cloud index for " + cloudIndexEntry.getCloudName() + ": " + ex.getMessage(), ex);
+		}
+	}
+
+	/*
+	 * Getters and setters
+	 */
+
+	public BatchCSP getCsp() {
+
+		return this.csp;
+	}
+
+	public void setCsp(BatchCSP csp) {
+
+		this.csp = csp;
+	}
+
+	public CloudIndex getCloudIndex() {
+
+		return this.cloudIndex;
+	}
+
+	public void setCloudIndex(CloudIndex cloudIndex) {
+
+		this.cloudIndex = cloudIndex;
+	}
+}
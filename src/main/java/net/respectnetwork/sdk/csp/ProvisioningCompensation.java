@@ -0,0 +1,9 @@
+package net.respectnetwork.sdk.csp;
+
+/**
+ * A hook that undoes a completed provisioning step after a later step has failed.
+ */
+public interface ProvisioningCompensation {
+
+	public void compensate(ProvisioningStep step, ProvisioningResult provisioningResult) throws Exception;
+}
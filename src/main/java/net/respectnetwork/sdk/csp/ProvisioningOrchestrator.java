@@ -0,0 +1,537 @@
+package net.respectnetwork.sdk.csp;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import net.respectnetwork.sdk.csp.journal.ProvisioningJournal;
+import net.respectnetwork.sdk.csp.journal.ProvisioningJournalEntry;
+import net.respectnetwork.sdk.csp.util.CloudNumberGenerator;
+import net.respectnetwork.sdk.csp.util.ExecutorUtil;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import xdi2.core.xri3.XDI3Segment;
+
+/**
+ * Provisions a Cloud Name and a Cloud in one call.
+ * 
+ * Once the Cloud Number is known, the Cloud XDI endpoint is computed locally, so registering the
+ * Cloud at the Hosting Environment and registering its XDI URL at the Respect Network Registration
+ * Service run at the same time. If a step fails, the compensations of all completed steps are
+ * run in reverse order.
+ * 
+ * With a ProvisioningJournal set, every completed step is recorded durably, so provisioning
+ * a Cloud Name again after a crash resumes after the last completed step.
+ * 
+ * With localCloudNumbers set, the Cloud Number is generated by the CSP instead of the Respect Network
+ * Registration Service. If a compensation for REGISTER_CLOUD is also set, the Cloud is registered at the
+ * Hosting Environment at the same time as the Cloud Name is registered with that Cloud Number, which takes
+ * one round trip off the provisioning path; if registering the Cloud Name then fails, the compensation
+ * removes the Cloud again. Without that compensation, the Cloud is only registered after the Cloud Name,
+ * so that a failed Cloud Name registration never leaves a Cloud behind at the Hosting Environment.
+ */
+public class ProvisioningOrchestrator {
+
+	private static final Logger log = LoggerFactory.getLogger(ProvisioningOrchestrator.class);
+
+	public static final int DEFAULT_MAX_CONCURRENCY = 64;
+	public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+	private BatchCSP csp;
+	private CSPInformation cspInformation;
+	private ExecutorService executorService;
+	private final Map<ProvisioningStep, ProvisioningCompensation> compensations;
+	private ProvisioningJournal journal;
+	private boolean localCloudNumbers;
+
+	public ProvisioningOrchestrator(BatchCSP csp, CSPInformation cspInformation, ExecutorService executorService) {
+
+		this.csp = csp;
+		this.cspInformation = cspInformation;
+		this.executorService = executorService;
+		this.compensations = new EnumMap<ProvisioningStep, ProvisioningCompensation> (ProvisioningStep.class);
+		this.journal = null;
+		this.localCloudNumbers = false;
+	}
+
+	public ProvisioningOrchestrator(BatchCSP csp, CSPInformation cspInformation) {
+
+		this(csp, cspInformation, ExecutorUtil.newBoundedExecutorService("csp-provisioning", DEFAULT_MAX_CONCURRENCY, DEFAULT_QUEUE_CAPACITY));
+	}
+
+	public ProvisioningOrchestrator(BasicCSP csp) {
+
+		this(csp, csp.getCspInformation());
+	}
+
+	/**
+	 * Checks that the Cloud Name is available, registers it, and registers a Cloud for it.
+	 * This method does not throw on failed steps; check ProvisioningResult.isSuccess() instead.
+	 * 
+	 * If a journal is set and it has unfinished state for the Cloud Name, the steps already
+	 * completed are skipped and provisioning resumes with their recorded results.
+	 */
+	public ProvisioningResult provisionCloud(final XDI3Segment cloudName, final String secretToken) {
+
+		long start = System.nanoTime();
+
+		ProvisioningResult provisioningResult = new ProvisioningResult(cloudName);
+		JournalState journalState = new JournalState(cloudName);
+
+		try {
+
+			final CloudNameRegistration cloudNameRegistration;
+			ProvisioningStepResult registerCloudStepResult = null;
+
+			if (journalState.isCompleted(ProvisioningStep.REGISTER_CLOUD_NAME)) {
+
+				ProvisioningJournalEntry journalEntry = journalState.journalEntry;
+
+				log.info("Resuming provisioning of Cloud Name " + cloudName + " after completed steps " + journalEntry.getCompletedSteps());
+
+				cloudNameRegistration = new CloudNameRegistration(
+						cloudName, 
+						XDI3Segment.create(journalEntry.getCloudNamePeerRootXri()), 
+						XDI3Segment.create(journalEntry.getCloudNumber()), 
+						XDI3Segment.create(journalEntry.getCloudNumberPeerRootXri()));
+			} else {
+
+				// step 1: Check if Cloud Name available
+
+				final String reservedCloudNumber = journalState.getCloudNumber();
+
+				StepTask<CloudNameRegistration> checkCloudNameAvailable = new StepTask<CloudNameRegistration> (ProvisioningStep.CHECK_CLOUD_NAME_AVAILABLE) {
+
+					CloudNameRegistration execute() throws Exception {
+
+						CloudNameRegistration cloudNameRegistration = ProvisioningOrchestrator.this.getCsp().checkCloudNameAvailable(cloudName);
+						if (cloudNameRegistration != null && ! isRegisteredWith(cloudNameRegistration, reservedCloudNumber)) throw new RuntimeException("Cloud Name " + cloudName + " is already registered.");
+
+						return cloudNameRegistration;
+					}
+				};
+
+				if (! this.runStep(checkCloudNameAvailable, provisioningResult)) return provisioningResult;
+
+				if (checkCloudNameAvailable.value != null) {
+
+					// an earlier attempt registered the Cloud Name with its reserved Cloud Number, but did not journal it before it stopped
+
+					log.info("Cloud Name " + cloudName + " is already registered with the reserved Cloud Number " + reservedCloudNumber + ", resuming after " + ProvisioningStep.REGISTER_CLOUD_NAME);
+
+					cloudNameRegistration = journalState.reserveCloudNumber();
+				} else if (this.isLocalCloudNumbers()) {
+
+					// step 2: Register Cloud Name with a locally generated Cloud Number
+
+					// step 3: Register Cloud at the same time, but only if it can be undone should the Cloud Name registration fail
+
+					final CloudNameRegistration localCloudNameRegistration = journalState.reserveCloudNumber();
+
+					StepTask<CloudNameRegistration> registerCloudName = new StepTask<CloudNameRegistration> (ProvisioningStep.REGISTER_CLOUD_NAME) {
+
+						CloudNameRegistration execute() throws Exception {
+
+							CloudNameRegistration cloudNameRegistration = ProvisioningOrchestrator.this.getCsp().registerCloudName(cloudName, localCloudNameRegistration.getCloudNumber());
+							if (cloudNameRegistration == null) throw new RuntimeException("Cloud Name " + cloudName + " could not be registered.");
+
+							return cloudNameRegistration;
+						}
+					};
+
+					StepTask<CloudRegistration> registerCloud = this.newRegisterCloudTask(cloudName, localCloudNameRegistration, secretToken);
+
+					Future<ProvisioningStepResult> registerCloudFuture = null;
+
+					if (! journalState.isCompleted(ProvisioningStep.REGISTER_CLOUD) && this.getCompensation(ProvisioningStep.REGISTER_CLOUD) != null) {
+
+						try {
+
+							registerCloudFuture = this.getExecutorService().submit(registerCloud);
+						} catch (RejectedExecutionException ex) {
+
+							log.debug("Executor is saturated, registering Cloud " + cloudName + " after Cloud Name");
+						}
+					}
+
+					ProvisioningStepResult registerCloudNameStepResult = registerCloudName.call();
+
+					if (registerCloudFuture != null) {
+
+						registerCloudStepResult = await(registerCloudFuture, registerCloud);
+						if (registerCloudStepResult.isSuccess()) journalState.complete(ProvisioningStep.REGISTER_CLOUD, null, registerCloud.value);
+					}
+
+					provisioningResult.addStepResult(registerCloudNameStepResult);
+					if (registerCloudStepResult != null) provisioningResult.addStepResult(registerCloudStepResult);
+
+					if (! registerCloudNameStepResult.isSuccess() || (registerCloudStepResult != null && ! registerCloudStepResult.isSuccess())) {
+
+						provisioningResult.setCloudNameRegistration(localCloudNameRegistration);
+						provisioningResult.setCloudRegistration(registerCloud.value);
+
+						this.compensate(provisioningResult);
+
+						return provisioningResult;
+					}
+
+					cloudNameRegistration = registerCloudName.value;
+				} else {
+
+					// step 2: Register Cloud Name
+
+					StepTask<CloudNameRegistration> registerCloudName = new StepTask<CloudNameRegistration> (ProvisioningStep.REGISTER_CLOUD_NAME) {
+
+						CloudNameRegistration execute() throws Exception {
+
+							CloudNameRegistration cloudNameRegistration = ProvisioningOrchestrator.this.getCsp().registerCloudName(cloudName);
+							if (cloudNameRegistration == null) throw new RuntimeException("Cloud Name " + cloudName + " could not be registered.");
+
+							return cloudNameRegistration;
+						}
+					};
+
+					if (! this.runStep(registerCloudName, provisioningResult)) return provisioningResult;
+
+					cloudNameRegistration = registerCloudName.value;
+				}
+
+				journalState.complete(ProvisioningStep.REGISTER_CLOUD_NAME, cloudNameRegistration, null);
+			}
+
+			provisioningResult.setCloudNameRegistration(cloudNameRegistration);
+
+			// steps 3 and 4: Register Cloud, and register Cloud XDI URL with the locally computed endpoint
+
+			final CloudRegistration cloudRegistration = new CloudRegistration(BasicCSP.makeCloudXdiEndpoint(this.getCspInformation(), cloudNameRegistration.getCloudNumber()));
+
+			StepTask<CloudRegistration> registerCloud = this.newRegisterCloudTask(cloudName, cloudNameRegistration, secretToken);
+
+			StepTask<Void> registerCloudXdiUrl = new StepTask<Void> (ProvisioningStep.REGISTER_CLOUD_XDI_URL) {
+
+				Void execute() throws Exception {
+
+					ProvisioningOrchestrator.this.getCsp().registerCloudXdiUrl(cloudNameRegistration, cloudRegistration);
+
+					return null;
+				}
+			};
+
+			boolean runRegisterCloud = ! journalState.isCompleted(ProvisioningStep.REGISTER_CLOUD) && registerCloudStepResult == null;
+			boolean runRegisterCloudXdiUrl = ! journalState.isCompleted(ProvisioningStep.REGISTER_CLOUD_XDI_URL);
+
+			Future<ProvisioningStepResult> registerCloudFuture = null;
+
+			if (runRegisterCloud && runRegisterCloudXdiUrl) {
+
+				try {
+
+					registerCloudFuture = this.getExecutorService().submit(registerCloud);
+				} catch (RejectedExecutionException ex) {
+
+					log.debug("Executor is saturated, registering Cloud " + cloudName + " sequentially");
+				}
+			}
+
+			ProvisioningStepResult registerCloudXdiUrlStepResult = runRegisterCloudXdiUrl ? registerCloudXdiUrl.call() : null;
+
+			if (runRegisterCloud) {
+
+				registerCloudStepResult = registerCloudFuture != null ? await(registerCloudFuture, registerCloud) : registerCloud.call();
+
+				provisioningResult.addStepResult(registerCloudStepResult);
+				if (registerCloudStepResult.isSuccess()) journalState.complete(ProvisioningStep.REGISTER_CLOUD, null, registerCloud.value);
+			}
+
+			if (registerCloudXdiUrlStepResult != null) {
+
+				provisioningResult.addStepResult(registerCloudXdiUrlStepResult);
+				if (registerCloudXdiUrlStepResult.isSuccess()) journalState.complete(ProvisioningStep.REGISTER_CLOUD_XDI_URL, null, null);
+			}
+
+			provisioningResult.setCloudRegistration(! runRegisterCloud || registerCloudStepResult.isSuccess() ? cloudRegistration : null);
+
+			if (! provisioningResult.isSuccess()) this.compensate(provisioningResult);
+
+			return provisioningResult;
+		} finally {
+
+			provisioningResult.setDurationNanos(System.nanoTime() - start);
+
+			if (log.isDebugEnabled()) log.debug(provisioningResult.toString());
+		}
+	}
+
+	/*
+	 * Helper methods
+	 */
+
+	private StepTask<CloudRegistration> newRegisterCloudTask(final XDI3Segment cloudName, final CloudNameRegistration cloudNameRegistration, final String secretToken) {
+
+		return new StepTask<CloudRegistration> (ProvisioningStep.REGISTER_CLOUD) {
+
+			CloudRegistration execute() throws Exception {
+
+				CloudRegistration registeredCloudRegistration = ProvisioningOrchestrator.this.getCsp().registerCloud(cloudNameRegistration, secretToken);
+				if (registeredCloudRegistration == null) throw new RuntimeException("Cloud " + cloudName + " could not be registered.");
+
+				return registeredCloudRegistration;
+			}
+		};
+	}
+
+	private boolean runStep(StepTask<?> stepTask, ProvisioningResult provisioningResult) {
+
+		ProvisioningStepResult stepResult = stepTask.call();
+
+		provisioningResult.addStepResult(stepResult);
+
+		if (! stepResult.isSuccess()) this.compensate(provisioningResult);
+
+		return stepResult.isSuccess();
+	}
+
+	private void compensate(ProvisioningResult provisioningResult) {
+
+		List<ProvisioningStepResult> stepResults = provisioningResult.getStepResults();
+
+		for (ListIterator<ProvisioningStepResult> i = stepResults.listIterator(stepResults.size()); i.hasPrevious(); ) {
+
+			ProvisioningStepResult stepResult = i.previous();
+			if (! stepResult.isSuccess()) continue;
+
+			ProvisioningCompensation compensation = this.getCompensation(stepResult.getStep());
+			if (compensation == null) continue;
+
+			try {
+
+				compensation.compensate(stepResult.getStep(), provisioningResult);
+
+				stepResult.setCompensated(true);
+			} catch (Exception ex) {
+
+				log.warn("Compensation of " + stepResult.getStep() + " for Cloud Name " + provisioningResult.getCloudName() + " failed: " + ex.getMessage(), ex);
+
+				stepResult.setCompensationException(ex);
+			}
+		}
+	}
+
+	private static boolean isRegisteredWith(CloudNameRegistration cloudNameRegistration, String cloudNumber) {
+
+		return cloudNumber != null && cloudNameRegistration.getCloudNumber() != null && cloudNumber.equals(cloudNameRegistration.getCloudNumber().toString());
+	}
+
+	private static ProvisioningStepResult await(Future<ProvisioningStepResult> future, StepTask<?> stepTask) {
+
+		try {
+
+			return future.get();
+		} catch (InterruptedException ex) {
+
+			Thread.currentThread().interrupt();
+
+			return new ProvisioningStepResult(stepTask.step, System.nanoTime(), 0, ex);
+		} catch (ExecutionException ex) {
+
+			return new ProvisioningStepResult(stepTask.step, System.nanoTime(), 0, ex);
+		}
+	}
+
+	/**
+	 * The journaled provisioning state of one Cloud Name.
+	 */
+	private class JournalState {
+
+		private ProvisioningJournalEntry journalEntry;
+
+		private JournalState(XDI3Segment cloudName) {
+
+			ProvisioningJournal journal = ProvisioningOrchestrator.this.getJournal();
+
+			this.journalEntry = journal == null ? null : journal.get(cloudName.toString());
+			if (this.journalEntry == null) this.journalEntry = new ProvisioningJournalEntry(cloudName.toString(), EnumSet.noneOf(ProvisioningStep.class), null, null, null, null);
+		}
+
+		private synchronized boolean isCompleted(ProvisioningStep step) {
+
+			return this.journalEntry.isCompleted(step);
+		}
+
+		private synchronized String getCloudNumber() {
+
+			return this.journalEntry.getCloudNumber();
+		}
+
+		/**
+		 * Returns the registration of the Cloud Name with the Cloud Number generated by an earlier attempt,
+		 * or with a newly generated Cloud Number, which is journaled before it is used.
+		 */
+		private synchronized CloudNameRegistration reserveCloudNumber() {
+
+			XDI3Segment cloudName = XDI3Segment.create(this.journalEntry.getCloudName());
+
+			if (this.journalEntry.getCloudNumber() != null) return BasicCSP.makeCloudNameRegistration(cloudName, XDI3Segment.create(this.journalEntry.getCloudNumber()));
+
+			CloudNameRegistration cloudNameRegistration = BasicCSP.makeCloudNameRegistration(cloudName, CloudNumberGenerator.newCloudNumber(cloudName));
+
+			this.journalEntry = new ProvisioningJournalEntry(
+					this.journalEntry.getCloudName(), 
+					this.journalEntry.getCompletedSteps(), 
+					cloudNameRegistration.getCloudNamePeerRootXri().toString(), 
+					cloudNameRegistration.getCloudNumber().toString(), 
+					cloudNameRegistration.getCloudNumberPeerRootXri().toString(), 
+					this.journalEntry.getCloudXdiEndpoint());
+
+			this.append();
+
+			return cloudNameRegistration;
+		}
+
+		private synchronized void complete(ProvisioningStep step, CloudNameRegistration cloudNameRegistration, CloudRegistration cloudRegistration) {
+
+			// a registered Cloud Name implies a completed availability check
+
+			if (step == ProvisioningStep.REGISTER_CLOUD_NAME) this.journalEntry = this.journalEntry.withCompletedStep(ProvisioningStep.CHECK_CLOUD_NAME_AVAILABLE, null, null, null, null);
+
+			this.journalEntry = this.journalEntry.withCompletedStep(
+					step, 
+					cloudNameRegistration == null ? null : cloudNameRegistration.getCloudNamePeerRootXri().toString(), 
+					cloudNameRegistration == null ? null : cloudNameRegistration.getCloudNumber().toString(), 
+					cloudNameRegistration == null ? null : cloudNameRegistration.getCloudNumberPeerRootXri().toString(), 
+					cloudRegistration == null ? null : cloudRegistration.getCloudXdiEndpoint());
+
+			this.append();
+		}
+
+		private void append() {
+
+			ProvisioningJournal journal = ProvisioningOrchestrator.this.getJournal();
+			if (journal == null) return;
+
+			try {
+
+				journal.append(this.journalEntry);
+			} catch (IOException ex) {
+
+				log.error("Cannot journal " + this.journalEntry + ": " + ex.getMessage(), ex);
+			}
+		}
+	}
+
+	/**
+	 * Runs one step, and records its duration and outcome.
+	 */
+	private abstract static class StepTask<T> implements Callable<ProvisioningStepResult> {
+
+		private final ProvisioningStep step;
+		private volatile T value;
+
+		private StepTask(ProvisioningStep step) {
+
+			this.step = step;
+		}
+
+		abstract T execute() throws Exception;
+
+		public ProvisioningStepResult call() {
+
+			long start = System.nanoTime();
+
+			try {
+
+				this.value = this.execute();
+
+				return new ProvisioningStepResult(this.step, start, System.nanoTime() - start, null);
+			} catch (Exception ex) {
+
+				log.warn("Provisioning step " + this.step + " failed: " + ex.getMessage(), ex);
+
+				return new ProvisioningStepResult(this.step, start, System.nanoTime() - start, ex);
+			}
+		}
+	}
+
+	/*
+	 * Getters and setters
+	 */
+
+	public BatchCSP getCsp() {
+
+		return this.csp;
+	}
+
+	public void setCsp(BatchCSP csp) {
+
+		this.csp = csp;
+	}
+
+	public CSPInformation getCspInformation() {
+
+		return this.cspInformation;
+	}
+
+	public void setCspInformation(CSPInformation cspInformation) {
+
+		this.cspInformation = cspInformation;
+	}
+
+	public ExecutorService getExecutorService() {
+
+		return this.executorService;
+	}
+
+	public void setExecutorService(ExecutorService executorService) {
+
+		this.executorService = executorService;
+	}
+
+	public ProvisioningCompensation getCompensation(ProvisioningStep step) {
+
+		synchronized (this.compensations) {
+
+			return this.compensations.get(step);
+		}
+	}
+
+	public void setCompensation(ProvisioningStep step, ProvisioningCompensation compensation) {
+
+		synchronized (this.compensations) {
+
+			if (compensation == null) this.compensations.remove(step); else this.compensations.put(step, compensation);
+		}
+	}
+
+	public ProvisioningJournal getJournal() {
+
+		return this.journal;
+	}
+
+	public void setJournal(ProvisioningJournal journal) {
+
+		this.journal = journal;
+	}
+
+	public boolean isLocalCloudNumbers() {
+
+		return this.localCloudNumbers;
+	}
+
+	/**
+	 * Sets whether Cloud Numbers are generated locally and registered together with the Cloud Name.
+	 */
+	public void setLocalCloudNumbers(boolean localCloudNumbers) {
+
+		this.localCloudNumbers = localCloudNumbers;
+	}
+}
@@ -0,0 +1,117 @@
+package net.respectnetwork.sdk.csp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import xdi2.core.xri3.XDI3Segment;
+
+/**
+ * The outcome of provisioning a Cloud Name and a Cloud, with the results of the individual steps.
+ */
+public class ProvisioningResult {
+
+	private XDI3Segment cloudName;
+	private CloudNameRegistration cloudNameRegistration;
+	private CloudRegistration cloudRegistration;
+	private List<ProvisioningStepResult> stepResults;
+	private long durationNanos;
+
+	ProvisioningResult(XDI3Segment cloudName) {
+
+		this.cloudName = cloudName;
+		this.cloudNameRegistration = null;
+		this.cloudRegistration = null;
+		this.stepResults = Collections.synchronizedList(new ArrayList<ProvisioningStepResult> ());
+		this.durationNanos = 0;
+	}
+
+	public boolean isSuccess() {
+
+		return this.getFailedStepResult() == null;
+	}
+
+	/**
+	 * Returns the result of the first failed step, or null if no step failed.
+	 */
+	public ProvisioningStepResult getFailedStepResult() {
+
+		synchronized (this.stepResults) {
+
+			for (ProvisioningStepResult stepResult : this.stepResults) if (! stepResult.isSuccess()) return stepResult;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Returns the result of the given step, or null if the step was not run.
+	 */
+	public ProvisioningStepResult getStepResult(ProvisioningStep step) {
+
+		synchronized (this.stepResults) {
+
+			for (ProvisioningStepResult stepResult : this.stepResults) if (stepResult.getStep() == step) return stepResult;
+		}
+
+		return null;
+	}
+
+	void addStepResult(ProvisioningStepResult stepResult) {
+
+		this.stepResults.add(stepResult);
+	}
+
+	@Override
+	public String toString() {
+
+		return "Provisioning of " + this.cloudName + (this.isSuccess() ? " succeeded" : " failed") + " in " + (this.durationNanos / 1000000L) + " ms: " + this.stepResults;
+	}
+
+	/*
+	 * Getters and setters
+	 */
+
+	public XDI3Segment getCloudName() {
+
+		return this.cloudName;
+	}
+
+	public CloudNameRegistration getCloudNameRegistration() {
+
+		return this.cloudNameRegistration;
+	}
+
+	void setCloudNameRegistration(CloudNameRegistration cloudNameRegistration) {
+
+		this.cloudNameRegistration = cloudNameRegistration;
+	}
+
+	public CloudRegistration getCloudRegistration() {
+
+		return this.cloudRegistration;
+	}
+
+	void setCloudRegistration(CloudRegistration cloudRegistration) {
+
+		this.cloudRegistration = cloudRegistration;
+	}
+
+	public List<ProvisioningStepResult> getStepResults() {
+
+		synchronized (this.stepResults) {
+
+			return new ArrayList<ProvisioningStepResult> (this.stepResults);
+		}
+	}
+
+	public long getDurationNanos() {
+
+		return this.durationNanos;
+	}
+
+	void setDurationNanos(long durationNanos) {
+
+		this.durationNanos = durationNanos;
+	}
+}
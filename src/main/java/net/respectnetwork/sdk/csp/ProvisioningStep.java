@@ -0,0 +1,12 @@
+package net.respectnetwork.sdk.csp;
+
+/**
+ * The steps of provisioning a Cloud Name and a Cloud.
+ */
+public enum ProvisioningStep {
+
+	CHECK_CLOUD_NAME_AVAILABLE,
+	REGISTER_CLOUD_NAME,
+	REGISTER_CLOUD,
+	REGISTER_CLOUD_XDI_URL;
+}
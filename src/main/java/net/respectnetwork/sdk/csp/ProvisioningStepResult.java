@@ -0,0 +1,79 @@
+package net.respectnetwork.sdk.csp;
+
+/**
+ * The outcome and duration of one provisioning step.
+ */
+public class ProvisioningStepResult {
+
+	private ProvisioningStep step;
+	private long startNanos;
+	private long durationNanos;
+	private Exception exception;
+	private boolean compensated;
+	private Exception compensationException;
+
+	ProvisioningStepResult(ProvisioningStep step, long startNanos, long durationNanos, Exception exception) {
+
+		this.step = step;
+		this.startNanos = startNanos;
+		this.durationNanos = durationNanos;
+		this.exception = exception;
+		this.compensated = false;
+		this.compensationException = null;
+	}
+
+	public boolean isSuccess() {
+
+		return this.exception == null;
+	}
+
+	@Override
+	public String toString() {
+
+		return this.step + (this.isSuccess() ? " succeeded" : " failed (" + this.exception.getMessage() + ")") + " in " + (this.durationNanos / 1000000L) + " ms" + (this.compensated ? " (compensated)" : "");
+	}
+
+	/*
+	 * Getters and setters
+	 */
+
+	public ProvisioningStep getStep() {
+
+		return this.step;
+	}
+
+	public long getStartNanos() {
+
+		return this.startNanos;
+	}
+
+	public long getDurationNanos() {
+
+		return this.durationNanos;
+	}
+
+	public Exception getException() {
+
+		return this.exception;
+	}
+
+	public boolean isCompensated() {
+
+		return this.compensated;
+	}
+
+	void setCompensated(boolean compensated) {
+
+		this.compensated = compensated;
+	}
+
+	public Exception getCompensationException() {
+
+		return this.compensationException;
+	}
+
+	void setCompensationException(Exception compensationException) {
+
+		this.compensationException = compensationException;
+	}
+}
@@ -0,0 +1,15 @@
+package net.respectnetwork.sdk.csp;
+
+import java.util.List;
+
+/**
+ * CSPInformation of services that run as several replicas, each with its own XDI endpoint.
+ * The single XDI endpoint of a service is the first of its endpoints.
+ * BasicCSP balances messages across the replicas with a LoadBalancingXDIClient; for CSPInformation
+ * that does not implement this interface, it uses the single XDI endpoint.
+ */
+public interface ReplicatedCSPInformation extends CSPInformation {
+
+	public List<String> getHostingEnvironmentRegistryXdiEndpoints();
+	public List<String> getRespectNetworkRegistrationServiceXdiEndpoints();
+}
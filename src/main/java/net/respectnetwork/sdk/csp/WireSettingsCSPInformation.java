@@ -0,0 +1,14 @@
+package net.respectnetwork.sdk.csp;
+
+import net.respectnetwork.sdk.csp.transport.XDIWireSettings;
+
+/**
+ * CSPInformation that selects how messages to each service are put on the wire.
+ * The XDIWireSettings of a service may be null, in which case those of the XDITransport are used,
+ * as they are for CSPInformation that does not implement this interface.
+ */
+public interface WireSettingsCSPInformation extends CSPInformation {
+
+	public XDIWireSettings getHostingEnvironmentRegistryWireSettings();
+	public XDIWireSettings getRespectNetworkRegistrationServiceWireSettings();
+}
@@ -0,0 +1,372 @@
+package net.respectnetwork.sdk.csp.bulk;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+import net.respectnetwork.sdk.csp.CSP;
+import net.respectnetwork.sdk.csp.CloudNameRegistration;
+import net.respectnetwork.sdk.csp.CloudRegistration;
+import net.respectnetwork.sdk.csp.ProvisioningStep;
+import net.respectnetwork.sdk.csp.util.ExecutorUtil;
+import net.respectnetwork.sdk.csp.util.TokenBucket;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Provisions large numbers of Cloud Names and Clouds through a pipeline of stages:
+ * availability check, Cloud Name registration, Cloud registration, and Cloud XDI URL registration.
+ * 
+ * Each stage has a bounded queue, so reading records blocks when the pipeline is full and
+ * records are never all held in memory. Calls to the Respect Network Registration Service and
+ * to the Hosting Environment Registry are limited separately, both in concurrency and in rate.
+ */
+public class BulkProvisioner {
+
+	private static final Logger log = LoggerFactory.getLogger(BulkProvisioner.class);
+
+	public static final int DEFAULT_REGISTRAR_CONCURRENCY = 16;
+	public static final int DEFAULT_HOSTING_ENVIRONMENT_CONCURRENCY = 16;
+	public static final double DEFAULT_REGISTRAR_RATE = 0;
+	public static final double DEFAULT_HOSTING_ENVIRONMENT_RATE = 0;
+	public static final int DEFAULT_QUEUE_CAPACITY = 256;
+
+	private CSP csp;
+	private int registrarConcurrency;
+	private int hostingEnvironmentConcurrency;
+	private double registrarRate;
+	private double hostingEnvironmentRate;
+	private int queueCapacity;
+	private BulkProvisioningListener listener;
+
+	public BulkProvisioner(CSP csp) {
+
+		this.csp = csp;
+		this.registrarConcurrency = DEFAULT_REGISTRAR_CONCURRENCY;
+		this.hostingEnvironmentConcurrency = DEFAULT_HOSTING_ENVIRONMENT_CONCURRENCY;
+		this.registrarRate = DEFAULT_REGISTRAR_RATE;
+		this.hostingEnvironmentRate = DEFAULT_HOSTING_ENVIRONMENT_RATE;
+		this.queueCapacity = DEFAULT_QUEUE_CAPACITY;
+		this.listener = null;
+	}
+
+	/**
+	 * Runs all records through the pipeline, and returns when every record has succeeded or failed.
+	 * The records are read lazily from the iterator.
+	 */
+	public BulkProvisioningReport provision(Iterator<BulkProvisioningRecord> records) throws InterruptedException {
+
+		return new Run().execute(records);
+	}
+
+	/**
+	 * Thrown by the availability stage if a Cloud Name is already registered.
+	 */
+	public static class CloudNameRegisteredException extends Exception {
+
+		private static final long serialVersionUID = 3197427350386937716L;
+
+		public CloudNameRegisteredException(String message) {
+
+			super(message);
+		}
+	}
+
+	/*
+	 * The state of one run of the pipeline
+	 */
+
+	private class Run {
+
+		private final BulkProvisioningReport report = new BulkProvisioningReport();
+		private final List<Thread> threads = new ArrayList<Thread> ();
+		private final Object pendingLock = new Object();
+		private long pendingCount = 0;
+
+		private BulkProvisioningReport execute(Iterator<BulkProvisioningRecord> records) throws InterruptedException {
+
+			Semaphore registrarSemaphore = new Semaphore(BulkProvisioner.this.getRegistrarConcurrency());
+			Semaphore hostingEnvironmentSemaphore = new Semaphore(BulkProvisioner.this.getHostingEnvironmentConcurrency());
+			TokenBucket registrarTokenBucket = new TokenBucket(BulkProvisioner.this.getRegistrarRate(), BulkProvisioner.this.getRegistrarConcurrency());
+			TokenBucket hostingEnvironmentTokenBucket = new TokenBucket(BulkProvisioner.this.getHostingEnvironmentRate(), BulkProvisioner.this.getHostingEnvironmentConcurrency());
+
+			int queueCapacity = BulkProvisioner.this.getQueueCapacity();
+
+			Stage registerCloudXdiUrl = new Stage(ProvisioningStep.REGISTER_CLOUD_XDI_URL, null, registrarSemaphore, registrarTokenBucket, queueCapacity);
+			Stage registerCloud = new Stage(ProvisioningStep.REGISTER_CLOUD, registerCloudXdiUrl, hostingEnvironmentSemaphore, hostingEnvironmentTokenBucket, queueCapacity);
+			Stage registerCloudName = new Stage(ProvisioningStep.REGISTER_CLOUD_NAME, registerCloud, registrarSemaphore, registrarTokenBucket, queueCapacity);
+			Stage checkCloudNameAvailable = new Stage(ProvisioningStep.CHECK_CLOUD_NAME_AVAILABLE, registerCloudName, registrarSemaphore, registrarTokenBucket, queueCapacity);
+
+			ThreadFactory threadFactory = ExecutorUtil.newThreadFactory("csp-bulk");
+
+			this.start(threadFactory, checkCloudNameAvailable, BulkProvisioner.this.getRegistrarConcurrency());
+			this.start(threadFactory, registerCloudName, BulkProvisioner.this.getRegistrarConcurrency());
+			this.start(threadFactory, registerCloud, BulkProvisioner.this.getHostingEnvironmentConcurrency());
+			this.start(threadFactory, registerCloudXdiUrl, BulkProvisioner.this.getRegistrarConcurrency());
+
+			try {
+
+				while (records.hasNext()) {
+
+					BulkProvisioningRecord record = records.next();
+
+					synchronized (this.pendingLock) {
+
+						this.pendingCount++;
+					}
+
+					this.report.recordSubmitted();
+
+					checkCloudNameAvailable.queue.put(record);
+				}
+
+				synchronized (this.pendingLock) {
+
+					while (this.pendingCount > 0) this.pendingLock.wait();
+				}
+			} finally {
+
+				for (Thread thread : this.threads) thread.interrupt();
+
+				this.report.recordFinished();
+			}
+
+			log.info("Bulk provisioning finished. " + this.report);
+
+			return this.report;
+		}
+
+		private void start(ThreadFactory threadFactory, final Stage stage, int workers) {
+
+			for (int i=0; i<workers; i++) {
+
+				Thread thread = threadFactory.newThread(new Runnable() {
+
+					public void run() {
+
+						while (true) {
+
+							try {
+
+								Run.this.process(stage, stage.queue.take());
+							} catch (InterruptedException ex) {
+
+								return;
+							} catch (RuntimeException ex) {
+
+								log.warn("Unexpected exception in bulk provisioning stage " + stage.step + ": " + ex.getMessage(), ex);
+							}
+						}
+					}
+				});
+
+				this.threads.add(thread);
+				thread.start();
+			}
+		}
+
+		private void process(Stage stage, BulkProvisioningRecord record) throws InterruptedException {
+
+			// unless the record is handed to the next stage, it is complete, however processing ends
+
+			boolean handedOn = false;
+
+			try {
+
+				Exception failure = null;
+
+				try {
+
+					stage.tokenBucket.acquire();
+					stage.semaphore.acquire();
+
+					long start = System.nanoTime();
+
+					try {
+
+						this.execute(stage.step, record);
+					} finally {
+
+						stage.semaphore.release();
+
+						this.report.getStageStatistics(stage.step).record(System.nanoTime() - start);
+					}
+				} catch (InterruptedException ex) {
+
+					throw ex;
+				} catch (Exception ex) {
+
+					failure = ex;
+				}
+
+				if (failure != null) {
+
+					if (log.isDebugEnabled()) log.debug("Provisioning of Cloud Name " + record.getCloudName() + " failed at " + stage.step + ": " + failure.getMessage());
+
+					this.report.recordFailed(stage.step, failure);
+
+					if (BulkProvisioner.this.getListener() != null) BulkProvisioner.this.getListener().onFailure(record, stage.step, failure);
+				} else if (stage.next != null) {
+
+					stage.next.queue.put(record);
+
+					handedOn = true;
+				} else {
+
+					this.report.recordSucceeded();
+
+					if (BulkProvisioner.this.getListener() != null) BulkProvisioner.this.getListener().onSuccess(record);
+				}
+			} finally {
+
+				if (! handedOn) this.complete();
+			}
+		}
+
+		private void execute(ProvisioningStep step, BulkProvisioningRecord record) throws Exception {
+
+			CSP csp = BulkProvisioner.this.getCsp();
+
+			switch (step) {
+
+			case CHECK_CLOUD_NAME_AVAILABLE:
+
+				if (csp.checkCloudNameAvailable(record.getCloudName()) != null) throw new CloudNameRegisteredException("Cloud Name " + record.getCloudName() + " is already registered.");
+				break;
+
+			case REGISTER_CLOUD_NAME:
+
+				CloudNameRegistration cloudNameRegistration = csp.registerCloudName(record.getCloudName());
+				if (cloudNameRegistration == null) throw new RuntimeException("Cloud Name " + record.getCloudName() + " could not be registered.");
+
+				record.setCloudNameRegistration(cloudNameRegistration);
+				break;
+
+			case REGISTER_CLOUD:
+
+				CloudRegistration cloudRegistration = csp.registerCloud(record.getCloudNameRegistration(), record.getSecretToken());
+				if (cloudRegistration == null) throw new RuntimeException("Cloud " + record.getCloudName() + " could not be registered.");
+
+				record.setCloudRegistration(cloudRegistration);
+				break;
+
+			case REGISTER_CLOUD_XDI_URL:
+
+				csp.registerCloudXdiUrl(record.getCloudNameRegistration(), record.getCloudRegistration());
+				break;
+			}
+		}
+
+		private void complete() {
+
+			synchronized (this.pendingLock) {
+
+				this.pendingCount--;
+				this.pendingLock.notifyAll();
+			}
+		}
+	}
+
+	private static class Stage {
+
+		private final ProvisioningStep step;
+		private final Stage next;
+		private final Semaphore semaphore;
+		private final TokenBucket tokenBucket;
+		private final BlockingQueue<BulkProvisioningRecord> queue;
+
+		private Stage(ProvisioningStep step, Stage next, Semaphore semaphore, TokenBucket tokenBucket, int queueCapacity) {
+
+			this.step = step;
+			this.next = next;
+			this.semaphore = semaphore;
+			this.tokenBucket = tokenBucket;
+			this.queue = new ArrayBlockingQueue<BulkProvisioningRecord> (queueCapacity);
+		}
+	}
+
+	/*
+	 * Getters and setters
+	 */
+
+	public CSP getCsp() {
+
+		return this.csp;
+	}
+
+	public void setCsp(CSP csp) {
+
+		this.csp = csp;
+	}
+
+	public int getRegistrarConcurrency() {
+
+		return this.registrarConcurrency;
+	}
+
+	public void setRegistrarConcurrency(int registrarConcurrency) {
+
+		if (registrarConcurrency < 1) throw new IllegalArgumentException("Invalid registrar concurrency: " + registrarConcurrency);
+
+		this.registrarConcurrency = registrarConcurrency;
+	}
+
+	public int getHostingEnvironmentConcurrency() {
+
+		return this.hostingEnvironmentConcurrency;
+	}
+
+	public void setHostingEnvironmentConcurrency(int hostingEnvironmentConcurrency) {
+
+		if (hostingEnvironmentConcurrency < 1) throw new IllegalArgumentException("Invalid hosting environment concurrency: " + hostingEnvironmentConcurrency);
+
+		this.hostingEnvironmentConcurrency = hostingEnvironmentConcurrency;
+	}
+
+	public double getRegistrarRate() {
+
+		return this.registrarRate;
+	}
+
+	public void setRegistrarRate(double registrarRate) {
+
+		this.registrarRate = registrarRate;
+	}
+
+	public double getHostingEnvironmentRate() {
+
+		return this.hostingEnvironmentRate;
+	}
+
+	public void setHostingEnvironmentRate(double hostingEnvironmentRate) {
+
+		this.hostingEnvironmentRate = hostingEnvironmentRate;
+	}
+
+	public int getQueueCapacity() {
+
+		return this.queueCapacity;
+	}
+
+	public void setQueueCapacity(int queueCapacity) {
+
+		if (queueCapacity < 1) throw new IllegalArgumentException("Invalid queue capacity: " + queueCapacity);
+
+		this.queueCapacity = queueCapacity;
+	}
+
+	public BulkProvisioningListener getListener() {
+
+		return this.listener;
+	}
+
+	public void setListener(BulkProvisioningListener listener) {
+
+		this.listener = listener;
+	}
+}
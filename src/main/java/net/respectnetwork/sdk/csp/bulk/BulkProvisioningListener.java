@@ -0,0 +1,13 @@
+package net.respectnetwork.sdk.csp.bulk;
+
+import net.respectnetwork.sdk.csp.ProvisioningStep;
+
+/**
+ * Receives the outcome of every record processed by the BulkProvisioner.
+ * Methods are called from the pipeline's worker threads and should return quickly.
+ */
+public interface BulkProvisioningListener {
+
+	public void onSuccess(BulkProvisioningRecord record);
+	public void onFailure(BulkProvisioningRecord record, ProvisioningStep step, Exception ex);
+}
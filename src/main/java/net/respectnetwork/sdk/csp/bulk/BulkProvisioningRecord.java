@@ -0,0 +1,59 @@
+package net.respectnetwork.sdk.csp.bulk;
+
+import net.respectnetwork.sdk.csp.CloudNameRegistration;
+import net.respectnetwork.sdk.csp.CloudRegistration;
+import xdi2.core.xri3.XDI3Segment;
+
+/**
+ * One Cloud Name and Secret Token to be provisioned by the BulkProvisioner,
+ * together with the registrations obtained for it so far.
+ */
+public class BulkProvisioningRecord {
+
+	private XDI3Segment cloudName;
+	private String secretToken;
+	private volatile CloudNameRegistration cloudNameRegistration;
+	private volatile CloudRegistration cloudRegistration;
+
+	public BulkProvisioningRecord(XDI3Segment cloudName, String secretToken) {
+
+		this.cloudName = cloudName;
+		this.secretToken = secretToken;
+		this.cloudNameRegistration = null;
+		this.cloudRegistration = null;
+	}
+
+	/*
+	 * Getters and setters
+	 */
+
+	public XDI3Segment getCloudName() {
+
+		return this.cloudName;
+	}
+
+	public String getSecretToken() {
+
+		return this.secretToken;
+	}
+
+	public CloudNameRegistration getCloudNameRegistration() {
+
+		return this.cloudNameRegistration;
+	}
+
+	void setCloudNameRegistration(CloudNameRegistration cloudNameRegistration) {
+
+		this.cloudNameRegistration = cloudNameRegistration;
+	}
+
+	public CloudRegistration getCloudRegistration() {
+
+		return this.cloudRegistration;
+	}
+
+	void setCloudRegistration(CloudRegistration cloudRegistration) {
+
+		this.cloudRegistration = cloudRegistration;
+	}
+}
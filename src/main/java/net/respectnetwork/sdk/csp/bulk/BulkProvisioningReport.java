@@ -0,0 +1,134 @@
+package net.respectnetwork.sdk.csp.bulk;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.respectnetwork.sdk.csp.ProvisioningStep;
+
+/**
+ * Summary of a BulkProvisioner run: throughput, per-stage latency, and failures by cause.
+ */
+public class BulkProvisioningReport {
+
+	private final AtomicLong submittedCount = new AtomicLong();
+	private final AtomicLong succeededCount = new AtomicLong();
+	private final AtomicLong failedCount = new AtomicLong();
+	private final Map<ProvisioningStep, BulkProvisioningStageStatistics> stageStatistics;
+	private final ConcurrentMap<String, AtomicLong> failuresByCause;
+	private final long startNanos;
+	private volatile long endNanos;
+
+	BulkProvisioningReport() {
+
+		this.stageStatistics = new EnumMap<ProvisioningStep, BulkProvisioningStageStatistics> (ProvisioningStep.class);
+		for (ProvisioningStep step : ProvisioningStep.values()) this.stageStatistics.put(step, new BulkProvisioningStageStatistics());
+
+		this.failuresByCause = new ConcurrentHashMap<String, AtomicLong> ();
+		this.startNanos = System.nanoTime();
+		this.endNanos = 0;
+	}
+
+	void recordSubmitted() {
+
+		this.submittedCount.incrementAndGet();
+	}
+
+	void recordSucceeded() {
+
+		this.succeededCount.incrementAndGet();
+	}
+
+	void recordFailed(ProvisioningStep step, Exception ex) {
+
+		this.failedCount.incrementAndGet();
+
+		String cause = step + ": " + ex.getClass().getSimpleName();
+
+		AtomicLong count = this.failuresByCause.get(cause);
+
+		if (count == null) {
+
+			AtomicLong newCount = new AtomicLong();
+			count = this.failuresByCause.putIfAbsent(cause, newCount);
+			if (count == null) count = newCount;
+		}
+
+		count.incrementAndGet();
+	}
+
+	void recordFinished() {
+
+		this.endNanos = System.nanoTime();
+	}
+
+	/*
+	 * Getters
+	 */
+
+	public long getSubmittedCount() {
+
+		return this.submittedCount.get();
+	}
+
+	public long getSucceededCount() {
+
+		return this.succeededCount.get();
+	}
+
+	public long getFailedCount() {
+
+		return this.failedCount.get();
+	}
+
+	public long getElapsedNanos() {
+
+		return (this.endNanos != 0 ? this.endNanos : System.nanoTime()) - this.startNanos;
+	}
+
+	/**
+	 * Returns the number of completed (succeeded or failed) records per second.
+	 */
+	public double getThroughput() {
+
+		long elapsedNanos = this.getElapsedNanos();
+
+		return elapsedNanos <= 0 ? 0 : (this.getSucceededCount() + this.getFailedCount()) * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+	}
+
+	public BulkProvisioningStageStatistics getStageStatistics(ProvisioningStep step) {
+
+		return this.stageStatistics.get(step);
+	}
+
+	/**
+	 * Returns the number of failures keyed by failed step and exception type.
+	 */
+	public Map<String, Long> getFailuresByCause() {
+
+		Map<String, Long> failuresByCause = new TreeMap<String, Long> ();
+
+		for (Map.Entry<String, AtomicLong> entry : this.failuresByCause.entrySet()) failuresByCause.put(entry.getKey(), Long.valueOf(entry.getValue().get()));
+
+		return failuresByCause;
+	}
+
+	@Override
+	public String toString() {
+
+		StringBuilder buffer = new StringBuilder();
+
+		buffer.append("Submitted: " + this.getSubmittedCount() + ", succeeded: " + this.getSucceededCount() + ", failed: " + this.getFailedCount());
+		buffer.append(", elapsed: " + TimeUnit.NANOSECONDS.toMillis(this.getElapsedNanos()) + " ms");
+		buffer.append(", throughput: " + String.format("%.1f", Double.valueOf(this.getThroughput())) + "/s\n");
+
+		for (ProvisioningStep step : ProvisioningStep.values()) buffer.append(step + ": " + this.getStageStatistics(step) + "\n");
+		for (Map.Entry<String, Long> entry : this.getFailuresByCause().entrySet()) buffer.append("Failed at " + entry.getKey() + ": " + entry.getValue() + "\n");
+
+		return buffer.toString();
+	}
+}
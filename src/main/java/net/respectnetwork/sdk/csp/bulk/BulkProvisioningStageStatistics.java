@@ -0,0 +1,54 @@
+package net.respectnetwork.sdk.csp.bulk;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency statistics of one stage of the BulkProvisioner.
+ */
+public class BulkProvisioningStageStatistics {
+
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong totalNanos = new AtomicLong();
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	void record(long nanos) {
+
+		this.count.incrementAndGet();
+		this.totalNanos.addAndGet(nanos);
+
+		long max;
+
+		while ((max = this.maxNanos.get()) < nanos) {
+
+			if (this.maxNanos.compareAndSet(max, nanos)) break;
+		}
+	}
+
+	public long getCount() {
+
+		return this.count.get();
+	}
+
+	public long getTotalNanos() {
+
+		return this.totalNanos.get();
+	}
+
+	public long getMeanNanos() {
+
+		long count = this.count.get();
+
+		return count == 0 ? 0 : this.totalNanos.get() / count;
+	}
+
+	public long getMaxNanos() {
+
+		return this.maxNanos.get();
+	}
+
+	@Override
+	public String toString() {
+
+		return "count=" + this.getCount() + ", mean=" + (this.getMeanNanos() / 1000000L) + " ms, max=" + (this.getMaxNanos() / 1000000L) + " ms";
+	}
+}
@@ -0,0 +1,38 @@
+package net.respectnetwork.sdk.csp.bulk;
+
+/**
+ * A way in which the state of a Cloud at the Respect Network Registration Service and in the
+ * Hosting Environment can disagree, as found by the CloudReconciler.
+ */
+public enum CloudDiscrepancy {
+
+	/**
+	 * The Cloud Name is not registered at the Respect Network Registration Service.
+	 */
+	CLOUD_NAME_NOT_REGISTERED,
+
+	/**
+	 * The Cloud Name is registered with another Cloud Number than the one on record.
+	 */
+	CLOUD_NUMBER_MISMATCH,
+
+	/**
+	 * The Cloud Name is registered, but the Hosting Environment has no Cloud for it.
+	 */
+	CLOUD_NOT_HOSTED,
+
+	/**
+	 * The Hosting Environment has a Cloud for the Cloud Name with another Cloud Number than the registered one.
+	 */
+	HOSTED_CLOUD_NUMBER_MISMATCH,
+
+	/**
+	 * No Cloud XDI URL is registered for the Cloud Number.
+	 */
+	CLOUD_XDI_URL_MISSING,
+
+	/**
+	 * The registered Cloud XDI URL is not the Cloud's XDI endpoint in the Hosting Environment.
+	 */
+	CLOUD_XDI_URL_MISMATCH;
+}
@@ -0,0 +1,552 @@
+package net.respectnetwork.sdk.csp.bulk;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.respectnetwork.sdk.csp.BasicCSP;
+import net.respectnetwork.sdk.csp.CSPInformation;
+import net.respectnetwork.sdk.csp.CloudNameRegistration;
+import net.respectnetwork.sdk.csp.util.ExecutorUtil;
+import net.respectnetwork.sdk.csp.util.TokenBucket;
+import xdi2.core.xri3.XDI3Segment;
+
+/**
+ * Finds Clouds whose state at the Respect Network Registration Service and in the Hosting Environment
+ * disagree, e.g. after a provisioning that failed between its steps, and optionally repairs them.
+ *
+ * Records are grouped into batches of up to batchSize Clouds. For each batch, the Cloud Names are looked up
+ * at both services and the Cloud XDI URLs of the registered Cloud Numbers at the Registration Service, each
+ * in one $get message per maxOperationsPerMessage Clouds. Up to concurrency batches are checked at the same
+ * time, optionally limited in rate. Reading records blocks while enough batches are pending, so records are
+ * never all held in memory. Clouds with discrepancies are reported to the listener.
+ *
+ * If repair is set, missing or wrong Clouds in the Hosting Environment are registered again with
+ * registerCloud() (only for records with a Secret Token), and missing or wrong Cloud XDI URLs with
+ * registerCloudXdiUrl(). Clouds whose Cloud Name is not registered, or registered with another Cloud Number
+ * than the one on record, are only reported.
+ *
+ * With a checkpoint, the number of records checked so far is saved every checkpointInterval records. A later
+ * run with the same checkpoint and the same records in the same order skips the records already checked; the
+ * Clouds checked after the last save are checked and reported again. The checkpoint is reset when a run completes.
+ * A run refuses to resume if the last skipped record is not the last Cloud Name of the checkpoint, since the
+ * records have changed and skipping would leave Clouds unchecked; reset the checkpoint to start from the beginning.
+ *
+ * This works on a BasicCSP directly, since it must see the state of the services and not of a cache.
+ */
+public class CloudReconciler {
+
+	private static final Logger log = LoggerFactory.getLogger(CloudReconciler.class);
+
+	public static final int DEFAULT_BATCH_SIZE = 50;
+	public static final int DEFAULT_CONCURRENCY = 16;
+	public static final double DEFAULT_RATE = 0;
+	public static final long DEFAULT_CHECKPOINT_INTERVAL = 10000;
+
+	private BasicCSP csp;
+	private int batchSize;
+	private int concurrency;
+	private double rate;
+	private boolean repair;
+	private CloudReconciliationCheckpoint checkpoint;
+	private long checkpointInterval;
+	private CloudReconciliationListener listener;
+
+	public CloudReconciler(BasicCSP csp) {
+
+		this.csp = csp;
+		this.batchSize = DEFAULT_BATCH_SIZE;
+		this.concurrency = DEFAULT_CONCURRENCY;
+		this.rate = DEFAULT_RATE;
+		this.repair = false;
+		this.checkpoint = null;
+		this.checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+		this.listener = null;
+	}
+
+	/**
+	 * Checks all records, and returns when every record has been checked (and repaired).
+	 * The records are read lazily from the iterator.
+	 * @throws IllegalArgumentException If the records do not match the checkpoint.
+	 */
+	public CloudReconciliationReport reconcile(Iterator<CloudReconciliationRecord> records) throws InterruptedException, IOException {
+
+		return new Run().execute(records);
+	}
+
+	/*
+	 * The state of one reconciliation
+	 */
+
+	private class Run {
+
+		private final CloudReconciliationReport report = new CloudReconciliationReport();
+		private final BlockingQueue<Batch> queue = new LinkedBlockingQueue<Batch> ();
+		private final List<Thread> threads = new ArrayList<Thread> ();
+		private final Object pendingLock = new Object();
+		private int pendingCount = 0;
+
+		// batches that are checked, but wait for earlier batches before they count towards the checkpoint
+
+		private final Map<Long, Batch> checkedBatches = new HashMap<Long, Batch> ();
+		private long nextCommitSequence = 0;
+		private long position = 0;
+		private String cloudName = null;
+		private long savedPosition = 0;
+
+		private CloudReconciliationReport execute(Iterator<CloudReconciliationRecord> records) throws InterruptedException, IOException {
+
+			int batchSize = CloudReconciler.this.getBatchSize();
+			int concurrency = CloudReconciler.this.getConcurrency();
+			CloudReconciliationCheckpoint checkpoint = CloudReconciler.this.getCheckpoint();
+
+			if (checkpoint != null && checkpoint.getPosition() > 0) {
+
+				String skippedCloudName = null;
+
+				while (this.position < checkpoint.getPosition() && records.hasNext()) {
+
+					skippedCloudName = records.next().getCloudName().toString();
+					this.position++;
+					this.report.recordSkipped();
+				}
+
+				if (this.position < checkpoint.getPosition() || ! skippedCloudName.equals(checkpoint.getCloudName())) {
+
+					throw new IllegalArgumentException("Records do not match checkpoint " + checkpoint.getFile() + ": record " + this.position + " is Cloud Name " + skippedCloudName + " instead of " + checkpoint.getCloudName() + ". Reset the checkpoint to reconcile from the beginning.");
+				}
+
+				this.cloudName = checkpoint.getCloudName();
+				this.savedPosition = this.position;
+
+				log.info("Resuming Cloud reconciliation after " + this.position + " records, last Cloud Name " + this.cloudName);
+			}
+
+			TokenBucket tokenBucket = new TokenBucket(CloudReconciler.this.getRate(), concurrency);
+			ThreadFactory threadFactory = ExecutorUtil.newThreadFactory("csp-reconcile");
+
+			for (int i=0; i<concurrency; i++) this.start(threadFactory, tokenBucket);
+
+			boolean completed = false;
+
+			try {
+
+				long sequence = 0;
+
+				while (records.hasNext()) {
+
+					List<CloudReconciliationRecord> batchRecords = new ArrayList<CloudReconciliationRecord> (batchSize);
+
+					while (records.hasNext() && batchRecords.size() < batchSize) {
+
+						batchRecords.add(records.next());
+						this.report.recordSubmitted();
+					}
+
+					synchronized (this.pendingLock) {
+
+						while (this.pendingCount >= 2 * concurrency) this.pendingLock.wait();
+
+						this.pendingCount++;
+					}
+
+					this.queue.put(new Batch(sequence++, batchRecords));
+				}
+
+				synchronized (this.pendingLock) {
+
+					while (this.pendingCount > 0) this.pendingLock.wait();
+				}
+
+				completed = true;
+			} finally {
+
+				for (Thread thread : this.threads) thread.interrupt();
+
+				this.report.recordFinished();
+
+				if (checkpoint != null && ! completed) this.saveCheckpoint(checkpoint, 0);
+			}
+
+			if (checkpoint != null) checkpoint.reset();
+
+			log.info("Cloud reconciliation finished. " + this.report);
+
+			return this.report;
+		}
+
+		private void start(ThreadFactory threadFactory, final TokenBucket tokenBucket) {
+
+			Thread thread = threadFactory.newThread(new Runnable() {
+
+				public void run() {
+
+					while (true) {
+
+						try {
+
+							Batch batch = Run.this.queue.take();
+
+							tokenBucket.acquire();
+
+							try {
+
+								Run.this.process(batch);
+							} finally {
+
+								Run.this.commit(batch);
+							}
+						} catch (InterruptedException ex) {
+
+							return;
+						} catch (RuntimeException ex) {
+
+							log.warn("Unexpected exception in Cloud reconciliation: " + ex.getMessage(), ex);
+						}
+					}
+				}
+			});
+
+			this.threads.add(thread);
+			thread.start();
+		}
+
+		private void process(Batch batch) {
+
+			long start = System.nanoTime();
+
+			try {
+
+				this.lookup(batch.records);
+			} catch (Exception ex) {
+
+				if (log.isDebugEnabled()) log.debug("Cannot check " + batch.records.size() + " Clouds: " + ex.getMessage());
+
+				for (CloudReconciliationRecord record : batch.records) this.fail(record, ex);
+
+				return;
+			} finally {
+
+				this.report.getBatchStatistics().record(System.nanoTime() - start);
+			}
+
+			CSPInformation cspInformation = CloudReconciler.this.getCsp().getCspInformation();
+
+			for (CloudReconciliationRecord record : batch.records) {
+
+				compare(record, cspInformation);
+
+				Set<CloudDiscrepancy> discrepancies = record.getDiscrepancies();
+
+				if (discrepancies.isEmpty()) {
+
+					this.report.recordConsistent();
+
+					continue;
+				}
+
+				try {
+
+					if (CloudReconciler.this.isRepair()) repair(CloudReconciler.this.getCsp(), record, cspInformation);
+				} catch (Exception ex) {
+
+					if (log.isDebugEnabled()) log.debug("Cannot repair Cloud Name " + record.getCloudName() + ": " + ex.getMessage());
+
+					this.fail(record, ex);
+
+					continue;
+				}
+
+				this.report.recordDiscrepant(discrepancies, record.isRepaired());
+
+				if (CloudReconciler.this.getListener() != null) CloudReconciler.this.getListener().onDiscrepancy(record);
+			}
+		}
+
+		private void lookup(List<CloudReconciliationRecord> records) throws Exception {
+
+			BasicCSP csp = CloudReconciler.this.getCsp();
+
+			List<XDI3Segment> cloudNames = new ArrayList<XDI3Segment> (records.size());
+			for (CloudReconciliationRecord record : records) cloudNames.add(record.getCloudName());
+
+			Map<XDI3Segment, CloudNameRegistration> registeredCloudNameRegistrations = csp.checkCloudNamesAvailable(cloudNames);
+			Map<XDI3Segment, CloudNameRegistration> hostedCloudNameRegistrations = csp.checkCloudNamesHosted(cloudNames);
+
+			List<CloudNameRegistration> cloudNameRegistrations = new ArrayList<CloudNameRegistration> (records.size());
+
+			for (CloudNameRegistration cloudNameRegistration : registeredCloudNameRegistrations.values()) {
+
+				if (cloudNameRegistration != null) cloudNameRegistrations.add(cloudNameRegistration);
+			}
+
+			Map<XDI3Segment, String> cloudXdiUrls = cloudNameRegistrations.isEmpty() ? Collections.<XDI3Segment, String>emptyMap() : csp.getCloudXdiUrls(cloudNameRegistrations);
+
+			for (CloudReconciliationRecord record : records) {
+
+				CloudNameRegistration registeredCloudNameRegistration = registeredCloudNameRegistrations.get(record.getCloudName());
+
+				record.setRegisteredCloudNameRegistration(registeredCloudNameRegistration);
+				record.setHostedCloudNameRegistration(hostedCloudNameRegistrations.get(record.getCloudName()));
+				record.setRegisteredCloudXdiUrl(registeredCloudNameRegistration == null ? null : cloudXdiUrls.get(registeredCloudNameRegistration.getCloudNumber()));
+			}
+		}
+
+		private void fail(CloudReconciliationRecord record, Exception ex) {
+
+			record.setException(ex);
+
+			this.report.recordFailed(ex);
+
+			if (CloudReconciler.this.getListener() != null) CloudReconciler.this.getListener().onFailure(record, ex);
+		}
+
+		/**
+		 * Completes a batch, and advances the checkpoint over all batches up to the first one still running.
+		 */
+		private void commit(Batch batch) {
+
+			synchronized (this.pendingLock) {
+
+				this.checkedBatches.put(Long.valueOf(batch.sequence), batch);
+
+				Batch nextBatch;
+
+				while ((nextBatch = this.checkedBatches.remove(Long.valueOf(this.nextCommitSequence))) != null) {
+
+					this.nextCommitSequence++;
+					this.position += nextBatch.records.size();
+					this.cloudName = nextBatch.records.get(nextBatch.records.size() - 1).getCloudName().toString();
+					this.pendingCount--;
+				}
+
+				CloudReconciliationCheckpoint checkpoint = CloudReconciler.this.getCheckpoint();
+				if (checkpoint != null) this.saveCheckpoint(checkpoint, CloudReconciler.this.getCheckpointInterval());
+
+				this.pendingLock.notifyAll();
+			}
+		}
+
+		private void saveCheckpoint(CloudReconciliationCheckpoint checkpoint, long interval) {
+
+			synchronized (this.pendingLock) {
+
+				if (this.position == this.savedPosition || this.position - this.savedPosition < interval) return;
+
+				try {
+
+					checkpoint.save(this.position, this.cloudName);
+
+					this.savedPosition = this.position;
+				} catch (IOException ex) {
+
+					log.warn("Cannot save Cloud reconciliation checkpoint " + checkpoint.getFile() + ": " + ex.getMessage(), ex);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Records to be checked together, numbered in the order they were read.
+	 */
+	private static class Batch {
+
+		private final long sequence;
+		private final List<CloudReconciliationRecord> records;
+
+		private Batch(long sequence, List<CloudReconciliationRecord> records) {
+
+			this.sequence = sequence;
+			this.records = records;
+		}
+	}
+
+	/*
+	 * Helper methods
+	 */
+
+	private static void compare(CloudReconciliationRecord record, CSPInformation cspInformation) {
+
+		CloudNameRegistration registeredCloudNameRegistration = record.getRegisteredCloudNameRegistration();
+		CloudNameRegistration hostedCloudNameRegistration = record.getHostedCloudNameRegistration();
+
+		if (registeredCloudNameRegistration == null) {
+
+			record.addDiscrepancy(CloudDiscrepancy.CLOUD_NAME_NOT_REGISTERED);
+
+			return;
+		}
+
+		XDI3Segment cloudNumber = registeredCloudNameRegistration.getCloudNumber();
+
+		if (record.getCloudNumber() != null && ! record.getCloudNumber().equals(cloudNumber)) record.addDiscrepancy(CloudDiscrepancy.CLOUD_NUMBER_MISMATCH);
+
+		if (hostedCloudNameRegistration == null) {
+
+			record.addDiscrepancy(CloudDiscrepancy.CLOUD_NOT_HOSTED);
+		} else if (! hostedCloudNameRegistration.getCloudNumber().equals(cloudNumber)) {
+
+			record.addDiscrepancy(CloudDiscrepancy.HOSTED_CLOUD_NUMBER_MISMATCH);
+		}
+
+		if (record.getRegisteredCloudXdiUrl() == null) {
+
+			record.addDiscrepancy(CloudDiscrepancy.CLOUD_XDI_URL_MISSING);
+		} else if (! record.getRegisteredCloudXdiUrl().equals(BasicCSP.makeCloudXdiEndpoint(cspInformation, cloudNumber))) {
+
+			record.addDiscrepancy(CloudDiscrepancy.CLOUD_XDI_URL_MISMATCH);
+		}
+	}
+
+	private static void repair(BasicCSP csp, CloudReconciliationRecord record, CSPInformation cspInformation) throws Exception {
+
+		Set<CloudDiscrepancy> discrepancies = record.getDiscrepancies();
+
+		if (discrepancies.contains(CloudDiscrepancy.CLOUD_NAME_NOT_REGISTERED) || discrepancies.contains(CloudDiscrepancy.CLOUD_NUMBER_MISMATCH)) {
+
+			if (log.isDebugEnabled()) log.debug("Not repairing Cloud Name " + record.getCloudName() + ", since it is not registered with its Cloud Number: " + discrepancies);
+
+			return;
+		}
+
+		CloudNameRegistration cloudNameRegistration = record.getRegisteredCloudNameRegistration();
+
+		if (discrepancies.contains(CloudDiscrepancy.CLOUD_NOT_HOSTED) || discrepancies.contains(CloudDiscrepancy.HOSTED_CLOUD_NUMBER_MISMATCH)) {
+
+			if (record.getSecretToken() == null) {
+
+				if (log.isDebugEnabled()) log.debug("Not registering Cloud of Cloud Name " + record.getCloudName() + " again, since there is no Secret Token");
+			} else {
+
+				csp.registerCloud(cloudNameRegistration, record.getSecretToken());
+
+				if (discrepancies.contains(CloudDiscrepancy.CLOUD_NOT_HOSTED)) record.addRepairedDiscrepancy(CloudDiscrepancy.CLOUD_NOT_HOSTED);
+				if (discrepancies.contains(CloudDiscrepancy.HOSTED_CLOUD_NUMBER_MISMATCH)) record.addRepairedDiscrepancy(CloudDiscrepancy.HOSTED_CLOUD_NUMBER_MISMATCH);
+			}
+		}
+
+		if (discrepancies.contains(CloudDiscrepancy.CLOUD_XDI_URL_MISSING) || discrepancies.contains(CloudDiscrepancy.CLOUD_XDI_URL_MISMATCH)) {
+
+			csp.registerCloudXdiUrl(cloudNameRegistration, BasicCSP.makeCloudRegistration(cspInformation, cloudNameRegistration.getCloudNumber()));
+
+			if (discrepancies.contains(CloudDiscrepancy.CLOUD_XDI_URL_MISSING)) record.addRepairedDiscrepancy(CloudDiscrepancy.CLOUD_XDI_URL_MISSING);
+			if (discrepancies.contains(CloudDiscrepancy.CLOUD_XDI_URL_MISMATCH)) record.addRepairedDiscrepancy(CloudDiscrepancy.CLOUD_XDI_URL_MISMATCH);
+		}
+
+		if (log.isDebugEnabled()) log.debug("Repaired Cloud Name " + record.getCloudName() + ": " + record.getRepairedDiscrepancies());
+	}
+
+	/*
+	 * Getters and setters
+	 */
+
+	public BasicCSP getCsp() {
+
+		return this.csp;
+	}
+
+	public void setCsp(BasicCSP csp) {
+
+		this.csp = csp;
+	}
+
+	public int getBatchSize() {
+
+		return this.batchSize;
+	}
+
+	/**
+	 * Sets the maximum number of Clouds per batch.
+	 * The BasicCSP additionally splits batches larger than its maxOperationsPerMessage into several messages.
+	 */
+	public void setBatchSize(int batchSize) {
+
+		if (batchSize < 1) throw new IllegalArgumentException("Invalid batch size: " + batchSize);
+
+		this.batchSize = batchSize;
+	}
+
+	public int getConcurrency() {
+
+		return this.concurrency;
+	}
+
+	public void setConcurrency(int concurrency) {
+
+		if (concurrency < 1) throw new IllegalArgumentException("Invalid concurrency: " + concurrency);
+
+		this.concurrency = concurrency;
+	}
+
+	public double getRate() {
+
+		return this.rate;
+	}
+
+	/**
+	 * Sets the maximum number of batches per second. Zero or less means unlimited.
+	 */
+	public void setRate(double rate) {
+
+		this.rate = rate;
+	}
+
+	public boolean isRepair() {
+
+		return this.repair;
+	}
+
+	/**
+	 * If true, discrepancies are repaired where possible; otherwise they are only reported (the default).
+	 */
+	public void setRepair(boolean repair) {
+
+		this.repair = repair;
+	}
+
+	public CloudReconciliationCheckpoint getCheckpoint() {
+
+		return this.checkpoint;
+	}
+
+	/**
+	 * Sets the checkpoint to resume from and to save progress to. Set to null to always start from the beginning.
+	 */
+	public void setCheckpoint(CloudReconciliationCheckpoint checkpoint) {
+
+		this.checkpoint = checkpoint;
+	}
+
+	public long getCheckpointInterval() {
+
+		return this.checkpointInterval;
+	}
+
+	public void setCheckpointInterval(long checkpointInterval) {
+
+		if (checkpointInterval < 1) throw new IllegalArgumentException("Invalid checkpoint interval: " + checkpointInterval);
+
+		this.checkpointInterval = checkpointInterval;
+	}
+
+	public CloudReconciliationListener getListener() {
+
+		return this.listener;
+	}
+
+	public void setListener(CloudReconciliationListener listener) {
+
+		this.listener = listener;
+	}
+}
@@ -0,0 +1,116 @@
+package net.respectnetwork.sdk.csp.bulk;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * The progress of a CloudReconciler run in a small file, so that an interrupted run can resume.
+ *
+ * The position is the number of records, counted from the start of the input, that have all been
+ * checked; the Cloud Name is the last of them. Every save writes a new file and renames it over the
+ * old one, so a crash leaves either the previous or the new checkpoint.
+ */
+public class CloudReconciliationCheckpoint {
+
+	private static final String PROPERTY_POSITION = "position";
+	private static final String PROPERTY_CLOUD_NAME = "cloudName";
+	private static final String TMP_SUFFIX = ".tmp";
+
+	private final File file;
+
+	private long position;
+	private String cloudName;
+
+	/**
+	 * Opens the checkpoint in the given file. If the file does not exist, the position is 0.
+	 */
+	public CloudReconciliationCheckpoint(File file) throws IOException {
+
+		this.file = file;
+		this.position = 0;
+		this.cloudName = null;
+
+		if (! file.exists()) return;
+
+		Properties properties = new Properties();
+		InputStream inputStream = new FileInputStream(file);
+
+		try {
+
+			properties.load(inputStream);
+		} finally {
+
+			inputStream.close();
+		}
+
+		try {
+
+			this.position = Long.parseLong(properties.getProperty(PROPERTY_POSITION, "0"));
+			this.cloudName = properties.getProperty(PROPERTY_CLOUD_NAME);
+		} catch (NumberFormatException ex) {
+
+			throw new IOException("Invalid reconciliation checkpoint " + file + ": " + ex.getMessage(), ex);
+		}
+	}
+
+	/**
+	 * Durably records that the first position records, up to the given Cloud Name, have been checked.
+	 */
+	public synchronized void save(long position, String cloudName) throws IOException {
+
+		Properties properties = new Properties();
+		properties.setProperty(PROPERTY_POSITION, Long.toString(position));
+		if (cloudName != null) properties.setProperty(PROPERTY_CLOUD_NAME, cloudName);
+
+		File tmpFile = new File(this.file.getPath() + TMP_SUFFIX);
+		FileOutputStream outputStream = new FileOutputStream(tmpFile);
+
+		try {
+
+			properties.store(outputStream, "Cloud reconciliation checkpoint");
+			outputStream.getFD().sync();
+		} finally {
+
+			outputStream.close();
+		}
+
+		if (! tmpFile.renameTo(this.file) && ! (this.file.delete() && tmpFile.renameTo(this.file))) throw new IOException("Cannot rename " + tmpFile + " to " + this.file);
+
+		this.position = position;
+		this.cloudName = cloudName;
+	}
+
+	/**
+	 * Deletes the checkpoint, so that the next run starts from the beginning.
+	 */
+	public synchronized void reset() throws IOException {
+
+		if (this.file.exists() && ! this.file.delete()) throw new IOException("Cannot delete " + this.file);
+
+		this.position = 0;
+		this.cloudName = null;
+	}
+
+	/*
+	 * Getters
+	 */
+
+	public File getFile() {
+
+		return this.file;
+	}
+
+	public synchronized long getPosition() {
+
+		return this.position;
+	}
+
+	public synchronized String getCloudName() {
+
+		return this.cloudName;
+	}
+}
@@ -0,0 +1,12 @@
+package net.respectnetwork.sdk.csp.bulk;
+
+/**
+ * Receives the diff produced by the CloudReconciler: every record with discrepancies, after any
+ * repairs, and every record that could not be checked. Records without discrepancies are not reported.
+ * Methods are called from the reconciler's worker threads and should return quickly.
+ */
+public interface CloudReconciliationListener {
+
+	public void onDiscrepancy(CloudReconciliationRecord record);
+	public void onFailure(CloudReconciliationRecord record, Exception ex);
+}
@@ -0,0 +1,158 @@
+package net.respectnetwork.sdk.csp.bulk;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+import net.respectnetwork.sdk.csp.CloudNameRegistration;
+import xdi2.core.xri3.XDI3Segment;
+
+/**
+ * One Cloud of this CSP to be checked by the CloudReconciler, together with the state found
+ * at both services and the discrepancies between them.
+ */
+public class CloudReconciliationRecord {
+
+	private XDI3Segment cloudName;
+	private XDI3Segment cloudNumber;
+	private String secretToken;
+	private volatile CloudNameRegistration registeredCloudNameRegistration;
+	private volatile CloudNameRegistration hostedCloudNameRegistration;
+	private volatile String registeredCloudXdiUrl;
+	private final Set<CloudDiscrepancy> discrepancies;
+	private final Set<CloudDiscrepancy> repairedDiscrepancies;
+	private volatile Exception exception;
+
+	/**
+	 * Creates a record for a Cloud Name. The Cloud Number on record is compared with the registered one if
+	 * it is not null. The Secret Token is only needed to repair a missing Cloud in the Hosting Environment.
+	 */
+	public CloudReconciliationRecord(XDI3Segment cloudName, XDI3Segment cloudNumber, String secretToken) {
+
+		this.cloudName = cloudName;
+		this.cloudNumber = cloudNumber;
+		this.secretToken = secretToken;
+		this.registeredCloudNameRegistration = null;
+		this.hostedCloudNameRegistration = null;
+		this.registeredCloudXdiUrl = null;
+		this.discrepancies = Collections.synchronizedSet(EnumSet.noneOf(CloudDiscrepancy.class));
+		this.repairedDiscrepancies = Collections.synchronizedSet(EnumSet.noneOf(CloudDiscrepancy.class));
+		this.exception = null;
+	}
+
+	public CloudReconciliationRecord(XDI3Segment cloudName) {
+
+		this(cloudName, null, null);
+	}
+
+	/**
+	 * Checks if all discrepancies found have been repaired.
+	 */
+	public boolean isRepaired() {
+
+		return ! this.discrepancies.isEmpty() && this.repairedDiscrepancies.containsAll(this.discrepancies);
+	}
+
+	/*
+	 * Getters and setters
+	 */
+
+	public XDI3Segment getCloudName() {
+
+		return this.cloudName;
+	}
+
+	public XDI3Segment getCloudNumber() {
+
+		return this.cloudNumber;
+	}
+
+	public String getSecretToken() {
+
+		return this.secretToken;
+	}
+
+	/**
+	 * Returns the registration of the Cloud Name at the Respect Network Registration Service, or null.
+	 */
+	public CloudNameRegistration getRegisteredCloudNameRegistration() {
+
+		return this.registeredCloudNameRegistration;
+	}
+
+	void setRegisteredCloudNameRegistration(CloudNameRegistration registeredCloudNameRegistration) {
+
+		this.registeredCloudNameRegistration = registeredCloudNameRegistration;
+	}
+
+	/**
+	 * Returns the registration of the Cloud Name in the Hosting Environment, or null.
+	 */
+	public CloudNameRegistration getHostedCloudNameRegistration() {
+
+		return this.hostedCloudNameRegistration;
+	}
+
+	void setHostedCloudNameRegistration(CloudNameRegistration hostedCloudNameRegistration) {
+
+		this.hostedCloudNameRegistration = hostedCloudNameRegistration;
+	}
+
+	/**
+	 * Returns the Cloud XDI URL registered at the Respect Network Registration Service, or null.
+	 */
+	public String getRegisteredCloudXdiUrl() {
+
+		return this.registeredCloudXdiUrl;
+	}
+
+	void setRegisteredCloudXdiUrl(String registeredCloudXdiUrl) {
+
+		this.registeredCloudXdiUrl = registeredCloudXdiUrl;
+	}
+
+	public Set<CloudDiscrepancy> getDiscrepancies() {
+
+		synchronized (this.discrepancies) {
+
+			return this.discrepancies.isEmpty() ? EnumSet.noneOf(CloudDiscrepancy.class) : EnumSet.copyOf(this.discrepancies);
+		}
+	}
+
+	void addDiscrepancy(CloudDiscrepancy discrepancy) {
+
+		this.discrepancies.add(discrepancy);
+	}
+
+	public Set<CloudDiscrepancy> getRepairedDiscrepancies() {
+
+		synchronized (this.repairedDiscrepancies) {
+
+			return this.repairedDiscrepancies.isEmpty() ? EnumSet.noneOf(CloudDiscrepancy.class) : EnumSet.copyOf(this.repairedDiscrepancies);
+		}
+	}
+
+	void addRepairedDiscrepancy(CloudDiscrepancy discrepancy) {
+
+		this.repairedDiscrepancies.add(discrepancy);
+	}
+
+	/**
+	 * Returns the exception of the failed lookup or repair, or null.
+	 */
+	public Exception getException() {
+
+		return this.exception;
+	}
+
+	void setException(Exception exception) {
+
+		this.exception = exception;
+	}
+
+	@Override
+	public String toString() {
+
+		return this.cloudName + ": " + this.getDiscrepancies() + (this.getRepairedDiscrepancies().isEmpty() ? "" : ", repaired " + this.getRepairedDiscrepancies());
+	}
+}
@@ -0,0 +1,191 @@
+package net.respectnetwork.sdk.csp.bulk;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Summary of a CloudReconciler run: Clouds checked, discrepancies by kind, repairs, and failures by cause.
+ */
+public class CloudReconciliationReport {
+
+	private final AtomicLong skippedCount = new AtomicLong();
+	private final AtomicLong submittedCount = new AtomicLong();
+	private final AtomicLong consistentCount = new AtomicLong();
+	private final AtomicLong discrepantCount = new AtomicLong();
+	private final AtomicLong repairedCount = new AtomicLong();
+	private final AtomicLong failedCount = new AtomicLong();
+	private final Map<CloudDiscrepancy, AtomicLong> discrepanciesByKind;
+	private final BulkProvisioningStageStatistics batchStatistics;
+	private final ConcurrentMap<String, AtomicLong> failuresByCause;
+	private final long startNanos;
+	private volatile long endNanos;
+
+	CloudReconciliationReport() {
+
+		this.discrepanciesByKind = new EnumMap<CloudDiscrepancy, AtomicLong> (CloudDiscrepancy.class);
+		for (CloudDiscrepancy discrepancy : CloudDiscrepancy.values()) this.discrepanciesByKind.put(discrepancy, new AtomicLong());
+
+		this.batchStatistics = new BulkProvisioningStageStatistics();
+		this.failuresByCause = new ConcurrentHashMap<String, AtomicLong> ();
+		this.startNanos = System.nanoTime();
+		this.endNanos = 0;
+	}
+
+	void recordSkipped() {
+
+		this.skippedCount.incrementAndGet();
+	}
+
+	void recordSubmitted() {
+
+		this.submittedCount.incrementAndGet();
+	}
+
+	void recordConsistent() {
+
+		this.consistentCount.incrementAndGet();
+	}
+
+	void recordDiscrepant(Set<CloudDiscrepancy> discrepancies, boolean repaired) {
+
+		this.discrepantCount.incrementAndGet();
+		if (repaired) this.repairedCount.incrementAndGet();
+
+		for (CloudDiscrepancy discrepancy : discrepancies) this.discrepanciesByKind.get(discrepancy).incrementAndGet();
+	}
+
+	void recordFailed(Exception ex) {
+
+		this.failedCount.incrementAndGet();
+
+		String cause = ex.getClass().getSimpleName();
+
+		AtomicLong count = this.failuresByCause.get(cause);
+
+		if (count == null) {
+
+			AtomicLong newCount = new AtomicLong();
+			count = this.failuresByCause.putIfAbsent(cause, newCount);
+			if (count == null) count = newCount;
+		}
+
+		count.incrementAndGet();
+	}
+
+	void recordFinished() {
+
+		this.endNanos = System.nanoTime();
+	}
+
+	/*
+	 * Getters
+	 */
+
+	/**
+	 * Returns the number of records skipped because the checkpoint showed them already checked.
+	 */
+	public long getSkippedCount() {
+
+		return this.skippedCount.get();
+	}
+
+	public long getSubmittedCount() {
+
+		return this.submittedCount.get();
+	}
+
+	public long getConsistentCount() {
+
+		return this.consistentCount.get();
+	}
+
+	public long getDiscrepantCount() {
+
+		return this.discrepantCount.get();
+	}
+
+	/**
+	 * Returns the number of discrepant Clouds whose discrepancies have all been repaired.
+	 */
+	public long getRepairedCount() {
+
+		return this.repairedCount.get();
+	}
+
+	/**
+	 * Returns the number of Clouds that could not be checked, or whose repair failed.
+	 */
+	public long getFailedCount() {
+
+		return this.failedCount.get();
+	}
+
+	/**
+	 * Returns the number of Clouds with each kind of discrepancy.
+	 */
+	public Map<CloudDiscrepancy, Long> getDiscrepanciesByKind() {
+
+		Map<CloudDiscrepancy, Long> discrepanciesByKind = new EnumMap<CloudDiscrepancy, Long> (CloudDiscrepancy.class);
+
+		for (Map.Entry<CloudDiscrepancy, AtomicLong> entry : this.discrepanciesByKind.entrySet()) discrepanciesByKind.put(entry.getKey(), Long.valueOf(entry.getValue().get()));
+
+		return discrepanciesByKind;
+	}
+
+	/**
+	 * Returns the number and latency of the batches, each looked up at both services and repaired.
+	 */
+	public BulkProvisioningStageStatistics getBatchStatistics() {
+
+		return this.batchStatistics;
+	}
+
+	public long getElapsedNanos() {
+
+		return (this.endNanos != 0 ? this.endNanos : System.nanoTime()) - this.startNanos;
+	}
+
+	/**
+	 * Returns the number of checked (consistent, discrepant or failed) Clouds per second.
+	 */
+	public double getThroughput() {
+
+		long elapsedNanos = this.getElapsedNanos();
+
+		return elapsedNanos <= 0 ? 0 : (this.getConsistentCount() + this.getDiscrepantCount() + this.getFailedCount()) * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+	}
+
+	/**
+	 * Returns the number of failed Clouds keyed by exception type.
+	 */
+	public Map<String, Long> getFailuresByCause() {
+
+		Map<String, Long> failuresByCause = new TreeMap<String, Long> ();
+
+		for (Map.Entry<String, AtomicLong> entry : this.failuresByCause.entrySet()) failuresByCause.put(entry.getKey(), Long.valueOf(entry.getValue().get()));
+
+		return failuresByCause;
+	}
+
+	@Override
+	public String toString() {
+
+		StringBuilder buffer = new StringBuilder();
+
+		buffer.append("Skipped: " + this.getSkippedCount() + ", submitted: " + this.getSubmittedCount() + ", consistent: " + this.getConsistentCount() + ", discrepant: " + this.getDiscrepantCount() + ", repaired: " + this.getRepairedCount() + ", failed: " + this.getFailedCount());
+		buffer.append(", elapsed: " + TimeUnit.NANOSECONDS.toMillis(this.getElapsedNanos()) + " ms");
+		buffer.append(", throughput: " + String.format("%.1f", Double.valueOf(this.getThroughput())) + "/s\n");
+
+		buffer.append("Batches: " + this.getBatchStatistics() + "\n");
+		for (Map.Entry<CloudDiscrepancy, Long> entry : this.getDiscrepanciesByKind().entrySet()) if (entry.getValue().longValue() > 0) buffer.append(entry.getKey() + ": " + entry.getValue() + "\n");
+		for (Map.Entry<String, Long> entry : this.getFailuresByCause().entrySet()) buffer.append("Failed with " + entry.getKey() + ": " + entry.getValue() + "\n");
+
+		return buffer.toString();
+	}
+}
@@ -0,0 +1,12 @@
+package net.respectnetwork.sdk.csp.bulk;
+
+/**
+ * Receives the outcome of every record processed by the SecretTokenRotator.
+ * onFailure() is only called once a record has failed its last attempt.
+ * Methods are called from the rotator's worker threads and should return quickly.
+ */
+public interface SecretTokenRotationListener {
+
+	public void onSuccess(SecretTokenRotationRecord record);
+	public void onFailure(SecretTokenRotationRecord record, Exception ex);
+}
@@ -0,0 +1,63 @@
+package net.respectnetwork.sdk.csp.bulk;
+
+import net.respectnetwork.sdk.csp.CloudNameRegistration;
+
+/**
+ * One Cloud and its new Secret Token to be set by the SecretTokenRotator,
+ * together with the outcome of the attempts so far.
+ */
+public class SecretTokenRotationRecord {
+
+	private CloudNameRegistration cloudNameRegistration;
+	private String secretToken;
+	private volatile int attempts;
+	private volatile Exception exception;
+
+	public SecretTokenRotationRecord(CloudNameRegistration cloudNameRegistration, String secretToken) {
+
+		this.cloudNameRegistration = cloudNameRegistration;
+		this.secretToken = secretToken;
+		this.attempts = 0;
+		this.exception = null;
+	}
+
+	/*
+	 * Getters and setters
+	 */
+
+	public CloudNameRegistration getCloudNameRegistration() {
+
+		return this.cloudNameRegistration;
+	}
+
+	public String getSecretToken() {
+
+		return this.secretToken;
+	}
+
+	/**
+	 * Returns how many messages containing this Cloud have been sent.
+	 */
+	public int getAttempts() {
+
+		return this.attempts;
+	}
+
+	void incrementAttempts() {
+
+		this.attempts++;
+	}
+
+	/**
+	 * Returns the exception of the last failed attempt, or null.
+	 */
+	public Exception getException() {
+
+		return this.exception;
+	}
+
+	void setException(Exception exception) {
+
+		this.exception = exception;
+	}
+}
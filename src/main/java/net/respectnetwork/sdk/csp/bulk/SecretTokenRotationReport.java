@@ -0,0 +1,146 @@
+package net.respectnetwork.sdk.csp.bulk;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Summary of a SecretTokenRotator run: Clouds rotated, messages sent, retries, and failures by cause.
+ */
+public class SecretTokenRotationReport {
+
+	private final AtomicLong submittedCount = new AtomicLong();
+	private final AtomicLong succeededCount = new AtomicLong();
+	private final AtomicLong failedCount = new AtomicLong();
+	private final AtomicLong retriedCount = new AtomicLong();
+	private final BulkProvisioningStageStatistics messageStatistics;
+	private final ConcurrentMap<String, AtomicLong> failuresByCause;
+	private final long startNanos;
+	private volatile long endNanos;
+
+	SecretTokenRotationReport() {
+
+		this.messageStatistics = new BulkProvisioningStageStatistics();
+		this.failuresByCause = new ConcurrentHashMap<String, AtomicLong> ();
+		this.startNanos = System.nanoTime();
+		this.endNanos = 0;
+	}
+
+	void recordSubmitted() {
+
+		this.submittedCount.incrementAndGet();
+	}
+
+	void recordSucceeded(int count) {
+
+		this.succeededCount.addAndGet(count);
+	}
+
+	void recordRetried(int count) {
+
+		this.retriedCount.addAndGet(count);
+	}
+
+	void recordFailed(Exception ex) {
+
+		this.failedCount.incrementAndGet();
+
+		String cause = ex.getClass().getSimpleName();
+
+		AtomicLong count = this.failuresByCause.get(cause);
+
+		if (count == null) {
+
+			AtomicLong newCount = new AtomicLong();
+			count = this.failuresByCause.putIfAbsent(cause, newCount);
+			if (count == null) count = newCount;
+		}
+
+		count.incrementAndGet();
+	}
+
+	void recordFinished() {
+
+		this.endNanos = System.nanoTime();
+	}
+
+	/*
+	 * Getters
+	 */
+
+	public long getSubmittedCount() {
+
+		return this.submittedCount.get();
+	}
+
+	public long getSucceededCount() {
+
+		return this.succeededCount.get();
+	}
+
+	public long getFailedCount() {
+
+		return this.failedCount.get();
+	}
+
+	/**
+	 * Returns how many times a Cloud was sent again after its message failed.
+	 */
+	public long getRetriedCount() {
+
+		return this.retriedCount.get();
+	}
+
+	/**
+	 * Returns the number and latency of the messages sent to the Hosting Environment Registry.
+	 */
+	public BulkProvisioningStageStatistics getMessageStatistics() {
+
+		return this.messageStatistics;
+	}
+
+	public long getElapsedNanos() {
+
+		return (this.endNanos != 0 ? this.endNanos : System.nanoTime()) - this.startNanos;
+	}
+
+	/**
+	 * Returns the number of completed (succeeded or failed) Clouds per second.
+	 */
+	public double getThroughput() {
+
+		long elapsedNanos = this.getElapsedNanos();
+
+		return elapsedNanos <= 0 ? 0 : (this.getSucceededCount() + this.getFailedCount()) * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+	}
+
+	/**
+	 * Returns the number of failed Clouds keyed by the exception type of their last attempt.
+	 */
+	public Map<String, Long> getFailuresByCause() {
+
+		Map<String, Long> failuresByCause = new TreeMap<String, Long> ();
+
+		for (Map.Entry<String, AtomicLong> entry : this.failuresByCause.entrySet()) failuresByCause.put(entry.getKey(), Long.valueOf(entry.getValue().get()));
+
+		return failuresByCause;
+	}
+
+	@Override
+	public String toString() {
+
+		StringBuilder buffer = new StringBuilder();
+
+		buffer.append("Submitted: " + this.getSubmittedCount() + ", succeeded: " + this.getSucceededCount() + ", failed: " + this.getFailedCount() + ", retried: " + this.getRetriedCount());
+		buffer.append(", elapsed: " + TimeUnit.NANOSECONDS.toMillis(this.getElapsedNanos()) + " ms");
+		buffer.append(", throughput: " + String.format("%.1f", Double.valueOf(this.getThroughput())) + "/s\n");
+
+		buffer.append("Messages: " + this.getMessageStatistics() + "\n");
+		for (Map.Entry<String, Long> entry : this.getFailuresByCause().entrySet()) buffer.append("Failed with " + entry.getKey() + ": " + entry.getValue() + "\n");
+
+		return buffer.toString();
+	}
+}
@@ -0,0 +1,383 @@
+package net.respectnetwork.sdk.csp.bulk;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.respectnetwork.sdk.csp.BatchCSP;
+import net.respectnetwork.sdk.csp.CloudNameRegistration;
+import net.respectnetwork.sdk.csp.util.ExecutorUtil;
+import net.respectnetwork.sdk.csp.util.TokenBucket;
+
+/**
+ * Sets new Secret Tokens for large numbers of Clouds, e.g. for a forced credential rotation.
+ * 
+ * Records are grouped into batches of up to batchSize Clouds, and each batch is sent to the Hosting
+ * Environment Registry as one message with BatchCSP.generateCloudSecretTokens(). Up to concurrency batches are
+ * sent at the same time, optionally limited in rate. Reading records blocks while enough batches are
+ * pending, so records are never all held in memory.
+ * 
+ * A message either succeeds or fails as a whole. The Clouds of a failed message are retried after a delay
+ * that doubles with every attempt, split into two smaller batches so that a single bad Cloud ends up
+ * alone in its message and does not keep failing the others. A Cloud fails once it has been sent maxAttempts times.
+ */
+public class SecretTokenRotator {
+
+	private static final Logger log = LoggerFactory.getLogger(SecretTokenRotator.class);
+
+	public static final int DEFAULT_BATCH_SIZE = 50;
+	public static final int DEFAULT_CONCURRENCY = 16;
+	public static final double DEFAULT_RATE = 0;
+	public static final int DEFAULT_MAX_ATTEMPTS = 4;
+	public static final long DEFAULT_RETRY_DELAY_MILLIS = 500;
+
+	private BatchCSP csp;
+	private int batchSize;
+	private int concurrency;
+	private double rate;
+	private int maxAttempts;
+	private long retryDelayMillis;
+	private SecretTokenRotationListener listener;
+
+	public SecretTokenRotator(BatchCSP csp) {
+
+		this.csp = csp;
+		this.batchSize = DEFAULT_BATCH_SIZE;
+		this.concurrency = DEFAULT_CONCURRENCY;
+		this.rate = DEFAULT_RATE;
+		this.maxAttempts = DEFAULT_MAX_ATTEMPTS;
+		this.retryDelayMillis = DEFAULT_RETRY_DELAY_MILLIS;
+		this.listener = null;
+	}
+
+	/**
+	 * Rotates the Secret Tokens of all records, and returns when every record has succeeded or failed.
+	 * The records are read lazily from the iterator.
+	 */
+	public SecretTokenRotationReport rotate(Iterator<SecretTokenRotationRecord> records) throws InterruptedException {
+
+		return new Run().execute(records);
+	}
+
+	/*
+	 * The state of one rotation
+	 */
+
+	private class Run {
+
+		private final SecretTokenRotationReport report = new SecretTokenRotationReport();
+		private final DelayQueue<Batch> queue = new DelayQueue<Batch> ();
+		private final List<Thread> threads = new ArrayList<Thread> ();
+		private final Object pendingLock = new Object();
+		private int pendingCount = 0;
+
+		private SecretTokenRotationReport execute(Iterator<SecretTokenRotationRecord> records) throws InterruptedException {
+
+			int batchSize = SecretTokenRotator.this.getBatchSize();
+			int concurrency = SecretTokenRotator.this.getConcurrency();
+
+			TokenBucket tokenBucket = new TokenBucket(SecretTokenRotator.this.getRate(), concurrency);
+			ThreadFactory threadFactory = ExecutorUtil.newThreadFactory("csp-rotate");
+
+			for (int i=0; i<concurrency; i++) this.start(threadFactory, tokenBucket);
+
+			try {
+
+				while (records.hasNext()) {
+
+					List<SecretTokenRotationRecord> batchRecords = new ArrayList<SecretTokenRotationRecord> (batchSize);
+
+					while (records.hasNext() && batchRecords.size() < batchSize) {
+
+						batchRecords.add(records.next());
+						this.report.recordSubmitted();
+					}
+
+					synchronized (this.pendingLock) {
+
+						while (this.pendingCount >= 2 * concurrency) this.pendingLock.wait();
+
+						this.pendingCount++;
+					}
+
+					this.queue.put(new Batch(batchRecords, 0));
+				}
+
+				synchronized (this.pendingLock) {
+
+					while (this.pendingCount > 0) this.pendingLock.wait();
+				}
+			} finally {
+
+				for (Thread thread : this.threads) thread.interrupt();
+
+				this.report.recordFinished();
+			}
+
+			log.info("Secret Token rotation finished. " + this.report);
+
+			return this.report;
+		}
+
+		private void start(ThreadFactory threadFactory, final TokenBucket tokenBucket) {
+
+			Thread thread = threadFactory.newThread(new Runnable() {
+
+				public void run() {
+
+					while (true) {
+
+						try {
+
+							Batch batch = Run.this.queue.take();
+
+							tokenBucket.acquire();
+
+							Run.this.process(batch);
+						} catch (InterruptedException ex) {
+
+							return;
+						} catch (RuntimeException ex) {
+
+							log.warn("Unexpected exception in Secret Token rotation: " + ex.getMessage(), ex);
+						}
+					}
+				}
+			});
+
+			this.threads.add(thread);
+			thread.start();
+		}
+
+		private void process(Batch batch) {
+
+			// the batch is complete however processing ends; retried records are queued as new batches
+
+			try {
+
+				Map<CloudNameRegistration, String> secretTokens = new IdentityHashMap<CloudNameRegistration, String> ();
+
+				for (SecretTokenRotationRecord record : batch.records) {
+
+					secretTokens.put(record.getCloudNameRegistration(), record.getSecretToken());
+					record.incrementAttempts();
+				}
+
+				long start = System.nanoTime();
+				Exception exception = null;
+
+				try {
+
+					SecretTokenRotator.this.getCsp().generateCloudSecretTokens(secretTokens);
+				} catch (Exception ex) {
+
+					exception = ex;
+				} finally {
+
+					this.report.getMessageStatistics().record(System.nanoTime() - start);
+				}
+
+				if (exception == null) {
+
+					this.succeed(batch);
+				} else {
+
+					this.fail(batch, exception);
+				}
+			} finally {
+
+				this.complete();
+			}
+		}
+
+		private void succeed(Batch batch) {
+
+			this.report.recordSucceeded(batch.records.size());
+
+			for (SecretTokenRotationRecord record : batch.records) {
+
+				record.setException(null);
+
+				if (SecretTokenRotator.this.getListener() != null) SecretTokenRotator.this.getListener().onSuccess(record);
+			}
+		}
+
+		private void fail(Batch batch, Exception ex) {
+
+			List<SecretTokenRotationRecord> retryRecords = new ArrayList<SecretTokenRotationRecord> ();
+
+			for (SecretTokenRotationRecord record : batch.records) {
+
+				record.setException(ex);
+
+				if (record.getAttempts() < SecretTokenRotator.this.getMaxAttempts()) {
+
+					retryRecords.add(record);
+				} else {
+
+					if (log.isDebugEnabled()) log.debug("Secret Token rotation of Cloud Number " + record.getCloudNameRegistration().getCloudNumber() + " failed after " + record.getAttempts() + " attempts: " + ex.getMessage());
+
+					this.report.recordFailed(ex);
+
+					if (SecretTokenRotator.this.getListener() != null) SecretTokenRotator.this.getListener().onFailure(record, ex);
+				}
+			}
+
+			if (retryRecords.isEmpty()) return;
+
+			if (log.isDebugEnabled()) log.debug("Retrying " + retryRecords.size() + " Clouds after failed message: " + ex.getMessage());
+
+			this.report.recordRetried(retryRecords.size());
+
+			int retry = batch.retry + 1;
+			int split = retryRecords.size() > 1 ? retryRecords.size() / 2 : retryRecords.size();
+
+			this.retry(new Batch(new ArrayList<SecretTokenRotationRecord> (retryRecords.subList(0, split)), retry));
+			if (split < retryRecords.size()) this.retry(new Batch(new ArrayList<SecretTokenRotationRecord> (retryRecords.subList(split, retryRecords.size())), retry));
+		}
+
+		private void retry(Batch batch) {
+
+			synchronized (this.pendingLock) {
+
+				this.pendingCount++;
+			}
+
+			this.queue.put(batch);
+		}
+
+		private void complete() {
+
+			synchronized (this.pendingLock) {
+
+				this.pendingCount--;
+				this.pendingLock.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Records to be sent in one message, not before the retry delay has passed.
+	 */
+	private class Batch implements Delayed {
+
+		private final List<SecretTokenRotationRecord> records;
+		private final int retry;
+		private final long due;
+
+		private Batch(List<SecretTokenRotationRecord> records, int retry) {
+
+			this.records = records;
+			this.retry = retry;
+			this.due = System.nanoTime() + (retry == 0 ? 0 : TimeUnit.MILLISECONDS.toNanos(SecretTokenRotator.this.getRetryDelayMillis()) << Math.min(retry - 1, 16));
+		}
+
+		public long getDelay(TimeUnit unit) {
+
+			return unit.convert(this.due - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+
+		public int compareTo(Delayed other) {
+
+			long difference = this.getDelay(TimeUnit.NANOSECONDS) - other.getDelay(TimeUnit.NANOSECONDS);
+
+			return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+		}
+	}
+
+	/*
+	 * Getters and setters
+	 */
+
+	public BatchCSP getCsp() {
+
+		return this.csp;
+	}
+
+	public void setCsp(BatchCSP csp) {
+
+		this.csp = csp;
+	}
+
+	public int getBatchSize() {
+
+		return this.batchSize;
+	}
+
+	/**
+	 * Sets the maximum number of Clouds per message.
+	 * A BasicCSP additionally splits batches larger than its maxOperationsPerMessage.
+	 */
+	public void setBatchSize(int batchSize) {
+
+		if (batchSize < 1) throw new IllegalArgumentException("Invalid batch size: " + batchSize);
+
+		this.batchSize = batchSize;
+	}
+
+	public int getConcurrency() {
+
+		return this.concurrency;
+	}
+
+	public void setConcurrency(int concurrency) {
+
+		if (concurrency < 1) throw new IllegalArgumentException("Invalid concurrency: " + concurrency);
+
+		this.concurrency = concurrency;
+	}
+
+	public double getRate() {
+
+		return this.rate;
+	}
+
+	/**
+	 * Sets the maximum number of messages per second. Zero or less means unlimited.
+	 */
+	public void setRate(double rate) {
+
+		this.rate = rate;
+	}
+
+	public int getMaxAttempts() {
+
+		return this.maxAttempts;
+	}
+
+	public void setMaxAttempts(int maxAttempts) {
+
+		if (maxAttempts < 1) throw new IllegalArgumentException("Invalid maximum number of attempts: " + maxAttempts);
+
+		this.maxAttempts = maxAttempts;
+	}
+
+	public long getRetryDelayMillis() {
+
+		return this.retryDelayMillis;
+	}
+
+	public void setRetryDelayMillis(long retryDelayMillis) {
+
+		this.retryDelayMillis = retryDelayMillis;
+	}
+
+	public SecretTokenRotationListener getListener() {
+
+		return this.listener;
+	}
+
+	public void setListener(SecretTokenRotationListener listener) {
+
+		this.listener = listener;
+	}
+}
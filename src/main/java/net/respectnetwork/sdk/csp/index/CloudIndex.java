@@ -0,0 +1,729 @@
+package net.respectnetwork.sdk.csp.index;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.respectnetwork.sdk.csp.util.ExecutorUtil;
+
+/**
+ * A local, persistent index of the Clouds provisioned by this CSP: Cloud Name to Cloud Number to
+ * Cloud XDI endpoint, with lookups by Cloud Name or Cloud Number and prefix scans over Cloud Names.
+ * 
+ * The index lives in a directory with two files: an immutable, memory-mapped snapshot sorted by Cloud Name
+ * (see CloudIndexSnapshot), and a log of the entries written since, which are also kept in memory.
+ * When the log has more than compactionThreshold entries, a background thread merges it into a new
+ * snapshot. Opening the index maps the snapshot and replays the log, so it stays fast for
+ * multi-million-entry indexes. The snapshot must stay below 2 GB.
+ * 
+ * After a failed compaction, background compactions are not tried again for a while, starting at
+ * one second and doubling up to ten minutes. A log that was frozen by a failed compaction is merged
+ * by the next one.
+ * 
+ * Writes are not synced to disk unless syncWrites is set; the index can always be rebuilt from the registrar.
+ * Java 6 cannot sync the directory itself, so after a crash a compaction's renames may be partly lost;
+ * opening the index recovers from every combination of files a compaction can leave behind.
+ */
+public class CloudIndex {
+
+	private static final Logger log = LoggerFactory.getLogger(CloudIndex.class);
+
+	public static final int DEFAULT_COMPACTION_THRESHOLD = 100000;
+
+	private static final String SNAPSHOT_FILE = "clouds.snapshot";
+	private static final String LOG_FILE = "clouds.log";
+	private static final String COMPACTING_LOG_FILE = "clouds.log.compacting";
+	private static final String TMP_SUFFIX = ".tmp";
+	private static final byte RECORD_VERSION = 1;
+
+	private static final long COMPACTION_RETRY_MIN_MILLIS = 1000;
+	private static final long COMPACTION_RETRY_MAX_MILLIS = 600000;
+
+	private final File directory;
+	private final ReadWriteLock lock;
+	private final AtomicBoolean compacting;
+	private final ExecutorService compactionExecutorService;
+
+	private CloudIndexSnapshot snapshot;
+	private MemTable memTable;
+	private MemTable compactingMemTable;
+	private FileChannel logChannel;
+
+	private int compactionThreshold;
+	private boolean syncWrites;
+	private volatile boolean closed;
+
+	private volatile int compactionFailures;
+	private volatile long compactionRetryAt;
+
+	/**
+	 * Opens the index in the given directory, creating it if necessary.
+	 */
+	public CloudIndex(File directory) throws IOException {
+
+		if (! directory.isDirectory() && ! directory.mkdirs()) throw new IOException("Cannot create cloud index directory " + directory);
+
+		this.directory = directory;
+		this.lock = new ReentrantReadWriteLock();
+		this.compacting = new AtomicBoolean(false);
+		this.compactionExecutorService = ExecutorUtil.newBoundedExecutorService("csp-cloud-index-compaction", 1, 1);
+
+		this.compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+		this.syncWrites = false;
+		this.closed = false;
+
+		this.compactionFailures = 0;
+		this.compactionRetryAt = 0;
+
+		long start = System.currentTimeMillis();
+
+		File snapshotFile = new File(directory, SNAPSHOT_FILE);
+		File tmpSnapshotFile = new File(directory, SNAPSHOT_FILE + TMP_SUFFIX);
+
+		if (! snapshotFile.exists() && tmpSnapshotFile.exists()) {
+
+			// the old snapshot was deleted but the new one not renamed; its header is written last, so it is complete if it opens
+
+			try {
+
+				CloudIndexSnapshot.open(tmpSnapshotFile);
+				rename(tmpSnapshotFile, snapshotFile);
+
+				log.warn("Recovered snapshot of cloud index " + directory + " from an interrupted compaction.");
+			} catch (IOException ex) {
+
+				log.warn("Discarding incomplete snapshot of cloud index " + directory + ": " + ex.getMessage());
+			}
+		}
+
+		tmpSnapshotFile.delete();
+
+		this.snapshot = snapshotFile.exists() ? CloudIndexSnapshot.open(snapshotFile) : CloudIndexSnapshot.empty();
+
+		this.memTable = new MemTable();
+		this.compactingMemTable = null;
+
+		File logFile = new File(directory, LOG_FILE);
+		File compactingLogFile = new File(directory, COMPACTING_LOG_FILE);
+
+		if (compactingLogFile.exists()) {
+
+			// a compaction was interrupted; its entries are not in the snapshot, so carry them over to a new log
+
+			replay(compactingLogFile, this.memTable);
+			replay(logFile, this.memTable);
+
+			File tmpLogFile = new File(directory, LOG_FILE + TMP_SUFFIX);
+			FileChannel tmpLogChannel = new RandomAccessFile(tmpLogFile, "rw").getChannel();
+
+			try {
+
+				tmpLogChannel.truncate(0);
+				for (CloudIndexEntry entry : this.memTable.entries.values()) write(tmpLogChannel, entry);
+				tmpLogChannel.force(true);
+			} finally {
+
+				tmpLogChannel.close();
+			}
+
+			rename(tmpLogFile, logFile);
+			compactingLogFile.delete();
+		} else {
+
+			long validLength = replay(logFile, this.memTable);
+
+			FileChannel logChannel = new RandomAccessFile(logFile, "rw").getChannel();
+
+			if (logChannel.size() > validLength) {
+
+				log.warn("Discarding " + (logChannel.size() - validLength) + " bytes of incomplete records at the end of cloud index log " + logFile);
+
+				logChannel.truncate(validLength);
+			}
+
+			logChannel.close();
+		}
+
+		this.logChannel = new RandomAccessFile(logFile, "rw").getChannel();
+		this.logChannel.position(this.logChannel.size());
+
+		log.info("Opened cloud index " + directory + " with " + this.snapshot.getCount() + " snapshot entries and " + this.memTable.entries.size() + " log entries in " + (System.currentTimeMillis() - start) + " ms");
+	}
+
+	/**
+	 * Adds or replaces the entry for a Cloud Name.
+	 */
+	public void put(CloudIndexEntry entry) throws IOException {
+
+		boolean compact;
+
+		this.lock.writeLock().lock();
+
+		try {
+
+			if (this.closed) throw new IOException("Cloud index " + this.directory + " is closed.");
+
+			write(this.logChannel, entry);
+			if (this.syncWrites) this.logChannel.force(false);
+
+			this.memTable.put(entry);
+
+			compact = this.memTable.entries.size() >= this.compactionThreshold && (this.compactionFailures == 0 || System.nanoTime() - this.compactionRetryAt >= 0);
+		} finally {
+
+			this.lock.writeLock().unlock();
+		}
+
+		if (compact) this.compactInBackground();
+	}
+
+	/**
+	 * Merges the non-null fields of the given entry into the existing entry for its Cloud Name, and stores the result.
+	 */
+	public CloudIndexEntry update(CloudIndexEntry entry) throws IOException {
+
+		this.lock.writeLock().lock();
+
+		try {
+
+			CloudIndexEntry existingEntry = this.get(entry.getCloudName());
+			CloudIndexEntry mergedEntry = existingEntry == null ? entry : existingEntry.merge(entry);
+
+			this.put(mergedEntry);
+
+			return mergedEntry;
+		} finally {
+
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the entry for a Cloud Name, or null.
+	 */
+	public CloudIndexEntry get(String cloudName) throws IOException {
+
+		this.lock.readLock().lock();
+
+		try {
+
+			CloudIndexEntry entry = this.memTable.entries.get(cloudName);
+			if (entry == null && this.compactingMemTable != null) entry = this.compactingMemTable.entries.get(cloudName);
+			if (entry == null) entry = this.snapshot.get(cloudName);
+
+			return entry;
+		} finally {
+
+			this.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the entry for a Cloud Number, or null.
+	 */
+	public CloudIndexEntry getByCloudNumber(String cloudNumber) throws IOException {
+
+		this.lock.readLock().lock();
+
+		try {
+
+			String cloudName = this.memTable.cloudNamesByNumber.get(cloudNumber);
+			if (cloudName == null && this.compactingMemTable != null) cloudName = this.compactingMemTable.cloudNamesByNumber.get(cloudNumber);
+
+			if (cloudName == null) {
+
+				CloudIndexEntry snapshotEntry = this.snapshot.getByCloudNumber(cloudNumber);
+				if (snapshotEntry == null) return null;
+
+				cloudName = snapshotEntry.getCloudName();
+			}
+
+			// make sure the Cloud Name has not been assigned another Cloud Number since
+
+			CloudIndexEntry entry = this.get(cloudName);
+
+			return entry != null && cloudNumber.equals(entry.getCloudNumber()) ? entry : null;
+		} finally {
+
+			this.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns up to limit entries whose Cloud Names start with the given prefix, in Cloud Name order.
+	 * Use an empty prefix to list all entries.
+	 */
+	public List<CloudIndexEntry> scan(String prefix, int limit) throws IOException {
+
+		this.lock.readLock().lock();
+
+		try {
+
+			TreeMap<String, CloudIndexEntry> entries = new TreeMap<String, CloudIndexEntry> ();
+
+			for (int i=this.snapshot.lowerBound(prefix), n=0; i<this.snapshot.getCount() && n<limit; i++, n++) {
+
+				CloudIndexEntry entry = this.snapshot.getEntry(i);
+				if (! entry.getCloudName().startsWith(prefix)) break;
+
+				entries.put(entry.getCloudName(), entry);
+			}
+
+			if (this.compactingMemTable != null) this.compactingMemTable.scan(prefix, limit, entries);
+			this.memTable.scan(prefix, limit, entries);
+
+			List<CloudIndexEntry> result = new ArrayList<CloudIndexEntry> ();
+			for (Iterator<CloudIndexEntry> i = entries.values().iterator(); i.hasNext() && result.size() < limit; ) result.add(i.next());
+
+			return result;
+		} finally {
+
+			this.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Merges the log into a new snapshot. Reads and writes continue while the snapshot is written.
+	 */
+	public void compact() throws IOException {
+
+		if (! this.compacting.compareAndSet(false, true)) return;
+
+		try {
+
+			this.compactAndRecord();
+		} finally {
+
+			this.compacting.set(false);
+		}
+	}
+
+	public void close() throws IOException {
+
+		this.lock.writeLock().lock();
+
+		try {
+
+			if (this.closed) return;
+
+			this.closed = true;
+
+			this.compactionExecutorService.shutdown();
+
+			this.logChannel.force(true);
+			this.logChannel.close();
+		} finally {
+
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * Compaction
+	 */
+
+	private void compactInBackground() {
+
+		if (! this.compacting.compareAndSet(false, true)) return;
+
+		try {
+
+			this.compactionExecutorService.execute(new Runnable() {
+
+				public void run() {
+
+					try {
+
+						CloudIndex.this.compactAndRecord();
+					} catch (IOException ex) {
+
+						log.error("Cannot compact cloud index " + CloudIndex.this.directory + ", retrying in " + CloudIndex.this.getCompactionRetryMillis() + " ms: " + ex.getMessage(), ex);
+					} finally {
+
+						CloudIndex.this.compacting.set(false);
+					}
+				}
+			});
+		} catch (RejectedExecutionException ex) {
+
+			// the index was closed
+
+			this.compacting.set(false);
+		}
+	}
+
+	/**
+	 * Compacts, and keeps track of consecutive failures to back off background compactions.
+	 */
+	private void compactAndRecord() throws IOException {
+
+		boolean compacted = false;
+
+		try {
+
+			this.doCompact();
+
+			compacted = true;
+		} finally {
+
+			if (compacted) {
+
+				this.compactionFailures = 0;
+			} else {
+
+				this.compactionFailures++;
+				this.compactionRetryAt = System.nanoTime() + this.getCompactionRetryMillis() * 1000000L;
+			}
+		}
+	}
+
+	private long getCompactionRetryMillis() {
+
+		int doublings = Math.min(Math.max(this.compactionFailures - 1, 0), 20);
+
+		return Math.min(COMPACTION_RETRY_MIN_MILLIS << doublings, COMPACTION_RETRY_MAX_MILLIS);
+	}
+
+	private void doCompact() throws IOException {
+
+		long start = System.currentTimeMillis();
+
+		File logFile = new File(this.directory, LOG_FILE);
+		File compactingLogFile = new File(this.directory, COMPACTING_LOG_FILE);
+		File snapshotFile = new File(this.directory, SNAPSHOT_FILE);
+		File tmpSnapshotFile = new File(this.directory, SNAPSHOT_FILE + TMP_SUFFIX);
+
+		CloudIndexSnapshot snapshot;
+		MemTable compactingMemTable;
+
+		// freeze the current log, and start a new one
+
+		this.lock.writeLock().lock();
+
+		try {
+
+			if (this.closed) return;
+
+			if (this.compactingMemTable == null) {
+
+				this.logChannel.force(true);
+				this.logChannel.close();
+
+				try {
+
+					rename(logFile, compactingLogFile);
+				} finally {
+
+					// reopen the log even if the rename failed, so that the index stays writable
+
+					this.logChannel = new RandomAccessFile(logFile, "rw").getChannel();
+					this.logChannel.position(this.logChannel.size());
+				}
+
+				this.compactingMemTable = this.memTable;
+				this.memTable = new MemTable();
+			} else {
+
+				// a failed compaction froze the log but did not write the snapshot; merge that log first
+
+				log.info("Retrying compaction of the frozen log of cloud index " + this.directory);
+			}
+
+			snapshot = this.snapshot;
+			compactingMemTable = this.compactingMemTable;
+		} finally {
+
+			this.lock.writeLock().unlock();
+		}
+
+		// merge the frozen log into a new snapshot without holding the lock
+
+		// if this fails, the frozen log keeps being served from memory, and is merged by the next compaction or back into the log on the next open
+
+		CloudIndexSnapshot.write(tmpSnapshotFile, new MergingIterator(snapshot, compactingMemTable.entries.values().iterator()), snapshot.getCount() + compactingMemTable.entries.size());
+
+		CloudIndexSnapshot newSnapshot = CloudIndexSnapshot.open(tmpSnapshotFile);
+
+		this.lock.writeLock().lock();
+
+		try {
+
+			rename(tmpSnapshotFile, snapshotFile);
+
+			this.snapshot = newSnapshot;
+			this.compactingMemTable = null;
+
+			compactingLogFile.delete();
+		} finally {
+
+			this.lock.writeLock().unlock();
+		}
+
+		log.info("Compacted cloud index " + this.directory + " to " + newSnapshot.getCount() + " entries in " + (System.currentTimeMillis() - start) + " ms");
+	}
+
+	/**
+	 * Iterates over the entries of a snapshot and a sorted iterator of newer entries, in Cloud Name order.
+	 * Newer entries replace snapshot entries with the same Cloud Name.
+	 */
+	private static class MergingIterator implements Iterator<CloudIndexEntry> {
+
+		private final CloudIndexSnapshot snapshot;
+		private final Iterator<CloudIndexEntry> newerEntries;
+
+		private int snapshotIndex;
+		private CloudIndexEntry nextSnapshotEntry;
+		private CloudIndexEntry nextNewerEntry;
+
+		private MergingIterator(CloudIndexSnapshot snapshot, Iterator<CloudIndexEntry> newerEntries) throws IOException {
+
+			this.snapshot = snapshot;
+			this.newerEntries = newerEntries;
+
+			this.snapshotIndex = 0;
+			this.nextSnapshotEntry = this.readSnapshotEntry();
+			this.nextNewerEntry = newerEntries.hasNext() ? newerEntries.next() : null;
+		}
+
+		public boolean hasNext() {
+
+			return this.nextSnapshotEntry != null || this.nextNewerEntry != null;
+		}
+
+		public CloudIndexEntry next() {
+
+			if (! this.hasNext()) throw new NoSuchElementException();
+
+			try {
+
+				int comparison;
+
+				if (this.nextSnapshotEntry == null) comparison = 1;
+				else if (this.nextNewerEntry == null) comparison = -1;
+				else comparison = this.nextSnapshotEntry.getCloudName().compareTo(this.nextNewerEntry.getCloudName());
+
+				CloudIndexEntry entry;
+
+				if (comparison < 0) {
+
+					entry = this.nextSnapshotEntry;
+					this.nextSnapshotEntry = this.readSnapshotEntry();
+				} else {
+
+					entry = this.nextNewerEntry;
+					this.nextNewerEntry = this.newerEntries.hasNext() ? this.newerEntries.next() : null;
+					if (comparison == 0) this.nextSnapshotEntry = this.readSnapshotEntry();
+				}
+
+				return entry;
+			} catch (IOException ex) {
+
+				throw new RuntimeException("Cannot read cloud index snapshot: " + ex.getMessage(), ex);
+			}
+		}
+
+		public void remove() {
+
+			throw new UnsupportedOperationException();
+		}
+
+		private CloudIndexEntry readSnapshotEntry() throws IOException {
+
+			return this.snapshotIndex < this.snapshot.getCount() ? this.snapshot.getEntry(this.snapshotIndex++) : null;
+		}
+	}
+
+	/**
+	 * The entries of the log, in memory.
+	 */
+	private static class MemTable {
+
+		private final TreeMap<String, CloudIndexEntry> entries = new TreeMap<String, CloudIndexEntry> ();
+		private final Map<String, String> cloudNamesByNumber = new HashMap<String, String> ();
+
+		private void put(CloudIndexEntry entry) {
+
+			CloudIndexEntry oldEntry = this.entries.put(entry.getCloudName(), entry);
+
+			if (oldEntry != null && oldEntry.getCloudNumber() != null && ! oldEntry.getCloudNumber().equals(entry.getCloudNumber())) this.cloudNamesByNumber.remove(oldEntry.getCloudNumber());
+			if (entry.getCloudNumber() != null) this.cloudNamesByNumber.put(entry.getCloudNumber(), entry.getCloudName());
+		}
+
+		private void scan(String prefix, int limit, Map<String, CloudIndexEntry> result) {
+
+			int n = 0;
+
+			for (Iterator<CloudIndexEntry> i = this.entries.tailMap(prefix).values().iterator(); i.hasNext() && n < limit; n++) {
+
+				CloudIndexEntry entry = i.next();
+				if (! entry.getCloudName().startsWith(prefix)) break;
+
+				result.put(entry.getCloudName(), entry);
+			}
+		}
+	}
+
+	/*
+	 * Log record format: int length, payload, int CRC32 of payload
+	 */
+
+	private static void write(FileChannel fileChannel, CloudIndexEntry entry) throws IOException {
+
+		ByteArrayOutputStream payloadStream = new ByteArrayOutputStream(128);
+		DataOutputStream payload = new DataOutputStream(payloadStream);
+
+		payload.writeByte(RECORD_VERSION);
+		CloudIndexFormat.writeField(payload, entry.getCloudName());
+		CloudIndexFormat.writeField(payload, entry.getCloudNumber());
+		CloudIndexFormat.writeField(payload, entry.getCloudXdiEndpoint());
+		payload.flush();
+
+		byte[] payloadBytes = payloadStream.toByteArray();
+
+		CRC32 crc32 = new CRC32();
+		crc32.update(payloadBytes);
+
+		ByteBuffer buffer = ByteBuffer.allocate(payloadBytes.length + 8);
+		buffer.putInt(payloadBytes.length);
+		buffer.put(payloadBytes);
+		buffer.putInt((int) crc32.getValue());
+		buffer.flip();
+
+		while (buffer.hasRemaining()) fileChannel.write(buffer);
+	}
+
+	/**
+	 * Reads all valid records of a log into a MemTable, and returns the length of the valid part of the file.
+	 */
+	private static long replay(File file, MemTable memTable) throws IOException {
+
+		if (! file.exists()) return 0;
+
+		DataInputStream dataInputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+
+		long validLength = 0;
+
+		try {
+
+			while (true) {
+
+				int length;
+
+				try {
+
+					length = dataInputStream.readInt();
+				} catch (EOFException ex) {
+
+					break;
+				}
+
+				if (length <= 0 || length > 1048576) break;
+
+				byte[] payload = new byte[length];
+				long crc;
+
+				try {
+
+					dataInputStream.readFully(payload);
+					crc = dataInputStream.readInt() & 0xffffffffL;
+				} catch (EOFException ex) {
+
+					break;
+				}
+
+				CRC32 crc32 = new CRC32();
+				crc32.update(payload);
+				if (crc32.getValue() != crc) break;
+
+				memTable.put(decode(payload));
+
+				validLength += 4 + length + 4;
+			}
+		} finally {
+
+			dataInputStream.close();
+		}
+
+		return validLength;
+	}
+
+	private static CloudIndexEntry decode(byte[] payloadBytes) throws IOException {
+
+		ByteBuffer buffer = ByteBuffer.wrap(payloadBytes);
+
+		byte version = buffer.get(0);
+		if (version != RECORD_VERSION) throw new IOException("Unsupported cloud index record version: " + version);
+
+		int[] position = new int[] { 1 };
+
+		String cloudName = CloudIndexFormat.readField(buffer, position);
+		String cloudNumber = CloudIndexFormat.readField(buffer, position);
+		String cloudXdiEndpoint = CloudIndexFormat.readField(buffer, position);
+
+		if (cloudName == null) throw new IOException("Cloud index record without Cloud Name.");
+
+		return new CloudIndexEntry(cloudName, cloudNumber, cloudXdiEndpoint);
+	}
+
+	private static void rename(File from, File to) throws IOException {
+
+		if (from.renameTo(to)) return;
+
+		if (! to.delete() || ! from.renameTo(to)) throw new IOException("Cannot rename " + from + " to " + to);
+	}
+
+	/*
+	 * Getters and setters
+	 */
+
+	public File getDirectory() {
+
+		return this.directory;
+	}
+
+	public int getCompactionThreshold() {
+
+		return this.compactionThreshold;
+	}
+
+	public void setCompactionThreshold(int compactionThreshold) {
+
+		if (compactionThreshold < 1) throw new IllegalArgumentException("Invalid compaction threshold: " + compactionThreshold);
+
+		this.compactionThreshold = compactionThreshold;
+	}
+
+	public boolean isSyncWrites() {
+
+		return this.syncWrites;
+	}
+
+	public void setSyncWrites(boolean syncWrites) {
+
+		this.syncWrites = syncWrites;
+	}
+}
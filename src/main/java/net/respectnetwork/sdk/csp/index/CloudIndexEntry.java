@@ -0,0 +1,75 @@
+package net.respectnetwork.sdk.csp.index;
+
+/**
+ * A Cloud provisioned by this CSP as recorded in the CloudIndex: its Cloud Name, Cloud Number
+ * and Cloud XDI endpoint. The Cloud Number and endpoint are null until they are known.
+ */
+public class CloudIndexEntry {
+
+	private final String cloudName;
+	private final String cloudNumber;
+	private final String cloudXdiEndpoint;
+
+	public CloudIndexEntry(String cloudName, String cloudNumber, String cloudXdiEndpoint) {
+
+		if (cloudName == null) throw new NullPointerException();
+
+		this.cloudName = cloudName;
+		this.cloudNumber = cloudNumber;
+		this.cloudXdiEndpoint = cloudXdiEndpoint;
+	}
+
+	/**
+	 * Returns a copy of this entry with the fields of the other entry that are not null.
+	 */
+	public CloudIndexEntry merge(CloudIndexEntry other) {
+
+		return new CloudIndexEntry(
+				this.cloudName,
+				other.cloudNumber != null ? other.cloudNumber : this.cloudNumber,
+				other.cloudXdiEndpoint != null ? other.cloudXdiEndpoint : this.cloudXdiEndpoint);
+	}
+
+	public String getCloudName() {
+
+		return this.cloudName;
+	}
+
+	public String getCloudNumber() {
+
+		return this.cloudNumber;
+	}
+
+	public String getCloudXdiEndpoint() {
+
+		return this.cloudXdiEndpoint;
+	}
+
+	@Override
+	public boolean equals(Object object) {
+
+		if (object == this) return true;
+		if (! (object instanceof CloudIndexEntry)) return false;
+
+		CloudIndexEntry other = (CloudIndexEntry) object;
+
+		return this.cloudName.equals(other.cloudName) && equals(this.cloudNumber, other.cloudNumber) && equals(this.cloudXdiEndpoint, other.cloudXdiEndpoint);
+	}
+
+	@Override
+	public int hashCode() {
+
+		return this.cloudName.hashCode();
+	}
+
+	@Override
+	public String toString() {
+
+		return this.cloudName + " -> " + this.cloudNumber + " -> " + this.cloudXdiEndpoint;
+	}
+
+	private static boolean equals(String string1, String string2) {
+
+		return string1 == null ? string2 == null : string1.equals(string2);
+	}
+}
@@ -0,0 +1,128 @@
+package net.respectnetwork.sdk.csp.index;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+/**
+ * The binary encoding of CloudIndexEntry fields, shared by the log and snapshot files.
+ * 
+ * Each field is a tag byte followed by its value. Cloud Numbers of the usual form [=]!:uuid:...
+ * are stored as their context character and the 16 bytes of the UUID instead of 46 characters;
+ * other strings are stored as UTF-8 with an unsigned short length.
+ */
+class CloudIndexFormat {
+
+	static final byte FIELD_NULL = 0;
+	static final byte FIELD_UTF8 = 1;
+	static final byte FIELD_UUID = 2;
+
+	private static final String UUID_PREFIX = "]!:uuid:";
+	private static final int UUID_XRI_LENGTH = 2 + UUID_PREFIX.length() + 36;
+
+	private CloudIndexFormat() { }
+
+	static void writeField(DataOutput dataOutput, String value) throws IOException {
+
+		if (value == null) {
+
+			dataOutput.writeByte(FIELD_NULL);
+
+			return;
+		}
+
+		if (isUuidXri(value)) {
+
+			UUID uuid = UUID.fromString(value.substring(2 + UUID_PREFIX.length()));
+
+			dataOutput.writeByte(FIELD_UUID);
+			dataOutput.writeByte(value.charAt(1));
+			dataOutput.writeLong(uuid.getMostSignificantBits());
+			dataOutput.writeLong(uuid.getLeastSignificantBits());
+
+			return;
+		}
+
+		byte[] bytes = value.getBytes("UTF-8");
+		if (bytes.length > 0xffff) throw new IOException("Value too long for cloud index: " + bytes.length + " bytes");
+
+		dataOutput.writeByte(FIELD_UTF8);
+		dataOutput.writeShort(bytes.length);
+		dataOutput.write(bytes);
+	}
+
+	/**
+	 * Reads a field at the given position of the buffer, without changing the buffer's position.
+	 * The position after the field is stored in position[0].
+	 */
+	static String readField(ByteBuffer buffer, int[] position) throws IOException {
+
+		int index = position[0];
+		byte tag = buffer.get(index++);
+
+		switch (tag) {
+
+		case FIELD_NULL:
+
+			position[0] = index;
+			return null;
+
+		case FIELD_UUID:
+
+			char context = (char) (buffer.get(index) & 0xff);
+			UUID uuid = new UUID(buffer.getLong(index + 1), buffer.getLong(index + 9));
+
+			position[0] = index + 17;
+			return "[" + context + UUID_PREFIX + uuid.toString();
+
+		case FIELD_UTF8:
+
+			int length = buffer.getShort(index) & 0xffff;
+			byte[] bytes = new byte[length];
+			for (int i=0; i<length; i++) bytes[i] = buffer.get(index + 2 + i);
+
+			position[0] = index + 2 + length;
+			return utf8(bytes);
+
+		default:
+
+			throw new IOException("Invalid field tag in cloud index: " + tag);
+		}
+	}
+
+	/**
+	 * Returns a stable hash of a string, for the Cloud Number hash table.
+	 */
+	static int hash(String string) {
+
+		int hash = string.hashCode() * 0x9e3779b9;
+
+		return hash ^ (hash >>> 16);
+	}
+
+	private static boolean isUuidXri(String value) {
+
+		if (value.length() != UUID_XRI_LENGTH || value.charAt(0) != '[' || value.charAt(1) > 0xff || ! value.startsWith(UUID_PREFIX, 2)) return false;
+
+		try {
+
+			return UUID.fromString(value.substring(2 + UUID_PREFIX.length())).toString().equals(value.substring(2 + UUID_PREFIX.length()));
+		} catch (IllegalArgumentException ex) {
+
+			return false;
+		}
+	}
+
+	private static String utf8(byte[] bytes) {
+
+		try {
+
+			return new String(bytes, "UTF-8");
+		} catch (UnsupportedEncodingException ex) {
+
+			throw new RuntimeException(ex.getMessage(), ex);
+		}
+	}
+}
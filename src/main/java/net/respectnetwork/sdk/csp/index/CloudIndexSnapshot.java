@@ -0,0 +1,209 @@
+package net.respectnetwork.sdk.csp.index;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+
+/**
+ * An immutable, memory-mapped file of CloudIndexEntries sorted by Cloud Name.
+ * 
+ * Layout: a header (magic, version, entry count, hash table size, offsets of the two tables),
+ * the entries in Cloud Name order, a table of the entries' offsets (for binary search and prefix scans
+ * by Cloud Name), and an open-addressing hash table of entry numbers by Cloud Number.
+ * Opening a snapshot only maps the file, so it takes the same time regardless of the number of entries.
+ */
+class CloudIndexSnapshot {
+
+	private static final int MAGIC = 0x43494458;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 24;
+
+	private final ByteBuffer buffer;
+	private final int count;
+	private final int hashSlots;
+	private final int nameTableOffset;
+	private final int hashTableOffset;
+
+	private CloudIndexSnapshot(ByteBuffer buffer, int count, int hashSlots, int nameTableOffset, int hashTableOffset) {
+
+		this.buffer = buffer;
+		this.count = count;
+		this.hashSlots = hashSlots;
+		this.nameTableOffset = nameTableOffset;
+		this.hashTableOffset = hashTableOffset;
+	}
+
+	static CloudIndexSnapshot empty() {
+
+		return new CloudIndexSnapshot(null, 0, 0, 0, 0);
+	}
+
+	static CloudIndexSnapshot open(File file) throws IOException {
+
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+
+		try {
+
+			FileChannel fileChannel = randomAccessFile.getChannel();
+			if (fileChannel.size() > Integer.MAX_VALUE) throw new IOException("Cloud index snapshot " + file + " is too large: " + fileChannel.size() + " bytes");
+			if (fileChannel.size() < HEADER_SIZE) throw new IOException("Cloud index snapshot " + file + " is truncated.");
+
+			ByteBuffer buffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size());
+
+			if (buffer.getInt(0) != MAGIC) throw new IOException("Not a cloud index snapshot: " + file);
+			if (buffer.getInt(4) != VERSION) throw new IOException("Unsupported cloud index snapshot version: " + buffer.getInt(4));
+
+			return new CloudIndexSnapshot(buffer, buffer.getInt(8), buffer.getInt(12), buffer.getInt(16), buffer.getInt(20));
+		} finally {
+
+			randomAccessFile.close();
+		}
+	}
+
+	/**
+	 * Writes a snapshot of at most maxCount entries, which must be sorted by Cloud Name without duplicates.
+	 */
+	static void write(File file, Iterator<CloudIndexEntry> sortedEntries, int maxCount) throws IOException {
+
+		int[] offsets = new int[maxCount];
+		int[] numberHashes = new int[maxCount];
+		boolean[] hasNumber = new boolean[maxCount];
+		int count = 0;
+
+		DataOutputStream dataOutputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
+		int nameTableOffset;
+		int hashSlots;
+		int hashTableOffset;
+
+		try {
+
+			dataOutputStream.write(new byte[HEADER_SIZE]);
+
+			while (sortedEntries.hasNext()) {
+
+				CloudIndexEntry entry = sortedEntries.next();
+
+				offsets[count] = dataOutputStream.size();
+				hasNumber[count] = entry.getCloudNumber() != null;
+				if (hasNumber[count]) numberHashes[count] = CloudIndexFormat.hash(entry.getCloudNumber());
+				count++;
+
+				CloudIndexFormat.writeField(dataOutputStream, entry.getCloudName());
+				CloudIndexFormat.writeField(dataOutputStream, entry.getCloudNumber());
+				CloudIndexFormat.writeField(dataOutputStream, entry.getCloudXdiEndpoint());
+			}
+
+			nameTableOffset = dataOutputStream.size();
+			for (int i=0; i<count; i++) dataOutputStream.writeInt(offsets[i]);
+
+			hashSlots = Integer.highestOneBit(Math.max(1, count * 4 / 3 + 1)) << 1;
+			int[] hashTable = new int[hashSlots];
+
+			for (int i=0; i<count; i++) {
+
+				if (! hasNumber[i]) continue;
+
+				int slot = numberHashes[i] & (hashSlots - 1);
+				while (hashTable[slot] != 0) slot = (slot + 1) & (hashSlots - 1);
+
+				hashTable[slot] = i + 1;
+			}
+
+			hashTableOffset = dataOutputStream.size();
+			for (int i=0; i<hashSlots; i++) dataOutputStream.writeInt(hashTable[i]);
+
+			if (dataOutputStream.size() < 0) throw new IOException("Cloud index snapshot " + file + " would exceed 2 GB.");
+		} finally {
+
+			dataOutputStream.close();
+		}
+
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+
+		try {
+
+			randomAccessFile.writeInt(MAGIC);
+			randomAccessFile.writeInt(VERSION);
+			randomAccessFile.writeInt(count);
+			randomAccessFile.writeInt(hashSlots);
+			randomAccessFile.writeInt(nameTableOffset);
+			randomAccessFile.writeInt(hashTableOffset);
+			randomAccessFile.getChannel().force(true);
+		} finally {
+
+			randomAccessFile.close();
+		}
+	}
+
+	int getCount() {
+
+		return this.count;
+	}
+
+	CloudIndexEntry get(String cloudName) throws IOException {
+
+		int index = this.lowerBound(cloudName);
+
+		if (index < this.count && this.getCloudName(index).equals(cloudName)) return this.getEntry(index);
+
+		return null;
+	}
+
+	CloudIndexEntry getByCloudNumber(String cloudNumber) throws IOException {
+
+		if (this.count == 0) return null;
+
+		int slot = CloudIndexFormat.hash(cloudNumber) & (this.hashSlots - 1);
+
+		while (true) {
+
+			int value = this.buffer.getInt(this.hashTableOffset + slot * 4);
+			if (value == 0) return null;
+
+			CloudIndexEntry entry = this.getEntry(value - 1);
+			if (cloudNumber.equals(entry.getCloudNumber())) return entry;
+
+			slot = (slot + 1) & (this.hashSlots - 1);
+		}
+	}
+
+	/**
+	 * Returns the index of the first entry whose Cloud Name is not less than the given one.
+	 */
+	int lowerBound(String cloudName) throws IOException {
+
+		int low = 0;
+		int high = this.count;
+
+		while (low < high) {
+
+			int middle = (low + high) >>> 1;
+
+			if (this.getCloudName(middle).compareTo(cloudName) < 0) low = middle + 1; else high = middle;
+		}
+
+		return low;
+	}
+
+	String getCloudName(int index) throws IOException {
+
+		return CloudIndexFormat.readField(this.buffer, new int[] { this.buffer.getInt(this.nameTableOffset + index * 4) });
+	}
+
+	CloudIndexEntry getEntry(int index) throws IOException {
+
+		int[] position = new int[] { this.buffer.getInt(this.nameTableOffset + index * 4) };
+
+		String cloudName = CloudIndexFormat.readField(this.buffer, position);
+		String cloudNumber = CloudIndexFormat.readField(this.buffer, position);
+		String cloudXdiEndpoint = CloudIndexFormat.readField(this.buffer, position);
+
+		return new CloudIndexEntry(cloudName, cloudNumber, cloudXdiEndpoint);
+	}
+}
@@ -0,0 +1,516 @@
+package net.respectnetwork.sdk.csp.journal;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An append-only journal of provisioning state, so that provisioning interrupted by a crash
+ * can resume from the last completed step.
+ * 
+ * Every append writes a complete snapshot of one Cloud Name's ProvisioningJournalEntry as a
+ * length-prefixed, CRC-checked binary record. Appends are group-committed: a single writer
+ * thread writes all records that arrived during the previous fsync in one write and one fsync,
+ * and append() returns once its record is durable. When most records in the file are obsolete,
+ * the file is compacted to one record per unfinished Cloud Name.
+ * 
+ * Compaction writes a separate file and renames it over the journal. Java 6 cannot fsync the
+ * directory, so after a crash the rename may be lost; the compacted file is then still there,
+ * and is replayed after the journal when it is next opened.
+ */
+public class ProvisioningJournal {
+
+	private static final Logger log = LoggerFactory.getLogger(ProvisioningJournal.class);
+
+	public static final int DEFAULT_MAX_BATCH_SIZE = 1024;
+	public static final long DEFAULT_COMPACTION_MIN_RECORDS = 100000;
+
+	private static final byte RECORD_VERSION = 1;
+
+	private final File file;
+	private final ConcurrentMap<String, ProvisioningJournalEntry> entries;
+	private final BlockingQueue<PendingRecord> pendingRecords;
+	private final Thread writerThread;
+
+	private FileChannel fileChannel;
+	private long recordCount;
+	private int maxBatchSize;
+	private long compactionMinRecords;
+	private volatile boolean closed;
+
+	/**
+	 * Opens the journal in the given file, creating it if necessary, and replays its records.
+	 * A partially written record at the end of the file (from a crash during a write) is discarded.
+	 */
+	public ProvisioningJournal(File file) throws IOException {
+
+		this.file = file;
+		this.entries = new ConcurrentHashMap<String, ProvisioningJournalEntry> ();
+		this.pendingRecords = new LinkedBlockingQueue<PendingRecord> ();
+		this.recordCount = 0;
+		this.maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+		this.compactionMinRecords = DEFAULT_COMPACTION_MIN_RECORDS;
+		this.closed = false;
+
+		long validLength = this.replay(file);
+
+		File compactFile = this.getCompactFile();
+		boolean interruptedCompaction = compactFile.exists();
+
+		if (interruptedCompaction) {
+
+			log.warn("Replaying " + compactFile + " left by an interrupted compaction of journal " + file);
+
+			this.replay(compactFile);
+		}
+
+		this.fileChannel = new RandomAccessFile(file, "rw").getChannel();
+
+		if (this.fileChannel.size() > validLength) {
+
+			log.warn("Discarding " + (this.fileChannel.size() - validLength) + " bytes of incomplete records at the end of journal " + file);
+
+			this.fileChannel.truncate(validLength);
+			this.fileChannel.force(true);
+		}
+
+		this.fileChannel.position(validLength);
+
+		if (interruptedCompaction) {
+
+			try {
+
+				this.compact();
+			} catch (IOException ex) {
+
+				log.warn("Cannot compact journal " + file + ": " + ex.getMessage(), ex);
+			}
+		}
+
+		this.writerThread = new Thread(new Runnable() {
+
+			public void run() {
+
+				ProvisioningJournal.this.writeLoop();
+			}
+		}, "csp-journal-writer");
+
+		this.writerThread.setDaemon(true);
+		this.writerThread.start();
+
+		log.info("Opened journal " + file + " with " + this.recordCount + " records and " + this.entries.size() + " unfinished provisionings");
+	}
+
+	/**
+	 * Records the new state of a Cloud Name's provisioning, and returns when it is durable.
+	 * Entries for which all steps are completed are removed from the journal.
+	 */
+	public void append(ProvisioningJournalEntry entry) throws IOException {
+
+		if (this.closed) throw new IOException("Journal " + this.file + " is closed.");
+
+		PendingRecord pendingRecord = new PendingRecord(entry, encode(entry));
+
+		this.pendingRecords.add(pendingRecord);
+
+		// if close() drained the queue before the record was added, nobody else will complete it
+
+		if (this.closed && this.pendingRecords.remove(pendingRecord)) throw new IOException("Journal " + this.file + " is closed.");
+
+		try {
+
+			pendingRecord.latch.await();
+		} catch (InterruptedException ex) {
+
+			Thread.currentThread().interrupt();
+
+			throw new IOException("Interrupted while waiting for journal write.");
+		}
+
+		if (pendingRecord.exception != null) throw new IOException("Cannot write to journal " + this.file + ": " + pendingRecord.exception.getMessage(), pendingRecord.exception);
+	}
+
+	/**
+	 * Returns the unfinished provisioning state of a Cloud Name, or null.
+	 */
+	public ProvisioningJournalEntry get(String cloudName) {
+
+		return this.entries.get(cloudName);
+	}
+
+	/**
+	 * Returns the provisioning state of all unfinished Cloud Names.
+	 */
+	public Collection<ProvisioningJournalEntry> getUnfinishedEntries() {
+
+		return Collections.unmodifiableCollection(new ArrayList<ProvisioningJournalEntry> (this.entries.values()));
+	}
+
+	/**
+	 * Waits for pending appends to be written, and closes the journal.
+	 */
+	public void close() throws IOException {
+
+		if (this.closed) return;
+
+		this.closed = true;
+
+		try {
+
+			this.writerThread.join();
+		} catch (InterruptedException ex) {
+
+			Thread.currentThread().interrupt();
+		}
+
+		for (PendingRecord pendingRecord; (pendingRecord = this.pendingRecords.poll()) != null; ) {
+
+			pendingRecord.exception = new IOException("Journal " + this.file + " is closed.");
+			pendingRecord.latch.countDown();
+		}
+
+		this.fileChannel.close();
+	}
+
+	/*
+	 * Writing
+	 */
+
+	private void writeLoop() {
+
+		List<PendingRecord> batch = new ArrayList<PendingRecord> ();
+
+		while (! this.closed || ! this.pendingRecords.isEmpty()) {
+
+			try {
+
+				PendingRecord first = this.pendingRecords.poll(100, TimeUnit.MILLISECONDS);
+				if (first == null) continue;
+
+				batch.add(first);
+				this.pendingRecords.drainTo(batch, this.maxBatchSize - 1);
+
+				this.write(batch);
+			} catch (InterruptedException ex) {
+
+				continue;
+			} finally {
+
+				batch.clear();
+			}
+		}
+	}
+
+	private void write(List<PendingRecord> batch) {
+
+		IOException exception = null;
+
+		try {
+
+			int size = 0;
+			for (PendingRecord pendingRecord : batch) size += pendingRecord.bytes.length;
+
+			ByteBuffer buffer = ByteBuffer.allocate(size);
+			for (PendingRecord pendingRecord : batch) buffer.put(pendingRecord.bytes);
+			buffer.flip();
+
+			while (buffer.hasRemaining()) this.fileChannel.write(buffer);
+			this.fileChannel.force(false);
+
+			for (PendingRecord pendingRecord : batch) this.apply(pendingRecord.entry);
+			this.recordCount += batch.size();
+		} catch (IOException ex) {
+
+			log.error("Cannot write " + batch.size() + " records to journal " + this.file + ": " + ex.getMessage(), ex);
+
+			exception = ex;
+		}
+
+		for (PendingRecord pendingRecord : batch) {
+
+			pendingRecord.exception = exception;
+			pendingRecord.latch.countDown();
+		}
+
+		if (exception == null && this.recordCount >= this.compactionMinRecords && this.recordCount > 2L * this.entries.size()) {
+
+			try {
+
+				this.compact();
+			} catch (IOException ex) {
+
+				log.error("Cannot compact journal " + this.file + ": " + ex.getMessage(), ex);
+			}
+		}
+	}
+
+	private void apply(ProvisioningJournalEntry entry) {
+
+		if (entry.isFinished()) this.entries.remove(entry.getCloudName()); else this.entries.put(entry.getCloudName(), entry);
+	}
+
+	/**
+	 * Rewrites the journal with one record per unfinished Cloud Name.
+	 * Only called from the writer thread.
+	 */
+	private void compact() throws IOException {
+
+		long start = System.currentTimeMillis();
+
+		File compactFile = this.getCompactFile();
+		RandomAccessFile compactRandomAccessFile = new RandomAccessFile(compactFile, "rw");
+
+		try {
+
+			FileChannel compactFileChannel = compactRandomAccessFile.getChannel();
+			compactFileChannel.truncate(0);
+
+			this.writeEntries(compactFileChannel);
+		} finally {
+
+			compactRandomAccessFile.close();
+		}
+
+		this.fileChannel.close();
+
+		boolean replaced = false;
+		boolean lost = false;
+
+		try {
+
+			replaced = compactFile.renameTo(this.file) || (this.file.delete() && compactFile.renameTo(this.file));
+			lost = ! replaced && ! this.file.exists();
+		} finally {
+
+			this.fileChannel = new RandomAccessFile(this.file, "rw").getChannel();
+			this.fileChannel.position(this.fileChannel.size());
+		}
+
+		if (! replaced) {
+
+			// the journal may be gone, or older than the compacted file when replaying an interrupted compaction,
+			// so all entries are appended to it before the compacted file is deleted
+
+			this.writeEntries(this.fileChannel);
+			this.recordCount = (lost ? 0 : this.recordCount) + this.entries.size();
+
+			compactFile.delete();
+
+			throw new IOException("Cannot replace journal " + this.file + " with " + compactFile);
+		}
+
+		log.info("Compacted journal " + this.file + " from " + this.recordCount + " to " + this.entries.size() + " records in " + (System.currentTimeMillis() - start) + " ms");
+
+		this.recordCount = this.entries.size();
+	}
+
+	private void writeEntries(FileChannel fileChannel) throws IOException {
+
+		for (ProvisioningJournalEntry entry : this.entries.values()) {
+
+			ByteBuffer buffer = ByteBuffer.wrap(encode(entry));
+			while (buffer.hasRemaining()) fileChannel.write(buffer);
+		}
+
+		fileChannel.force(true);
+	}
+
+	private File getCompactFile() {
+
+		return new File(this.file.getPath() + ".compact");
+	}
+
+	/*
+	 * Reading
+	 */
+
+	/**
+	 * Reads all valid records of a file, and returns the length of its valid part.
+	 */
+	private long replay(File file) throws IOException {
+
+		if (! file.exists()) return 0;
+
+		InputStream inputStream = new BufferedInputStream(new FileInputStream(file), 65536);
+		DataInputStream dataInputStream = new DataInputStream(inputStream);
+
+		long validLength = 0;
+
+		try {
+
+			while (true) {
+
+				int length;
+
+				try {
+
+					length = dataInputStream.readInt();
+				} catch (EOFException ex) {
+
+					break;
+				}
+
+				if (length <= 0 || length > 1048576) break;
+
+				byte[] payload = new byte[length];
+				long crc;
+
+				try {
+
+					dataInputStream.readFully(payload);
+					crc = dataInputStream.readInt() & 0xffffffffL;
+				} catch (EOFException ex) {
+
+					break;
+				}
+
+				CRC32 crc32 = new CRC32();
+				crc32.update(payload);
+				if (crc32.getValue() != crc) break;
+
+				this.apply(decode(payload));
+				this.recordCount++;
+
+				validLength += 4 + length + 4;
+			}
+		} finally {
+
+			dataInputStream.close();
+		}
+
+		return validLength;
+	}
+
+	/*
+	 * Record format: int length, payload, int CRC32 of payload
+	 */
+
+	private static byte[] encode(ProvisioningJournalEntry entry) throws IOException {
+
+		ByteArrayOutputStream payloadStream = new ByteArrayOutputStream(256);
+		DataOutputStream payload = new DataOutputStream(payloadStream);
+
+		payload.writeByte(RECORD_VERSION);
+		payload.writeUTF(entry.getCloudName());
+		payload.writeInt(entry.getCompletedStepsMask());
+		writeNullableUTF(payload, entry.getCloudNamePeerRootXri());
+		writeNullableUTF(payload, entry.getCloudNumber());
+		writeNullableUTF(payload, entry.getCloudNumberPeerRootXri());
+		writeNullableUTF(payload, entry.getCloudXdiEndpoint());
+		payload.flush();
+
+		byte[] payloadBytes = payloadStream.toByteArray();
+
+		CRC32 crc32 = new CRC32();
+		crc32.update(payloadBytes);
+
+		ByteArrayOutputStream recordStream = new ByteArrayOutputStream(payloadBytes.length + 8);
+		DataOutputStream record = new DataOutputStream(recordStream);
+
+		record.writeInt(payloadBytes.length);
+		record.write(payloadBytes);
+		record.writeInt((int) crc32.getValue());
+		record.flush();
+
+		return recordStream.toByteArray();
+	}
+
+	private static ProvisioningJournalEntry decode(byte[] payloadBytes) throws IOException {
+
+		DataInputStream payload = new DataInputStream(new ByteArrayInputStream(payloadBytes));
+
+		byte version = payload.readByte();
+		if (version != RECORD_VERSION) throw new IOException("Unsupported journal record version: " + version);
+
+		String cloudName = payload.readUTF();
+		int completedSteps = payload.readInt();
+		String cloudNamePeerRootXri = readNullableUTF(payload);
+		String cloudNumber = readNullableUTF(payload);
+		String cloudNumberPeerRootXri = readNullableUTF(payload);
+		String cloudXdiEndpoint = readNullableUTF(payload);
+
+		return new ProvisioningJournalEntry(cloudName, completedSteps, cloudNamePeerRootXri, cloudNumber, cloudNumberPeerRootXri, cloudXdiEndpoint);
+	}
+
+	private static void writeNullableUTF(DataOutputStream dataOutputStream, String string) throws IOException {
+
+		dataOutputStream.writeBoolean(string != null);
+		if (string != null) dataOutputStream.writeUTF(string);
+	}
+
+	private static String readNullableUTF(DataInputStream dataInputStream) throws IOException {
+
+		return dataInputStream.readBoolean() ? dataInputStream.readUTF() : null;
+	}
+
+	private static class PendingRecord {
+
+		private final ProvisioningJournalEntry entry;
+		private final byte[] bytes;
+		private final CountDownLatch latch;
+		private volatile IOException exception;
+
+		private PendingRecord(ProvisioningJournalEntry entry, byte[] bytes) {
+
+			this.entry = entry;
+			this.bytes = bytes;
+			this.latch = new CountDownLatch(1);
+			this.exception = null;
+		}
+	}
+
+	/*
+	 * Getters and setters
+	 */
+
+	public File getFile() {
+
+		return this.file;
+	}
+
+	public int getMaxBatchSize() {
+
+		return this.maxBatchSize;
+	}
+
+	public void setMaxBatchSize(int maxBatchSize) {
+
+		if (maxBatchSize < 1) throw new IllegalArgumentException("Invalid maximum batch size: " + maxBatchSize);
+
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	public long getCompactionMinRecords() {
+
+		return this.compactionMinRecords;
+	}
+
+	public void setCompactionMinRecords(long compactionMinRecords) {
+
+		this.compactionMinRecords = compactionMinRecords;
+	}
+}
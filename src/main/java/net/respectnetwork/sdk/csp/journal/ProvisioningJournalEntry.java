@@ -0,0 +1,124 @@
+package net.respectnetwork.sdk.csp.journal;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+import net.respectnetwork.sdk.csp.ProvisioningStep;
+
+/**
+ * The provisioning state of one Cloud Name as recorded in the ProvisioningJournal:
+ * the completed steps and the results they returned.
+ * Secret tokens are never recorded.
+ */
+public class ProvisioningJournalEntry {
+
+	private final String cloudName;
+	private final int completedSteps;
+	private final String cloudNamePeerRootXri;
+	private final String cloudNumber;
+	private final String cloudNumberPeerRootXri;
+	private final String cloudXdiEndpoint;
+
+	public ProvisioningJournalEntry(String cloudName, Set<ProvisioningStep> completedSteps, String cloudNamePeerRootXri, String cloudNumber, String cloudNumberPeerRootXri, String cloudXdiEndpoint) {
+
+		this(cloudName, toMask(completedSteps), cloudNamePeerRootXri, cloudNumber, cloudNumberPeerRootXri, cloudXdiEndpoint);
+	}
+
+	ProvisioningJournalEntry(String cloudName, int completedSteps, String cloudNamePeerRootXri, String cloudNumber, String cloudNumberPeerRootXri, String cloudXdiEndpoint) {
+
+		if (cloudName == null) throw new NullPointerException();
+
+		this.cloudName = cloudName;
+		this.completedSteps = completedSteps;
+		this.cloudNamePeerRootXri = cloudNamePeerRootXri;
+		this.cloudNumber = cloudNumber;
+		this.cloudNumberPeerRootXri = cloudNumberPeerRootXri;
+		this.cloudXdiEndpoint = cloudXdiEndpoint;
+	}
+
+	public boolean isCompleted(ProvisioningStep step) {
+
+		return (this.completedSteps & (1 << step.ordinal())) != 0;
+	}
+
+	/**
+	 * Returns true if all provisioning steps are completed.
+	 */
+	public boolean isFinished() {
+
+		return this.completedSteps == (1 << ProvisioningStep.values().length) - 1;
+	}
+
+	public Set<ProvisioningStep> getCompletedSteps() {
+
+		Set<ProvisioningStep> completedSteps = EnumSet.noneOf(ProvisioningStep.class);
+
+		for (ProvisioningStep step : ProvisioningStep.values()) if (this.isCompleted(step)) completedSteps.add(step);
+
+		return completedSteps;
+	}
+
+	/**
+	 * Returns a new entry with the given step marked as completed, and with the given
+	 * non-null results replacing the current ones.
+	 */
+	public ProvisioningJournalEntry withCompletedStep(ProvisioningStep step, String cloudNamePeerRootXri, String cloudNumber, String cloudNumberPeerRootXri, String cloudXdiEndpoint) {
+
+		return new ProvisioningJournalEntry(
+				this.cloudName, 
+				this.completedSteps | (1 << step.ordinal()), 
+				cloudNamePeerRootXri != null ? cloudNamePeerRootXri : this.cloudNamePeerRootXri, 
+				cloudNumber != null ? cloudNumber : this.cloudNumber, 
+				cloudNumberPeerRootXri != null ? cloudNumberPeerRootXri : this.cloudNumberPeerRootXri, 
+				cloudXdiEndpoint != null ? cloudXdiEndpoint : this.cloudXdiEndpoint);
+	}
+
+	private static int toMask(Set<ProvisioningStep> steps) {
+
+		int mask = 0;
+
+		for (ProvisioningStep step : steps) mask |= 1 << step.ordinal();
+
+		return mask;
+	}
+
+	@Override
+	public String toString() {
+
+		return this.cloudName + " " + this.getCompletedSteps();
+	}
+
+	/*
+	 * Getters
+	 */
+
+	public String getCloudName() {
+
+		return this.cloudName;
+	}
+
+	int getCompletedStepsMask() {
+
+		return this.completedSteps;
+	}
+
+	public String getCloudNamePeerRootXri() {
+
+		return this.cloudNamePeerRootXri;
+	}
+
+	public String getCloudNumber() {
+
+		return this.cloudNumber;
+	}
+
+	public String getCloudNumberPeerRootXri() {
+
+		return this.cloudNumberPeerRootXri;
+	}
+
+	public String getCloudXdiEndpoint() {
+
+		return this.cloudXdiEndpoint;
+	}
+}
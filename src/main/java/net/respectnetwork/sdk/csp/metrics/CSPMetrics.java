@@ -0,0 +1,166 @@
+package net.respectnetwork.sdk.csp.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A registry of OperationMetrics for CSP operations and XDI endpoints.
+ * 
+ * Metrics are created on first use. After registerMBeans() has been called, every metrics object
+ * (including ones created later) is registered as an MXBean named
+ * domain:type=Operation,name=... or domain:type=Endpoint,name=...
+ */
+public class CSPMetrics {
+
+	private static final Logger log = LoggerFactory.getLogger(CSPMetrics.class);
+
+	public static final String DEFAULT_JMX_DOMAIN = "net.respectnetwork.sdk.csp";
+
+	public static final String TYPE_OPERATION = "Operation";
+	public static final String TYPE_ENDPOINT = "Endpoint";
+
+	private final ConcurrentMap<String, OperationMetrics> operationMetrics;
+	private final ConcurrentMap<String, OperationMetrics> endpointMetrics;
+
+	private volatile MBeanServer mBeanServer;
+	private volatile String jmxDomain;
+
+	public CSPMetrics() {
+
+		this.operationMetrics = new ConcurrentHashMap<String, OperationMetrics> ();
+		this.endpointMetrics = new ConcurrentHashMap<String, OperationMetrics> ();
+
+		this.mBeanServer = null;
+		this.jmxDomain = null;
+	}
+
+	public OperationMetrics getOperationMetrics(String operation) {
+
+		return this.getOrCreate(this.operationMetrics, TYPE_OPERATION, operation);
+	}
+
+	public OperationMetrics getEndpointMetrics(String endpoint) {
+
+		return this.getOrCreate(this.endpointMetrics, TYPE_ENDPOINT, endpoint);
+	}
+
+	public Map<String, OperationMetrics> getAllOperationMetrics() {
+
+		return this.operationMetrics;
+	}
+
+	public Map<String, OperationMetrics> getAllEndpointMetrics() {
+
+		return this.endpointMetrics;
+	}
+
+	/**
+	 * Registers all metrics with the platform MBean server under the default domain.
+	 */
+	public void registerMBeans() {
+
+		this.registerMBeans(ManagementFactory.getPlatformMBeanServer(), DEFAULT_JMX_DOMAIN);
+	}
+
+	public synchronized void registerMBeans(MBeanServer mBeanServer, String jmxDomain) {
+
+		this.mBeanServer = mBeanServer;
+		this.jmxDomain = jmxDomain;
+
+		for (Iterator<OperationMetrics> i = this.operationMetrics.values().iterator(); i.hasNext(); ) this.register(TYPE_OPERATION, i.next());
+		for (Iterator<OperationMetrics> i = this.endpointMetrics.values().iterator(); i.hasNext(); ) this.register(TYPE_ENDPOINT, i.next());
+	}
+
+	public synchronized void unregisterMBeans() {
+
+		MBeanServer mBeanServer = this.mBeanServer;
+		if (mBeanServer == null) return;
+
+		this.mBeanServer = null;
+
+		for (Iterator<OperationMetrics> i = this.operationMetrics.values().iterator(); i.hasNext(); ) this.unregister(mBeanServer, TYPE_OPERATION, i.next());
+		for (Iterator<OperationMetrics> i = this.endpointMetrics.values().iterator(); i.hasNext(); ) this.unregister(mBeanServer, TYPE_ENDPOINT, i.next());
+	}
+
+	/**
+	 * Passes every metrics object to the given exporter.
+	 */
+	public void export(MetricsExporter metricsExporter) {
+
+		for (Iterator<OperationMetrics> i = this.operationMetrics.values().iterator(); i.hasNext(); ) metricsExporter.export(TYPE_OPERATION, i.next());
+		for (Iterator<OperationMetrics> i = this.endpointMetrics.values().iterator(); i.hasNext(); ) metricsExporter.export(TYPE_ENDPOINT, i.next());
+	}
+
+	public void reset() {
+
+		for (Iterator<OperationMetrics> i = this.operationMetrics.values().iterator(); i.hasNext(); ) i.next().reset();
+		for (Iterator<OperationMetrics> i = this.endpointMetrics.values().iterator(); i.hasNext(); ) i.next().reset();
+	}
+
+	/*
+	 * Helper methods
+	 */
+
+	private OperationMetrics getOrCreate(ConcurrentMap<String, OperationMetrics> metricsMap, String type, String name) {
+
+		OperationMetrics metrics = metricsMap.get(name);
+
+		if (metrics == null) {
+
+			OperationMetrics newMetrics = new OperationMetrics(name);
+			metrics = metricsMap.putIfAbsent(name, newMetrics);
+
+			if (metrics == null) {
+
+				metrics = newMetrics;
+				if (this.mBeanServer != null) this.registerLate(type, metrics);
+			}
+		}
+
+		return metrics;
+	}
+
+	private synchronized void registerLate(String type, OperationMetrics metrics) {
+
+		if (this.mBeanServer != null) this.register(type, metrics);
+	}
+
+	private void register(String type, OperationMetrics metrics) {
+
+		try {
+
+			ObjectName objectName = this.objectName(type, metrics);
+			if (! this.mBeanServer.isRegistered(objectName)) this.mBeanServer.registerMBean(metrics, objectName);
+		} catch (JMException ex) {
+
+			log.warn("Cannot register MBean for " + type + " " + metrics.getName() + ": " + ex.getMessage(), ex);
+		}
+	}
+
+	private void unregister(MBeanServer mBeanServer, String type, OperationMetrics metrics) {
+
+		try {
+
+			ObjectName objectName = this.objectName(type, metrics);
+			if (mBeanServer.isRegistered(objectName)) mBeanServer.unregisterMBean(objectName);
+		} catch (JMException ex) {
+
+			log.warn("Cannot unregister MBean for " + type + " " + metrics.getName() + ": " + ex.getMessage(), ex);
+		}
+	}
+
+	private ObjectName objectName(String type, OperationMetrics metrics) throws JMException {
+
+		return new ObjectName(this.jmxDomain + ":type=" + type + ",name=" + ObjectName.quote(metrics.getName()));
+	}
+}
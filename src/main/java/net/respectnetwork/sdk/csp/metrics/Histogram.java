@@ -0,0 +1,128 @@
+package net.respectnetwork.sdk.csp.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free, allocation-free histogram of non-negative long values (e.g. nanoseconds or bytes).
+ * 
+ * Values are counted in log-linear buckets: every power of two is split into 16 sub-buckets,
+ * so percentiles are accurate to within 1/16 (6.25%) of the value. Recording is a few
+ * arithmetic operations and atomic increments.
+ */
+public class Histogram {
+
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+	private final AtomicLongArray counts;
+	private final AtomicLong count;
+	private final AtomicLong sum;
+	private final AtomicLong max;
+
+	public Histogram() {
+
+		this.counts = new AtomicLongArray(BUCKET_COUNT);
+		this.count = new AtomicLong();
+		this.sum = new AtomicLong();
+		this.max = new AtomicLong();
+	}
+
+	public void record(long value) {
+
+		if (value < 0) value = 0;
+
+		this.counts.incrementAndGet(bucketIndex(value));
+		this.count.incrementAndGet();
+		this.sum.addAndGet(value);
+
+		long max;
+
+		while ((max = this.max.get()) < value) {
+
+			if (this.max.compareAndSet(max, value)) break;
+		}
+	}
+
+	/**
+	 * Returns the value below which the given fraction (0..1) of recorded values fall,
+	 * as the upper bound of the bucket containing it.
+	 */
+	public long getPercentile(double fraction) {
+
+		long count = this.count.get();
+		if (count == 0) return 0;
+
+		long rank = (long) Math.ceil(fraction * count);
+		if (rank < 1) rank = 1;
+
+		long seen = 0;
+
+		for (int i=0; i<BUCKET_COUNT; i++) {
+
+			seen += this.counts.get(i);
+
+			if (seen >= rank) return Math.min(bucketUpperBound(i), this.max.get());
+		}
+
+		return this.max.get();
+	}
+
+	public long getCount() {
+
+		return this.count.get();
+	}
+
+	public long getSum() {
+
+		return this.sum.get();
+	}
+
+	public long getMean() {
+
+		long count = this.count.get();
+
+		return count == 0 ? 0 : this.sum.get() / count;
+	}
+
+	public long getMax() {
+
+		return this.max.get();
+	}
+
+	/**
+	 * Clears all recorded values. Values recorded concurrently may be partly lost.
+	 */
+	public void reset() {
+
+		for (int i=0; i<BUCKET_COUNT; i++) this.counts.set(i, 0);
+
+		this.count.set(0);
+		this.sum.set(0);
+		this.max.set(0);
+	}
+
+	/*
+	 * Helper methods
+	 */
+
+	static int bucketIndex(long value) {
+
+		if (value < SUB_BUCKET_COUNT) return (int) value;
+
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+
+		return (shift + 1) * SUB_BUCKET_COUNT + (int) ((value >>> shift) & (SUB_BUCKET_COUNT - 1));
+	}
+
+	static long bucketUpperBound(int index) {
+
+		if (index < SUB_BUCKET_COUNT) return index;
+
+		int shift = index / SUB_BUCKET_COUNT - 1;
+		long subBucket = index % SUB_BUCKET_COUNT;
+
+		return ((SUB_BUCKET_COUNT + subBucket + 1) << shift) - 1;
+	}
+}
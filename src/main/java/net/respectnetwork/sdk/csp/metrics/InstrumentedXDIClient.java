@@ -0,0 +1,75 @@
+package net.respectnetwork.sdk.csp.metrics;
+
+import xdi2.client.XDIClient;
+import xdi2.client.exceptions.Xdi2ClientException;
+import xdi2.messaging.MessageEnvelope;
+import xdi2.messaging.MessageResult;
+
+/**
+ * An XDIClient that records the latency and errors of every message sent through another XDIClient.
+ */
+public class InstrumentedXDIClient implements XDIClient {
+
+	private final XDIClient xdiClient;
+	private final OperationMetrics metrics;
+	private final boolean ownsXdiClient;
+
+	public InstrumentedXDIClient(XDIClient xdiClient, OperationMetrics metrics, boolean ownsXdiClient) {
+
+		this.xdiClient = xdiClient;
+		this.metrics = metrics;
+		this.ownsXdiClient = ownsXdiClient;
+	}
+
+	public InstrumentedXDIClient(XDIClient xdiClient, OperationMetrics metrics) {
+
+		this(xdiClient, metrics, false);
+	}
+
+	public MessageResult send(MessageEnvelope messageEnvelope, MessageResult messageResult) throws Xdi2ClientException {
+
+		long start = System.nanoTime();
+
+		try {
+
+			MessageResult result = this.xdiClient.send(messageEnvelope, messageResult);
+
+			this.metrics.recordSuccess(start);
+
+			return result;
+		} catch (Xdi2ClientException ex) {
+
+			this.metrics.recordError(start, ex);
+
+			throw ex;
+		} catch (RuntimeException ex) {
+
+			this.metrics.recordError(start, ex);
+
+			throw ex;
+		}
+	}
+
+	/**
+	 * Closes the wrapped XDIClient if this client owns it. Clients obtained from an XDITransport
+	 * belong to the transport, which may share them, and are left open.
+	 */
+	public void close() {
+
+		if (this.ownsXdiClient) this.xdiClient.close();
+	}
+
+	/*
+	 * Getters
+	 */
+
+	public XDIClient getXdiClient() {
+
+		return this.xdiClient;
+	}
+
+	public OperationMetrics getMetrics() {
+
+		return this.metrics;
+	}
+}
@@ -0,0 +1,67 @@
+package net.respectnetwork.sdk.csp.metrics;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import net.respectnetwork.sdk.csp.transport.XDIClientKey;
+import net.respectnetwork.sdk.csp.transport.XDITransport;
+import net.respectnetwork.sdk.csp.transport.XDIWireSettings;
+import xdi2.client.XDIClient;
+
+/**
+ * An XDITransport that records per-endpoint latency and errors in a CSPMetrics.
+ * The clients of an endpoint with different XDIWireSettings record into the same OperationMetrics.
+ */
+public class InstrumentedXDITransport implements XDITransport {
+
+	private final XDITransport xdiTransport;
+	private final CSPMetrics metrics;
+	private final ConcurrentMap<XDIClientKey, InstrumentedXDIClient> xdiClients;
+
+	public InstrumentedXDITransport(XDITransport xdiTransport, CSPMetrics metrics) {
+
+		this.xdiTransport = xdiTransport;
+		this.metrics = metrics;
+		this.xdiClients = new ConcurrentHashMap<XDIClientKey, InstrumentedXDIClient> ();
+	}
+
+	public XDIClient getXdiClient(String endpoint) {
+
+		return this.getXdiClient(endpoint, null);
+	}
+
+	public XDIClient getXdiClient(String endpoint, XDIWireSettings wireSettings) {
+
+		XDIClientKey key = new XDIClientKey(endpoint, wireSettings);
+		InstrumentedXDIClient xdiClient = this.xdiClients.get(key);
+
+		if (xdiClient == null) {
+
+			InstrumentedXDIClient newXdiClient = new InstrumentedXDIClient(this.xdiTransport.getXdiClient(endpoint, wireSettings), this.metrics.getEndpointMetrics(endpoint));
+			xdiClient = this.xdiClients.putIfAbsent(key, newXdiClient);
+			if (xdiClient == null) xdiClient = newXdiClient;
+		}
+
+		return xdiClient;
+	}
+
+	public void close() {
+
+		this.xdiClients.clear();
+		this.xdiTransport.close();
+	}
+
+	/*
+	 * Getters
+	 */
+
+	public XDITransport getXdiTransport() {
+
+		return this.xdiTransport;
+	}
+
+	public CSPMetrics getMetrics() {
+
+		return this.metrics;
+	}
+}
@@ -0,0 +1,16 @@
+package net.respectnetwork.sdk.csp.metrics;
+
+/**
+ * A hook for pushing CSPMetrics to an external monitoring system.
+ * 
+ * @see CSPMetrics#export(MetricsExporter)
+ */
+public interface MetricsExporter {
+
+	/**
+	 * Called once for every metrics object.
+	 * @param type Either CSPMetrics.TYPE_OPERATION or CSPMetrics.TYPE_ENDPOINT.
+	 * @param metrics The metrics of the operation or endpoint.
+	 */
+	public void export(String type, OperationMetrics metrics);
+}
@@ -0,0 +1,265 @@
+package net.respectnetwork.sdk.csp.metrics;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency histograms and counters for one CSP operation or one XDI endpoint.
+ * 
+ * Besides the total latency, the time spent building the message, sending it and
+ * reading the result graph is recorded separately, so it is possible to tell which
+ * of these phases dominates. Payload sizes are recorded in whatever unit the caller
+ * uses (operations per message for CSP operations, bytes for endpoints).
+ * 
+ * Recording does not allocate, except for the first error of a new exception type.
+ */
+public class OperationMetrics implements OperationMetricsMXBean {
+
+	private final String name;
+
+	private final Histogram latency;
+	private final Histogram buildLatency;
+	private final Histogram sendLatency;
+	private final Histogram parseLatency;
+	private final Histogram payloadSize;
+	private final Histogram responseSize;
+	private final AtomicLong errorCount;
+	private final ConcurrentMap<Class<?>, AtomicLong> errorCountsByType;
+
+	public OperationMetrics(String name) {
+
+		this.name = name;
+
+		this.latency = new Histogram();
+		this.buildLatency = new Histogram();
+		this.sendLatency = new Histogram();
+		this.parseLatency = new Histogram();
+		this.payloadSize = new Histogram();
+		this.responseSize = new Histogram();
+		this.errorCount = new AtomicLong();
+		this.errorCountsByType = new ConcurrentHashMap<Class<?>, AtomicLong> ();
+	}
+
+	/**
+	 * Records a completed operation, given the System.nanoTime() at which it started.
+	 */
+	public void recordSuccess(long startNanos) {
+
+		this.latency.record(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Records a failed operation, given the System.nanoTime() at which it started.
+	 */
+	public void recordError(long startNanos, Throwable ex) {
+
+		this.latency.record(System.nanoTime() - startNanos);
+		this.errorCount.incrementAndGet();
+
+		Class<?> type = ex.getClass();
+		AtomicLong counter = this.errorCountsByType.get(type);
+
+		if (counter == null) {
+
+			AtomicLong newCounter = new AtomicLong();
+			counter = this.errorCountsByType.putIfAbsent(type, newCounter);
+			if (counter == null) counter = newCounter;
+		}
+
+		counter.incrementAndGet();
+	}
+
+	public void recordBuild(long nanos) {
+
+		this.buildLatency.record(nanos);
+	}
+
+	public void recordSend(long nanos) {
+
+		this.sendLatency.record(nanos);
+	}
+
+	public void recordParse(long nanos) {
+
+		this.parseLatency.record(nanos);
+	}
+
+	public void recordPayloadSize(long size) {
+
+		this.payloadSize.record(size);
+	}
+
+	public void recordResponseSize(long size) {
+
+		this.responseSize.record(size);
+	}
+
+	public String getName() {
+
+		return this.name;
+	}
+
+	public long getCount() {
+
+		return this.latency.getCount();
+	}
+
+	public long getErrorCount() {
+
+		return this.errorCount.get();
+	}
+
+	public Map<String, Long> getErrorCountsByType() {
+
+		Map<String, Long> errorCountsByType = new TreeMap<String, Long> ();
+
+		for (Iterator<Map.Entry<Class<?>, AtomicLong>> i = this.errorCountsByType.entrySet().iterator(); i.hasNext(); ) {
+
+			Map.Entry<Class<?>, AtomicLong> entry = i.next();
+			errorCountsByType.put(entry.getKey().getName(), Long.valueOf(entry.getValue().get()));
+		}
+
+		return errorCountsByType;
+	}
+
+	public long getMeanMicros() {
+
+		return micros(this.latency.getMean());
+	}
+
+	public long getP50Micros() {
+
+		return micros(this.latency.getPercentile(0.5d));
+	}
+
+	public long getP99Micros() {
+
+		return micros(this.latency.getPercentile(0.99d));
+	}
+
+	public long getP999Micros() {
+
+		return micros(this.latency.getPercentile(0.999d));
+	}
+
+	public long getMaxMicros() {
+
+		return micros(this.latency.getMax());
+	}
+
+	public long getBuildMeanMicros() {
+
+		return micros(this.buildLatency.getMean());
+	}
+
+	public long getBuildP99Micros() {
+
+		return micros(this.buildLatency.getPercentile(0.99d));
+	}
+
+	public long getSendMeanMicros() {
+
+		return micros(this.sendLatency.getMean());
+	}
+
+	public long getSendP99Micros() {
+
+		return micros(this.sendLatency.getPercentile(0.99d));
+	}
+
+	public long getParseMeanMicros() {
+
+		return micros(this.parseLatency.getMean());
+	}
+
+	public long getParseP99Micros() {
+
+		return micros(this.parseLatency.getPercentile(0.99d));
+	}
+
+	public long getPayloadMeanSize() {
+
+		return this.payloadSize.getMean();
+	}
+
+	public long getPayloadP99Size() {
+
+		return this.payloadSize.getPercentile(0.99d);
+	}
+
+	public long getResponseMeanSize() {
+
+		return this.responseSize.getMean();
+	}
+
+	public long getResponseP99Size() {
+
+		return this.responseSize.getPercentile(0.99d);
+	}
+
+	public void reset() {
+
+		this.latency.reset();
+		this.buildLatency.reset();
+		this.sendLatency.reset();
+		this.parseLatency.reset();
+		this.payloadSize.reset();
+		this.responseSize.reset();
+		this.errorCount.set(0);
+		this.errorCountsByType.clear();
+	}
+
+	/*
+	 * Getters and setters
+	 */
+
+	public Histogram getLatency() {
+
+		return this.latency;
+	}
+
+	public Histogram getBuildLatency() {
+
+		return this.buildLatency;
+	}
+
+	public Histogram getSendLatency() {
+
+		return this.sendLatency;
+	}
+
+	public Histogram getParseLatency() {
+
+		return this.parseLatency;
+	}
+
+	public Histogram getPayloadSize() {
+
+		return this.payloadSize;
+	}
+
+	public Histogram getResponseSize() {
+
+		return this.responseSize;
+	}
+
+	/*
+	 * Helper methods
+	 */
+
+	private static long micros(long nanos) {
+
+		return TimeUnit.NANOSECONDS.toMicros(nanos);
+	}
+
+	@Override
+	public String toString() {
+
+		return this.name + " (count=" + this.getCount() + ", errors=" + this.getErrorCount() + ", p50=" + this.getP50Micros() + "us, p99=" + this.getP99Micros() + "us, p999=" + this.getP999Micros() + "us)";
+	}
+}
@@ -0,0 +1,30 @@
+package net.respectnetwork.sdk.csp.metrics;
+
+import java.util.Map;
+
+/**
+ * The JMX view of an OperationMetrics. Times are in microseconds.
+ */
+public interface OperationMetricsMXBean {
+
+	public String getName();
+	public long getCount();
+	public long getErrorCount();
+	public Map<String, Long> getErrorCountsByType();
+	public long getMeanMicros();
+	public long getP50Micros();
+	public long getP99Micros();
+	public long getP999Micros();
+	public long getMaxMicros();
+	public long getBuildMeanMicros();
+	public long getBuildP99Micros();
+	public long getSendMeanMicros();
+	public long getSendP99Micros();
+	public long getParseMeanMicros();
+	public long getParseP99Micros();
+	public long getPayloadMeanSize();
+	public long getPayloadP99Size();
+	public long getResponseMeanSize();
+	public long getResponseP99Size();
+	public void reset();
+}
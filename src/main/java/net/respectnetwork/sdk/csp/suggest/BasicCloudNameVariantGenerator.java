@@ -0,0 +1,173 @@
+package net.respectnetwork.sdk.csp.suggest;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
+
+import xdi2.core.xri3.XDI3Segment;
+
+/**
+ * Generates variants of a Cloud Name with numeric suffixes, separators and dictionary words.
+ *
+ * Variants are generated in rounds. Round n yields the Cloud Name followed by n, with and without each
+ * separator, the n-th suffix and prefix words joined with each separator, and the Cloud Name followed by
+ * a random number of randomSuffixDigits digits. For =alice, the first round is =alice1, =alice.1, =alice-1,
+ * =alice.me, =alice-me, =my.alice, =my-alice and e.g. =alice4711. Duplicates are skipped.
+ */
+public class BasicCloudNameVariantGenerator implements CloudNameVariantGenerator {
+
+	public static final List<String> DEFAULT_SEPARATORS = Arrays.asList(".", "-");
+	public static final List<String> DEFAULT_SUFFIX_WORDS = Arrays.asList("me", "online", "cloud", "hq", "home", "net");
+	public static final List<String> DEFAULT_PREFIX_WORDS = Arrays.asList("my", "the", "real", "hello", "its", "iam");
+	public static final int DEFAULT_RANDOM_SUFFIX_DIGITS = 4;
+
+	private List<String> separators;
+	private List<String> suffixWords;
+	private List<String> prefixWords;
+	private int randomSuffixDigits;
+
+	public BasicCloudNameVariantGenerator() {
+
+		this.separators = DEFAULT_SEPARATORS;
+		this.suffixWords = DEFAULT_SUFFIX_WORDS;
+		this.prefixWords = DEFAULT_PREFIX_WORDS;
+		this.randomSuffixDigits = DEFAULT_RANDOM_SUFFIX_DIGITS;
+	}
+
+	public Iterator<XDI3Segment> generateVariants(XDI3Segment cloudName) {
+
+		return new VariantIterator(cloudName.toString());
+	}
+
+	/*
+	 * Helper classes
+	 */
+
+	private class VariantIterator implements Iterator<XDI3Segment> {
+
+		private final String context;
+		private final String name;
+		private final Set<String> seen = new HashSet<String> ();
+		private final LinkedList<XDI3Segment> buffer = new LinkedList<XDI3Segment> ();
+		private final Random random = new Random();
+		private int round = 0;
+
+		private VariantIterator(String cloudName) {
+
+			int nameStart = 0;
+			while (nameStart < cloudName.length() && ! Character.isLetterOrDigit(cloudName.charAt(nameStart))) nameStart++;
+
+			this.context = cloudName.substring(0, nameStart);
+			this.name = cloudName.substring(nameStart);
+
+			this.seen.add(cloudName);
+		}
+
+		public boolean hasNext() {
+
+			while (this.buffer.isEmpty()) this.nextRound();
+
+			return true;
+		}
+
+		public XDI3Segment next() {
+
+			if (! this.hasNext()) throw new NoSuchElementException();
+
+			return this.buffer.removeFirst();
+		}
+
+		public void remove() {
+
+			throw new UnsupportedOperationException();
+		}
+
+		private void nextRound() {
+
+			this.round++;
+
+			this.add(this.name + this.round);
+			for (String separator : BasicCloudNameVariantGenerator.this.getSeparators()) this.add(this.name + separator + this.round);
+
+			if (this.round <= BasicCloudNameVariantGenerator.this.getSuffixWords().size()) {
+
+				String word = BasicCloudNameVariantGenerator.this.getSuffixWords().get(this.round - 1);
+				for (String separator : BasicCloudNameVariantGenerator.this.getSeparators()) this.add(this.name + separator + word);
+			}
+
+			if (this.round <= BasicCloudNameVariantGenerator.this.getPrefixWords().size()) {
+
+				String word = BasicCloudNameVariantGenerator.this.getPrefixWords().get(this.round - 1);
+				for (String separator : BasicCloudNameVariantGenerator.this.getSeparators()) this.add(word + separator + this.name);
+			}
+
+			int digits = BasicCloudNameVariantGenerator.this.getRandomSuffixDigits();
+
+			if (digits > 0) {
+
+				int min = (int) Math.pow(10, digits - 1);
+
+				this.add(this.name + (min + this.random.nextInt(9 * min)));
+			}
+		}
+
+		private void add(String name) {
+
+			if (this.seen.add(this.context + name)) this.buffer.add(XDI3Segment.create(this.context + name));
+		}
+	}
+
+	/*
+	 * Getters and setters
+	 */
+
+	public List<String> getSeparators() {
+
+		return this.separators;
+	}
+
+	public void setSeparators(List<String> separators) {
+
+		this.separators = separators;
+	}
+
+	public List<String> getSuffixWords() {
+
+		return this.suffixWords;
+	}
+
+	public void setSuffixWords(List<String> suffixWords) {
+
+		this.suffixWords = suffixWords;
+	}
+
+	public List<String> getPrefixWords() {
+
+		return this.prefixWords;
+	}
+
+	public void setPrefixWords(List<String> prefixWords) {
+
+		this.prefixWords = prefixWords;
+	}
+
+	public int getRandomSuffixDigits() {
+
+		return this.randomSuffixDigits;
+	}
+
+	/**
+	 * Sets the number of digits of the random suffix added in every round. Zero disables random suffixes.
+	 */
+	public void setRandomSuffixDigits(int randomSuffixDigits) {
+
+		if (randomSuffixDigits < 0 || randomSuffixDigits > 9) throw new IllegalArgumentException("Invalid number of random suffix digits: " + randomSuffixDigits);
+
+		this.randomSuffixDigits = randomSuffixDigits;
+	}
+}
@@ -0,0 +1,267 @@
+package net.respectnetwork.sdk.csp.suggest;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.respectnetwork.sdk.csp.BatchCSP;
+import net.respectnetwork.sdk.csp.CloudNameRegistration;
+import net.respectnetwork.sdk.csp.util.ExecutorUtil;
+import xdi2.client.exceptions.Xdi2ClientException;
+import xdi2.core.xri3.XDI3Segment;
+
+/**
+ * Suggests available Cloud Names in place of a Cloud Name that is already registered.
+ *
+ * Candidates from a CloudNameVariantGenerator are checked in batches of batchSize Cloud Names, each batch
+ * in one BatchCSP.checkCloudNamesAvailable() call, with up to concurrency batches in flight. Available Cloud Names
+ * are passed to the listener as soon as their batch completes. Once enough have been found, or the timeout
+ * has passed, outstanding batches are cancelled. Wrap the CSP in a CachingCSP to avoid checking the same
+ * candidates again for the next user who asks for a popular Cloud Name.
+ */
+public class CloudNameSuggester {
+
+	private static final Logger log = LoggerFactory.getLogger(CloudNameSuggester.class);
+
+	public static final int DEFAULT_MAX_CONCURRENCY = 64;
+	public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+	public static final int DEFAULT_BATCH_SIZE = 10;
+	public static final int DEFAULT_CONCURRENCY = 4;
+	public static final int DEFAULT_MAX_CANDIDATES = 200;
+
+	private BatchCSP csp;
+	private ExecutorService executorService;
+	private CloudNameVariantGenerator variantGenerator;
+	private int batchSize;
+	private int concurrency;
+	private int maxCandidates;
+
+	public CloudNameSuggester(BatchCSP csp, ExecutorService executorService) {
+
+		this.csp = csp;
+		this.executorService = executorService;
+		this.variantGenerator = new BasicCloudNameVariantGenerator();
+		this.batchSize = DEFAULT_BATCH_SIZE;
+		this.concurrency = DEFAULT_CONCURRENCY;
+		this.maxCandidates = DEFAULT_MAX_CANDIDATES;
+	}
+
+	public CloudNameSuggester(BatchCSP csp) {
+
+		this(csp, ExecutorUtil.newBoundedExecutorService("csp-suggest", DEFAULT_MAX_CONCURRENCY, DEFAULT_QUEUE_CAPACITY));
+	}
+
+	public List<XDI3Segment> suggestCloudNames(XDI3Segment cloudName, int count, long timeoutMillis) throws Xdi2ClientException, InterruptedException {
+
+		return this.suggestCloudNames(cloudName, count, timeoutMillis, null);
+	}
+
+	/**
+	 * Returns up to count available variants of the Cloud Name, in the order they were found.
+	 * Fewer are returned if the timeout passes or maxCandidates have been checked first.
+	 *
+	 * Failed batches are skipped. If every batch failed and nothing was found, the exception of
+	 * the first failed batch is thrown.
+	 */
+	public List<XDI3Segment> suggestCloudNames(XDI3Segment cloudName, int count, long timeoutMillis, CloudNameSuggestionListener listener) throws Xdi2ClientException, InterruptedException {
+
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+		Iterator<XDI3Segment> candidates = this.getVariantGenerator().generateVariants(cloudName);
+		CompletionService<Map<XDI3Segment, CloudNameRegistration>> completionService = new ExecutorCompletionService<Map<XDI3Segment, CloudNameRegistration>> (this.getExecutorService());
+
+		List<Future<Map<XDI3Segment, CloudNameRegistration>>> futures = new ArrayList<Future<Map<XDI3Segment, CloudNameRegistration>>> ();
+		List<XDI3Segment> suggestions = new ArrayList<XDI3Segment> (count);
+
+		int candidateCount = 0;
+		int pendingCount = 0;
+		int succeededCount = 0;
+		Throwable firstFailure = null;
+		boolean saturated = false;
+
+		try {
+
+			while (suggestions.size() < count) {
+
+				while (! saturated && pendingCount < this.getConcurrency() && candidateCount < this.getMaxCandidates() && candidates.hasNext()) {
+
+					final List<XDI3Segment> batch = new ArrayList<XDI3Segment> (this.getBatchSize());
+
+					while (batch.size() < this.getBatchSize() && candidateCount < this.getMaxCandidates() && candidates.hasNext()) {
+
+						batch.add(candidates.next());
+						candidateCount++;
+					}
+
+					try {
+
+						futures.add(completionService.submit(new Callable<Map<XDI3Segment, CloudNameRegistration>>() {
+
+							public Map<XDI3Segment, CloudNameRegistration> call() throws Exception {
+
+								return CloudNameSuggester.this.getCsp().checkCloudNamesAvailable(batch);
+							}
+						}));
+
+						pendingCount++;
+					} catch (RejectedExecutionException ex) {
+
+						log.debug("Executor is saturated, not checking further candidates for Cloud Name " + cloudName);
+
+						saturated = true;
+					}
+				}
+
+				if (pendingCount == 0) break;
+
+				long remainingNanos = deadline - System.nanoTime();
+				if (remainingNanos <= 0) break;
+
+				Future<Map<XDI3Segment, CloudNameRegistration>> future = completionService.poll(remainingNanos, TimeUnit.NANOSECONDS);
+				if (future == null) break;
+
+				pendingCount--;
+
+				Map<XDI3Segment, CloudNameRegistration> cloudNameRegistrations;
+
+				try {
+
+					cloudNameRegistrations = future.get();
+					succeededCount++;
+				} catch (ExecutionException ex) {
+
+					if (log.isDebugEnabled()) log.debug("Cannot check candidates for Cloud Name " + cloudName + ": " + ex.getCause().getMessage(), ex.getCause());
+
+					if (firstFailure == null) firstFailure = ex.getCause();
+
+					continue;
+				}
+
+				for (Map.Entry<XDI3Segment, CloudNameRegistration> entry : cloudNameRegistrations.entrySet()) {
+
+					if (entry.getValue() != null) continue;
+					if (suggestions.size() >= count) break;
+
+					suggestions.add(entry.getKey());
+
+					if (listener != null) listener.onSuggestion(entry.getKey());
+				}
+			}
+		} finally {
+
+			for (Future<Map<XDI3Segment, CloudNameRegistration>> future : futures) future.cancel(true);
+		}
+
+		if (suggestions.isEmpty() && succeededCount == 0 && firstFailure != null) {
+
+			if (firstFailure instanceof Xdi2ClientException) throw (Xdi2ClientException) firstFailure;
+			if (firstFailure instanceof RuntimeException) throw (RuntimeException) firstFailure;
+
+			throw new RuntimeException(firstFailure.getMessage(), firstFailure);
+		}
+
+		if (log.isDebugEnabled()) log.debug("Suggested " + suggestions.size() + " Cloud Names for " + cloudName + " after checking " + candidateCount + " candidates");
+
+		return suggestions;
+	}
+
+	/**
+	 * Stops accepting new calls. Calls that are already submitted still complete.
+	 */
+	public void shutdown() {
+
+		this.getExecutorService().shutdown();
+	}
+
+	/*
+	 * Getters and setters
+	 */
+
+	public BatchCSP getCsp() {
+
+		return this.csp;
+	}
+
+	public void setCsp(BatchCSP csp) {
+
+		this.csp = csp;
+	}
+
+	public ExecutorService getExecutorService() {
+
+		return this.executorService;
+	}
+
+	public void setExecutorService(ExecutorService executorService) {
+
+		this.executorService = executorService;
+	}
+
+	public CloudNameVariantGenerator getVariantGenerator() {
+
+		return this.variantGenerator;
+	}
+
+	public void setVariantGenerator(CloudNameVariantGenerator variantGenerator) {
+
+		this.variantGenerator = variantGenerator;
+	}
+
+	public int getBatchSize() {
+
+		return this.batchSize;
+	}
+
+	/**
+	 * Sets the maximum number of candidates checked in one message.
+	 */
+	public void setBatchSize(int batchSize) {
+
+		if (batchSize < 1) throw new IllegalArgumentException("Invalid batch size: " + batchSize);
+
+		this.batchSize = batchSize;
+	}
+
+	public int getConcurrency() {
+
+		return this.concurrency;
+	}
+
+	/**
+	 * Sets the maximum number of messages in flight for one call of suggestCloudNames().
+	 */
+	public void setConcurrency(int concurrency) {
+
+		if (concurrency < 1) throw new IllegalArgumentException("Invalid concurrency: " + concurrency);
+
+		this.concurrency = concurrency;
+	}
+
+	public int getMaxCandidates() {
+
+		return this.maxCandidates;
+	}
+
+	/**
+	 * Sets the maximum number of candidates checked for one call of suggestCloudNames().
+	 */
+	public void setMaxCandidates(int maxCandidates) {
+
+		if (maxCandidates < 1) throw new IllegalArgumentException("Invalid maximum number of candidates: " + maxCandidates);
+
+		this.maxCandidates = maxCandidates;
+	}
+}
@@ -0,0 +1,12 @@
+package net.respectnetwork.sdk.csp.suggest;
+
+import xdi2.core.xri3.XDI3Segment;
+
+/**
+ * Receives every available Cloud Name found by the CloudNameSuggester, as soon as it is found.
+ * Methods are called from the thread that called CloudNameSuggester.suggestCloudNames().
+ */
+public interface CloudNameSuggestionListener {
+
+	public void onSuggestion(XDI3Segment cloudName);
+}
@@ -0,0 +1,17 @@
+package net.respectnetwork.sdk.csp.suggest;
+
+import java.util.Iterator;
+
+import xdi2.core.xri3.XDI3Segment;
+
+/**
+ * Generates candidate Cloud Names to suggest in place of a Cloud Name that is already registered.
+ */
+public interface CloudNameVariantGenerator {
+
+	/**
+	 * Returns the candidates for the given Cloud Name, best candidates first.
+	 * The iterator may be unbounded; callers stop reading once they have enough candidates.
+	 */
+	public Iterator<XDI3Segment> generateVariants(XDI3Segment cloudName);
+}
@@ -0,0 +1,171 @@
+package net.respectnetwork.sdk.csp.transport;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A concurrency limit that adapts to the observed latency and errors of one endpoint,
+ * using additive increase / multiplicative decrease (AIMD).
+ * 
+ * While requests complete normally and the limit is in use, the limit grows by one per
+ * limit's worth of requests. When a request fails with a transport error, or when the smoothed
+ * latency exceeds the latency tolerance times the smallest recently observed latency, the limit
+ * is multiplied by the backoff ratio, at most once per limit's worth of requests.
+ * Requests beyond the limit wait at most maxWaitMillis, and are rejected after that.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+	public static final int DEFAULT_INITIAL_LIMIT = 20;
+	public static final int DEFAULT_MIN_LIMIT = 1;
+	public static final int DEFAULT_MAX_LIMIT = 500;
+	public static final double DEFAULT_BACKOFF_RATIO = 0.9;
+	public static final double DEFAULT_LATENCY_TOLERANCE = 2.0;
+	public static final long DEFAULT_MAX_WAIT_MILLIS = 0;
+	public static final long DEFAULT_MIN_LATENCY_WINDOW_MILLIS = 30000;
+
+	private final int minLimit;
+	private final int maxLimit;
+	private final double backoffRatio;
+	private final double latencyTolerance;
+	private final long maxWaitMillis;
+
+	private double limit;
+	private int inFlight;
+	private long minLatencyNanos;
+	private long minLatencyWindowStart;
+	private double smoothedLatencyNanos;
+	private int releasedSinceBackoff;
+	private long rejectedCount;
+
+	public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double backoffRatio, double latencyTolerance, long maxWaitMillis) {
+
+		if (minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit) throw new IllegalArgumentException("Invalid limits: " + initialLimit + " (" + minLimit + ".." + maxLimit + ")");
+		if (backoffRatio <= 0 || backoffRatio >= 1) throw new IllegalArgumentException("Invalid backoff ratio: " + backoffRatio);
+
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.backoffRatio = backoffRatio;
+		this.latencyTolerance = latencyTolerance;
+		this.maxWaitMillis = maxWaitMillis;
+
+		this.limit = initialLimit;
+		this.inFlight = 0;
+		this.minLatencyNanos = Long.MAX_VALUE;
+		this.minLatencyWindowStart = System.nanoTime();
+		this.smoothedLatencyNanos = 0;
+		this.releasedSinceBackoff = 0;
+		this.rejectedCount = 0;
+	}
+
+	public AdaptiveConcurrencyLimiter() {
+
+		this(DEFAULT_INITIAL_LIMIT, DEFAULT_MIN_LIMIT, DEFAULT_MAX_LIMIT, DEFAULT_BACKOFF_RATIO, DEFAULT_LATENCY_TOLERANCE, DEFAULT_MAX_WAIT_MILLIS);
+	}
+
+	/**
+	 * Acquires a slot for one request, waiting at most maxWaitMillis.
+	 * Returns false if no slot became available.
+	 */
+	public synchronized boolean acquire() throws InterruptedException {
+
+		if (this.inFlight >= (int) this.limit && this.maxWaitMillis > 0) {
+
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.maxWaitMillis);
+
+			for (long remaining = this.maxWaitMillis; this.inFlight >= (int) this.limit && remaining > 0; ) {
+
+				TimeUnit.NANOSECONDS.timedWait(this, deadline - System.nanoTime());
+				remaining = deadline - System.nanoTime();
+			}
+		}
+
+		if (this.inFlight >= (int) this.limit) {
+
+			this.rejectedCount++;
+
+			return false;
+		}
+
+		this.inFlight++;
+
+		return true;
+	}
+
+	/**
+	 * Releases the slot of a request that completed after the given latency.
+	 * An overload is a transport error or timeout, i.e. a sign that the endpoint is saturated.
+	 */
+	public synchronized void release(long latencyNanos, boolean overload) {
+
+		int inFlightBefore = this.inFlight;
+
+		this.inFlight--;
+
+		long now = System.nanoTime();
+
+		if (now - this.minLatencyWindowStart > TimeUnit.MILLISECONDS.toNanos(DEFAULT_MIN_LATENCY_WINDOW_MILLIS)) {
+
+			this.minLatencyNanos = Long.MAX_VALUE;
+			this.minLatencyWindowStart = now;
+		}
+
+		if (! overload) {
+
+			if (latencyNanos < this.minLatencyNanos) this.minLatencyNanos = latencyNanos;
+
+			this.smoothedLatencyNanos = this.smoothedLatencyNanos == 0 ? latencyNanos : 0.9 * this.smoothedLatencyNanos + 0.1 * latencyNanos;
+		}
+
+		this.releasedSinceBackoff++;
+
+		boolean slow = this.minLatencyNanos != Long.MAX_VALUE && this.smoothedLatencyNanos > this.latencyTolerance * this.minLatencyNanos;
+
+		if (overload || slow) {
+
+			if (this.releasedSinceBackoff >= this.limit) {
+
+				this.limit = Math.max(this.minLimit, this.limit * this.backoffRatio);
+				this.releasedSinceBackoff = 0;
+			}
+		} else if (inFlightBefore * 2 >= this.limit) {
+
+			this.limit = Math.min(this.maxLimit, this.limit + 1.0 / this.limit);
+		}
+
+		this.notifyAll();
+	}
+
+	/*
+	 * Getters
+	 */
+
+	public synchronized int getLimit() {
+
+		return (int) this.limit;
+	}
+
+	public synchronized int getInFlight() {
+
+		return this.inFlight;
+	}
+
+	public synchronized long getMinLatencyNanos() {
+
+		return this.minLatencyNanos == Long.MAX_VALUE ? 0 : this.minLatencyNanos;
+	}
+
+	public synchronized long getSmoothedLatencyNanos() {
+
+		return (long) this.smoothedLatencyNanos;
+	}
+
+	public synchronized long getRejectedCount() {
+
+		return this.rejectedCount;
+	}
+
+	@Override
+	public synchronized String toString() {
+
+		return "limit=" + (int) this.limit + ", inFlight=" + this.inFlight + ", rejected=" + this.rejectedCount;
+	}
+}
@@ -0,0 +1,129 @@
+package net.respectnetwork.sdk.csp.transport;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A circuit breaker for one endpoint.
+ * 
+ * After failureThreshold consecutive failures the circuit opens, and requests fail immediately
+ * for openMillis. After that one trial request is let through (half-open): if it succeeds the
+ * circuit closes again, otherwise it stays open for another openMillis. If the outcome of the trial
+ * is never recorded, another trial is let through after openMillis.
+ * 
+ * allowRequest() hands out a permit, which must be given back with the outcome of the request.
+ * Outcomes of requests admitted before the circuit last opened, or before the current trial, are ignored,
+ * so only the trial can close the circuit.
+ */
+public class CircuitBreaker {
+
+	public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+	public static final long DEFAULT_OPEN_MILLIS = 10000;
+
+	public static final long NOT_ALLOWED = -1;
+
+	public enum State {
+
+		CLOSED,
+		OPEN,
+		HALF_OPEN;
+	}
+
+	private final int failureThreshold;
+	private final long openNanos;
+
+	private State state;
+	private long generation;
+	private int consecutiveFailures;
+	private long openedAt;
+	private long rejectedCount;
+
+	public CircuitBreaker(int failureThreshold, long openMillis) {
+
+		if (failureThreshold < 1) throw new IllegalArgumentException("Invalid failure threshold: " + failureThreshold);
+
+		this.failureThreshold = failureThreshold;
+		this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+
+		this.state = State.CLOSED;
+		this.generation = 0;
+		this.consecutiveFailures = 0;
+		this.openedAt = 0;
+		this.rejectedCount = 0;
+	}
+
+	public CircuitBreaker() {
+
+		this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_MILLIS);
+	}
+
+	/**
+	 * Returns a permit if a request may be sent now, or NOT_ALLOWED.
+	 * The permit must be passed to recordSuccess() or recordFailure() once the request is done.
+	 */
+	public synchronized long allowRequest() {
+
+		if (this.state == State.CLOSED) return this.generation;
+
+		// in HALF_OPEN, openedAt is when the trial was let through
+
+		if (System.nanoTime() - this.openedAt >= this.openNanos) {
+
+			this.state = State.HALF_OPEN;
+			this.generation++;
+			this.openedAt = System.nanoTime();
+
+			return this.generation;
+		}
+
+		this.rejectedCount++;
+
+		return NOT_ALLOWED;
+	}
+
+	public synchronized void recordSuccess(long permit) {
+
+		if (permit != this.generation) return;
+
+		this.state = State.CLOSED;
+		this.consecutiveFailures = 0;
+	}
+
+	public synchronized void recordFailure(long permit) {
+
+		if (permit != this.generation) return;
+
+		this.consecutiveFailures++;
+
+		if (this.state == State.HALF_OPEN || this.consecutiveFailures >= this.failureThreshold) {
+
+			this.state = State.OPEN;
+			this.generation++;
+			this.openedAt = System.nanoTime();
+		}
+	}
+
+	/*
+	 * Getters
+	 */
+
+	public synchronized State getState() {
+
+		return this.state;
+	}
+
+	public synchronized int getConsecutiveFailures() {
+
+		return this.consecutiveFailures;
+	}
+
+	public synchronized long getRejectedCount() {
+
+		return this.rejectedCount;
+	}
+
+	@Override
+	public synchronized String toString() {
+
+		return this.state + " (consecutive failures: " + this.consecutiveFailures + ", rejected: " + this.rejectedCount + ")";
+	}
+}
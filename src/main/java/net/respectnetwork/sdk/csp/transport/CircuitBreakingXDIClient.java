@@ -0,0 +1,83 @@
+package net.respectnetwork.sdk.csp.transport;
+
+import xdi2.client.XDIClient;
+import xdi2.client.exceptions.Xdi2ClientException;
+import xdi2.messaging.MessageEnvelope;
+import xdi2.messaging.MessageResult;
+
+/**
+ * An XDIClient that sends messages through another XDIClient unless its CircuitBreaker is open,
+ * in which case it fails immediately with an Xdi2ClientException.
+ * Only transport errors count as failures; error message results do not.
+ */
+public class CircuitBreakingXDIClient implements XDIClient {
+
+	private final XDIClient xdiClient;
+	private final CircuitBreaker circuitBreaker;
+	private final String endpoint;
+	private final boolean ownsXdiClient;
+
+	public CircuitBreakingXDIClient(XDIClient xdiClient, CircuitBreaker circuitBreaker, String endpoint, boolean ownsXdiClient) {
+
+		this.xdiClient = xdiClient;
+		this.circuitBreaker = circuitBreaker;
+		this.endpoint = endpoint;
+		this.ownsXdiClient = ownsXdiClient;
+	}
+
+	public CircuitBreakingXDIClient(XDIClient xdiClient, CircuitBreaker circuitBreaker, String endpoint) {
+
+		this(xdiClient, circuitBreaker, endpoint, false);
+	}
+
+	public MessageResult send(MessageEnvelope messageEnvelope, MessageResult messageResult) throws Xdi2ClientException {
+
+		long permit = this.circuitBreaker.allowRequest();
+
+		if (permit == CircuitBreaker.NOT_ALLOWED) throw new Xdi2ClientException("Circuit breaker is open for " + this.endpoint, null, null);
+
+		boolean success = false;
+
+		try {
+
+			MessageResult result = this.xdiClient.send(messageEnvelope, messageResult);
+
+			success = true;
+
+			return result;
+		} catch (Xdi2ClientException ex) {
+
+			// an error message result means the endpoint processed the message
+
+			if (ex.getErrorMessageResult() != null) success = true;
+
+			throw ex;
+		} finally {
+
+			if (success) this.circuitBreaker.recordSuccess(permit); else this.circuitBreaker.recordFailure(permit);
+		}
+	}
+
+	/**
+	 * Closes the wrapped XDIClient if this client owns it. Clients obtained from an XDITransport
+	 * belong to the transport, which may share them, and are left open.
+	 */
+	public void close() {
+
+		if (this.ownsXdiClient) this.xdiClient.close();
+	}
+
+	/*
+	 * Getters
+	 */
+
+	public XDIClient getXdiClient() {
+
+		return this.xdiClient;
+	}
+
+	public CircuitBreaker getCircuitBreaker() {
+
+		return this.circuitBreaker;
+	}
+}
@@ -0,0 +1,103 @@
+package net.respectnetwork.sdk.csp.transport;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import xdi2.client.XDIClient;
+
+/**
+ * An XDITransport that applies a separate CircuitBreaker to each endpoint of another XDITransport.
+ * The clients of an endpoint with different XDIWireSettings share its circuit breaker.
+ */
+public class CircuitBreakingXDITransport implements XDITransport {
+
+	private final XDITransport xdiTransport;
+	private final ConcurrentMap<String, CircuitBreaker> circuitBreakers;
+	private final ConcurrentMap<XDIClientKey, CircuitBreakingXDIClient> xdiClients;
+
+	private int failureThreshold;
+	private long openMillis;
+
+	public CircuitBreakingXDITransport(XDITransport xdiTransport) {
+
+		this.xdiTransport = xdiTransport;
+		this.circuitBreakers = new ConcurrentHashMap<String, CircuitBreaker> ();
+		this.xdiClients = new ConcurrentHashMap<XDIClientKey, CircuitBreakingXDIClient> ();
+
+		this.failureThreshold = CircuitBreaker.DEFAULT_FAILURE_THRESHOLD;
+		this.openMillis = CircuitBreaker.DEFAULT_OPEN_MILLIS;
+	}
+
+	public XDIClient getXdiClient(String endpoint) {
+
+		return this.getXdiClient(endpoint, null);
+	}
+
+	public XDIClient getXdiClient(String endpoint, XDIWireSettings wireSettings) {
+
+		XDIClientKey key = new XDIClientKey(endpoint, wireSettings);
+		CircuitBreakingXDIClient xdiClient = this.xdiClients.get(key);
+
+		if (xdiClient == null) {
+
+			CircuitBreaker circuitBreaker = this.circuitBreakers.get(endpoint);
+
+			if (circuitBreaker == null) {
+
+				CircuitBreaker newCircuitBreaker = new CircuitBreaker(this.failureThreshold, this.openMillis);
+				circuitBreaker = this.circuitBreakers.putIfAbsent(endpoint, newCircuitBreaker);
+				if (circuitBreaker == null) circuitBreaker = newCircuitBreaker;
+			}
+
+			CircuitBreakingXDIClient newXdiClient = new CircuitBreakingXDIClient(this.xdiTransport.getXdiClient(endpoint, wireSettings), circuitBreaker, endpoint);
+			xdiClient = this.xdiClients.putIfAbsent(key, newXdiClient);
+			if (xdiClient == null) xdiClient = newXdiClient;
+		}
+
+		return xdiClient;
+	}
+
+	public void close() {
+
+		this.xdiClients.clear();
+		this.circuitBreakers.clear();
+		this.xdiTransport.close();
+	}
+
+	/**
+	 * Returns the circuit breaker of the given endpoint, or null if nothing was sent to it yet.
+	 */
+	public CircuitBreaker getCircuitBreaker(String endpoint) {
+
+		return this.circuitBreakers.get(endpoint);
+	}
+
+	/*
+	 * Getters and setters; changes apply to endpoints first used afterwards
+	 */
+
+	public XDITransport getXdiTransport() {
+
+		return this.xdiTransport;
+	}
+
+	public int getFailureThreshold() {
+
+		return this.failureThreshold;
+	}
+
+	public void setFailureThreshold(int failureThreshold) {
+
+		this.failureThreshold = failureThreshold;
+	}
+
+	public long getOpenMillis() {
+
+		return this.openMillis;
+	}
+
+	public void setOpenMillis(long openMillis) {
+
+		this.openMillis = openMillis;
+	}
+}
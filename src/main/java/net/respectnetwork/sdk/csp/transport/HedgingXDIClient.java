@@ -0,0 +1,263 @@
+package net.respectnetwork.sdk.csp.transport;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import xdi2.client.XDIClient;
+import xdi2.client.exceptions.Xdi2ClientException;
+import xdi2.messaging.GetOperation;
+import xdi2.messaging.Message;
+import xdi2.messaging.MessageEnvelope;
+import xdi2.messaging.MessageResult;
+import xdi2.messaging.Operation;
+
+/**
+ * An XDIClient that hedges read-only messages: if no result arrives within the hedge delay,
+ * an identical second message is sent, and whichever result arrives first is used.
+ * 
+ * The hedge delay is the configured percentile of the latencies of recent read-only messages,
+ * kept between a minimum and a maximum. Only message envelopes consisting entirely of $get
+ * operations are hedged; all other messages are sent exactly once. Hedged messages must be sent
+ * without a MessageResult, or with a StreamingMessageResult, of which each attempt gets its own copy.
+ * The result of the winning attempt is returned.
+ */
+public class HedgingXDIClient implements XDIClient {
+
+	private static final Logger log = LoggerFactory.getLogger(HedgingXDIClient.class);
+
+	public static final double DEFAULT_PERCENTILE = 0.95;
+	public static final long DEFAULT_MIN_DELAY_MILLIS = 5;
+	public static final long DEFAULT_MAX_DELAY_MILLIS = 2000;
+
+	private static final int LATENCY_WINDOW_SIZE = 1024;
+	private static final int DELAY_REFRESH_INTERVAL = 64;
+
+	private final XDIClient xdiClient;
+	private final ExecutorService executorService;
+	private final double percentile;
+	private final long minDelayNanos;
+	private final long maxDelayNanos;
+	private final boolean ownsXdiClient;
+
+	private final AtomicLongArray latencies;
+	private final AtomicLong latencyCount;
+	private volatile long delayNanos;
+
+	private final AtomicLong hedgedCount;
+	private final AtomicLong hedgeWonCount;
+
+	public HedgingXDIClient(XDIClient xdiClient, ExecutorService executorService, double percentile, long minDelayMillis, long maxDelayMillis, boolean ownsXdiClient) {
+
+		if (percentile <= 0 || percentile >= 1) throw new IllegalArgumentException("Invalid percentile: " + percentile);
+
+		this.xdiClient = xdiClient;
+		this.executorService = executorService;
+		this.percentile = percentile;
+		this.minDelayNanos = TimeUnit.MILLISECONDS.toNanos(minDelayMillis);
+		this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+		this.ownsXdiClient = ownsXdiClient;
+
+		this.latencies = new AtomicLongArray(LATENCY_WINDOW_SIZE);
+		this.latencyCount = new AtomicLong();
+		this.delayNanos = this.maxDelayNanos;
+
+		this.hedgedCount = new AtomicLong();
+		this.hedgeWonCount = new AtomicLong();
+	}
+
+	public HedgingXDIClient(XDIClient xdiClient, ExecutorService executorService, double percentile, long minDelayMillis, long maxDelayMillis) {
+
+		this(xdiClient, executorService, percentile, minDelayMillis, maxDelayMillis, false);
+	}
+
+	public MessageResult send(final MessageEnvelope messageEnvelope, final MessageResult messageResult) throws Xdi2ClientException {
+
+		if ((messageResult != null && ! (messageResult instanceof StreamingMessageResult)) || ! isReadOnly(messageEnvelope)) return this.xdiClient.send(messageEnvelope, messageResult);
+
+		long start = System.nanoTime();
+
+		Callable<MessageResult> sendCallable = new Callable<MessageResult>() {
+
+			public MessageResult call() throws Exception {
+
+				return HedgingXDIClient.this.xdiClient.send(messageEnvelope, messageResult == null ? null : ((StreamingMessageResult) messageResult).newEmptyResult());
+			}
+		};
+
+		CompletionService<MessageResult> completionService = new ExecutorCompletionService<MessageResult> (this.executorService);
+		Future<MessageResult> primaryFuture;
+		Future<MessageResult> hedgeFuture = null;
+
+		try {
+
+			primaryFuture = completionService.submit(sendCallable);
+		} catch (RejectedExecutionException ex) {
+
+			MessageResult result = this.xdiClient.send(messageEnvelope, messageResult);
+			this.recordLatency(System.nanoTime() - start);
+
+			return result;
+		}
+
+		try {
+
+			Future<MessageResult> completedFuture = completionService.poll(this.delayNanos, TimeUnit.NANOSECONDS);
+
+			if (completedFuture == null) {
+
+				try {
+
+					hedgeFuture = completionService.submit(sendCallable);
+					this.hedgedCount.incrementAndGet();
+
+					if (log.isDebugEnabled()) log.debug("No result after " + TimeUnit.NANOSECONDS.toMillis(this.delayNanos) + " ms, sending hedged request");
+				} catch (RejectedExecutionException ex) {
+
+					log.debug("Executor is saturated, not hedging");
+				}
+
+				completedFuture = completionService.take();
+			}
+
+			int outstanding = hedgeFuture == null ? 0 : 1;
+
+			while (true) {
+
+				try {
+
+					MessageResult result = completedFuture.get();
+
+					if (completedFuture == hedgeFuture) this.hedgeWonCount.incrementAndGet();
+					this.recordLatency(System.nanoTime() - start);
+
+					return result;
+				} catch (ExecutionException ex) {
+
+					if (outstanding-- == 0) throw unwrap(ex);
+
+					completedFuture = completionService.take();
+				}
+			}
+		} catch (InterruptedException ex) {
+
+			Thread.currentThread().interrupt();
+
+			throw new Xdi2ClientException("Interrupted while waiting for result: " + ex.getMessage(), ex, null);
+		} finally {
+
+			primaryFuture.cancel(true);
+			if (hedgeFuture != null) hedgeFuture.cancel(true);
+		}
+	}
+
+	/**
+	 * Closes the wrapped XDIClient if this client owns it. Clients obtained from an XDITransport
+	 * belong to the transport, which may share them, and are left open.
+	 */
+	public void close() {
+
+		if (this.ownsXdiClient) this.xdiClient.close();
+	}
+
+	/*
+	 * Helper methods
+	 */
+
+	/**
+	 * Checks if a message envelope consists only of $get operations, i.e. if sending it twice is safe.
+	 */
+	public static boolean isReadOnly(MessageEnvelope messageEnvelope) {
+
+		boolean hasOperations = false;
+
+		for (Iterator<Message> messages = messageEnvelope.getMessages(); messages.hasNext(); ) {
+
+			for (Iterator<Operation> operations = messages.next().getOperations(); operations.hasNext(); ) {
+
+				if (! (operations.next() instanceof GetOperation)) return false;
+
+				hasOperations = true;
+			}
+		}
+
+		return hasOperations;
+	}
+
+	private void recordLatency(long latencyNanos) {
+
+		long count = this.latencyCount.getAndIncrement();
+
+		this.latencies.set((int) (count % LATENCY_WINDOW_SIZE), latencyNanos);
+
+		if ((count + 1) % DELAY_REFRESH_INTERVAL == 0) this.refreshDelay(Math.min(count + 1, LATENCY_WINDOW_SIZE));
+	}
+
+	private void refreshDelay(long size) {
+
+		long[] sortedLatencies = new long[(int) size];
+		for (int i=0; i<size; i++) sortedLatencies[i] = this.latencies.get(i);
+
+		Arrays.sort(sortedLatencies);
+
+		long percentileNanos = sortedLatencies[(int) Math.min(size - 1, (long) Math.ceil(this.percentile * size) - 1)];
+
+		this.delayNanos = Math.max(this.minDelayNanos, Math.min(this.maxDelayNanos, percentileNanos));
+	}
+
+	private static Xdi2ClientException unwrap(ExecutionException ex) {
+
+		Throwable cause = ex.getCause();
+
+		if (cause instanceof Xdi2ClientException) return (Xdi2ClientException) cause;
+		if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+		if (cause instanceof Error) throw (Error) cause;
+
+		return new Xdi2ClientException("Cannot send message: " + cause.getMessage(), cause, null);
+	}
+
+	/*
+	 * Getters
+	 */
+
+	public XDIClient getXdiClient() {
+
+		return this.xdiClient;
+	}
+
+	/**
+	 * Returns the current hedge delay.
+	 */
+	public long getDelayNanos() {
+
+		return this.delayNanos;
+	}
+
+	/**
+	 * Returns how many messages were sent a second time.
+	 */
+	public long getHedgedCount() {
+
+		return this.hedgedCount.get();
+	}
+
+	/**
+	 * Returns how many times the second message answered first.
+	 */
+	public long getHedgeWonCount() {
+
+		return this.hedgeWonCount.get();
+	}
+}
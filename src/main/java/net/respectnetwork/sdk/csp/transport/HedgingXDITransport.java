@@ -0,0 +1,129 @@
+package net.respectnetwork.sdk.csp.transport;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+
+import net.respectnetwork.sdk.csp.util.ExecutorUtil;
+import xdi2.client.XDIClient;
+
+/**
+ * An XDITransport that hedges the read-only messages sent to each endpoint of another XDITransport.
+ * See HedgingXDIClient. Each endpoint and XDIWireSettings gets its own HedgingXDIClient, since the
+ * latencies it learns the hedging delay from depend on the settings.
+ */
+public class HedgingXDITransport implements XDITransport {
+
+	public static final int DEFAULT_MAX_THREADS = 256;
+	public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+	private final XDITransport xdiTransport;
+	private final ExecutorService executorService;
+	private final ConcurrentMap<XDIClientKey, HedgingXDIClient> xdiClients;
+
+	private double percentile;
+	private long minDelayMillis;
+	private long maxDelayMillis;
+
+	public HedgingXDITransport(XDITransport xdiTransport, ExecutorService executorService) {
+
+		this.xdiTransport = xdiTransport;
+		this.executorService = executorService;
+		this.xdiClients = new ConcurrentHashMap<XDIClientKey, HedgingXDIClient> ();
+
+		this.percentile = HedgingXDIClient.DEFAULT_PERCENTILE;
+		this.minDelayMillis = HedgingXDIClient.DEFAULT_MIN_DELAY_MILLIS;
+		this.maxDelayMillis = HedgingXDIClient.DEFAULT_MAX_DELAY_MILLIS;
+	}
+
+	public HedgingXDITransport(XDITransport xdiTransport) {
+
+		this(xdiTransport, ExecutorUtil.newBoundedExecutorService("csp-hedging", DEFAULT_MAX_THREADS, DEFAULT_QUEUE_CAPACITY));
+	}
+
+	public XDIClient getXdiClient(String endpoint) {
+
+		return this.getXdiClient(endpoint, null);
+	}
+
+	public XDIClient getXdiClient(String endpoint, XDIWireSettings wireSettings) {
+
+		XDIClientKey key = new XDIClientKey(endpoint, wireSettings);
+		HedgingXDIClient xdiClient = this.xdiClients.get(key);
+
+		if (xdiClient == null) {
+
+			HedgingXDIClient newXdiClient = new HedgingXDIClient(this.xdiTransport.getXdiClient(endpoint, wireSettings), this.executorService, this.percentile, this.minDelayMillis, this.maxDelayMillis);
+			xdiClient = this.xdiClients.putIfAbsent(key, newXdiClient);
+			if (xdiClient == null) xdiClient = newXdiClient;
+		}
+
+		return xdiClient;
+	}
+
+	public void close() {
+
+		this.xdiClients.clear();
+		this.xdiTransport.close();
+	}
+
+	/**
+	 * Returns the hedging client of the given endpoint with the default settings, or null if nothing was sent to it yet.
+	 */
+	public HedgingXDIClient getHedgingXdiClient(String endpoint) {
+
+		return this.getHedgingXdiClient(endpoint, null);
+	}
+
+	/**
+	 * Returns the hedging client of the given endpoint and settings, or null if nothing was sent to it yet.
+	 */
+	public HedgingXDIClient getHedgingXdiClient(String endpoint, XDIWireSettings wireSettings) {
+
+		return this.xdiClients.get(new XDIClientKey(endpoint, wireSettings));
+	}
+
+	/*
+	 * Getters and setters; changes apply to endpoints first used afterwards
+	 */
+
+	public XDITransport getXdiTransport() {
+
+		return this.xdiTransport;
+	}
+
+	public ExecutorService getExecutorService() {
+
+		return this.executorService;
+	}
+
+	public double getPercentile() {
+
+		return this.percentile;
+	}
+
+	public void setPercentile(double percentile) {
+
+		this.percentile = percentile;
+	}
+
+	public long getMinDelayMillis() {
+
+		return this.minDelayMillis;
+	}
+
+	public void setMinDelayMillis(long minDelayMillis) {
+
+		this.minDelayMillis = minDelayMillis;
+	}
+
+	public long getMaxDelayMillis() {
+
+		return this.maxDelayMillis;
+	}
+
+	public void setMaxDelayMillis(long maxDelayMillis) {
+
+		this.maxDelayMillis = maxDelayMillis;
+	}
+}
@@ -0,0 +1,89 @@
+package net.respectnetwork.sdk.csp.transport;
+
+import xdi2.client.XDIClient;
+import xdi2.client.exceptions.Xdi2ClientException;
+import xdi2.messaging.MessageEnvelope;
+import xdi2.messaging.MessageResult;
+
+/**
+ * An XDIClient that sends messages through another XDIClient, within the limit of an
+ * AdaptiveConcurrencyLimiter. Messages beyond the limit fail with an Xdi2ClientException.
+ */
+public class LimitingXDIClient implements XDIClient {
+
+	private final XDIClient xdiClient;
+	private final AdaptiveConcurrencyLimiter limiter;
+	private final String endpoint;
+	private final boolean ownsXdiClient;
+
+	public LimitingXDIClient(XDIClient xdiClient, AdaptiveConcurrencyLimiter limiter, String endpoint, boolean ownsXdiClient) {
+
+		this.xdiClient = xdiClient;
+		this.limiter = limiter;
+		this.endpoint = endpoint;
+		this.ownsXdiClient = ownsXdiClient;
+	}
+
+	public LimitingXDIClient(XDIClient xdiClient, AdaptiveConcurrencyLimiter limiter, String endpoint) {
+
+		this(xdiClient, limiter, endpoint, false);
+	}
+
+	public MessageResult send(MessageEnvelope messageEnvelope, MessageResult messageResult) throws Xdi2ClientException {
+
+		try {
+
+			if (! this.limiter.acquire()) throw new Xdi2ClientException("Concurrency limit of " + this.limiter.getLimit() + " reached for " + this.endpoint, null, null);
+		} catch (InterruptedException ex) {
+
+			Thread.currentThread().interrupt();
+
+			throw new Xdi2ClientException("Interrupted while waiting for " + this.endpoint, ex, null);
+		}
+
+		long start = System.nanoTime();
+		boolean overload = true;
+
+		try {
+
+			MessageResult result = this.xdiClient.send(messageEnvelope, messageResult);
+
+			overload = false;
+
+			return result;
+		} catch (Xdi2ClientException ex) {
+
+			// an error message result means the endpoint processed the message
+
+			if (ex.getErrorMessageResult() != null) overload = false;
+
+			throw ex;
+		} finally {
+
+			this.limiter.release(System.nanoTime() - start, overload);
+		}
+	}
+
+	/**
+	 * Closes the wrapped XDIClient if this client owns it. Clients obtained from an XDITransport
+	 * belong to the transport, which may share them, and are left open.
+	 */
+	public void close() {
+
+		if (this.ownsXdiClient) this.xdiClient.close();
+	}
+
+	/*
+	 * Getters
+	 */
+
+	public XDIClient getXdiClient() {
+
+		return this.xdiClient;
+	}
+
+	public AdaptiveConcurrencyLimiter getLimiter() {
+
+		return this.limiter;
+	}
+}
@@ -0,0 +1,166 @@
+package net.respectnetwork.sdk.csp.transport;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import xdi2.client.XDIClient;
+
+/**
+ * An XDITransport that applies a separate AdaptiveConcurrencyLimiter to each endpoint
+ * of another XDITransport. The clients of an endpoint with different XDIWireSettings share its limiter.
+ */
+public class LimitingXDITransport implements XDITransport {
+
+	private final XDITransport xdiTransport;
+	private final ConcurrentMap<String, AdaptiveConcurrencyLimiter> limiters;
+	private final ConcurrentMap<XDIClientKey, LimitingXDIClient> xdiClients;
+
+	private int initialLimit;
+	private int minLimit;
+	private int maxLimit;
+	private double backoffRatio;
+	private double latencyTolerance;
+	private long maxWaitMillis;
+
+	public LimitingXDITransport(XDITransport xdiTransport) {
+
+		this.xdiTransport = xdiTransport;
+		this.limiters = new ConcurrentHashMap<String, AdaptiveConcurrencyLimiter> ();
+		this.xdiClients = new ConcurrentHashMap<XDIClientKey, LimitingXDIClient> ();
+
+		this.initialLimit = AdaptiveConcurrencyLimiter.DEFAULT_INITIAL_LIMIT;
+		this.minLimit = AdaptiveConcurrencyLimiter.DEFAULT_MIN_LIMIT;
+		this.maxLimit = AdaptiveConcurrencyLimiter.DEFAULT_MAX_LIMIT;
+		this.backoffRatio = AdaptiveConcurrencyLimiter.DEFAULT_BACKOFF_RATIO;
+		this.latencyTolerance = AdaptiveConcurrencyLimiter.DEFAULT_LATENCY_TOLERANCE;
+		this.maxWaitMillis = AdaptiveConcurrencyLimiter.DEFAULT_MAX_WAIT_MILLIS;
+	}
+
+	public XDIClient getXdiClient(String endpoint) {
+
+		return this.getXdiClient(endpoint, null);
+	}
+
+	public XDIClient getXdiClient(String endpoint, XDIWireSettings wireSettings) {
+
+		XDIClientKey key = new XDIClientKey(endpoint, wireSettings);
+		LimitingXDIClient xdiClient = this.xdiClients.get(key);
+
+		if (xdiClient == null) {
+
+			AdaptiveConcurrencyLimiter limiter = this.limiters.get(endpoint);
+
+			if (limiter == null) {
+
+				AdaptiveConcurrencyLimiter newLimiter = new AdaptiveConcurrencyLimiter(this.initialLimit, this.minLimit, this.maxLimit, this.backoffRatio, this.latencyTolerance, this.maxWaitMillis);
+				limiter = this.limiters.putIfAbsent(endpoint, newLimiter);
+				if (limiter == null) limiter = newLimiter;
+			}
+
+			LimitingXDIClient newXdiClient = new LimitingXDIClient(this.xdiTransport.getXdiClient(endpoint, wireSettings), limiter, endpoint);
+			xdiClient = this.xdiClients.putIfAbsent(key, newXdiClient);
+			if (xdiClient == null) xdiClient = newXdiClient;
+		}
+
+		return xdiClient;
+	}
+
+	public void close() {
+
+		this.xdiClients.clear();
+		this.limiters.clear();
+		this.xdiTransport.close();
+	}
+
+	/**
+	 * Returns the limiter of the given endpoint, or null if nothing was sent to it yet.
+	 */
+	public AdaptiveConcurrencyLimiter getLimiter(String endpoint) {
+
+		return this.limiters.get(endpoint);
+	}
+
+	/**
+	 * Returns the current concurrency limit of every endpoint.
+	 */
+	public Map<String, Integer> getLimits() {
+
+		Map<String, Integer> limits = new HashMap<String, Integer> ();
+
+		for (Map.Entry<String, AdaptiveConcurrencyLimiter> entry : this.limiters.entrySet()) limits.put(entry.getKey(), Integer.valueOf(entry.getValue().getLimit()));
+
+		return Collections.unmodifiableMap(limits);
+	}
+
+	/*
+	 * Getters and setters; changes apply to endpoints first used afterwards
+	 */
+
+	public XDITransport getXdiTransport() {
+
+		return this.xdiTransport;
+	}
+
+	public int getInitialLimit() {
+
+		return this.initialLimit;
+	}
+
+	public void setInitialLimit(int initialLimit) {
+
+		this.initialLimit = initialLimit;
+	}
+
+	public int getMinLimit() {
+
+		return this.minLimit;
+	}
+
+	public void setMinLimit(int minLimit) {
+
+		this.minLimit = minLimit;
+	}
+
+	public int getMaxLimit() {
+
+		return this.maxLimit;
+	}
+
+	public void setMaxLimit(int maxLimit) {
+
+		this.maxLimit = maxLimit;
+	}
+
+	public double getBackoffRatio() {
+
+		return this.backoffRatio;
+	}
+
+	public void setBackoffRatio(double backoffRatio) {
+
+		this.backoffRatio = backoffRatio;
+	}
+
+	public double getLatencyTolerance() {
+
+		return this.latencyTolerance;
+	}
+
+	public void setLatencyTolerance(double latencyTolerance) {
+
+		this.latencyTolerance = latencyTolerance;
+	}
+
+	public long getMaxWaitMillis() {
+
+		return this.maxWaitMillis;
+	}
+
+	public void setMaxWaitMillis(long maxWaitMillis) {
+
+		this.maxWaitMillis = maxWaitMillis;
+	}
+}
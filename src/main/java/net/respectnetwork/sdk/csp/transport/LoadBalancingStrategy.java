@@ -0,0 +1,17 @@
+package net.respectnetwork.sdk.csp.transport;
+
+/**
+ * How a LoadBalancingXDIClient chooses the replica for a message.
+ */
+public enum LoadBalancingStrategy {
+
+	/**
+	 * The healthy replica with the fewest outstanding messages, ties going more often to the replica with the lower average latency.
+	 */
+	LEAST_OUTSTANDING_REQUESTS,
+
+	/**
+	 * The less loaded of two healthy replicas chosen at random.
+	 */
+	POWER_OF_TWO_CHOICES;
+}
@@ -0,0 +1,490 @@
+package net.respectnetwork.sdk.csp.transport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import xdi2.client.XDIClient;
+import xdi2.client.exceptions.Xdi2ClientException;
+import xdi2.messaging.MessageEnvelope;
+import xdi2.messaging.MessageResult;
+
+/**
+ * An XDIClient that spreads messages across the replicas of a service, each reached through the XDIClient
+ * of another XDITransport. Every message is sent to one replica, chosen by the LoadBalancingStrategy.
+ * Failed messages are not retried on another replica, since they may have been processed.
+ *
+ * Passive health checks eject a replica after failureThreshold consecutive transport failures, or when its
+ * average latency exceeds slowLatencyFactor times the median of the other healthy replicas. An ejected replica gets
+ * no messages for ejectionMillis, doubled with every further ejection up to maxEjectionMillis. The last healthy
+ * replica is never ejected. Active health checks are run by calling checkHealth(), e.g. periodically from a
+ * ScheduledExecutorService: replicas that answer the probe message are readmitted at once.
+ * As with the CircuitBreaker, only transport errors count as failures; error message results do not.
+ */
+public class LoadBalancingXDIClient implements XDIClient {
+
+	private static final Logger log = LoggerFactory.getLogger(LoadBalancingXDIClient.class);
+
+	public static final LoadBalancingStrategy DEFAULT_STRATEGY = LoadBalancingStrategy.LEAST_OUTSTANDING_REQUESTS;
+	public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+	public static final long DEFAULT_EJECTION_MILLIS = 10000;
+	public static final long DEFAULT_MAX_EJECTION_MILLIS = 300000;
+	public static final double DEFAULT_SLOW_LATENCY_FACTOR = 3;
+	public static final int DEFAULT_MIN_LATENCY_SAMPLES = 20;
+
+	private static final double LATENCY_WEIGHT = 0.1;
+	private static final long MIN_SLOW_LATENCY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private final List<Replica> replicas;
+	private final XDITransport xdiTransport;
+	private final boolean ownsXdiTransport;
+	private final Object healthLock = new Object();
+	private final Random random = new Random();
+
+	private volatile LoadBalancingStrategy strategy;
+	private volatile int failureThreshold;
+	private volatile long ejectionMillis;
+	private volatile long maxEjectionMillis;
+	private volatile double slowLatencyFactor;
+	private volatile int minLatencySamples;
+
+	/**
+	 * Creates a client over the given endpoints. If wireSettings is not null, every endpoint is sent to with it.
+	 * The XDIClients of the replicas belong to the XDITransport; close() closes the transport only if ownsXdiTransport is set.
+	 */
+	public LoadBalancingXDIClient(List<String> endpoints, XDITransport xdiTransport, XDIWireSettings wireSettings, boolean ownsXdiTransport) {
+
+		if (endpoints.isEmpty()) throw new IllegalArgumentException("No endpoints.");
+
+		List<Replica> replicas = new ArrayList<Replica> (endpoints.size());
+		for (String endpoint : endpoints) replicas.add(new Replica(endpoint, xdiTransport.getXdiClient(endpoint, wireSettings)));
+
+		this.replicas = Collections.unmodifiableList(replicas);
+		this.xdiTransport = xdiTransport;
+		this.ownsXdiTransport = ownsXdiTransport;
+
+		this.strategy = DEFAULT_STRATEGY;
+		this.failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+		this.ejectionMillis = DEFAULT_EJECTION_MILLIS;
+		this.maxEjectionMillis = DEFAULT_MAX_EJECTION_MILLIS;
+		this.slowLatencyFactor = DEFAULT_SLOW_LATENCY_FACTOR;
+		this.minLatencySamples = DEFAULT_MIN_LATENCY_SAMPLES;
+	}
+
+	public LoadBalancingXDIClient(List<String> endpoints, XDITransport xdiTransport, XDIWireSettings wireSettings) {
+
+		this(endpoints, xdiTransport, wireSettings, false);
+	}
+
+	public LoadBalancingXDIClient(List<String> endpoints, XDITransport xdiTransport) {
+
+		this(endpoints, xdiTransport, null, false);
+	}
+
+	public MessageResult send(MessageEnvelope messageEnvelope, MessageResult messageResult) throws Xdi2ClientException {
+
+		return this.send(this.select(), messageEnvelope, messageResult);
+	}
+
+	/**
+	 * Closes the XDITransport if this client owns it. Otherwise the replicas' XDIClients are left open,
+	 * since the transport may share them with other clients, and it closes them itself.
+	 */
+	public void close() {
+
+		if (this.ownsXdiTransport) this.xdiTransport.close();
+	}
+
+	/**
+	 * Sends the probe message to every replica. Replicas that answer, even with an error message result,
+	 * are readmitted; replicas that fail are ejected again if they are ejected, or count a failure otherwise.
+	 */
+	public void checkHealth(MessageEnvelope probeMessageEnvelope) {
+
+		for (Replica replica : this.replicas) {
+
+			try {
+
+				replica.xdiClient.send(probeMessageEnvelope, null);
+
+				this.readmit(replica);
+			} catch (Xdi2ClientException ex) {
+
+				if (ex.getErrorMessageResult() != null) this.readmit(replica); else this.recordProbeFailure(replica, ex);
+			} catch (RuntimeException ex) {
+
+				this.recordProbeFailure(replica, ex);
+			}
+		}
+	}
+
+	/*
+	 * Helper methods
+	 */
+
+	private MessageResult send(Replica replica, MessageEnvelope messageEnvelope, MessageResult messageResult) throws Xdi2ClientException {
+
+		replica.outstanding.incrementAndGet();
+		long start = System.nanoTime();
+
+		try {
+
+			MessageResult result = replica.xdiClient.send(messageEnvelope, messageResult);
+
+			this.recordSuccess(replica, System.nanoTime() - start);
+
+			return result;
+		} catch (Xdi2ClientException ex) {
+
+			if (ex.getErrorMessageResult() != null) this.recordSuccess(replica, System.nanoTime() - start); else this.recordFailure(replica);
+
+			throw ex;
+		} catch (RuntimeException ex) {
+
+			this.recordFailure(replica);
+
+			throw ex;
+		} finally {
+
+			replica.outstanding.decrementAndGet();
+		}
+	}
+
+	private Replica select() {
+
+		long now = System.nanoTime();
+
+		List<Replica> candidates = new ArrayList<Replica> (this.replicas.size());
+		for (Replica replica : this.replicas) if (! replica.isEjected(now)) candidates.add(replica);
+
+		// with every replica ejected, use them all rather than fail
+
+		if (candidates.isEmpty()) candidates = this.replicas;
+		if (candidates.size() == 1) return candidates.get(0);
+
+		if (this.getStrategy() == LoadBalancingStrategy.POWER_OF_TWO_CHOICES) {
+
+			int first = this.random.nextInt(candidates.size());
+			int second = this.random.nextInt(candidates.size() - 1);
+			if (second >= first) second++;
+
+			return better(candidates.get(first), candidates.get(second));
+		}
+
+		int offset = this.random.nextInt(candidates.size());
+		Replica best = candidates.get(offset);
+
+		for (int i=1; i<candidates.size(); i++) best = better(best, candidates.get((offset + i) % candidates.size()));
+
+		return best;
+	}
+
+	private Replica better(Replica replica, Replica other) {
+
+		int outstanding = replica.outstanding.get();
+		int otherOutstanding = other.outstanding.get();
+
+		if (outstanding != otherOutstanding) return outstanding < otherOutstanding ? replica : other;
+
+		// ties go to either replica with odds inverse to their latency, so that a slower replica still gets
+		// some messages and its average latency does not go stale
+
+		double latencyNanos = replica.latencyNanos + other.latencyNanos;
+		if (latencyNanos <= 0) return this.random.nextBoolean() ? replica : other;
+
+		return this.random.nextDouble() * latencyNanos < replica.latencyNanos ? other : replica;
+	}
+
+	private void recordSuccess(Replica replica, long latencyNanos) {
+
+		synchronized (this.healthLock) {
+
+			replica.requestCount++;
+			replica.consecutiveFailures = 0;
+			replica.latencyNanos = replica.latencySamples == 0 ? latencyNanos : replica.latencyNanos + LATENCY_WEIGHT * (latencyNanos - replica.latencyNanos);
+			replica.latencySamples++;
+
+			if (replica.latencySamples < this.getMinLatencySamples()) return;
+
+			long now = System.nanoTime();
+			if (replica.isEjected(now)) return;
+
+			double medianLatencyNanos = this.getSlowLatencyFactor() > 0 ? this.medianLatencyNanos(replica, now) : 0;
+
+			// differences below a millisecond are noise, not a struggling replica
+
+			if (medianLatencyNanos > 0 && replica.latencyNanos > this.getSlowLatencyFactor() * medianLatencyNanos && replica.latencyNanos - medianLatencyNanos > MIN_SLOW_LATENCY_NANOS) {
+
+				this.eject(replica, now, "average latency " + TimeUnit.NANOSECONDS.toMillis((long) replica.latencyNanos) + " ms, median " + TimeUnit.NANOSECONDS.toMillis((long) medianLatencyNanos) + " ms");
+
+				// it gets a fresh average when readmitted
+
+				replica.latencySamples = 0;
+			} else if (replica.ejectedUntil != 0) {
+
+				replica.ejectedUntil = 0;
+				replica.consecutiveEjections = 0;
+			}
+		}
+	}
+
+	private void recordFailure(Replica replica) {
+
+		synchronized (this.healthLock) {
+
+			replica.requestCount++;
+			replica.failureCount++;
+			replica.consecutiveFailures++;
+
+			long now = System.nanoTime();
+
+			if (replica.consecutiveFailures >= this.getFailureThreshold() && ! replica.isEjected(now)) this.eject(replica, now, replica.consecutiveFailures + " consecutive failures");
+		}
+	}
+
+	private void recordProbeFailure(Replica replica, Exception ex) {
+
+		synchronized (this.healthLock) {
+
+			replica.consecutiveFailures++;
+
+			long now = System.nanoTime();
+
+			if (replica.isEjected(now) || replica.consecutiveFailures >= this.getFailureThreshold()) this.eject(replica, now, "health check failed: " + ex.getMessage());
+		}
+	}
+
+	private void readmit(Replica replica) {
+
+		synchronized (this.healthLock) {
+
+			if (replica.ejectedUntil != 0 && log.isInfoEnabled()) log.info("Readmitting replica " + replica.endpoint + " after successful health check");
+
+			replica.consecutiveFailures = 0;
+			replica.ejectedUntil = 0;
+			replica.consecutiveEjections = 0;
+		}
+	}
+
+	/**
+	 * Must be called with the health lock held.
+	 */
+	private void eject(Replica replica, long now, String reason) {
+
+		int healthyCount = 0;
+		for (Replica other : this.replicas) if (other != replica && ! other.isEjected(now)) healthyCount++;
+
+		if (healthyCount == 0) {
+
+			if (log.isDebugEnabled()) log.debug("Not ejecting replica " + replica.endpoint + " (" + reason + "), it is the last healthy replica");
+
+			return;
+		}
+
+		long ejectionMillis = Math.min(this.getEjectionMillis() << Math.min(replica.consecutiveEjections, 16), this.getMaxEjectionMillis());
+
+		replica.ejectedUntil = now + TimeUnit.MILLISECONDS.toNanos(ejectionMillis);
+		replica.consecutiveEjections++;
+		replica.ejectionCount++;
+
+		log.warn("Ejecting replica " + replica.endpoint + " for " + ejectionMillis + " ms: " + reason);
+	}
+
+	/**
+	 * Returns the median average latency of the healthy replicas other than the given one, or 0 if none
+	 * has answered enough messages. Must be called with the health lock held.
+	 */
+	private double medianLatencyNanos(Replica excludedReplica, long now) {
+
+		double[] latencies = new double[this.replicas.size()];
+		int count = 0;
+
+		for (Replica replica : this.replicas) {
+
+			if (replica == excludedReplica || replica.isEjected(now) || replica.latencySamples < this.getMinLatencySamples()) continue;
+
+			latencies[count++] = replica.latencyNanos;
+		}
+
+		if (count == 0) return 0;
+
+		Arrays.sort(latencies, 0, count);
+
+		return count % 2 == 1 ? latencies[count / 2] : (latencies[count / 2 - 1] + latencies[count / 2]) / 2;
+	}
+
+	/**
+	 * One replica and its health.
+	 */
+	public class Replica {
+
+		private final String endpoint;
+		private final XDIClient xdiClient;
+		private final AtomicInteger outstanding;
+
+		private volatile double latencyNanos;
+		private volatile long ejectedUntil;
+		private int latencySamples;
+		private int consecutiveFailures;
+		private int consecutiveEjections;
+		private long requestCount;
+		private long failureCount;
+		private long ejectionCount;
+
+		private Replica(String endpoint, XDIClient xdiClient) {
+
+			this.endpoint = endpoint;
+			this.xdiClient = xdiClient;
+			this.outstanding = new AtomicInteger();
+
+			this.latencyNanos = 0;
+			this.ejectedUntil = 0;
+		}
+
+		private boolean isEjected(long now) {
+
+			long ejectedUntil = this.ejectedUntil;
+
+			return ejectedUntil != 0 && ejectedUntil - now > 0;
+		}
+
+		public String getEndpoint() {
+
+			return this.endpoint;
+		}
+
+		public int getOutstanding() {
+
+			return this.outstanding.get();
+		}
+
+		/**
+		 * Returns the exponentially weighted average latency of recent messages.
+		 */
+		public long getLatencyNanos() {
+
+			return (long) this.latencyNanos;
+		}
+
+		public boolean isEjected() {
+
+			return this.isEjected(System.nanoTime());
+		}
+
+		public long getRequestCount() {
+
+			synchronized (LoadBalancingXDIClient.this.healthLock) {
+
+				return this.requestCount;
+			}
+		}
+
+		public long getFailureCount() {
+
+			synchronized (LoadBalancingXDIClient.this.healthLock) {
+
+				return this.failureCount;
+			}
+		}
+
+		public long getEjectionCount() {
+
+			synchronized (LoadBalancingXDIClient.this.healthLock) {
+
+				return this.ejectionCount;
+			}
+		}
+
+		@Override
+		public String toString() {
+
+			return this.endpoint + " (" + (this.isEjected() ? "ejected" : "healthy") + ", outstanding: " + this.getOutstanding() + ", latency: " + TimeUnit.NANOSECONDS.toMillis(this.getLatencyNanos()) + " ms, requests: " + this.getRequestCount() + ", failures: " + this.getFailureCount() + ", ejections: " + this.getEjectionCount() + ")";
+		}
+	}
+
+	/*
+	 * Getters and setters
+	 */
+
+	public List<Replica> getReplicas() {
+
+		return this.replicas;
+	}
+
+	public LoadBalancingStrategy getStrategy() {
+
+		return this.strategy;
+	}
+
+	public void setStrategy(LoadBalancingStrategy strategy) {
+
+		this.strategy = strategy;
+	}
+
+	public int getFailureThreshold() {
+
+		return this.failureThreshold;
+	}
+
+	public void setFailureThreshold(int failureThreshold) {
+
+		if (failureThreshold < 1) throw new IllegalArgumentException("Invalid failure threshold: " + failureThreshold);
+
+		this.failureThreshold = failureThreshold;
+	}
+
+	public long getEjectionMillis() {
+
+		return this.ejectionMillis;
+	}
+
+	public void setEjectionMillis(long ejectionMillis) {
+
+		this.ejectionMillis = ejectionMillis;
+	}
+
+	public long getMaxEjectionMillis() {
+
+		return this.maxEjectionMillis;
+	}
+
+	public void setMaxEjectionMillis(long maxEjectionMillis) {
+
+		this.maxEjectionMillis = maxEjectionMillis;
+	}
+
+	public double getSlowLatencyFactor() {
+
+		return this.slowLatencyFactor;
+	}
+
+	/**
+	 * Sets how many times slower than the median a replica may be before it is ejected. Zero or less disables this.
+	 */
+	public void setSlowLatencyFactor(double slowLatencyFactor) {
+
+		this.slowLatencyFactor = slowLatencyFactor;
+	}
+
+	public int getMinLatencySamples() {
+
+		return this.minLatencySamples;
+	}
+
+	/**
+	 * Sets how many messages a replica must have answered before its latency is compared to the others.
+	 */
+	public void setMinLatencySamples(int minLatencySamples) {
+
+		if (minLatencySamples < 1) throw new IllegalArgumentException("Invalid minimum number of latency samples: " + minLatencySamples);
+
+		this.minLatencySamples = minLatencySamples;
+	}
+}
@@ -0,0 +1,363 @@
+package net.respectnetwork.sdk.csp.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Map;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.entity.DeflateDecompressingEntity;
+import org.apache.http.client.entity.GzipDecompressingEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.respectnetwork.sdk.csp.metrics.OperationMetrics;
+import xdi2.client.XDIClient;
+import xdi2.client.exceptions.Xdi2ClientException;
+import xdi2.core.exceptions.Xdi2ParseException;
+import xdi2.core.io.MimeType;
+import xdi2.core.io.XDIReader;
+import xdi2.core.io.XDIReaderRegistry;
+import xdi2.core.io.XDIWriter;
+import xdi2.core.io.XDIWriterRegistry;
+import xdi2.messaging.ErrorMessageResult;
+import xdi2.messaging.MessageEnvelope;
+import xdi2.messaging.MessageResult;
+
+/**
+ * An XDIClient for one endpoint that sends messages over a shared, pooled HttpClient.
+ * Closing it does nothing; the connections belong to the PooledXDITransport.
+ * 
+ * If it is given a StreamingMessageResult and the response is XDI/JSON, the requested relations are
+ * scanned directly from the response instead of parsing it into a graph.
+ * 
+ * Messages are put on the wire as its XDIWireSettings say. If the server answers 415 or 406, the message
+ * is sent again without compression, or else in the default format, and the endpoint keeps using that.
+ * Until a compressed request has succeeded, a compressed request that fails with 400, which some servers answer
+ * compressed requests they cannot read with, is also sent again uncompressed once; compression is only turned
+ * off if the uncompressed request then succeeds. Read-only messages are also sent again after other 4xx codes,
+ * without turning compression off. Other messages are never sent twice after a code the server may have
+ * answered after processing them, and no message is sent again after a 5xx code.
+ */
+public class PooledXDIClient implements XDIClient {
+
+	private static final Logger log = LoggerFactory.getLogger(PooledXDIClient.class);
+
+	private static final String ACCEPT_ENCODING = "gzip, deflate";
+
+	private final CloseableHttpClient httpClient;
+	private final String endpoint;
+	private final OperationMetrics metrics;
+
+	private final XDIWireSettings configuredWireSettings;
+	private volatile XDIWireSettings wireSettings;
+	private volatile boolean compressionConfirmed;
+
+	PooledXDIClient(CloseableHttpClient httpClient, String endpoint, XDIWireSettings wireSettings, OperationMetrics metrics) {
+
+		this.httpClient = httpClient;
+		this.endpoint = endpoint;
+		this.metrics = metrics;
+
+		this.configuredWireSettings = wireSettings;
+		this.wireSettings = wireSettings;
+		this.compressionConfirmed = false;
+	}
+
+	public MessageResult send(MessageEnvelope messageEnvelope, MessageResult messageResult) throws Xdi2ClientException {
+
+		if (messageResult == null) messageResult = new MessageResult();
+
+		XDIWireSettings wireSettings = this.wireSettings;
+		boolean uncompressedRetry = false;
+		boolean undecodableRequest = false;
+
+		while (true) {
+
+			XDICompression requestCompression = uncompressedRetry ? XDICompression.NONE : wireSettings.getRequestCompression();
+			boolean probing = requestCompression != XDICompression.NONE && ! this.compressionConfirmed;
+
+			XDIWriter writer = XDIWriterRegistry.forMimeType(new MimeType(wireSettings.getSendMimeType()));
+
+			if (writer == null && ! wireSettings.getSendMimeType().equals(XDIWireSettings.DEFAULT.getSendMimeType())) {
+
+				log.warn("Cannot find an XDI writer for " + wireSettings.getSendMimeType() + ", falling back to " + XDIWireSettings.DEFAULT.getSendMimeType() + " for " + this.endpoint);
+
+				this.wireSettings = wireSettings = wireSettings.withMimeTypes(XDIWireSettings.DEFAULT.getSendMimeType(), wireSettings.getRecvMimeType());
+
+				continue;
+			}
+
+			byte[] requestBody = this.write(messageEnvelope, writer, wireSettings.getSendMimeType(), requestCompression);
+
+			HttpPost httpPost = new HttpPost(this.endpoint);
+			httpPost.setHeader("Content-Type", wireSettings.getSendMimeType());
+			httpPost.setHeader("Accept", wireSettings.getRecvMimeType());
+			if (requestCompression != XDICompression.NONE) httpPost.setHeader("Content-Encoding", requestCompression.getContentCoding());
+			if (wireSettings.isCompressedResponses()) httpPost.setHeader("Accept-Encoding", ACCEPT_ENCODING);
+			httpPost.setEntity(new ByteArrayEntity(requestBody));
+
+			if (log.isDebugEnabled()) log.debug("Sending " + requestBody.length + " bytes to " + this.endpoint);
+			if (this.metrics != null) this.metrics.recordPayloadSize(requestBody.length);
+
+			CloseableHttpResponse httpResponse;
+
+			try {
+
+				httpResponse = this.httpClient.execute(httpPost);
+			} catch (IOException ex) {
+
+				throw new Xdi2ClientException("Cannot send message to " + this.endpoint + ": " + ex.getMessage(), ex, null);
+			}
+
+			try {
+
+				int statusCode = httpResponse.getStatusLine().getStatusCode();
+
+				// the server did not process a request it rejected this way, so it is safe to send it again
+
+				if (statusCode == HttpStatus.SC_UNSUPPORTED_MEDIA_TYPE || statusCode == HttpStatus.SC_NOT_ACCEPTABLE) {
+
+					XDIWireSettings fallbackWireSettings = fallBack(wireSettings, requestCompression, statusCode);
+
+					if (fallbackWireSettings != null) {
+
+						log.info("HTTP code " + statusCode + " received from " + this.endpoint + ", falling back to " + fallbackWireSettings);
+
+						this.wireSettings = wireSettings = fallbackWireSettings;
+						uncompressedRetry = false;
+						undecodableRequest = false;
+
+						EntityUtils.consumeQuietly(httpResponse.getEntity());
+						continue;
+					}
+				}
+
+				// a 400 means the server could not read the request; other client errors only allow sending a message again that does not write
+
+				if (probing && (statusCode == HttpStatus.SC_BAD_REQUEST || (statusCode >= 400 && statusCode < 500 && HedgingXDIClient.isReadOnly(messageEnvelope)))) {
+
+					if (log.isDebugEnabled()) log.debug("HTTP code " + statusCode + " received from " + this.endpoint + " for a compressed request, sending it again uncompressed");
+
+					uncompressedRetry = true;
+					undecodableRequest = statusCode == HttpStatus.SC_BAD_REQUEST;
+
+					EntityUtils.consumeQuietly(httpResponse.getEntity());
+					continue;
+				}
+
+				if (undecodableRequest && statusCode < 300 && this.wireSettings == wireSettings) {
+
+					log.info("Uncompressed request to " + this.endpoint + " succeeded after a compressed one failed, turning off request compression");
+
+					this.wireSettings = wireSettings.withRequestCompression(XDICompression.NONE);
+				}
+
+				if (probing && statusCode < 300) this.compressionConfirmed = true;
+
+				return this.read(httpResponse, statusCode, messageResult, wireSettings);
+			} finally {
+
+				try {
+
+					httpResponse.close();
+				} catch (IOException ex) {
+
+					log.debug("Cannot close response from " + this.endpoint + ": " + ex.getMessage());
+				}
+			}
+		}
+	}
+
+	public void close() {
+
+	}
+
+	private byte[] write(MessageEnvelope messageEnvelope, XDIWriter writer, String sendMimeType, XDICompression requestCompression) throws Xdi2ClientException {
+
+		if (writer == null) throw new Xdi2ClientException("Cannot find an XDI writer for " + sendMimeType, null, null);
+
+		try {
+
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream(1024);
+			Writer bufferWriter = new OutputStreamWriter(buffer, "UTF-8");
+			writer.write(messageEnvelope.getGraph(), bufferWriter);
+			bufferWriter.flush();
+
+			return requestCompression.compress(buffer.toByteArray());
+		} catch (IOException ex) {
+
+			throw new Xdi2ClientException("Cannot write message envelope: " + ex.getMessage(), ex, null);
+		}
+	}
+
+	private MessageResult read(CloseableHttpResponse httpResponse, int statusCode, MessageResult messageResult, XDIWireSettings wireSettings) throws Xdi2ClientException {
+
+		try {
+
+			HttpEntity httpEntity = httpResponse.getEntity();
+
+			if (httpEntity == null) {
+
+				if (statusCode >= 300) throw new Xdi2ClientException("HTTP code " + statusCode + " received from " + this.endpoint + ": " + httpResponse.getStatusLine().getReasonPhrase(), null, null);
+
+				return messageResult;
+			}
+
+			if (this.metrics != null && httpEntity.getContentLength() >= 0) this.metrics.recordResponseSize(httpEntity.getContentLength());
+
+			httpEntity = this.decompress(httpEntity, httpResponse.getFirstHeader("Content-Encoding"));
+
+			Header contentTypeHeader = httpResponse.getFirstHeader("Content-Type");
+			InputStream inputStream = httpEntity.getContent();
+
+			if (messageResult instanceof StreamingMessageResult && isXdiJson(contentTypeHeader)) {
+
+				byte[] responseBody = EntityUtils.toByteArray(httpEntity);
+
+				if (this.scan((StreamingMessageResult) messageResult, responseBody)) {
+
+					if (statusCode >= 300) throw new Xdi2ClientException("HTTP code " + statusCode + " received from " + this.endpoint + ": " + httpResponse.getStatusLine().getReasonPhrase(), null, null);
+
+					return messageResult;
+				}
+
+				inputStream = new ByteArrayInputStream(responseBody);
+			}
+
+			XDIReader reader = this.getReader(contentTypeHeader, wireSettings);
+
+			try {
+
+				reader.read(messageResult.getGraph(), inputStream);
+			} catch (Xdi2ParseException ex) {
+
+				if (statusCode >= 300) throw new Xdi2ClientException("HTTP code " + statusCode + " received from " + this.endpoint + ": " + httpResponse.getStatusLine().getReasonPhrase(), null, null);
+
+				throw new Xdi2ClientException("Cannot parse result from " + this.endpoint + ": " + ex.getMessage(), ex, null);
+			} finally {
+
+				EntityUtils.consumeQuietly(httpEntity);
+			}
+
+			if (ErrorMessageResult.isValid(messageResult.getGraph())) {
+
+				ErrorMessageResult errorMessageResult = ErrorMessageResult.fromGraph(messageResult.getGraph());
+
+				throw new Xdi2ClientException("Error message result received from " + this.endpoint + ": " + errorMessageResult.getErrorString(), null, errorMessageResult);
+			}
+
+			if (statusCode >= 300) throw new Xdi2ClientException("HTTP code " + statusCode + " received from " + this.endpoint + ": " + httpResponse.getStatusLine().getReasonPhrase(), null, null);
+
+			return messageResult;
+		} catch (IOException ex) {
+
+			throw new Xdi2ClientException("Cannot read result from " + this.endpoint + ": " + ex.getMessage(), ex, null);
+		}
+	}
+
+	private HttpEntity decompress(HttpEntity httpEntity, Header contentEncodingHeader) throws Xdi2ClientException {
+
+		String contentCoding = contentEncodingHeader == null ? null : contentEncodingHeader.getValue().trim().toLowerCase();
+
+		if (contentCoding == null || contentCoding.length() == 0 || "identity".equals(contentCoding)) return httpEntity;
+		if ("gzip".equals(contentCoding) || "x-gzip".equals(contentCoding)) return new GzipDecompressingEntity(httpEntity);
+		if ("deflate".equals(contentCoding)) return new DeflateDecompressingEntity(httpEntity);
+
+		throw new Xdi2ClientException("Unsupported Content-Encoding " + contentCoding + " received from " + this.endpoint, null, null);
+	}
+
+	/**
+	 * Returns the settings to send a rejected request with: uncompressed if it was compressed,
+	 * else in the default format. Returns null if there is nothing left to fall back to.
+	 */
+	private static XDIWireSettings fallBack(XDIWireSettings wireSettings, XDICompression requestCompression, int statusCode) {
+
+		if (statusCode == HttpStatus.SC_UNSUPPORTED_MEDIA_TYPE && requestCompression != XDICompression.NONE) return wireSettings.withRequestCompression(XDICompression.NONE);
+
+		if (! wireSettings.getSendMimeType().equals(XDIWireSettings.DEFAULT.getSendMimeType()) || ! wireSettings.getRecvMimeType().equals(XDIWireSettings.DEFAULT.getRecvMimeType())) {
+
+			return wireSettings.withMimeTypes(XDIWireSettings.DEFAULT.getSendMimeType(), XDIWireSettings.DEFAULT.getRecvMimeType());
+		}
+
+		return null;
+	}
+
+	private boolean scan(StreamingMessageResult messageResult, byte[] responseBody) throws IOException {
+
+		Map<String, String> relationTargets = XDIJSONScanner.scanRelations(new InputStreamReader(new ByteArrayInputStream(responseBody), "UTF-8"), messageResult.getPredicate().toString(), messageResult.getSubjects());
+
+		if (relationTargets == null) {
+
+			if (log.isDebugEnabled()) log.debug("Cannot scan result from " + this.endpoint + ", parsing it instead");
+
+			return false;
+		}
+
+		messageResult.setRelationTargets(relationTargets);
+
+		return true;
+	}
+
+	private static boolean isXdiJson(Header contentTypeHeader) {
+
+		return contentTypeHeader != null && contentTypeHeader.getValue().startsWith("application/xdi+json") && contentTypeHeader.getValue().indexOf("inner=1") < 0;
+	}
+
+	private XDIReader getReader(Header contentTypeHeader, XDIWireSettings wireSettings) throws Xdi2ClientException {
+
+		XDIReader reader = null;
+
+		if (contentTypeHeader != null) reader = XDIReaderRegistry.forMimeType(new MimeType(contentTypeHeader.getValue()));
+		if (reader == null) reader = XDIReaderRegistry.forMimeType(new MimeType(wireSettings.getRecvMimeType()));
+		if (reader == null) throw new Xdi2ClientException("Cannot find an XDI reader for " + wireSettings.getRecvMimeType(), null, null);
+
+		return reader;
+	}
+
+	/*
+	 * Getters and setters
+	 */
+
+	public String getEndpoint() {
+
+		return this.endpoint;
+	}
+
+	public MimeType getSendMimeType() {
+
+		return new MimeType(this.wireSettings.getSendMimeType());
+	}
+
+	public MimeType getRecvMimeType() {
+
+		return new MimeType(this.wireSettings.getRecvMimeType());
+	}
+
+	/**
+	 * Returns the settings messages are currently sent with, after any fallbacks.
+	 */
+	public XDIWireSettings getWireSettings() {
+
+		return this.wireSettings;
+	}
+
+	/**
+	 * Returns the settings this client was configured with.
+	 */
+	public XDIWireSettings getConfiguredWireSettings() {
+
+		return this.configuredWireSettings;
+	}
+}
@@ -0,0 +1,204 @@
+package net.respectnetwork.sdk.csp.transport;
+
+import java.net.URI;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.respectnetwork.sdk.csp.metrics.OperationMetrics;
+import xdi2.client.XDIClient;
+
+/**
+ * An XDITransport that sends all messages through one pool of persistent HTTP connections.
+ * The pool is keyed by endpoint host, with a limit on connections per host and in total.
+ * Idle and expired connections are closed by a background thread.
+ * 
+ * One instance is meant to be shared by all CSP objects of an application. It keeps one PooledXDIClient
+ * per endpoint and XDIWireSettings, so CSP objects with different settings for the same endpoint do not
+ * share fallbacks; all of them use the same connections.
+ */
+public class PooledXDITransport implements XDITransport {
+
+	private static final Logger log = LoggerFactory.getLogger(PooledXDITransport.class);
+
+	private final PooledXDITransportConfiguration configuration;
+	private final PoolingHttpClientConnectionManager connectionManager;
+	private final CloseableHttpClient httpClient;
+	private final ConcurrentMap<XDIClientKey, PooledXDIClient> xdiClients;
+	private final Thread evictionThread;
+
+	private volatile boolean closed;
+
+	public PooledXDITransport(final PooledXDITransportConfiguration configuration) {
+
+		this.configuration = configuration;
+
+		this.connectionManager = new PoolingHttpClientConnectionManager();
+		this.connectionManager.setMaxTotal(configuration.getMaxConnectionsTotal());
+		this.connectionManager.setDefaultMaxPerRoute(configuration.getMaxConnectionsPerRoute());
+
+		RequestConfig requestConfig = RequestConfig.custom()
+				.setConnectTimeout(configuration.getConnectTimeoutMillis())
+				.setSocketTimeout(configuration.getReadTimeoutMillis())
+				.setConnectionRequestTimeout(configuration.getConnectionRequestTimeoutMillis())
+				.build();
+
+		ConnectionKeepAliveStrategy keepAliveStrategy = new ConnectionKeepAliveStrategy() {
+
+			public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+
+				long keepAliveMillis = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+
+				return keepAliveMillis > 0 ? Math.min(keepAliveMillis, configuration.getKeepAliveMillis()) : configuration.getKeepAliveMillis();
+			}
+		};
+
+		this.httpClient = HttpClients.custom()
+				.setConnectionManager(this.connectionManager)
+				.setDefaultRequestConfig(requestConfig)
+				.setKeepAliveStrategy(keepAliveStrategy)
+				.disableContentCompression()
+				.build();
+
+		this.xdiClients = new ConcurrentHashMap<XDIClientKey, PooledXDIClient> ();
+		this.closed = false;
+
+		this.evictionThread = new Thread(new Runnable() {
+
+			public void run() {
+
+				PooledXDITransport.this.evictionLoop();
+			}
+		}, "csp-transport-eviction");
+
+		this.evictionThread.setDaemon(true);
+		this.evictionThread.start();
+	}
+
+	public PooledXDITransport() {
+
+		this(new PooledXDITransportConfiguration());
+	}
+
+	public XDIClient getXdiClient(String endpoint) {
+
+		return this.getXdiClient(endpoint, null);
+	}
+
+	/**
+	 * Returns the XDIClient of an endpoint with the given settings, or with the configured settings if wireSettings is null.
+	 */
+	public XDIClient getXdiClient(String endpoint, XDIWireSettings wireSettings) {
+
+		if (this.closed) throw new IllegalStateException("Transport is closed.");
+
+		if (wireSettings == null) wireSettings = this.configuration.getWireSettings();
+
+		XDIClientKey key = new XDIClientKey(endpoint, wireSettings);
+		PooledXDIClient xdiClient = this.xdiClients.get(key);
+
+		if (xdiClient == null) {
+
+			OperationMetrics metrics = this.configuration.getMetrics() == null ? null : this.configuration.getMetrics().getEndpointMetrics(endpoint);
+
+			PooledXDIClient newXdiClient = new PooledXDIClient(this.httpClient, endpoint, wireSettings, metrics);
+			xdiClient = this.xdiClients.putIfAbsent(key, newXdiClient);
+			if (xdiClient == null) xdiClient = newXdiClient;
+		}
+
+		return xdiClient;
+	}
+
+	/**
+	 * Closes all pooled connections. XDIClients obtained from this transport can no longer be used.
+	 */
+	public void close() {
+
+		this.closed = true;
+		this.evictionThread.interrupt();
+
+		try {
+
+			this.httpClient.close();
+		} catch (Exception ex) {
+
+			log.warn("Cannot close HTTP client: " + ex.getMessage(), ex);
+		}
+
+		this.xdiClients.clear();
+	}
+
+	/*
+	 * Statistics
+	 */
+
+	/**
+	 * Returns the connection statistics of the whole pool.
+	 */
+	public XDITransportStatistics getStatistics() {
+
+		PoolStats poolStats = this.connectionManager.getTotalStats();
+
+		return new XDITransportStatistics(poolStats.getLeased(), poolStats.getAvailable(), poolStats.getPending(), poolStats.getMax());
+	}
+
+	/**
+	 * Returns the connection statistics of the given endpoint's host.
+	 */
+	public XDITransportStatistics getStatistics(String endpoint) {
+
+		URI uri = URI.create(endpoint);
+		int port = uri.getPort() != -1 ? uri.getPort() : ("https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80);
+
+		HttpRoute httpRoute = new HttpRoute(new HttpHost(uri.getHost(), port, uri.getScheme()), null, "https".equalsIgnoreCase(uri.getScheme()));
+		PoolStats poolStats = this.connectionManager.getStats(httpRoute);
+
+		return new XDITransportStatistics(poolStats.getLeased(), poolStats.getAvailable(), poolStats.getPending(), poolStats.getMax());
+	}
+
+	/*
+	 * Helper methods
+	 */
+
+	private void evictionLoop() {
+
+		while (! this.closed) {
+
+			try {
+
+				Thread.sleep(this.configuration.getEvictionIntervalMillis());
+			} catch (InterruptedException ex) {
+
+				return;
+			}
+
+			this.connectionManager.closeExpiredConnections();
+			this.connectionManager.closeIdleConnections(this.configuration.getIdleTimeoutMillis(), TimeUnit.MILLISECONDS);
+
+			if (log.isDebugEnabled()) log.debug("Connection pool: " + this.getStatistics());
+		}
+	}
+
+	/*
+	 * Getters
+	 */
+
+	public PooledXDITransportConfiguration getConfiguration() {
+
+		return this.configuration;
+	}
+}
@@ -0,0 +1,197 @@
+package net.respectnetwork.sdk.csp.transport;
+
+import net.respectnetwork.sdk.csp.metrics.CSPMetrics;
+import xdi2.core.io.MimeType;
+
+/**
+ * Settings of a PooledXDITransport.
+ */
+public class PooledXDITransportConfiguration {
+
+	public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 50;
+	public static final int DEFAULT_MAX_CONNECTIONS_TOTAL = 200;
+	public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 5000;
+	public static final int DEFAULT_READ_TIMEOUT_MILLIS = 30000;
+	public static final int DEFAULT_CONNECTION_REQUEST_TIMEOUT_MILLIS = 30000;
+	public static final long DEFAULT_KEEP_ALIVE_MILLIS = 60000;
+	public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 30000;
+	public static final long DEFAULT_EVICTION_INTERVAL_MILLIS = 5000;
+	public static final MimeType DEFAULT_SEND_MIME_TYPE = new MimeType("application/xdi+json;implied=0");
+	public static final MimeType DEFAULT_RECV_MIME_TYPE = new MimeType("application/xdi+json;implied=0");
+
+	private int maxConnectionsPerRoute;
+	private int maxConnectionsTotal;
+	private int connectTimeoutMillis;
+	private int readTimeoutMillis;
+	private int connectionRequestTimeoutMillis;
+	private long keepAliveMillis;
+	private long idleTimeoutMillis;
+	private long evictionIntervalMillis;
+	private MimeType sendMimeType;
+	private MimeType recvMimeType;
+	private XDICompression requestCompression;
+	private boolean compressedResponses;
+	private CSPMetrics metrics;
+
+	public PooledXDITransportConfiguration() {
+
+		this.maxConnectionsPerRoute = DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+		this.maxConnectionsTotal = DEFAULT_MAX_CONNECTIONS_TOTAL;
+		this.connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+		this.readTimeoutMillis = DEFAULT_READ_TIMEOUT_MILLIS;
+		this.connectionRequestTimeoutMillis = DEFAULT_CONNECTION_REQUEST_TIMEOUT_MILLIS;
+		this.keepAliveMillis = DEFAULT_KEEP_ALIVE_MILLIS;
+		this.idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+		this.evictionIntervalMillis = DEFAULT_EVICTION_INTERVAL_MILLIS;
+		this.sendMimeType = DEFAULT_SEND_MIME_TYPE;
+		this.recvMimeType = DEFAULT_RECV_MIME_TYPE;
+		this.requestCompression = XDICompression.NONE;
+		this.compressedResponses = true;
+		this.metrics = null;
+	}
+
+	/**
+	 * Returns the XDIWireSettings of endpoints that were not given their own.
+	 */
+	public XDIWireSettings getWireSettings() {
+
+		return new XDIWireSettings(this.sendMimeType.toString(), this.recvMimeType.toString(), this.requestCompression, this.compressedResponses);
+	}
+
+	/*
+	 * Getters and setters
+	 */
+
+	public int getMaxConnectionsPerRoute() {
+
+		return this.maxConnectionsPerRoute;
+	}
+
+	public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+
+		this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+	}
+
+	public int getMaxConnectionsTotal() {
+
+		return this.maxConnectionsTotal;
+	}
+
+	public void setMaxConnectionsTotal(int maxConnectionsTotal) {
+
+		this.maxConnectionsTotal = maxConnectionsTotal;
+	}
+
+	public int getConnectTimeoutMillis() {
+
+		return this.connectTimeoutMillis;
+	}
+
+	public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+
+		this.connectTimeoutMillis = connectTimeoutMillis;
+	}
+
+	public int getReadTimeoutMillis() {
+
+		return this.readTimeoutMillis;
+	}
+
+	public void setReadTimeoutMillis(int readTimeoutMillis) {
+
+		this.readTimeoutMillis = readTimeoutMillis;
+	}
+
+	public int getConnectionRequestTimeoutMillis() {
+
+		return this.connectionRequestTimeoutMillis;
+	}
+
+	public void setConnectionRequestTimeoutMillis(int connectionRequestTimeoutMillis) {
+
+		this.connectionRequestTimeoutMillis = connectionRequestTimeoutMillis;
+	}
+
+	public long getKeepAliveMillis() {
+
+		return this.keepAliveMillis;
+	}
+
+	public void setKeepAliveMillis(long keepAliveMillis) {
+
+		this.keepAliveMillis = keepAliveMillis;
+	}
+
+	public long getIdleTimeoutMillis() {
+
+		return this.idleTimeoutMillis;
+	}
+
+	public void setIdleTimeoutMillis(long idleTimeoutMillis) {
+
+		this.idleTimeoutMillis = idleTimeoutMillis;
+	}
+
+	public long getEvictionIntervalMillis() {
+
+		return this.evictionIntervalMillis;
+	}
+
+	public void setEvictionIntervalMillis(long evictionIntervalMillis) {
+
+		this.evictionIntervalMillis = evictionIntervalMillis;
+	}
+
+	public MimeType getSendMimeType() {
+
+		return this.sendMimeType;
+	}
+
+	public void setSendMimeType(MimeType sendMimeType) {
+
+		this.sendMimeType = sendMimeType;
+	}
+
+	public MimeType getRecvMimeType() {
+
+		return this.recvMimeType;
+	}
+
+	public void setRecvMimeType(MimeType recvMimeType) {
+
+		this.recvMimeType = recvMimeType;
+	}
+
+	public XDICompression getRequestCompression() {
+
+		return this.requestCompression;
+	}
+
+	public void setRequestCompression(XDICompression requestCompression) {
+
+		this.requestCompression = requestCompression;
+	}
+
+	public boolean isCompressedResponses() {
+
+		return this.compressedResponses;
+	}
+
+	public void setCompressedResponses(boolean compressedResponses) {
+
+		this.compressedResponses = compressedResponses;
+	}
+
+	public CSPMetrics getMetrics() {
+
+		return this.metrics;
+	}
+
+	/**
+	 * If set, the request and response sizes in bytes are recorded in the endpoint metrics.
+	 */
+	public void setMetrics(CSPMetrics metrics) {
+
+		this.metrics = metrics;
+	}
+}
@@ -0,0 +1,103 @@
+package net.respectnetwork.sdk.csp.transport;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import xdi2.core.Relation;
+import xdi2.core.xri3.XDI3Segment;
+import xdi2.messaging.MessageResult;
+
+/**
+ * A MessageResult for callers that only need the targets of one relation (e.g. $ref) of some subjects.
+ * 
+ * A PooledXDIClient that receives an XDI/JSON response for it scans the response with an XDIJSONScanner
+ * instead of parsing it into the result graph. Other XDIClients, and responses that cannot be scanned,
+ * fill the graph as usual; getRelationTarget() then reads it from there.
+ */
+public class StreamingMessageResult extends MessageResult {
+
+	private final XDI3Segment predicate;
+	private final Set<String> subjects;
+
+	private volatile Map<String, String> relationTargets;
+
+	public StreamingMessageResult(XDI3Segment predicate, Collection<XDI3Segment> subjects) {
+
+		this.predicate = predicate;
+		this.subjects = new HashSet<String> ();
+
+		for (XDI3Segment subject : subjects) this.subjects.add(subject.toString());
+
+		this.relationTargets = null;
+	}
+
+	public StreamingMessageResult(XDI3Segment predicate, XDI3Segment subject) {
+
+		this(predicate, Collections.singleton(subject));
+	}
+
+	private StreamingMessageResult(XDI3Segment predicate, Set<String> subjects) {
+
+		this.predicate = predicate;
+		this.subjects = subjects;
+
+		this.relationTargets = null;
+	}
+
+	/**
+	 * Returns an empty result for the same relations, e.g. for sending the same message again.
+	 */
+	public StreamingMessageResult newEmptyResult() {
+
+		return new StreamingMessageResult(this.predicate, this.subjects);
+	}
+
+	/**
+	 * Returns the target of the relation for the given subject, or null if there is none.
+	 */
+	public XDI3Segment getRelationTarget(XDI3Segment subject) {
+
+		Map<String, String> relationTargets = this.relationTargets;
+
+		if (relationTargets != null) {
+
+			String relationTarget = relationTargets.get(subject.toString());
+
+			return relationTarget == null ? null : XDI3Segment.create(relationTarget);
+		}
+
+		Relation relation = this.getGraph().getDeepRelation(subject, this.predicate);
+
+		return relation == null ? null : relation.getTargetContextNodeXri();
+	}
+
+	/**
+	 * Checks if the result was filled by scanning the response rather than in the graph.
+	 */
+	public boolean isStreamed() {
+
+		return this.relationTargets != null;
+	}
+
+	void setRelationTargets(Map<String, String> relationTargets) {
+
+		this.relationTargets = relationTargets;
+	}
+
+	/*
+	 * Getters
+	 */
+
+	public XDI3Segment getPredicate() {
+
+		return this.predicate;
+	}
+
+	public Set<String> getSubjects() {
+
+		return this.subjects;
+	}
+}
@@ -0,0 +1,52 @@
+package net.respectnetwork.sdk.csp.transport;
+
+/**
+ * The key under which an XDITransport caches an XDIClient: an endpoint and the XDIWireSettings
+ * the client was made with. Null settings stand for the transport's defaults.
+ */
+public final class XDIClientKey {
+
+	private final String endpoint;
+	private final XDIWireSettings wireSettings;
+
+	public XDIClientKey(String endpoint, XDIWireSettings wireSettings) {
+
+		if (endpoint == null) throw new NullPointerException();
+
+		this.endpoint = endpoint;
+		this.wireSettings = wireSettings;
+	}
+
+	public String getEndpoint() {
+
+		return this.endpoint;
+	}
+
+	public XDIWireSettings getWireSettings() {
+
+		return this.wireSettings;
+	}
+
+	@Override
+	public boolean equals(Object object) {
+
+		if (object == this) return true;
+		if (! (object instanceof XDIClientKey)) return false;
+
+		XDIClientKey other = (XDIClientKey) object;
+
+		return this.endpoint.equals(other.endpoint) && (this.wireSettings == null ? other.wireSettings == null : this.wireSettings.equals(other.wireSettings));
+	}
+
+	@Override
+	public int hashCode() {
+
+		return 31 * this.endpoint.hashCode() + (this.wireSettings == null ? 0 : this.wireSettings.hashCode());
+	}
+
+	@Override
+	public String toString() {
+
+		return this.wireSettings == null ? this.endpoint : this.endpoint + " (" + this.wireSettings + ")";
+	}
+}
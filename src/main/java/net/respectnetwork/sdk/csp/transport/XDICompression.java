@@ -0,0 +1,48 @@
+package net.respectnetwork.sdk.csp.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The HTTP content codings that XDI messages can be compressed with.
+ */
+public enum XDICompression {
+
+	NONE(null),
+	GZIP("gzip"),
+	DEFLATE("deflate");
+
+	private final String contentCoding;
+
+	private XDICompression(String contentCoding) {
+
+		this.contentCoding = contentCoding;
+	}
+
+	/**
+	 * Returns the value of the Content-Encoding header, or null for NONE.
+	 */
+	public String getContentCoding() {
+
+		return this.contentCoding;
+	}
+
+	/**
+	 * Compresses a request body. The deflate coding is the zlib format, as HTTP defines it.
+	 */
+	public byte[] compress(byte[] bytes) throws IOException {
+
+		if (this == NONE) return bytes;
+
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream(bytes.length / 2 + 64);
+		OutputStream outputStream = this == GZIP ? new GZIPOutputStream(buffer) : new DeflaterOutputStream(buffer);
+
+		outputStream.write(bytes);
+		outputStream.close();
+
+		return buffer.toByteArray();
+	}
+}
@@ -0,0 +1,65 @@
+package net.respectnetwork.sdk.csp.transport;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import xdi2.client.http.XDIHttpClient;
+import xdi2.core.io.MimeType;
+
+/**
+ * An XDITransport that hands out one XDIHttpClient per endpoint and XDIWireSettings.
+ * Connection handling is left to XDIHttpClient and the JVM.
+ * 
+ * Only the formats of XDIWireSettings are applied, since XDIHttpClient cannot compress
+ * requests. Use a PooledXDITransport for compression and for fallbacks.
+ */
+public class XDIHttpTransport implements XDITransport {
+
+	private static final Logger log = LoggerFactory.getLogger(XDIHttpTransport.class);
+
+	private final ConcurrentMap<XDIClientKey, XDIHttpClient> xdiClients;
+
+	public XDIHttpTransport() {
+
+		this.xdiClients = new ConcurrentHashMap<XDIClientKey, XDIHttpClient> ();
+	}
+
+	public XDIHttpClient getXdiClient(String endpoint) {
+
+		return this.getXdiClient(endpoint, null);
+	}
+
+	public XDIHttpClient getXdiClient(String endpoint, XDIWireSettings wireSettings) {
+
+		XDIClientKey key = new XDIClientKey(endpoint, wireSettings);
+		XDIHttpClient xdiClient = this.xdiClients.get(key);
+
+		if (xdiClient == null) {
+
+			XDIHttpClient newXdiClient = new XDIHttpClient(endpoint);
+
+			if (wireSettings != null) {
+
+				newXdiClient.setSendMimeType(new MimeType(wireSettings.getSendMimeType()));
+				newXdiClient.setRecvMimeType(new MimeType(wireSettings.getRecvMimeType()));
+
+				if (wireSettings.getRequestCompression() != XDICompression.NONE && log.isDebugEnabled()) log.debug("Not compressing requests to " + endpoint + ", XDIHttpClient does not support it.");
+			}
+
+			xdiClient = this.xdiClients.putIfAbsent(key, newXdiClient);
+			if (xdiClient == null) xdiClient = newXdiClient;
+		}
+
+		return xdiClient;
+	}
+
+	public void close() {
+
+		for (XDIHttpClient xdiClient : this.xdiClients.values()) xdiClient.close();
+
+		this.xdiClients.clear();
+	}
+}
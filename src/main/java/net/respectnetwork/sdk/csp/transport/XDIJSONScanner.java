@@ -0,0 +1,286 @@
+package net.respectnetwork.sdk.csp.transport;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Scans a graph serialized in the flat XDI/JSON format (a JSON object whose keys are "subject/predicate"
+ * and whose values are arrays of target XRIs for relations) and extracts the targets of selected
+ * relations, without building a graph or allocating anything for statements it is not interested in
+ * beyond their keys.
+ * 
+ * If the input contains anything the scanner does not understand, or looks like an error message
+ * result, scanRelations() returns null and the caller should fall back to a full XDIReader.
+ */
+public class XDIJSONScanner {
+
+	private static final int BUFFER_SIZE = 4096;
+
+	private final Reader reader;
+	private final char[] buffer;
+	private final StringBuilder token;
+
+	private int position;
+	private int limit;
+
+	public XDIJSONScanner(Reader reader) {
+
+		this.reader = reader;
+		this.buffer = new char[BUFFER_SIZE];
+		this.token = new StringBuilder(64);
+
+		this.position = 0;
+		this.limit = 0;
+	}
+
+	/**
+	 * Returns the first target of the relation with the given predicate for each of the given subjects
+	 * that has one, keyed by subject, or null if the input cannot be scanned.
+	 */
+	public static Map<String, String> scanRelations(Reader reader, String predicate, Set<String> subjects) throws IOException {
+
+		return new XDIJSONScanner(reader).scanRelations(predicate, subjects);
+	}
+
+	public Map<String, String> scanRelations(String predicate, Set<String> subjects) throws IOException {
+
+		Map<String, String> relationTargets = new HashMap<String, String> ();
+
+		if (this.next() != '{') return null;
+
+		int c = this.next();
+		if (c == '}') return relationTargets;
+
+		while (true) {
+
+			if (c != '"') return null;
+
+			String key = this.readString();
+			if (key == null || this.next() != ':') return null;
+
+			int slash = topLevelSlash(key, 0);
+			if (slash < 0) return null;
+
+			String subject = key.substring(0, slash);
+			if (subject.indexOf("$false") >= 0 || subject.indexOf("$error") >= 0) return null;
+
+			int nextSlash = topLevelSlash(key, slash + 1);
+			boolean selected = nextSlash < 0 && subjects.contains(subject) && key.regionMatches(slash + 1, predicate, 0, predicate.length()) && key.length() == slash + 1 + predicate.length();
+
+			if (selected) {
+
+				String target = this.readFirstArrayString();
+				if (target == null) return null;
+
+				if (! relationTargets.containsKey(subject)) relationTargets.put(subject, target);
+			} else {
+
+				if (! this.skipValue()) return null;
+			}
+
+			c = this.next();
+			if (c == '}') break;
+			if (c != ',') return null;
+
+			c = this.next();
+		}
+
+		return relationTargets;
+	}
+
+	/*
+	 * Helper methods
+	 */
+
+	/**
+	 * Finds the first '/' at or after start that is not inside (), [], &lt;&gt; or {}.
+	 */
+	private static int topLevelSlash(String key, int start) {
+
+		int depth = 0;
+
+		for (int i=start; i<key.length(); i++) {
+
+			char c = key.charAt(i);
+
+			if (c == '(' || c == '[' || c == '<' || c == '{') depth++;
+			else if (c == ')' || c == ']' || c == '>' || c == '}') depth--;
+			else if (c == '/' && depth == 0) return i;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Reads an array of strings and returns its first element; the opening bracket has not been read yet.
+	 */
+	private String readFirstArrayString() throws IOException {
+
+		if (this.next() != '[') return null;
+
+		int c = this.next();
+		if (c != '"') return null;
+
+		String first = this.readString();
+		if (first == null) return null;
+
+		while (true) {
+
+			c = this.next();
+			if (c == ']') return first;
+			if (c != ',') return null;
+			if (this.next() != '"' || ! this.skipString()) return null;
+		}
+	}
+
+	/**
+	 * Skips a JSON value of any kind.
+	 */
+	private boolean skipValue() throws IOException {
+
+		int c = this.next();
+
+		if (c == '"') return this.skipString();
+
+		if (c == '[' || c == '{') {
+
+			int depth = 1;
+
+			while (depth > 0) {
+
+				c = this.read();
+
+				if (c < 0) return false;
+
+				if (c == '"') {
+
+					if (! this.skipString()) return false;
+				} else if (c == '[' || c == '{') {
+
+					depth++;
+				} else if (c == ']' || c == '}') {
+
+					depth--;
+				}
+			}
+
+			return true;
+		}
+
+		// number, true, false or null
+
+		while (true) {
+
+			c = this.read();
+
+			if (c < 0) return false;
+
+			if (c == ',' || c == '}' || c == ']' || Character.isWhitespace(c)) {
+
+				this.position--;
+
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Reads a string whose opening quote has been read.
+	 */
+	private String readString() throws IOException {
+
+		this.token.setLength(0);
+
+		while (true) {
+
+			int c = this.read();
+
+			if (c < 0) return null;
+			if (c == '"') return this.token.toString();
+
+			if (c == '\\') {
+
+				c = this.read();
+
+				switch (c) {
+
+				case '"': case '\\': case '/': this.token.append((char) c); break;
+				case 'b': this.token.append('\b'); break;
+				case 'f': this.token.append('\f'); break;
+				case 'n': this.token.append('\n'); break;
+				case 'r': this.token.append('\r'); break;
+				case 't': this.token.append('\t'); break;
+				case 'u':
+
+					int codePoint = 0;
+
+					for (int i=0; i<4; i++) {
+
+						int digit = Character.digit(this.read(), 16);
+						if (digit < 0) return null;
+
+						codePoint = codePoint * 16 + digit;
+					}
+
+					this.token.append((char) codePoint);
+					break;
+				default: return null;
+				}
+			} else {
+
+				this.token.append((char) c);
+			}
+		}
+	}
+
+	/**
+	 * Skips a string whose opening quote has been read.
+	 */
+	private boolean skipString() throws IOException {
+
+		while (true) {
+
+			int c = this.read();
+
+			if (c < 0) return false;
+			if (c == '"') return true;
+			if (c == '\\' && this.read() < 0) return false;
+		}
+	}
+
+	/**
+	 * Returns the next character that is not whitespace, or -1 at the end of the input.
+	 */
+	private int next() throws IOException {
+
+		int c;
+
+		do {
+
+			c = this.read();
+		} while (c >= 0 && Character.isWhitespace(c));
+
+		return c;
+	}
+
+	private int read() throws IOException {
+
+		if (this.position == this.limit) {
+
+			this.limit = this.reader.read(this.buffer, 0, this.buffer.length);
+			this.position = 0;
+
+			if (this.limit <= 0) {
+
+				this.limit = 0;
+
+				return -1;
+			}
+		}
+
+		return this.buffer[this.position++];
+	}
+}
@@ -0,0 +1,17 @@
+package net.respectnetwork.sdk.csp.transport;
+
+import xdi2.client.XDIClient;
+
+/**
+ * This interface represents the way the SDK sends XDI messages to an endpoint.
+ * A transport can be shared by many CSP objects; it hands out one XDIClient per endpoint and XDIWireSettings.
+ * 
+ * The XDIWireSettings are given when an XDIClient is requested; null stands for the transport's defaults.
+ * A client handed out keeps its settings, so CSP objects with different settings never affect each other.
+ */
+public interface XDITransport {
+
+	public XDIClient getXdiClient(String endpoint);
+	public XDIClient getXdiClient(String endpoint, XDIWireSettings wireSettings);
+	public void close();
+}
@@ -0,0 +1,58 @@
+package net.respectnetwork.sdk.csp.transport;
+
+/**
+ * A snapshot of the connections of a PooledXDITransport, in total or for one endpoint.
+ */
+public class XDITransportStatistics {
+
+	private final int leased;
+	private final int idle;
+	private final int pending;
+	private final int max;
+
+	XDITransportStatistics(int leased, int idle, int pending, int max) {
+
+		this.leased = leased;
+		this.idle = idle;
+		this.pending = pending;
+		this.max = max;
+	}
+
+	/**
+	 * Returns the number of connections currently used by a request.
+	 */
+	public int getLeased() {
+
+		return this.leased;
+	}
+
+	/**
+	 * Returns the number of open connections waiting to be reused.
+	 */
+	public int getIdle() {
+
+		return this.idle;
+	}
+
+	/**
+	 * Returns the number of requests waiting for a connection.
+	 */
+	public int getPending() {
+
+		return this.pending;
+	}
+
+	/**
+	 * Returns the maximum number of connections.
+	 */
+	public int getMax() {
+
+		return this.max;
+	}
+
+	@Override
+	public String toString() {
+
+		return "leased=" + this.leased + ", idle=" + this.idle + ", pending=" + this.pending + ", max=" + this.max;
+	}
+}
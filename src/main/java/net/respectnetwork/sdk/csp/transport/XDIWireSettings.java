@@ -0,0 +1,103 @@
+package net.respectnetwork.sdk.csp.transport;
+
+import java.io.Serializable;
+
+/**
+ * How messages to an endpoint are put on the wire: the serialization format of requests and of
+ * responses, the compression of requests, and whether compressed responses are accepted.
+ *
+ * Servers that reject a request format or a compression are detected by the XDIClient, which then
+ * falls back to the default format or to uncompressed requests for that endpoint. Compressed
+ * responses need no fallback, since servers that do not support them send plain responses.
+ */
+public class XDIWireSettings implements Serializable {
+
+	private static final long serialVersionUID = -3052837702925513849L;
+
+	public static final String MIME_TYPE_XDI_JSON = "application/xdi+json;implied=0";
+	public static final String MIME_TYPE_XDI_JSON_INNER = "application/xdi+json;implied=0;inner=1";
+	public static final String MIME_TYPE_XDI_DISPLAY = "text/xdi;implied=0";
+
+	public static final XDIWireSettings DEFAULT = new XDIWireSettings(MIME_TYPE_XDI_JSON, MIME_TYPE_XDI_JSON, XDICompression.NONE, true);
+
+	private final String sendMimeType;
+	private final String recvMimeType;
+	private final XDICompression requestCompression;
+	private final boolean compressedResponses;
+
+	public XDIWireSettings(String sendMimeType, String recvMimeType, XDICompression requestCompression, boolean compressedResponses) {
+
+		if (sendMimeType == null || recvMimeType == null || requestCompression == null) throw new NullPointerException();
+
+		this.sendMimeType = sendMimeType;
+		this.recvMimeType = recvMimeType;
+		this.requestCompression = requestCompression;
+		this.compressedResponses = compressedResponses;
+	}
+
+	/**
+	 * Returns the same settings with the given request format and response format.
+	 */
+	public XDIWireSettings withMimeTypes(String sendMimeType, String recvMimeType) {
+
+		return new XDIWireSettings(sendMimeType, recvMimeType, this.requestCompression, this.compressedResponses);
+	}
+
+	/**
+	 * Returns the same settings with the given compression of requests.
+	 */
+	public XDIWireSettings withRequestCompression(XDICompression requestCompression) {
+
+		return new XDIWireSettings(this.sendMimeType, this.recvMimeType, requestCompression, this.compressedResponses);
+	}
+
+	/*
+	 * Getters
+	 */
+
+	public String getSendMimeType() {
+
+		return this.sendMimeType;
+	}
+
+	public String getRecvMimeType() {
+
+		return this.recvMimeType;
+	}
+
+	public XDICompression getRequestCompression() {
+
+		return this.requestCompression;
+	}
+
+	/**
+	 * Checks if gzip and deflate compressed responses are accepted.
+	 */
+	public boolean isCompressedResponses() {
+
+		return this.compressedResponses;
+	}
+
+	@Override
+	public boolean equals(Object object) {
+
+		if (object == this) return true;
+		if (! (object instanceof XDIWireSettings)) return false;
+
+		XDIWireSettings other = (XDIWireSettings) object;
+
+		return this.sendMimeType.equals(other.sendMimeType) && this.recvMimeType.equals(other.recvMimeType) && this.requestCompression == other.requestCompression && this.compressedResponses == other.compressedResponses;
+	}
+
+	@Override
+	public int hashCode() {
+
+		return ((this.sendMimeType.hashCode() * 31 + this.recvMimeType.hashCode()) * 31 + this.requestCompression.ordinal()) * 31 + (this.compressedResponses ? 1 : 0);
+	}
+
+	@Override
+	public String toString() {
+
+		return "send: " + this.sendMimeType + ", recv: " + this.recvMimeType + ", request compression: " + this.requestCompression + ", compressed responses: " + this.compressedResponses;
+	}
+}
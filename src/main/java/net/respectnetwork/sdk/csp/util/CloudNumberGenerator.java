@@ -0,0 +1,75 @@
+package net.respectnetwork.sdk.csp.util;
+
+import java.security.SecureRandom;
+
+import xdi2.core.xri3.XDI3Segment;
+
+/**
+ * Generates random Cloud Numbers of the form [=]!:uuid:... or [@]!:uuid:... locally, without asking the
+ * Respect Network Registration Service to allocate one.
+ *
+ * The UUIDs are version 4 (random) UUIDs. Each thread uses its own SecureRandom, so concurrent signups
+ * do not contend on the single SecureRandom behind java.util.UUID.randomUUID().
+ */
+public class CloudNumberGenerator {
+
+	public static final String PREFIX_INDIVIDUAL = "[=]!:uuid:";
+	public static final String PREFIX_ORGANIZATION = "[@]!:uuid:";
+
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private static final ThreadLocal<SecureRandom> RANDOM = new ThreadLocal<SecureRandom> () {
+
+		@Override
+		protected SecureRandom initialValue() {
+
+			return new SecureRandom();
+		}
+	};
+
+	private CloudNumberGenerator() { }
+
+	/**
+	 * Returns a new Cloud Number for the given Cloud Name.
+	 * Cloud Names starting with @ get an organization Cloud Number, all others an individual Cloud Number.
+	 */
+	public static XDI3Segment newCloudNumber(XDI3Segment cloudName) {
+
+		return cloudName.toString().startsWith("@") ? newOrganizationCloudNumber() : newIndividualCloudNumber();
+	}
+
+	public static XDI3Segment newIndividualCloudNumber() {
+
+		return XDI3Segment.create(PREFIX_INDIVIDUAL + newUuid());
+	}
+
+	public static XDI3Segment newOrganizationCloudNumber() {
+
+		return XDI3Segment.create(PREFIX_ORGANIZATION + newUuid());
+	}
+
+	/**
+	 * Returns a random UUID in its usual 36 character string form.
+	 */
+	public static String newUuid() {
+
+		byte[] bytes = new byte[16];
+		RANDOM.get().nextBytes(bytes);
+
+		bytes[6] = (byte) ((bytes[6] & 0x0f) | 0x40);
+		bytes[8] = (byte) ((bytes[8] & 0x3f) | 0x80);
+
+		char[] chars = new char[36];
+		int position = 0;
+
+		for (int i=0; i<16; i++) {
+
+			if (i == 4 || i == 6 || i == 8 || i == 10) chars[position++] = '-';
+
+			chars[position++] = HEX_DIGITS[(bytes[i] >> 4) & 0x0f];
+			chars[position++] = HEX_DIGITS[bytes[i] & 0x0f];
+		}
+
+		return new String(chars);
+	}
+}
@@ -0,0 +1,119 @@
+package net.respectnetwork.sdk.csp.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Helper methods for creating the executors used by the SDK.
+ * Virtual threads are used when the running JVM supports them, otherwise daemon platform threads.
+ */
+public class ExecutorUtil {
+
+	private static final Logger log = LoggerFactory.getLogger(ExecutorUtil.class);
+
+	public static final long DEFAULT_KEEP_ALIVE_SECONDS = 60;
+
+	private static final Method METHOD_THREAD_OF_VIRTUAL = findMethod(Thread.class, "ofVirtual");
+
+	private ExecutorUtil() { }
+
+	/**
+	 * Returns true if the running JVM supports virtual threads.
+	 */
+	public static boolean isVirtualThreadsAvailable() {
+
+		return METHOD_THREAD_OF_VIRTUAL != null;
+	}
+
+	/**
+	 * Creates an executor that runs at most maxThreads tasks at the same time and queues at most
+	 * queueCapacity further tasks. Tasks beyond that are rejected with a RejectedExecutionException.
+	 */
+	public static ExecutorService newBoundedExecutorService(String name, int maxThreads, int queueCapacity) {
+
+		if (maxThreads < 1) throw new IllegalArgumentException("Invalid maximum number of threads: " + maxThreads);
+		if (queueCapacity < 1) throw new IllegalArgumentException("Invalid queue capacity: " + queueCapacity);
+
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(
+				maxThreads, 
+				maxThreads, 
+				DEFAULT_KEEP_ALIVE_SECONDS, 
+				TimeUnit.SECONDS, 
+				new ArrayBlockingQueue<Runnable>(queueCapacity), 
+				newThreadFactory(name));
+
+		executor.allowCoreThreadTimeOut(true);
+
+		return executor;
+	}
+
+	/**
+	 * Creates a thread factory for the given name prefix.
+	 * The threads are virtual threads if available, otherwise daemon platform threads.
+	 */
+	public static ThreadFactory newThreadFactory(String name) {
+
+		ThreadFactory threadFactory = newVirtualThreadFactory(name);
+		if (threadFactory != null) return threadFactory;
+
+		return new DaemonThreadFactory(name);
+	}
+
+	private static ThreadFactory newVirtualThreadFactory(String name) {
+
+		if (METHOD_THREAD_OF_VIRTUAL == null) return null;
+
+		try {
+
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+
+			Object builder = METHOD_THREAD_OF_VIRTUAL.invoke(null);
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", Long.valueOf(0));
+
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+		} catch (Exception ex) {
+
+			log.warn("Cannot create virtual thread factory: " + ex.getMessage() + " (using platform threads)", ex);
+
+			return null;
+		}
+	}
+
+	private static Method findMethod(Class<?> clazz, String name) {
+
+		try {
+
+			return clazz.getMethod(name);
+		} catch (NoSuchMethodException ex) {
+
+			return null;
+		}
+	}
+
+	private static class DaemonThreadFactory implements ThreadFactory {
+
+		private final String name;
+		private final AtomicInteger count = new AtomicInteger();
+
+		private DaemonThreadFactory(String name) {
+
+			this.name = name;
+		}
+
+		public Thread newThread(Runnable runnable) {
+
+			Thread thread = new Thread(runnable, this.name + "-" + this.count.getAndIncrement());
+			thread.setDaemon(true);
+
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package net.respectnetwork.sdk.csp.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket rate limiter.
+ * Tokens are added at a fixed rate up to the burst size; every call takes one token
+ * and waits if none is available. A rate of zero or less means unlimited.
+ */
+public class TokenBucket {
+
+	private final double permitsPerNano;
+	private final double burst;
+
+	private double tokens;
+	private long lastRefill;
+
+	public TokenBucket(double permitsPerSecond, int burst) {
+
+		if (burst < 1) throw new IllegalArgumentException("Invalid burst size: " + burst);
+
+		this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+		this.burst = burst;
+
+		this.tokens = burst;
+		this.lastRefill = System.nanoTime();
+	}
+
+	/**
+	 * Takes one token, waiting until it is available.
+	 */
+	public void acquire() throws InterruptedException {
+
+		long waitNanos = this.reserve();
+
+		if (waitNanos > 0) TimeUnit.NANOSECONDS.sleep(waitNanos);
+	}
+
+	/**
+	 * Takes one token if it is available right now.
+	 */
+	public synchronized boolean tryAcquire() {
+
+		if (this.permitsPerNano <= 0) return true;
+
+		this.refill();
+
+		if (this.tokens < 1) return false;
+
+		this.tokens -= 1;
+
+		return true;
+	}
+
+	/**
+	 * Takes one token, and returns how many nanoseconds the caller has to wait before using it.
+	 */
+	public synchronized long reserve() {
+
+		if (this.permitsPerNano <= 0) return 0;
+
+		this.refill();
+
+		this.tokens -= 1;
+
+		return this.tokens >= 0 ? 0 : (long) Math.ceil(-this.tokens / this.permitsPerNano);
+	}
+
+	private void refill() {
+
+		long now = System.nanoTime();
+
+		this.tokens = Math.min(this.burst, this.tokens + (now - this.lastRefill) * this.permitsPerNano);
+		this.lastRefill = now;
+	}
+
+	public double getPermitsPerSecond() {
+
+		return this.permitsPerNano * TimeUnit.SECONDS.toNanos(1);
+	}
+}
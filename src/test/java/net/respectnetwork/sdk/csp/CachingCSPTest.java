@@ -0,0 +1,174 @@
+package net.respectnetwork.sdk.csp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import xdi2.client.exceptions.Xdi2ClientException;
+import xdi2.core.xri3.XDI3Segment;
+
+public class CachingCSPTest {
+
+	private static final XDI3Segment CLOUD_NAME = XDI3Segment.create("=alice");
+	private static final XDI3Segment CLOUD_NUMBER = XDI3Segment.create("[=]!:uuid:1");
+
+	@Test
+	public void testAvailableCloudNameIsCached() throws Exception {
+
+		BlockingCSP blockingCSP = new BlockingCSP();
+		blockingCSP.release.countDown();
+		CachingCSP cachingCSP = new CachingCSP(blockingCSP);
+
+		assertNull(cachingCSP.checkCloudNameAvailable(CLOUD_NAME));
+		assertNull(cachingCSP.checkCloudNameAvailable(CLOUD_NAME));
+
+		assertEquals(1, blockingCSP.checkCount.get());
+		assertEquals(1, cachingCSP.getHitCount());
+	}
+
+	@Test
+	public void testLookupDoesNotOverwriteRegistration() throws Exception {
+
+		BlockingCSP blockingCSP = new BlockingCSP();
+		CachingCSP cachingCSP = new CachingCSP(blockingCSP);
+
+		Check check = new Check(cachingCSP);
+		check.start();
+		assertTrue(blockingCSP.entered.await(10, TimeUnit.SECONDS));
+
+		CloudNameRegistration cloudNameRegistration = cachingCSP.registerCloudName(CLOUD_NAME);
+		assertNotNull(cloudNameRegistration);
+
+		blockingCSP.release.countDown();
+		check.join();
+
+		assertNull(check.exception);
+		assertNull(check.result);
+		assertSame(cloudNameRegistration, cachingCSP.checkCloudNameAvailable(CLOUD_NAME));
+		assertEquals(1, blockingCSP.checkCount.get());
+	}
+
+	@Test
+	public void testLookupIsNotCachedAfterInvalidation() throws Exception {
+
+		BlockingCSP blockingCSP = new BlockingCSP();
+		CachingCSP cachingCSP = new CachingCSP(blockingCSP);
+
+		Check check = new Check(cachingCSP);
+		check.start();
+		assertTrue(blockingCSP.entered.await(10, TimeUnit.SECONDS));
+
+		cachingCSP.invalidate(CLOUD_NAME);
+
+		blockingCSP.release.countDown();
+		check.join();
+
+		assertNull(check.exception);
+		assertEquals(0, cachingCSP.size());
+
+		assertNull(cachingCSP.checkCloudNameAvailable(CLOUD_NAME));
+		assertEquals(2, blockingCSP.checkCount.get());
+		assertEquals(1, cachingCSP.size());
+	}
+
+	/*
+	 * Helper methods
+	 */
+
+	private static class Check extends Thread {
+
+		private final CachingCSP cachingCSP;
+
+		private volatile CloudNameRegistration result;
+		private volatile Exception exception;
+
+		private Check(CachingCSP cachingCSP) {
+
+			this.cachingCSP = cachingCSP;
+		}
+
+		@Override
+		public void run() {
+
+			try {
+
+				this.result = this.cachingCSP.checkCloudNameAvailable(CLOUD_NAME);
+			} catch (Exception ex) {
+
+				this.exception = ex;
+			}
+		}
+	}
+
+	/**
+	 * A CSP whose checkCloudNameAvailable() calls block until released and report the Cloud Name as available.
+	 * Its registerCloudName() calls succeed immediately.
+	 */
+	private static class BlockingCSP implements BatchCSP {
+
+		private final CountDownLatch entered = new CountDownLatch(1);
+		private final CountDownLatch release = new CountDownLatch(1);
+		private final AtomicInteger checkCount = new AtomicInteger();
+
+		public CloudNameRegistration checkCloudNameAvailable(XDI3Segment cloudName) throws Xdi2ClientException {
+
+			this.checkCount.incrementAndGet();
+			this.entered.countDown();
+
+			try {
+
+				this.release.await();
+			} catch (InterruptedException ex) {
+
+				throw new Xdi2ClientException("Interrupted", ex, null);
+			}
+
+			return null;
+		}
+
+		public CloudNameRegistration registerCloudName(XDI3Segment cloudName) {
+
+			return new CloudNameRegistration(cloudName, cloudName, CLOUD_NUMBER, CLOUD_NUMBER);
+		}
+
+		public Map<XDI3Segment, CloudNameRegistration> checkCloudNamesAvailable(Collection<XDI3Segment> cloudNames) {
+
+			throw new UnsupportedOperationException();
+		}
+
+		public CloudNameRegistration registerCloudName(XDI3Segment cloudName, XDI3Segment cloudNumber) {
+
+			throw new UnsupportedOperationException();
+		}
+
+		public CloudRegistration registerCloud(CloudNameRegistration cloudNameRegistration, String secretToken) {
+
+			throw new UnsupportedOperationException();
+		}
+
+		public void registerCloudXdiUrl(CloudNameRegistration cloudNameRegistration, CloudRegistration cloudRegistration) {
+
+			throw new UnsupportedOperationException();
+		}
+
+		public void generateCloudSecretToken(CloudNameRegistration cloudNameRegistration, String secretToken) {
+
+			throw new UnsupportedOperationException();
+		}
+
+		public void generateCloudSecretTokens(Map<CloudNameRegistration, String> secretTokens) {
+
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -0,0 +1,206 @@
+package net.respectnetwork.sdk.csp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import xdi2.client.exceptions.Xdi2ClientException;
+import xdi2.core.xri3.XDI3Segment;
+
+public class CoalescingCSPTest {
+
+	private static final XDI3Segment CLOUD_NAME = XDI3Segment.create("=alice");
+	private static final XDI3Segment CLOUD_NUMBER = XDI3Segment.create("[=]!:uuid:1");
+
+	@Test
+	public void testCheckCloudNameAvailableSharesResult() throws Exception {
+
+		BlockingCSP blockingCSP = new BlockingCSP();
+		CoalescingCSP coalescingCSP = new CoalescingCSP(blockingCSP);
+
+		Call[] calls = callConcurrently(coalescingCSP, blockingCSP, false);
+
+		assertEquals(1, blockingCSP.callCount.get());
+		assertEquals(1, coalescingCSP.getCoalescedCount());
+		assertNull(calls[0].exception);
+		assertNull(calls[1].exception);
+		assertSame(calls[0].result, calls[1].result);
+	}
+
+	@Test
+	public void testRegisterCloudNameDoesNotShareRegistration() throws Exception {
+
+		BlockingCSP blockingCSP = new BlockingCSP();
+		CoalescingCSP coalescingCSP = new CoalescingCSP(blockingCSP);
+
+		Call[] calls = callConcurrently(coalescingCSP, blockingCSP, true);
+
+		assertEquals(1, blockingCSP.callCount.get());
+		assertEquals(1, coalescingCSP.getCoalescedCount());
+		assertNull(calls[0].exception);
+		assertNotNull(calls[0].result);
+		assertNull(calls[1].result);
+		assertTrue(calls[1].exception instanceof Xdi2ClientException);
+	}
+
+	@Test
+	public void testRegisterCloudNameSharesFailure() throws Exception {
+
+		BlockingCSP blockingCSP = new BlockingCSP();
+		blockingCSP.exception = new Xdi2ClientException("Registrar unavailable", null, null);
+		CoalescingCSP coalescingCSP = new CoalescingCSP(blockingCSP);
+
+		Call[] calls = callConcurrently(coalescingCSP, blockingCSP, true);
+
+		assertEquals(1, blockingCSP.callCount.get());
+		assertSame(blockingCSP.exception, calls[0].exception);
+		assertSame(blockingCSP.exception, calls[1].exception);
+	}
+
+	@Test
+	public void testSequentialCallsAreNotCoalesced() throws Exception {
+
+		BlockingCSP blockingCSP = new BlockingCSP();
+		blockingCSP.release.countDown();
+		CoalescingCSP coalescingCSP = new CoalescingCSP(blockingCSP);
+
+		assertNotNull(coalescingCSP.registerCloudName(CLOUD_NAME));
+		assertNotNull(coalescingCSP.registerCloudName(CLOUD_NAME));
+
+		assertEquals(2, blockingCSP.callCount.get());
+		assertEquals(0, coalescingCSP.getCoalescedCount());
+	}
+
+	/*
+	 * Helper methods
+	 */
+
+	/**
+	 * Starts a call, waits until it is in flight, starts a second call, waits until it is coalesced, and then
+	 * lets the first call complete.
+	 */
+	private static Call[] callConcurrently(CoalescingCSP coalescingCSP, BlockingCSP blockingCSP, boolean register) throws Exception {
+
+		Call[] calls = new Call[] { new Call(coalescingCSP, register), new Call(coalescingCSP, register) };
+
+		calls[0].start();
+		assertTrue(blockingCSP.entered.await(10, TimeUnit.SECONDS));
+
+		calls[1].start();
+		for (long deadline = System.currentTimeMillis() + 10000; coalescingCSP.getCoalescedCount() < 1 && System.currentTimeMillis() < deadline; ) Thread.sleep(1);
+
+		blockingCSP.release.countDown();
+
+		calls[0].join();
+		calls[1].join();
+
+		return calls;
+	}
+
+	private static class Call extends Thread {
+
+		private final CoalescingCSP coalescingCSP;
+		private final boolean register;
+
+		private volatile CloudNameRegistration result;
+		private volatile Exception exception;
+
+		private Call(CoalescingCSP coalescingCSP, boolean register) {
+
+			this.coalescingCSP = coalescingCSP;
+			this.register = register;
+		}
+
+		@Override
+		public void run() {
+
+			try {
+
+				this.result = this.register ? this.coalescingCSP.registerCloudName(CLOUD_NAME) : this.coalescingCSP.checkCloudNameAvailable(CLOUD_NAME);
+			} catch (Exception ex) {
+
+				this.exception = ex;
+			}
+		}
+	}
+
+	/**
+	 * A CSP whose checkCloudNameAvailable() and registerCloudName() calls block until released.
+	 */
+	private static class BlockingCSP implements BatchCSP {
+
+		private final CountDownLatch entered = new CountDownLatch(1);
+		private final CountDownLatch release = new CountDownLatch(1);
+		private final AtomicInteger callCount = new AtomicInteger();
+
+		private volatile Xdi2ClientException exception;
+
+		public CloudNameRegistration checkCloudNameAvailable(XDI3Segment cloudName) throws Xdi2ClientException {
+
+			return this.call(cloudName);
+		}
+
+		public CloudNameRegistration registerCloudName(XDI3Segment cloudName) throws Xdi2ClientException {
+
+			return this.call(cloudName);
+		}
+
+		private CloudNameRegistration call(XDI3Segment cloudName) throws Xdi2ClientException {
+
+			this.callCount.incrementAndGet();
+			this.entered.countDown();
+
+			try {
+
+				this.release.await();
+			} catch (InterruptedException ex) {
+
+				throw new Xdi2ClientException("Interrupted", ex, null);
+			}
+
+			if (this.exception != null) throw this.exception;
+
+			return new CloudNameRegistration(cloudName, cloudName, CLOUD_NUMBER, CLOUD_NUMBER);
+		}
+
+		public Map<XDI3Segment, CloudNameRegistration> checkCloudNamesAvailable(Collection<XDI3Segment> cloudNames) {
+
+			throw new UnsupportedOperationException();
+		}
+
+		public CloudNameRegistration registerCloudName(XDI3Segment cloudName, XDI3Segment cloudNumber) {
+
+			throw new UnsupportedOperationException();
+		}
+
+		public CloudRegistration registerCloud(CloudNameRegistration cloudNameRegistration, String secretToken) {
+
+			throw new UnsupportedOperationException();
+		}
+
+		public void registerCloudXdiUrl(CloudNameRegistration cloudNameRegistration, CloudRegistration cloudRegistration) {
+
+			throw new UnsupportedOperationException();
+		}
+
+		public void generateCloudSecretToken(CloudNameRegistration cloudNameRegistration, String secretToken) {
+
+			throw new UnsupportedOperationException();
+		}
+
+		public void generateCloudSecretTokens(Map<CloudNameRegistration, String> secretTokens) {
+
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -0,0 +1,302 @@
+package net.respectnetwork.sdk.csp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import net.respectnetwork.sdk.csp.journal.ProvisioningJournal;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import xdi2.client.exceptions.Xdi2ClientException;
+import xdi2.core.xri3.XDI3Segment;
+
+public class ProvisioningOrchestratorTest {
+
+	private static final XDI3Segment CLOUD_NAME = XDI3Segment.create("=alice");
+	private static final XDI3Segment CLOUD_NUMBER = XDI3Segment.create("[=]!:uuid:1");
+	private static final String CLOUD_BASE_XDI_ENDPOINT = "http://localhost:12220/";
+
+	private static final String CHECK_CLOUD_NAME_AVAILABLE = "checkCloudNameAvailable";
+	private static final String REGISTER_CLOUD_NAME = "registerCloudName";
+	private static final String REGISTER_CLOUD = "registerCloud";
+	private static final String REGISTER_CLOUD_XDI_URL = "registerCloudXdiUrl";
+
+	private CSPInformation cspInformation;
+	private ExecutorService executorService;
+	private StubCSP csp;
+	private ProvisioningOrchestrator orchestrator;
+	private List<ProvisioningStep> compensatedSteps;
+
+	@Before
+	public void setUp() throws Exception {
+
+		this.cspInformation = new BasicCSPInformation(XDI3Segment.create("[@]!:uuid:0"), "s3cr3t", "http://localhost:12220/graph", CLOUD_BASE_XDI_ENDPOINT);
+
+		this.executorService = Executors.newCachedThreadPool();
+		this.csp = new StubCSP(this.cspInformation);
+		this.orchestrator = new ProvisioningOrchestrator(this.csp, this.cspInformation, this.executorService);
+		this.compensatedSteps = Collections.synchronizedList(new ArrayList<ProvisioningStep> ());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+
+		this.executorService.shutdownNow();
+	}
+
+	@Test
+	public void testProvisionCloud() throws Exception {
+
+		ProvisioningResult provisioningResult = this.orchestrator.provisionCloud(CLOUD_NAME, "secret");
+
+		assertTrue(provisioningResult.isSuccess());
+		assertEquals(CLOUD_NUMBER, provisioningResult.getCloudNameRegistration().getCloudNumber());
+		assertEquals(BasicCSP.makeCloudXdiEndpoint(this.cspInformation, CLOUD_NUMBER), provisioningResult.getCloudRegistration().getCloudXdiEndpoint());
+		assertEquals(4, provisioningResult.getStepResults().size());
+		assertEquals(1, this.csp.count(REGISTER_CLOUD));
+		assertEquals(1, this.csp.count(REGISTER_CLOUD_XDI_URL));
+	}
+
+	@Test
+	public void testCloudAndXdiUrlAreRegisteredConcurrently() throws Exception {
+
+		this.csp.rendezvous = new CountDownLatch(2);
+
+		ProvisioningResult provisioningResult = this.orchestrator.provisionCloud(CLOUD_NAME, "secret");
+
+		assertTrue(provisioningResult.isSuccess());
+	}
+
+	@Test
+	public void testRegisteredCloudNameFails() throws Exception {
+
+		this.csp.registered = true;
+
+		ProvisioningResult provisioningResult = this.orchestrator.provisionCloud(CLOUD_NAME, "secret");
+
+		assertFalse(provisioningResult.isSuccess());
+		assertEquals(ProvisioningStep.CHECK_CLOUD_NAME_AVAILABLE, provisioningResult.getFailedStepResult().getStep());
+		assertEquals(Arrays.asList(CHECK_CLOUD_NAME_AVAILABLE), this.csp.calls);
+	}
+
+	@Test
+	public void testCompletedStepsAreCompensatedInReverseOrder() throws Exception {
+
+		this.setCompensations(ProvisioningStep.REGISTER_CLOUD_NAME, ProvisioningStep.REGISTER_CLOUD);
+		this.csp.failing = REGISTER_CLOUD_XDI_URL;
+
+		ProvisioningResult provisioningResult = this.orchestrator.provisionCloud(CLOUD_NAME, "secret");
+
+		assertFalse(provisioningResult.isSuccess());
+		assertEquals(ProvisioningStep.REGISTER_CLOUD_XDI_URL, provisioningResult.getFailedStepResult().getStep());
+		assertEquals(Arrays.asList(ProvisioningStep.REGISTER_CLOUD, ProvisioningStep.REGISTER_CLOUD_NAME), this.compensatedSteps);
+		assertTrue(provisioningResult.getStepResult(ProvisioningStep.REGISTER_CLOUD).isCompensated());
+		assertTrue(provisioningResult.getStepResult(ProvisioningStep.REGISTER_CLOUD_NAME).isCompensated());
+		assertFalse(provisioningResult.getStepResult(ProvisioningStep.REGISTER_CLOUD_XDI_URL).isCompensated());
+	}
+
+	@Test
+	public void testLocalCloudNumber() throws Exception {
+
+		this.orchestrator.setLocalCloudNumbers(true);
+		this.setCompensations(ProvisioningStep.REGISTER_CLOUD);
+
+		ProvisioningResult provisioningResult = this.orchestrator.provisionCloud(CLOUD_NAME, "secret");
+
+		assertTrue(provisioningResult.isSuccess());
+		assertTrue(provisioningResult.getCloudNameRegistration().getCloudNumber().toString().startsWith("[=]!:uuid:"));
+		assertEquals(1, this.csp.count(REGISTER_CLOUD));
+		assertEquals(1, this.csp.count(REGISTER_CLOUD_XDI_URL));
+	}
+
+	@Test
+	public void testLocalCloudNumberRegistersCloudEarlyWithCompensation() throws Exception {
+
+		this.orchestrator.setLocalCloudNumbers(true);
+		this.setCompensations(ProvisioningStep.REGISTER_CLOUD);
+		this.csp.failing = REGISTER_CLOUD_NAME;
+
+		ProvisioningResult provisioningResult = this.orchestrator.provisionCloud(CLOUD_NAME, "secret");
+
+		assertFalse(provisioningResult.isSuccess());
+		assertEquals(1, this.csp.count(REGISTER_CLOUD));
+		assertEquals(Arrays.asList(ProvisioningStep.REGISTER_CLOUD), this.compensatedSteps);
+	}
+
+	@Test
+	public void testLocalCloudNumberRegistersCloudLateWithoutCompensation() throws Exception {
+
+		this.orchestrator.setLocalCloudNumbers(true);
+		this.csp.failing = REGISTER_CLOUD_NAME;
+
+		ProvisioningResult provisioningResult = this.orchestrator.provisionCloud(CLOUD_NAME, "secret");
+
+		assertFalse(provisioningResult.isSuccess());
+		assertEquals(ProvisioningStep.REGISTER_CLOUD_NAME, provisioningResult.getFailedStepResult().getStep());
+		assertEquals(0, this.csp.count(REGISTER_CLOUD));
+	}
+
+	@Test
+	public void testResumeAfterCompletedSteps() throws Exception {
+
+		File file = File.createTempFile("journal", ".dat");
+		file.delete();
+
+		ProvisioningJournal journal = new ProvisioningJournal(file);
+
+		try {
+
+			this.orchestrator.setJournal(journal);
+			this.csp.failing = REGISTER_CLOUD_XDI_URL;
+
+			assertFalse(this.orchestrator.provisionCloud(CLOUD_NAME, "secret").isSuccess());
+			assertNotNull(journal.get(CLOUD_NAME.toString()));
+
+			this.csp.failing = null;
+			this.csp.calls.clear();
+
+			ProvisioningResult provisioningResult = this.orchestrator.provisionCloud(CLOUD_NAME, "secret");
+
+			assertTrue(provisioningResult.isSuccess());
+			assertEquals(CLOUD_NUMBER, provisioningResult.getCloudNameRegistration().getCloudNumber());
+			assertEquals(BasicCSP.makeCloudXdiEndpoint(this.cspInformation, CLOUD_NUMBER), provisioningResult.getCloudRegistration().getCloudXdiEndpoint());
+			assertEquals(Arrays.asList(REGISTER_CLOUD_XDI_URL), this.csp.calls);
+		} finally {
+
+			journal.close();
+			file.delete();
+			new File(file.getPath() + ".compact").delete();
+		}
+	}
+
+	/*
+	 * Helper methods
+	 */
+
+	private void setCompensations(ProvisioningStep... steps) {
+
+		for (ProvisioningStep step : steps) {
+
+			this.orchestrator.setCompensation(step, new ProvisioningCompensation() {
+
+				public void compensate(ProvisioningStep step, ProvisioningResult provisioningResult) {
+
+					ProvisioningOrchestratorTest.this.compensatedSteps.add(step);
+				}
+			});
+		}
+	}
+
+	/**
+	 * A CSP that records its calls, and fails the calls of one method. With a rendezvous latch set, registerCloud()
+	 * and registerCloudXdiUrl() each wait for the other to start, so they fail unless they run concurrently.
+	 */
+	private static class StubCSP implements BatchCSP {
+
+		private final CSPInformation cspInformation;
+		private final List<String> calls = Collections.synchronizedList(new ArrayList<String> ());
+
+		private volatile String failing;
+		private volatile boolean registered;
+		private volatile CountDownLatch rendezvous;
+
+		private StubCSP(CSPInformation cspInformation) {
+
+			this.cspInformation = cspInformation;
+		}
+
+		public CloudNameRegistration checkCloudNameAvailable(XDI3Segment cloudName) throws Xdi2ClientException {
+
+			this.call(CHECK_CLOUD_NAME_AVAILABLE);
+
+			return this.registered ? BasicCSP.makeCloudNameRegistration(cloudName, CLOUD_NUMBER) : null;
+		}
+
+		public CloudNameRegistration registerCloudName(XDI3Segment cloudName) throws Xdi2ClientException {
+
+			this.call(REGISTER_CLOUD_NAME);
+
+			return BasicCSP.makeCloudNameRegistration(cloudName, CLOUD_NUMBER);
+		}
+
+		public CloudNameRegistration registerCloudName(XDI3Segment cloudName, XDI3Segment cloudNumber) throws Xdi2ClientException {
+
+			this.call(REGISTER_CLOUD_NAME);
+
+			return BasicCSP.makeCloudNameRegistration(cloudName, cloudNumber);
+		}
+
+		public CloudRegistration registerCloud(CloudNameRegistration cloudNameRegistration, String secretToken) throws Xdi2ClientException {
+
+			this.call(REGISTER_CLOUD);
+			this.meet();
+
+			return BasicCSP.makeCloudRegistration(this.cspInformation, cloudNameRegistration.getCloudNumber());
+		}
+
+		public void registerCloudXdiUrl(CloudNameRegistration cloudNameRegistration, CloudRegistration cloudRegistration) throws Xdi2ClientException {
+
+			this.call(REGISTER_CLOUD_XDI_URL);
+			this.meet();
+		}
+
+		public Map<XDI3Segment, CloudNameRegistration> checkCloudNamesAvailable(Collection<XDI3Segment> cloudNames) {
+
+			throw new UnsupportedOperationException();
+		}
+
+		public void generateCloudSecretToken(CloudNameRegistration cloudNameRegistration, String secretToken) {
+
+			throw new UnsupportedOperationException();
+		}
+
+		public void generateCloudSecretTokens(Map<CloudNameRegistration, String> secretTokens) {
+
+			throw new UnsupportedOperationException();
+		}
+
+		private void call(String method) throws Xdi2ClientException {
+
+			this.calls.add(method);
+
+			if (method.equals(this.failing)) throw new Xdi2ClientException(method + " failed", null, null);
+		}
+
+		private void meet() throws Xdi2ClientException {
+
+			CountDownLatch rendezvous = this.rendezvous;
+			if (rendezvous == null) return;
+
+			rendezvous.countDown();
+
+			try {
+
+				if (! rendezvous.await(10, TimeUnit.SECONDS)) throw new Xdi2ClientException("Not registered concurrently", null, null);
+			} catch (InterruptedException ex) {
+
+				throw new Xdi2ClientException("Interrupted", ex, null);
+			}
+		}
+
+		private int count(String method) {
+
+			return Collections.frequency(this.calls, method);
+		}
+	}
+}
@@ -0,0 +1,266 @@
+package net.respectnetwork.sdk.csp.bulk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import net.respectnetwork.sdk.csp.BasicCSP;
+import net.respectnetwork.sdk.csp.BasicCSPInformation;
+import net.respectnetwork.sdk.csp.CSPInformation;
+import net.respectnetwork.sdk.csp.CloudNameRegistration;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import xdi2.client.exceptions.Xdi2ClientException;
+import xdi2.core.xri3.XDI3Segment;
+
+public class CloudReconcilerTest {
+
+	private static final XDI3Segment CLOUD_NUMBER = XDI3Segment.create("[=]!:uuid:1");
+
+	private File file;
+	private CloudReconciliationCheckpoint checkpoint;
+	private StubCSP csp;
+	private CloudReconciler reconciler;
+
+	@Before
+	public void setUp() throws Exception {
+
+		this.file = File.createTempFile("reconciliation", ".checkpoint");
+		this.file.delete();
+
+		this.checkpoint = new CloudReconciliationCheckpoint(this.file);
+
+		this.csp = new StubCSP(new BasicCSPInformation(XDI3Segment.create("[@]!:uuid:0"), "s3cr3t", "http://localhost:12220/graph", "http://localhost:12220/"));
+
+		this.reconciler = new CloudReconciler(this.csp);
+		this.reconciler.setBatchSize(1);
+		this.reconciler.setConcurrency(2);
+		this.reconciler.setCheckpoint(this.checkpoint);
+		this.reconciler.setCheckpointInterval(1);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+
+		this.file.delete();
+	}
+
+	@Test
+	public void testCheckpointWaitsForEarlierBatches() throws Exception {
+
+		this.csp.block("=a0");
+		this.csp.block("=a3");
+
+		Reconciliation reconciliation = new Reconciliation(this.reconciler, records(4));
+		reconciliation.start();
+
+		// =a1 and =a2 are checked while =a0 is still running, so they must not count yet
+
+		this.csp.awaitLookup("=a3");
+
+		assertEquals(0, this.checkpoint.getPosition());
+		assertFalse(this.file.exists());
+
+		this.csp.release("=a0");
+
+		for (long deadline = System.currentTimeMillis() + 10000; this.checkpoint.getPosition() < 3 && System.currentTimeMillis() < deadline; ) Thread.sleep(1);
+
+		assertEquals(3, this.checkpoint.getPosition());
+		assertEquals("=a2", this.checkpoint.getCloudName());
+		assertEquals(3, new CloudReconciliationCheckpoint(this.file).getPosition());
+
+		this.csp.release("=a3");
+		reconciliation.join();
+
+		assertNull(reconciliation.exception);
+		assertEquals(4, reconciliation.report.getConsistentCount());
+
+		// a completed run resets the checkpoint
+
+		assertEquals(0, this.checkpoint.getPosition());
+		assertFalse(this.file.exists());
+	}
+
+	@Test
+	public void testResumeSkipsCheckedRecords() throws Exception {
+
+		this.checkpoint.save(2, "=a1");
+
+		CloudReconciliationReport report = this.reconciler.reconcile(records(4));
+
+		assertEquals(2, report.getSkippedCount());
+		assertEquals(2, report.getConsistentCount());
+		assertEquals(Arrays.asList("=a2", "=a3"), this.csp.sortedLookups());
+		assertFalse(this.file.exists());
+	}
+
+	@Test
+	public void testResumeRefusesChangedRecords() throws Exception {
+
+		this.checkpoint.save(2, "=b1");
+
+		assertRefused(this.reconciler, records(4));
+
+		this.checkpoint.save(10, "=a9");
+
+		assertRefused(this.reconciler, records(4));
+
+		assertTrue(this.csp.sortedLookups().isEmpty());
+		assertEquals(10, new CloudReconciliationCheckpoint(this.file).getPosition());
+	}
+
+	/*
+	 * Helper methods
+	 */
+
+	private static Iterator<CloudReconciliationRecord> records(int count) {
+
+		List<CloudReconciliationRecord> records = new ArrayList<CloudReconciliationRecord> (count);
+		for (int i=0; i<count; i++) records.add(new CloudReconciliationRecord(XDI3Segment.create("=a" + i)));
+
+		return records.iterator();
+	}
+
+	private static void assertRefused(CloudReconciler reconciler, Iterator<CloudReconciliationRecord> records) throws Exception {
+
+		try {
+
+			reconciler.reconcile(records);
+			fail();
+		} catch (IllegalArgumentException ex) {
+
+		}
+	}
+
+	private static class Reconciliation extends Thread {
+
+		private final CloudReconciler reconciler;
+		private final Iterator<CloudReconciliationRecord> records;
+
+		private volatile CloudReconciliationReport report;
+		private volatile Exception exception;
+
+		private Reconciliation(CloudReconciler reconciler, Iterator<CloudReconciliationRecord> records) {
+
+			this.reconciler = reconciler;
+			this.records = records;
+		}
+
+		@Override
+		public void run() {
+
+			try {
+
+				this.report = this.reconciler.reconcile(this.records);
+			} catch (Exception ex) {
+
+				this.exception = ex;
+			}
+		}
+	}
+
+	/**
+	 * A CSP at which every Cloud Name is consistently registered and hosted. Lookups of blocked Cloud Names wait
+	 * until they are released.
+	 */
+	private static class StubCSP extends BasicCSP {
+
+		private final Map<String, CountDownLatch> blocked = Collections.synchronizedMap(new HashMap<String, CountDownLatch> ());
+		private final List<String> lookups = Collections.synchronizedList(new ArrayList<String> ());
+
+		private StubCSP(CSPInformation cspInformation) {
+
+			super(cspInformation, null, null);
+		}
+
+		@Override
+		public Map<XDI3Segment, CloudNameRegistration> checkCloudNamesAvailable(Collection<XDI3Segment> cloudNames) throws Xdi2ClientException {
+
+			for (XDI3Segment cloudName : cloudNames) {
+
+				this.lookups.add(cloudName.toString());
+
+				CountDownLatch latch = this.blocked.get(cloudName.toString());
+				if (latch == null) continue;
+
+				try {
+
+					latch.await();
+				} catch (InterruptedException ex) {
+
+					throw new Xdi2ClientException("Interrupted", ex, null);
+				}
+			}
+
+			return registrations(cloudNames);
+		}
+
+		@Override
+		public Map<XDI3Segment, CloudNameRegistration> checkCloudNamesHosted(Collection<XDI3Segment> cloudNames) {
+
+			return registrations(cloudNames);
+		}
+
+		@Override
+		public Map<XDI3Segment, String> getCloudXdiUrls(Collection<CloudNameRegistration> cloudNameRegistrations) {
+
+			Map<XDI3Segment, String> cloudXdiUrls = new HashMap<XDI3Segment, String> ();
+			for (CloudNameRegistration cloudNameRegistration : cloudNameRegistrations) cloudXdiUrls.put(cloudNameRegistration.getCloudNumber(), BasicCSP.makeCloudXdiEndpoint(this.getCspInformation(), cloudNameRegistration.getCloudNumber()));
+
+			return cloudXdiUrls;
+		}
+
+		private void block(String cloudName) {
+
+			this.blocked.put(cloudName, new CountDownLatch(1));
+		}
+
+		private void release(String cloudName) {
+
+			this.blocked.get(cloudName).countDown();
+		}
+
+		private void awaitLookup(String cloudName) throws InterruptedException {
+
+			for (long deadline = System.currentTimeMillis() + 10000; ! this.lookups.contains(cloudName); ) {
+
+				if (System.currentTimeMillis() > deadline) fail("No lookup of " + cloudName);
+
+				Thread.sleep(1);
+			}
+		}
+
+		private List<String> sortedLookups() {
+
+			List<String> lookups = new ArrayList<String> (this.lookups);
+			Collections.sort(lookups);
+
+			return lookups;
+		}
+
+		private static Map<XDI3Segment, CloudNameRegistration> registrations(Collection<XDI3Segment> cloudNames) {
+
+			Map<XDI3Segment, CloudNameRegistration> cloudNameRegistrations = new LinkedHashMap<XDI3Segment, CloudNameRegistration> ();
+			for (XDI3Segment cloudName : cloudNames) cloudNameRegistrations.put(cloudName, BasicCSP.makeCloudNameRegistration(cloudName, CLOUD_NUMBER));
+
+			return cloudNameRegistrations;
+		}
+	}
+}
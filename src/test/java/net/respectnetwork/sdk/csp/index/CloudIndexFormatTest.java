@@ -0,0 +1,128 @@
+package net.respectnetwork.sdk.csp.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class CloudIndexFormatTest {
+
+	@Test
+	public void testRoundTrip() throws Exception {
+
+		String[] values = new String[] {
+				"=alice",
+				"",
+				"=\u00e4\u00f6\u00fc.\u65e5\u672c",
+				"[=]!:uuid:0a1b2c3d-4e5f-6071-8293-a4b5c6d7e8f9",
+				"[@]!:uuid:ffffffff-ffff-ffff-ffff-ffffffffffff",
+				"[+]!:uuid:00000000-0000-0000-0000-000000000000",
+				"http://clouds.example.com/[=]!:uuid:0a1b2c3d-4e5f-6071-8293-a4b5c6d7e8f9/"
+		};
+
+		for (String value : values) assertEquals(value, roundTrip(value));
+	}
+
+	@Test
+	public void testNull() throws Exception {
+
+		byte[] bytes = encode(null);
+
+		assertEquals(1, bytes.length);
+		assertNull(decode(bytes));
+	}
+
+	@Test
+	public void testUuidCloudNumbersAreCompact() throws Exception {
+
+		assertEquals(CloudIndexFormat.FIELD_UUID, encode("[=]!:uuid:0a1b2c3d-4e5f-6071-8293-a4b5c6d7e8f9")[0]);
+		assertEquals(18, encode("[=]!:uuid:0a1b2c3d-4e5f-6071-8293-a4b5c6d7e8f9").length);
+	}
+
+	@Test
+	public void testNonCanonicalUuidsAreStoredAsStrings() throws Exception {
+
+		// UUID.fromString() accepts these, but would not give back the same string
+
+		String[] values = new String[] {
+				"[=]!:uuid:0A1B2C3D-4E5F-6071-8293-A4B5C6D7E8F9",
+				"[=]!:uuid:a1b2c3d-04e5f-6071-8293-a4b5c6d7e8f9",
+				"[=]!:uuid:0a1b2c3d-4e5f-6071-8293-a4b5c6d7e8fz",
+				"(=]!:uuid:0a1b2c3d-4e5f-6071-8293-a4b5c6d7e8f9"
+		};
+
+		for (String value : values) {
+
+			assertEquals(CloudIndexFormat.FIELD_UTF8, encode(value)[0]);
+			assertEquals(value, roundTrip(value));
+		}
+	}
+
+	@Test
+	public void testConsecutiveFields() throws Exception {
+
+		ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+		DataOutputStream dataOutputStream = new DataOutputStream(byteArrayOutputStream);
+		CloudIndexFormat.writeField(dataOutputStream, "=alice");
+		CloudIndexFormat.writeField(dataOutputStream, null);
+		CloudIndexFormat.writeField(dataOutputStream, "[=]!:uuid:0a1b2c3d-4e5f-6071-8293-a4b5c6d7e8f9");
+		CloudIndexFormat.writeField(dataOutputStream, "http://clouds.example.com/");
+		dataOutputStream.flush();
+
+		ByteBuffer buffer = ByteBuffer.wrap(byteArrayOutputStream.toByteArray());
+		int[] position = new int[] { 0 };
+
+		assertEquals("=alice", CloudIndexFormat.readField(buffer, position));
+		assertNull(CloudIndexFormat.readField(buffer, position));
+		assertEquals("[=]!:uuid:0a1b2c3d-4e5f-6071-8293-a4b5c6d7e8f9", CloudIndexFormat.readField(buffer, position));
+		assertEquals("http://clouds.example.com/", CloudIndexFormat.readField(buffer, position));
+		assertEquals(buffer.limit(), position[0]);
+		assertEquals(0, buffer.position());
+	}
+
+	@Test(expected = IOException.class)
+	public void testInvalidTag() throws Exception {
+
+		decode(new byte[] { 9 });
+	}
+
+	@Test(expected = IOException.class)
+	public void testTooLong() throws Exception {
+
+		encode(new String(new char[65536]).replace('\0', 'a'));
+	}
+
+	/*
+	 * Helper methods
+	 */
+
+	private static String roundTrip(String value) throws IOException {
+
+		return decode(encode(value));
+	}
+
+	private static byte[] encode(String value) throws IOException {
+
+		ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+		DataOutputStream dataOutputStream = new DataOutputStream(byteArrayOutputStream);
+		CloudIndexFormat.writeField(dataOutputStream, value);
+		dataOutputStream.flush();
+
+		return byteArrayOutputStream.toByteArray();
+	}
+
+	private static String decode(byte[] bytes) throws IOException {
+
+		int[] position = new int[] { 0 };
+		String value = CloudIndexFormat.readField(ByteBuffer.wrap(bytes), position);
+
+		assertEquals(bytes.length, position[0]);
+
+		return value;
+	}
+}
@@ -0,0 +1,418 @@
+package net.respectnetwork.sdk.csp.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CloudIndexTest {
+
+	private File directory;
+
+	@Before
+	public void setUp() throws Exception {
+
+		this.directory = File.createTempFile("cloudindex", "");
+		this.directory.delete();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+
+		File[] files = this.directory.listFiles();
+		if (files != null) for (File file : files) file.delete();
+
+		this.directory.delete();
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+
+		CloudIndex cloudIndex = new CloudIndex(this.directory);
+		cloudIndex.put(entry(1));
+		cloudIndex.put(entry(2));
+		cloudIndex.put(new CloudIndexEntry("=pending", null, null));
+		cloudIndex.close();
+
+		cloudIndex = new CloudIndex(this.directory);
+
+		try {
+
+			assertEquals(entry(1), cloudIndex.get("=name1"));
+			assertEquals(entry(2), cloudIndex.getByCloudNumber(cloudNumber(2)));
+			assertEquals(new CloudIndexEntry("=pending", null, null), cloudIndex.get("=pending"));
+			assertNull(cloudIndex.get("=name3"));
+			assertNull(cloudIndex.getByCloudNumber(cloudNumber(3)));
+		} finally {
+
+			cloudIndex.close();
+		}
+	}
+
+	@Test
+	public void testRoundTripThroughSnapshot() throws Exception {
+
+		CloudIndex cloudIndex = new CloudIndex(this.directory);
+		for (int i = 0; i < 100; i++) cloudIndex.put(entry(i));
+		cloudIndex.compact();
+		cloudIndex.close();
+
+		assertEquals(0, new File(this.directory, "clouds.log").length());
+
+		cloudIndex = new CloudIndex(this.directory);
+
+		try {
+
+			for (int i = 0; i < 100; i++) {
+
+				assertEquals(entry(i), cloudIndex.get("=name" + i));
+				assertEquals(entry(i), cloudIndex.getByCloudNumber(cloudNumber(i)));
+			}
+
+			assertNull(cloudIndex.get("=name100"));
+			assertNull(cloudIndex.getByCloudNumber(cloudNumber(100)));
+		} finally {
+
+			cloudIndex.close();
+		}
+	}
+
+	@Test
+	public void testUpdateMergesFields() throws Exception {
+
+		CloudIndex cloudIndex = new CloudIndex(this.directory);
+
+		try {
+
+			cloudIndex.update(new CloudIndexEntry("=alice", null, null));
+			cloudIndex.update(new CloudIndexEntry("=alice", cloudNumber(1), null));
+			cloudIndex.compact();
+
+			CloudIndexEntry entry = cloudIndex.update(new CloudIndexEntry("=alice", null, "http://clouds.example.com/alice/"));
+
+			assertEquals(new CloudIndexEntry("=alice", cloudNumber(1), "http://clouds.example.com/alice/"), entry);
+			assertEquals(entry, cloudIndex.get("=alice"));
+		} finally {
+
+			cloudIndex.close();
+		}
+	}
+
+	@Test
+	public void testCompactionMergesLogIntoSnapshot() throws Exception {
+
+		CloudIndex cloudIndex = new CloudIndex(this.directory);
+		for (int i = 0; i < 50; i += 2) cloudIndex.put(entry(i));
+		cloudIndex.compact();
+
+		// replace some snapshot entries and add new ones in between
+
+		for (int i = 0; i < 50; i += 5) cloudIndex.put(new CloudIndexEntry("=name" + i, cloudNumber(1000 + i), null));
+		cloudIndex.compact();
+		cloudIndex.close();
+
+		cloudIndex = new CloudIndex(this.directory);
+
+		try {
+
+			for (int i = 0; i < 50; i++) {
+
+				CloudIndexEntry expected;
+
+				if (i % 5 == 0) expected = new CloudIndexEntry("=name" + i, cloudNumber(1000 + i), null);
+				else if (i % 2 == 0) expected = entry(i);
+				else expected = null;
+
+				assertEquals(expected, cloudIndex.get("=name" + i));
+			}
+
+			// the replaced Cloud Numbers are still in the snapshot's hash table, but must not be found
+
+			assertNull(cloudIndex.getByCloudNumber(cloudNumber(0)));
+			assertNull(cloudIndex.getByCloudNumber(cloudNumber(10)));
+			assertEquals(entry(2), cloudIndex.getByCloudNumber(cloudNumber(2)));
+			assertEquals("=name10", cloudIndex.getByCloudNumber(cloudNumber(1010)).getCloudName());
+
+			List<CloudIndexEntry> entries = cloudIndex.scan("", Integer.MAX_VALUE);
+			assertEquals(25 + 5, entries.size());
+			assertSorted(entries);
+		} finally {
+
+			cloudIndex.close();
+		}
+	}
+
+	@Test
+	public void testScan() throws Exception {
+
+		CloudIndex cloudIndex = new CloudIndex(this.directory);
+
+		try {
+
+			cloudIndex.put(new CloudIndexEntry("=alice", null, null));
+			cloudIndex.put(new CloudIndexEntry("=bob", null, null));
+			cloudIndex.put(new CloudIndexEntry("=bobby", null, null));
+			cloudIndex.compact();
+			cloudIndex.put(new CloudIndexEntry("=bobbie", null, null));
+			cloudIndex.put(new CloudIndexEntry("=carol", null, null));
+
+			assertEquals(names("=bob", "=bobbie", "=bobby"), names(cloudIndex.scan("=bob", 10)));
+			assertEquals(names("=bob", "=bobbie"), names(cloudIndex.scan("=bob", 2)));
+			assertEquals(names("=alice", "=bob", "=bobbie", "=bobby", "=carol"), names(cloudIndex.scan("", 10)));
+			assertTrue(cloudIndex.scan("=dave", 10).isEmpty());
+		} finally {
+
+			cloudIndex.close();
+		}
+	}
+
+	@Test
+	public void testBackgroundCompaction() throws Exception {
+
+		CloudIndex cloudIndex = new CloudIndex(this.directory);
+		cloudIndex.setCompactionThreshold(100);
+
+		try {
+
+			for (int i = 0; i < 1000; i++) cloudIndex.put(entry(i));
+			for (int i = 0; i < 1000; i++) assertEquals(entry(i), cloudIndex.get("=name" + i));
+		} finally {
+
+			cloudIndex.close();
+		}
+
+		cloudIndex = new CloudIndex(this.directory);
+
+		try {
+
+			assertEquals(1000, cloudIndex.scan("", Integer.MAX_VALUE).size());
+			for (int i = 0; i < 1000; i++) assertEquals(entry(i), cloudIndex.getByCloudNumber(cloudNumber(i)));
+		} finally {
+
+			cloudIndex.close();
+		}
+	}
+
+	@Test
+	public void testTornTailIsDiscarded() throws Exception {
+
+		CloudIndex cloudIndex = new CloudIndex(this.directory);
+		cloudIndex.put(entry(1));
+		cloudIndex.close();
+
+		File logFile = new File(this.directory, "clouds.log");
+		long validLength = logFile.length();
+
+		OutputStream outputStream = new FileOutputStream(logFile, true);
+		outputStream.write(new byte[] { 0, 0, 0, 40, 1, 1, 0 });
+		outputStream.close();
+
+		cloudIndex = new CloudIndex(this.directory);
+
+		try {
+
+			assertEquals(validLength, logFile.length());
+			assertEquals(entry(1), cloudIndex.get("=name1"));
+
+			cloudIndex.put(entry(2));
+		} finally {
+
+			cloudIndex.close();
+		}
+
+		cloudIndex = new CloudIndex(this.directory);
+
+		try {
+
+			assertEquals(entry(2), cloudIndex.get("=name2"));
+		} finally {
+
+			cloudIndex.close();
+		}
+	}
+
+	@Test
+	public void testInterruptedCompactionIsRecovered() throws Exception {
+
+		CloudIndex cloudIndex = new CloudIndex(this.directory);
+		cloudIndex.put(entry(1));
+		cloudIndex.compact();
+		cloudIndex.put(entry(2));
+		cloudIndex.close();
+
+		// a compaction that froze the log and wrote part of the new snapshot
+
+		assertTrue(new File(this.directory, "clouds.log").renameTo(new File(this.directory, "clouds.log.compacting")));
+		writeFile(new File(this.directory, "clouds.snapshot.tmp"), new byte[10]);
+
+		cloudIndex = new CloudIndex(this.directory);
+
+		try {
+
+			assertFalse(new File(this.directory, "clouds.log.compacting").exists());
+			assertFalse(new File(this.directory, "clouds.snapshot.tmp").exists());
+			assertEquals(entry(1), cloudIndex.get("=name1"));
+			assertEquals(entry(2), cloudIndex.get("=name2"));
+		} finally {
+
+			cloudIndex.close();
+		}
+	}
+
+	@Test
+	public void testDeletedSnapshotIsRecoveredFromNewSnapshot() throws Exception {
+
+		CloudIndex cloudIndex = new CloudIndex(this.directory);
+		cloudIndex.put(entry(1));
+		cloudIndex.compact();
+		cloudIndex.close();
+
+		// a compaction that deleted the old snapshot, but did not rename the new one
+
+		assertTrue(new File(this.directory, "clouds.snapshot").renameTo(new File(this.directory, "clouds.snapshot.tmp")));
+
+		cloudIndex = new CloudIndex(this.directory);
+
+		try {
+
+			assertTrue(new File(this.directory, "clouds.snapshot").exists());
+			assertEquals(entry(1), cloudIndex.get("=name1"));
+		} finally {
+
+			cloudIndex.close();
+		}
+	}
+
+	@Test
+	public void testFailedCompactionIsRetried() throws Exception {
+
+		CloudIndex cloudIndex = new CloudIndex(this.directory);
+
+		try {
+
+			cloudIndex.put(entry(1));
+
+			// the new snapshot cannot be written while a directory is in its place
+
+			File tmpSnapshotFile = new File(this.directory, "clouds.snapshot.tmp");
+			assertTrue(tmpSnapshotFile.mkdir());
+
+			try {
+
+				cloudIndex.compact();
+
+				fail("Compaction succeeded.");
+			} catch (IOException ex) {
+
+			}
+
+			assertTrue(new File(this.directory, "clouds.log.compacting").exists());
+
+			cloudIndex.put(entry(2));
+			assertEquals(entry(1), cloudIndex.get("=name1"));
+			assertEquals(entry(2), cloudIndex.get("=name2"));
+
+			// the next compaction merges the log frozen by the failed one
+
+			assertTrue(tmpSnapshotFile.delete());
+
+			cloudIndex.compact();
+
+			assertFalse(new File(this.directory, "clouds.log.compacting").exists());
+			assertEquals(entry(1), cloudIndex.get("=name1"));
+			assertEquals(entry(2), cloudIndex.get("=name2"));
+
+			cloudIndex.compact();
+		} finally {
+
+			cloudIndex.close();
+		}
+
+		cloudIndex = new CloudIndex(this.directory);
+
+		try {
+
+			assertEquals(names("=name1", "=name2"), names(cloudIndex.scan("", Integer.MAX_VALUE)));
+			assertEquals(0, new File(this.directory, "clouds.log").length());
+		} finally {
+
+			cloudIndex.close();
+		}
+	}
+
+	@Test
+	public void testPutAfterClose() throws Exception {
+
+		CloudIndex cloudIndex = new CloudIndex(this.directory);
+		cloudIndex.close();
+
+		try {
+
+			cloudIndex.put(entry(1));
+
+			fail("Put to a closed index succeeded.");
+		} catch (IOException ex) {
+
+		}
+	}
+
+	/*
+	 * Helper methods
+	 */
+
+	private static CloudIndexEntry entry(int i) {
+
+		return new CloudIndexEntry("=name" + i, cloudNumber(i), "http://clouds.example.com/" + i + "/");
+	}
+
+	private static String cloudNumber(int i) {
+
+		return "[=]!:uuid:00000000-0000-0000-0000-" + String.format("%012d", Integer.valueOf(i));
+	}
+
+	private static List<String> names(String... names) {
+
+		List<String> list = new ArrayList<String> ();
+		for (String name : names) list.add(name);
+
+		return list;
+	}
+
+	private static List<String> names(List<CloudIndexEntry> entries) {
+
+		List<String> list = new ArrayList<String> ();
+		for (CloudIndexEntry entry : entries) list.add(entry.getCloudName());
+
+		return list;
+	}
+
+	private static void assertSorted(List<CloudIndexEntry> entries) {
+
+		for (int i = 1; i < entries.size(); i++) assertTrue(entries.get(i - 1).getCloudName().compareTo(entries.get(i).getCloudName()) < 0);
+	}
+
+	private static void writeFile(File file, byte[] bytes) throws IOException {
+
+		OutputStream outputStream = new FileOutputStream(file);
+
+		try {
+
+			outputStream.write(bytes);
+		} finally {
+
+			outputStream.close();
+		}
+	}
+}
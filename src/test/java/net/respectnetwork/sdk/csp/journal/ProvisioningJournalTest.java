@@ -0,0 +1,337 @@
+package net.respectnetwork.sdk.csp.journal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.EnumSet;
+
+import net.respectnetwork.sdk.csp.ProvisioningStep;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ProvisioningJournalTest {
+
+	private File file;
+
+	@Before
+	public void setUp() throws Exception {
+
+		this.file = File.createTempFile("journal", ".dat");
+		this.file.delete();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+
+		this.file.delete();
+		new File(this.file.getPath() + ".compact").delete();
+	}
+
+	@Test
+	public void testReplay() throws Exception {
+
+		ProvisioningJournal journal = new ProvisioningJournal(this.file);
+		journal.append(entry("=alice", EnumSet.of(ProvisioningStep.CHECK_CLOUD_NAME_AVAILABLE), null));
+		journal.append(entry("=alice", EnumSet.of(ProvisioningStep.CHECK_CLOUD_NAME_AVAILABLE, ProvisioningStep.REGISTER_CLOUD_NAME), "[=]!:uuid:1"));
+		journal.append(entry("=bob", EnumSet.of(ProvisioningStep.CHECK_CLOUD_NAME_AVAILABLE), null));
+		journal.close();
+
+		journal = new ProvisioningJournal(this.file);
+
+		try {
+
+			assertEquals(2, journal.getUnfinishedEntries().size());
+			assertEquals(EnumSet.of(ProvisioningStep.CHECK_CLOUD_NAME_AVAILABLE, ProvisioningStep.REGISTER_CLOUD_NAME), journal.get("=alice").getCompletedSteps());
+			assertEquals("[=]!:uuid:1", journal.get("=alice").getCloudNumber());
+			assertNull(journal.get("=bob").getCloudNumber());
+		} finally {
+
+			journal.close();
+		}
+	}
+
+	@Test
+	public void testFinishedEntriesAreRemoved() throws Exception {
+
+		ProvisioningJournal journal = new ProvisioningJournal(this.file);
+		journal.append(entry("=alice", EnumSet.of(ProvisioningStep.CHECK_CLOUD_NAME_AVAILABLE), null));
+		journal.append(entry("=alice", EnumSet.allOf(ProvisioningStep.class), "[=]!:uuid:1"));
+
+		assertNull(journal.get("=alice"));
+		journal.close();
+
+		journal = new ProvisioningJournal(this.file);
+
+		try {
+
+			assertNull(journal.get("=alice"));
+			assertTrue(journal.getUnfinishedEntries().isEmpty());
+		} finally {
+
+			journal.close();
+		}
+	}
+
+	@Test
+	public void testTornTailIsDiscarded() throws Exception {
+
+		ProvisioningJournal journal = new ProvisioningJournal(this.file);
+		journal.append(entry("=alice", EnumSet.of(ProvisioningStep.CHECK_CLOUD_NAME_AVAILABLE), null));
+		journal.append(entry("=bob", EnumSet.of(ProvisioningStep.CHECK_CLOUD_NAME_AVAILABLE), null));
+		journal.close();
+
+		long validLength = this.file.length();
+
+		// the first bytes of a record whose write was interrupted
+
+		OutputStream outputStream = new FileOutputStream(this.file, true);
+		outputStream.write(new byte[] { 0, 0, 0, 40, 1, 0, 6, '=' });
+		outputStream.close();
+
+		journal = new ProvisioningJournal(this.file);
+
+		try {
+
+			assertEquals(validLength, this.file.length());
+			assertEquals(2, journal.getUnfinishedEntries().size());
+
+			journal.append(entry("=carol", EnumSet.of(ProvisioningStep.CHECK_CLOUD_NAME_AVAILABLE), null));
+		} finally {
+
+			journal.close();
+		}
+
+		journal = new ProvisioningJournal(this.file);
+
+		try {
+
+			assertEquals(3, journal.getUnfinishedEntries().size());
+		} finally {
+
+			journal.close();
+		}
+	}
+
+	@Test
+	public void testCorruptRecordEndsReplay() throws Exception {
+
+		ProvisioningJournal journal = new ProvisioningJournal(this.file);
+		journal.append(entry("=alice", EnumSet.of(ProvisioningStep.CHECK_CLOUD_NAME_AVAILABLE), null));
+		long firstLength = this.file.length();
+		journal.append(entry("=bob", EnumSet.of(ProvisioningStep.CHECK_CLOUD_NAME_AVAILABLE), null));
+		journal.close();
+
+		byte[] bytes = readFile(this.file);
+		bytes[bytes.length - 1] ^= 0xff;
+		writeFile(this.file, bytes);
+
+		journal = new ProvisioningJournal(this.file);
+
+		try {
+
+			assertNotNull(journal.get("=alice"));
+			assertNull(journal.get("=bob"));
+			assertEquals(firstLength, this.file.length());
+		} finally {
+
+			journal.close();
+		}
+	}
+
+	@Test
+	public void testCompaction() throws Exception {
+
+		File uncompactedFile = new File(this.file.getPath() + ".uncompacted");
+
+		try {
+
+			ProvisioningJournal journal = new ProvisioningJournal(this.file);
+			journal.setCompactionMinRecords(10);
+			appendUpdates(journal, 20);
+			journal.close();
+
+			ProvisioningJournal uncompactedJournal = new ProvisioningJournal(uncompactedFile);
+			uncompactedJournal.setCompactionMinRecords(Long.MAX_VALUE);
+			appendUpdates(uncompactedJournal, 20);
+			uncompactedJournal.close();
+
+			assertTrue("journal was not compacted", this.file.length() < uncompactedFile.length() / 2);
+			assertFalse(new File(this.file.getPath() + ".compact").exists());
+
+			journal = new ProvisioningJournal(this.file);
+
+			try {
+
+				assertEquals(5, journal.getUnfinishedEntries().size());
+				for (int i = 0; i < 20; i += 4) assertNotNull(journal.get("=name" + i));
+			} finally {
+
+				journal.close();
+			}
+		} finally {
+
+			uncompactedFile.delete();
+		}
+	}
+
+	@Test
+	public void testInterruptedCompactionIsReplayed() throws Exception {
+
+		ProvisioningJournal journal = new ProvisioningJournal(this.file);
+		journal.append(entry("=alice", EnumSet.of(ProvisioningStep.CHECK_CLOUD_NAME_AVAILABLE), null));
+		journal.close();
+
+		byte[] oldJournal = readFile(this.file);
+
+		journal = new ProvisioningJournal(this.file);
+		journal.append(entry("=alice", EnumSet.of(ProvisioningStep.CHECK_CLOUD_NAME_AVAILABLE, ProvisioningStep.REGISTER_CLOUD_NAME), "[=]!:uuid:1"));
+		journal.close();
+
+		// a compaction whose rename was lost: the newer records are only in the compacted file
+
+		File compactFile = new File(this.file.getPath() + ".compact");
+		writeFile(compactFile, readFile(this.file));
+		writeFile(this.file, oldJournal);
+
+		journal = new ProvisioningJournal(this.file);
+
+		try {
+
+			assertFalse(compactFile.exists());
+			assertTrue(journal.get("=alice").isCompleted(ProvisioningStep.REGISTER_CLOUD_NAME));
+			assertEquals("[=]!:uuid:1", journal.get("=alice").getCloudNumber());
+		} finally {
+
+			journal.close();
+		}
+
+		journal = new ProvisioningJournal(this.file);
+
+		try {
+
+			assertEquals("[=]!:uuid:1", journal.get("=alice").getCloudNumber());
+		} finally {
+
+			journal.close();
+		}
+	}
+
+	@Test
+	public void testAppendAfterClose() throws Exception {
+
+		ProvisioningJournal journal = new ProvisioningJournal(this.file);
+		journal.close();
+
+		try {
+
+			journal.append(entry("=alice", EnumSet.of(ProvisioningStep.CHECK_CLOUD_NAME_AVAILABLE), null));
+
+			fail("Append to a closed journal succeeded.");
+		} catch (IOException ex) {
+
+		}
+	}
+
+	@Test
+	public void testConcurrentAppends() throws Exception {
+
+		final ProvisioningJournal journal = new ProvisioningJournal(this.file);
+		Thread[] threads = new Thread[8];
+		final IOException[] exceptions = new IOException[threads.length];
+
+		for (int t = 0; t < threads.length; t++) {
+
+			final int thread = t;
+
+			threads[t] = new Thread(new Runnable() {
+
+				public void run() {
+
+					try {
+
+						for (int i = 0; i < 50; i++) journal.append(entry("=name" + thread + "-" + i, EnumSet.of(ProvisioningStep.CHECK_CLOUD_NAME_AVAILABLE), null));
+					} catch (IOException ex) {
+
+						exceptions[thread] = ex;
+					}
+				}
+			});
+
+			threads[t].start();
+		}
+
+		for (Thread thread : threads) thread.join();
+		journal.close();
+
+		for (IOException exception : exceptions) assertNull(exception);
+
+		ProvisioningJournal reopened = new ProvisioningJournal(this.file);
+
+		try {
+
+			assertEquals(400, reopened.getUnfinishedEntries().size());
+		} finally {
+
+			reopened.close();
+		}
+	}
+
+	/*
+	 * Helper methods
+	 */
+
+	private static void appendUpdates(ProvisioningJournal journal, int count) throws IOException {
+
+		for (int i = 0; i < count; i++) {
+
+			journal.append(entry("=name" + i, EnumSet.of(ProvisioningStep.CHECK_CLOUD_NAME_AVAILABLE), null));
+			if (i % 4 != 0) journal.append(entry("=name" + i, EnumSet.allOf(ProvisioningStep.class), "[=]!:uuid:" + i));
+		}
+	}
+
+	private static ProvisioningJournalEntry entry(String cloudName, EnumSet<ProvisioningStep> completedSteps, String cloudNumber) {
+
+		return new ProvisioningJournalEntry(cloudName, completedSteps, "(" + cloudName + ")", cloudNumber, cloudNumber == null ? null : "(" + cloudNumber + ")", null);
+	}
+
+	private static byte[] readFile(File file) throws IOException {
+
+		byte[] bytes = new byte[(int) file.length()];
+		InputStream inputStream = new FileInputStream(file);
+
+		try {
+
+			for (int offset = 0, count; offset < bytes.length && (count = inputStream.read(bytes, offset, bytes.length - offset)) != -1; ) offset += count;
+		} finally {
+
+			inputStream.close();
+		}
+
+		return bytes;
+	}
+
+	private static void writeFile(File file, byte[] bytes) throws IOException {
+
+		OutputStream outputStream = new FileOutputStream(file);
+
+		try {
+
+			outputStream.write(bytes);
+		} finally {
+
+			outputStream.close();
+		}
+	}
+}
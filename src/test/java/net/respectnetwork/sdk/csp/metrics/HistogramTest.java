@@ -0,0 +1,159 @@
+package net.respectnetwork.sdk.csp.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class HistogramTest {
+
+	@Test
+	public void testBucketsCoverValues() throws Exception {
+
+		Random random = new Random(1);
+		int previousIndex = -1;
+
+		for (long value = 0; value < 100000; value++) {
+
+			int index = Histogram.bucketIndex(value);
+
+			assertTrue("buckets not monotonic at " + value, index >= previousIndex);
+			assertBucketContains(index, value);
+
+			previousIndex = index;
+		}
+
+		for (int i = 0; i < 100000; i++) {
+
+			long value = (random.nextLong() >>> 1) >>> random.nextInt(63);
+
+			assertBucketContains(Histogram.bucketIndex(value), value);
+		}
+
+		assertBucketContains(Histogram.bucketIndex(Long.MAX_VALUE), Long.MAX_VALUE);
+	}
+
+	@Test
+	public void testBucketBoundaries() throws Exception {
+
+		for (int index = 1; index < Histogram.bucketIndex(Long.MAX_VALUE); index++) {
+
+			long upperBound = Histogram.bucketUpperBound(index);
+
+			assertEquals(index, Histogram.bucketIndex(upperBound));
+			assertEquals(index + 1, Histogram.bucketIndex(upperBound + 1));
+		}
+	}
+
+	@Test
+	public void testPercentiles() throws Exception {
+
+		Histogram histogram = new Histogram();
+
+		for (long value = 1; value <= 1000; value++) histogram.record(value);
+
+		assertEquals(1000, histogram.getCount());
+		assertEquals(500500, histogram.getSum());
+		assertEquals(500, histogram.getMean());
+		assertEquals(1000, histogram.getMax());
+
+		assertPercentile(histogram, 0.5, 500);
+		assertPercentile(histogram, 0.9, 900);
+		assertPercentile(histogram, 0.99, 990);
+		assertEquals(1, histogram.getPercentile(0));
+		assertEquals(1000, histogram.getPercentile(1));
+	}
+
+	@Test
+	public void testPercentileDoesNotExceedMax() throws Exception {
+
+		Histogram histogram = new Histogram();
+
+		histogram.record(1000);
+
+		assertEquals(1000, histogram.getPercentile(0.5));
+		assertEquals(1000, histogram.getPercentile(1));
+	}
+
+	@Test
+	public void testEmptyAndNegative() throws Exception {
+
+		Histogram histogram = new Histogram();
+
+		assertEquals(0, histogram.getPercentile(0.99));
+		assertEquals(0, histogram.getMean());
+
+		histogram.record(-5);
+
+		assertEquals(1, histogram.getCount());
+		assertEquals(0, histogram.getMax());
+		assertEquals(0, histogram.getPercentile(0.5));
+	}
+
+	@Test
+	public void testReset() throws Exception {
+
+		Histogram histogram = new Histogram();
+
+		for (long value = 1; value <= 100; value++) histogram.record(value);
+
+		histogram.reset();
+
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getSum());
+		assertEquals(0, histogram.getMax());
+		assertEquals(0, histogram.getPercentile(0.5));
+
+		histogram.record(7);
+
+		assertEquals(7, histogram.getPercentile(0.5));
+	}
+
+	@Test
+	public void testConcurrentRecording() throws Exception {
+
+		final Histogram histogram = new Histogram();
+		Thread[] threads = new Thread[8];
+
+		for (int t = 0; t < threads.length; t++) {
+
+			threads[t] = new Thread(new Runnable() {
+
+				public void run() {
+
+					for (long value = 1; value <= 10000; value++) histogram.record(value);
+				}
+			});
+
+			threads[t].start();
+		}
+
+		for (Thread thread : threads) thread.join();
+
+		assertEquals(80000, histogram.getCount());
+		assertEquals(8 * 50005000L, histogram.getSum());
+		assertEquals(10000, histogram.getMax());
+	}
+
+	/*
+	 * Helper methods
+	 */
+
+	private static void assertBucketContains(int index, long value) {
+
+		long upperBound = Histogram.bucketUpperBound(index);
+		long lowerBound = index == 0 ? 0 : Histogram.bucketUpperBound(index - 1) + 1;
+
+		assertTrue(value + " not in bucket " + index + " (" + lowerBound + ".." + upperBound + ")", lowerBound <= value && value <= upperBound);
+		assertTrue(value + " in too wide bucket " + index + " (" + lowerBound + ".." + upperBound + ")", (upperBound - lowerBound) <= Math.max(1, lowerBound / 16));
+	}
+
+	private static void assertPercentile(Histogram histogram, double fraction, long expected) {
+
+		long percentile = histogram.getPercentile(fraction);
+
+		assertTrue("percentile " + fraction + " was " + percentile, percentile >= expected && percentile <= expected + expected / 16);
+	}
+}
@@ -0,0 +1,195 @@
+package net.respectnetwork.sdk.csp.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class AdaptiveConcurrencyLimiterTest {
+
+	private static final long LATENCY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	@Test
+	public void testRejectsBeyondLimit() throws Exception {
+
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 1, 10, 0.9, 2.0, 0);
+
+		assertTrue(limiter.acquire());
+		assertTrue(limiter.acquire());
+		assertFalse(limiter.acquire());
+		assertEquals(1, limiter.getRejectedCount());
+		assertEquals(2, limiter.getInFlight());
+
+		limiter.release(LATENCY_NANOS, false);
+
+		assertTrue(limiter.acquire());
+	}
+
+	@Test
+	public void testLimitGrowsWhenUsed() throws Exception {
+
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 1, 100, 0.9, 2.0, 0);
+
+		for (int round = 0; round < 20; round++) {
+
+			int limit = limiter.getLimit();
+
+			for (int i = 0; i < limit; i++) assertTrue(limiter.acquire());
+			for (int i = 0; i < limit; i++) limiter.release(LATENCY_NANOS, false);
+		}
+
+		assertTrue("limit " + limiter.getLimit(), limiter.getLimit() > 10);
+		assertEquals(0, limiter.getInFlight());
+	}
+
+	@Test
+	public void testLimitDoesNotGrowWhenIdle() throws Exception {
+
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 1, 100, 0.9, 2.0, 0);
+
+		for (int i = 0; i < 1000; i++) {
+
+			assertTrue(limiter.acquire());
+			limiter.release(LATENCY_NANOS, false);
+		}
+
+		assertEquals(10, limiter.getLimit());
+	}
+
+	@Test
+	public void testBackoffOncePerLimitOnOverload() throws Exception {
+
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 1, 100, 0.9, 2.0, 0);
+
+		for (int i = 0; i < 9; i++) {
+
+			assertTrue(limiter.acquire());
+			limiter.release(LATENCY_NANOS, true);
+		}
+
+		assertEquals(10, limiter.getLimit());
+
+		assertTrue(limiter.acquire());
+		limiter.release(LATENCY_NANOS, true);
+
+		assertEquals(9, limiter.getLimit());
+
+		assertTrue(limiter.acquire());
+		limiter.release(LATENCY_NANOS, true);
+
+		assertEquals(9, limiter.getLimit());
+	}
+
+	@Test
+	public void testBackoffOnLatency() throws Exception {
+
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 1, 100, 0.9, 2.0, 0);
+
+		for (int i = 0; i < 5; i++) {
+
+			assertTrue(limiter.acquire());
+			limiter.release(LATENCY_NANOS, false);
+		}
+
+		assertEquals(LATENCY_NANOS, limiter.getMinLatencyNanos());
+
+		for (int i = 0; i < 100; i++) {
+
+			assertTrue(limiter.acquire());
+			limiter.release(10 * LATENCY_NANOS, false);
+		}
+
+		assertTrue("smoothed latency " + limiter.getSmoothedLatencyNanos(), limiter.getSmoothedLatencyNanos() > 2 * LATENCY_NANOS);
+		assertTrue("limit " + limiter.getLimit(), limiter.getLimit() < 10);
+	}
+
+	@Test
+	public void testLimitStaysWithinBounds() throws Exception {
+
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 3, 12, 0.5, 2.0, 0);
+
+		for (int i = 0; i < 1000; i++) {
+
+			assertTrue(limiter.acquire());
+			limiter.release(LATENCY_NANOS, true);
+		}
+
+		assertEquals(3, limiter.getLimit());
+
+		limiter = new AdaptiveConcurrencyLimiter(10, 3, 12, 0.5, 2.0, 0);
+
+		for (int round = 0; round < 200; round++) {
+
+			int limit = limiter.getLimit();
+
+			for (int i = 0; i < limit; i++) assertTrue(limiter.acquire());
+			for (int i = 0; i < limit; i++) limiter.release(LATENCY_NANOS, false);
+		}
+
+		assertEquals(12, limiter.getLimit());
+	}
+
+	@Test
+	public void testWaitsForReleasedSlot() throws Exception {
+
+		final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1, 1, 0.9, 2.0, 5000);
+
+		assertTrue(limiter.acquire());
+
+		Thread releaser = new Thread(new Runnable() {
+
+			public void run() {
+
+				try {
+
+					Thread.sleep(50);
+				} catch (InterruptedException ex) {
+
+					return;
+				}
+
+				limiter.release(LATENCY_NANOS, false);
+			}
+		});
+
+		releaser.start();
+
+		long start = System.nanoTime();
+		assertTrue(limiter.acquire());
+		long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		releaser.join();
+
+		assertTrue("waited " + elapsedMillis + " ms", elapsedMillis >= 30 && elapsedMillis < 5000);
+	}
+
+	@Test
+	public void testWaitTimesOut() throws Exception {
+
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1, 1, 0.9, 2.0, 50);
+
+		assertTrue(limiter.acquire());
+
+		long start = System.nanoTime();
+		assertFalse(limiter.acquire());
+		long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		assertTrue("waited " + elapsedMillis + " ms", elapsedMillis >= 45);
+		assertEquals(1, limiter.getRejectedCount());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidLimits() throws Exception {
+
+		new AdaptiveConcurrencyLimiter(20, 1, 10, 0.9, 2.0, 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidBackoffRatio() throws Exception {
+
+		new AdaptiveConcurrencyLimiter(5, 1, 10, 1.0, 2.0, 0);
+	}
+}
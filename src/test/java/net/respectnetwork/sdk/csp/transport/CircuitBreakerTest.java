@@ -0,0 +1,170 @@
+package net.respectnetwork.sdk.csp.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+	@Test
+	public void testOpensAfterConsecutiveFailures() throws Exception {
+
+		CircuitBreaker circuitBreaker = new CircuitBreaker(3, 10000);
+
+		failRequest(circuitBreaker);
+		failRequest(circuitBreaker);
+
+		assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+		assertTrue(circuitBreaker.allowRequest() != CircuitBreaker.NOT_ALLOWED);
+
+		failRequest(circuitBreaker);
+
+		assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+		assertEquals(CircuitBreaker.NOT_ALLOWED, circuitBreaker.allowRequest());
+		assertEquals(CircuitBreaker.NOT_ALLOWED, circuitBreaker.allowRequest());
+		assertEquals(2, circuitBreaker.getRejectedCount());
+	}
+
+	@Test
+	public void testSuccessResetsFailures() throws Exception {
+
+		CircuitBreaker circuitBreaker = new CircuitBreaker(3, 10000);
+
+		failRequest(circuitBreaker);
+		failRequest(circuitBreaker);
+		circuitBreaker.recordSuccess(circuitBreaker.allowRequest());
+		failRequest(circuitBreaker);
+		failRequest(circuitBreaker);
+
+		assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+		assertEquals(2, circuitBreaker.getConsecutiveFailures());
+	}
+
+	@Test
+	public void testHalfOpenTrialSucceeds() throws Exception {
+
+		CircuitBreaker circuitBreaker = new CircuitBreaker(1, 50);
+
+		failRequest(circuitBreaker);
+		assertEquals(CircuitBreaker.NOT_ALLOWED, circuitBreaker.allowRequest());
+
+		Thread.sleep(60);
+
+		long permit = circuitBreaker.allowRequest();
+
+		assertTrue(permit != CircuitBreaker.NOT_ALLOWED);
+		assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+
+		// only one trial request is let through
+
+		assertEquals(CircuitBreaker.NOT_ALLOWED, circuitBreaker.allowRequest());
+
+		circuitBreaker.recordSuccess(permit);
+
+		assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+		assertEquals(0, circuitBreaker.getConsecutiveFailures());
+		assertTrue(circuitBreaker.allowRequest() != CircuitBreaker.NOT_ALLOWED);
+	}
+
+	@Test
+	public void testHalfOpenTrialFails() throws Exception {
+
+		CircuitBreaker circuitBreaker = new CircuitBreaker(5, 50);
+
+		for (int i = 0; i < 5; i++) failRequest(circuitBreaker);
+
+		Thread.sleep(60);
+
+		long permit = circuitBreaker.allowRequest();
+
+		assertTrue(permit != CircuitBreaker.NOT_ALLOWED);
+
+		// a single failure of the trial request opens the circuit again
+
+		circuitBreaker.recordFailure(permit);
+
+		assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+		assertEquals(CircuitBreaker.NOT_ALLOWED, circuitBreaker.allowRequest());
+
+		Thread.sleep(60);
+
+		assertTrue(circuitBreaker.allowRequest() != CircuitBreaker.NOT_ALLOWED);
+	}
+
+	@Test
+	public void testLateSuccessDoesNotClose() throws Exception {
+
+		CircuitBreaker circuitBreaker = new CircuitBreaker(1, 50);
+
+		long latePermit = circuitBreaker.allowRequest();
+
+		failRequest(circuitBreaker);
+
+		// a request admitted before the circuit opened succeeds late
+
+		circuitBreaker.recordSuccess(latePermit);
+
+		assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+		assertEquals(CircuitBreaker.NOT_ALLOWED, circuitBreaker.allowRequest());
+
+		Thread.sleep(60);
+
+		long permit = circuitBreaker.allowRequest();
+
+		circuitBreaker.recordSuccess(latePermit);
+
+		assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+
+		circuitBreaker.recordSuccess(permit);
+
+		assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+	}
+
+	@Test
+	public void testLostTrialIsRetried() throws Exception {
+
+		CircuitBreaker circuitBreaker = new CircuitBreaker(1, 50);
+
+		failRequest(circuitBreaker);
+
+		Thread.sleep(60);
+
+		long lostPermit = circuitBreaker.allowRequest();
+
+		assertTrue(lostPermit != CircuitBreaker.NOT_ALLOWED);
+		assertEquals(CircuitBreaker.NOT_ALLOWED, circuitBreaker.allowRequest());
+
+		// the outcome of the trial is never recorded
+
+		Thread.sleep(60);
+
+		long permit = circuitBreaker.allowRequest();
+
+		assertTrue(permit != CircuitBreaker.NOT_ALLOWED);
+
+		circuitBreaker.recordFailure(lostPermit);
+
+		assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+
+		circuitBreaker.recordSuccess(permit);
+
+		assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidFailureThreshold() throws Exception {
+
+		new CircuitBreaker(0, 1000);
+	}
+
+	/*
+	 * Helper methods
+	 */
+
+	private static void failRequest(CircuitBreaker circuitBreaker) {
+
+		circuitBreaker.recordFailure(circuitBreaker.allowRequest());
+	}
+}
@@ -0,0 +1,214 @@
+package net.respectnetwork.sdk.csp.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import xdi2.client.XDIClient;
+import xdi2.client.exceptions.Xdi2ClientException;
+import xdi2.messaging.MessageEnvelope;
+import xdi2.messaging.MessageResult;
+
+public class LoadBalancingXDIClientTest {
+
+	private static final String ENDPOINT_A = "http://a.example.net/xdi/registry";
+	private static final String ENDPOINT_B = "http://b.example.net/xdi/registry";
+
+	@Test
+	public void testFailuresEjectReplica() throws Exception {
+
+		StubXDITransport xdiTransport = new StubXDITransport(ENDPOINT_A, ENDPOINT_B);
+		xdiTransport.xdiClient(ENDPOINT_A).failing = true;
+		LoadBalancingXDIClient xdiClient = newLoadBalancingXDIClient(xdiTransport, 60000);
+
+		sendQuietly(xdiClient, 30);
+
+		LoadBalancingXDIClient.Replica replica = xdiClient.getReplicas().get(0);
+
+		assertTrue(replica.isEjected());
+		assertFalse(xdiClient.getReplicas().get(1).isEjected());
+		assertEquals(1, replica.getEjectionCount());
+		assertEquals(3, replica.getFailureCount());
+
+		// an ejected replica gets no messages
+
+		int sendCount = xdiTransport.xdiClient(ENDPOINT_A).sendCount.get();
+
+		for (int i=0; i<10; i++) xdiClient.send(new MessageEnvelope(), null);
+
+		assertEquals(sendCount, xdiTransport.xdiClient(ENDPOINT_A).sendCount.get());
+	}
+
+	@Test
+	public void testLastHealthyReplicaIsNotEjected() throws Exception {
+
+		StubXDITransport xdiTransport = new StubXDITransport(ENDPOINT_A, ENDPOINT_B);
+		xdiTransport.xdiClient(ENDPOINT_A).failing = true;
+		xdiTransport.xdiClient(ENDPOINT_B).failing = true;
+		LoadBalancingXDIClient xdiClient = newLoadBalancingXDIClient(xdiTransport, 60000);
+
+		sendQuietly(xdiClient, 30);
+
+		int ejectedCount = 0;
+		for (LoadBalancingXDIClient.Replica replica : xdiClient.getReplicas()) if (replica.isEjected()) ejectedCount++;
+
+		assertEquals(1, ejectedCount);
+	}
+
+	@Test
+	public void testEjectionExpires() throws Exception {
+
+		StubXDITransport xdiTransport = new StubXDITransport(ENDPOINT_A, ENDPOINT_B);
+		xdiTransport.xdiClient(ENDPOINT_A).failing = true;
+		LoadBalancingXDIClient xdiClient = newLoadBalancingXDIClient(xdiTransport, 50);
+
+		sendQuietly(xdiClient, 30);
+		assertTrue(xdiClient.getReplicas().get(0).isEjected());
+
+		Thread.sleep(60);
+
+		assertFalse(xdiClient.getReplicas().get(0).isEjected());
+	}
+
+	@Test
+	public void testHealthCheckReadmitsReplica() throws Exception {
+
+		StubXDITransport xdiTransport = new StubXDITransport(ENDPOINT_A, ENDPOINT_B);
+		xdiTransport.xdiClient(ENDPOINT_A).failing = true;
+		LoadBalancingXDIClient xdiClient = newLoadBalancingXDIClient(xdiTransport, 60000);
+
+		sendQuietly(xdiClient, 30);
+		assertTrue(xdiClient.getReplicas().get(0).isEjected());
+
+		xdiTransport.xdiClient(ENDPOINT_A).failing = false;
+		xdiClient.checkHealth(new MessageEnvelope());
+
+		assertFalse(xdiClient.getReplicas().get(0).isEjected());
+
+		int sendCount = xdiTransport.xdiClient(ENDPOINT_A).sendCount.get();
+
+		for (int i=0; i<10; i++) xdiClient.send(new MessageEnvelope(), null);
+
+		assertTrue(xdiTransport.xdiClient(ENDPOINT_A).sendCount.get() > sendCount);
+	}
+
+	@Test
+	public void testFailedHealthCheckEjectsAgain() throws Exception {
+
+		StubXDITransport xdiTransport = new StubXDITransport(ENDPOINT_A, ENDPOINT_B);
+		xdiTransport.xdiClient(ENDPOINT_A).failing = true;
+		LoadBalancingXDIClient xdiClient = newLoadBalancingXDIClient(xdiTransport, 60000);
+
+		sendQuietly(xdiClient, 30);
+		xdiClient.checkHealth(new MessageEnvelope());
+
+		LoadBalancingXDIClient.Replica replica = xdiClient.getReplicas().get(0);
+
+		assertTrue(replica.isEjected());
+		assertEquals(2, replica.getEjectionCount());
+		assertFalse(xdiClient.getReplicas().get(1).isEjected());
+	}
+
+	@Test
+	public void testCloseLeavesSharedTransportOpen() throws Exception {
+
+		StubXDITransport xdiTransport = new StubXDITransport(ENDPOINT_A, ENDPOINT_B);
+
+		new LoadBalancingXDIClient(Arrays.asList(ENDPOINT_A, ENDPOINT_B), xdiTransport).close();
+		assertFalse(xdiTransport.closed);
+
+		new LoadBalancingXDIClient(Arrays.asList(ENDPOINT_A, ENDPOINT_B), xdiTransport, null, true).close();
+		assertTrue(xdiTransport.closed);
+	}
+
+	/*
+	 * Helper methods
+	 */
+
+	private static LoadBalancingXDIClient newLoadBalancingXDIClient(StubXDITransport xdiTransport, long ejectionMillis) {
+
+		LoadBalancingXDIClient xdiClient = new LoadBalancingXDIClient(new ArrayList<String> (xdiTransport.xdiClients.keySet()), xdiTransport);
+		xdiClient.setFailureThreshold(3);
+		xdiClient.setEjectionMillis(ejectionMillis);
+		xdiClient.setMaxEjectionMillis(ejectionMillis * 10);
+
+		return xdiClient;
+	}
+
+	private static void sendQuietly(LoadBalancingXDIClient xdiClient, int count) {
+
+		for (int i=0; i<count; i++) {
+
+			try {
+
+				xdiClient.send(new MessageEnvelope(), null);
+			} catch (Xdi2ClientException ex) {
+
+			}
+		}
+	}
+
+	private static class StubXDITransport implements XDITransport {
+
+		private final Map<String, StubXDIClient> xdiClients;
+
+		private volatile boolean closed;
+
+		private StubXDITransport(String... endpoints) {
+
+			this.xdiClients = new LinkedHashMap<String, StubXDIClient> ();
+			for (String endpoint : endpoints) this.xdiClients.put(endpoint, new StubXDIClient());
+		}
+
+		private StubXDIClient xdiClient(String endpoint) {
+
+			return this.xdiClients.get(endpoint);
+		}
+
+		public XDIClient getXdiClient(String endpoint) {
+
+			return this.xdiClients.get(endpoint);
+		}
+
+		public XDIClient getXdiClient(String endpoint, XDIWireSettings wireSettings) {
+
+			return this.xdiClients.get(endpoint);
+		}
+
+		public void close() {
+
+			this.closed = true;
+		}
+	}
+
+	/**
+	 * An XDIClient that answers every message, or fails every message with a transport error.
+	 */
+	private static class StubXDIClient implements XDIClient {
+
+		private final AtomicInteger sendCount = new AtomicInteger();
+
+		private volatile boolean failing;
+
+		public MessageResult send(MessageEnvelope messageEnvelope, MessageResult messageResult) throws Xdi2ClientException {
+
+			this.sendCount.incrementAndGet();
+
+			if (this.failing) throw new Xdi2ClientException("Connection refused", null, null);
+
+			return messageResult != null ? messageResult : new MessageResult();
+		}
+
+		public void close() {
+
+		}
+	}
+}
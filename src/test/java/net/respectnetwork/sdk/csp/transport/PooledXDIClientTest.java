@@ -0,0 +1,262 @@
+package net.respectnetwork.sdk.csp.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.http.Header;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+import org.junit.Test;
+
+import xdi2.client.exceptions.Xdi2ClientException;
+import xdi2.core.xri3.XDI3Segment;
+import xdi2.core.xri3.XDI3Statement;
+import xdi2.messaging.Message;
+import xdi2.messaging.MessageEnvelope;
+
+public class PooledXDIClientTest {
+
+	private static final String ENDPOINT = "http://localhost:8080/xdi/registry";
+	private static final XDIWireSettings GZIP_WIRE_SETTINGS = XDIWireSettings.DEFAULT.withRequestCompression(XDICompression.GZIP);
+
+	@Test
+	public void testUnsupportedMediaTypeTurnsOffCompression() throws Exception {
+
+		StubHttpClient httpClient = new StubHttpClient(415, 200);
+		PooledXDIClient xdiClient = new PooledXDIClient(httpClient, ENDPOINT, GZIP_WIRE_SETTINGS, null);
+
+		assertNotNull(xdiClient.send(writeMessageEnvelope(), null));
+
+		assertEquals(Arrays.asList("gzip", null), httpClient.contentEncodings);
+		assertEquals(XDICompression.NONE, xdiClient.getWireSettings().getRequestCompression());
+		assertEquals(GZIP_WIRE_SETTINGS, xdiClient.getConfiguredWireSettings());
+	}
+
+	@Test
+	public void testNotAcceptableFallsBackToDefaultMimeTypes() throws Exception {
+
+		XDIWireSettings wireSettings = XDIWireSettings.DEFAULT.withMimeTypes(XDIWireSettings.MIME_TYPE_XDI_DISPLAY, XDIWireSettings.MIME_TYPE_XDI_DISPLAY);
+		StubHttpClient httpClient = new StubHttpClient(406, 200);
+		PooledXDIClient xdiClient = new PooledXDIClient(httpClient, ENDPOINT, wireSettings, null);
+
+		assertNotNull(xdiClient.send(writeMessageEnvelope(), null));
+
+		assertEquals(Arrays.asList(XDIWireSettings.MIME_TYPE_XDI_DISPLAY, XDIWireSettings.DEFAULT.getSendMimeType()), httpClient.contentTypes);
+		assertEquals(XDIWireSettings.DEFAULT, xdiClient.getWireSettings());
+	}
+
+	@Test
+	public void testNotAcceptableWithDefaultMimeTypesIsNotSentAgain() throws Exception {
+
+		StubHttpClient httpClient = new StubHttpClient(406);
+		PooledXDIClient xdiClient = new PooledXDIClient(httpClient, ENDPOINT, XDIWireSettings.DEFAULT, null);
+
+		assertSendFails(xdiClient, writeMessageEnvelope());
+
+		assertEquals(1, httpClient.contentEncodings.size());
+	}
+
+	@Test
+	public void testBadRequestWhileProbingIsSentAgainUncompressed() throws Exception {
+
+		StubHttpClient httpClient = new StubHttpClient(400, 200);
+		PooledXDIClient xdiClient = new PooledXDIClient(httpClient, ENDPOINT, GZIP_WIRE_SETTINGS, null);
+
+		assertNotNull(xdiClient.send(writeMessageEnvelope(), null));
+
+		assertEquals(Arrays.asList("gzip", null), httpClient.contentEncodings);
+		assertEquals(XDICompression.NONE, xdiClient.getWireSettings().getRequestCompression());
+	}
+
+	@Test
+	public void testBadRequestKeepsCompressionIfUncompressedRequestFails() throws Exception {
+
+		StubHttpClient httpClient = new StubHttpClient(400, 400);
+		PooledXDIClient xdiClient = new PooledXDIClient(httpClient, ENDPOINT, GZIP_WIRE_SETTINGS, null);
+
+		assertSendFails(xdiClient, writeMessageEnvelope());
+
+		assertEquals(Arrays.asList("gzip", null), httpClient.contentEncodings);
+		assertEquals(XDICompression.GZIP, xdiClient.getWireSettings().getRequestCompression());
+	}
+
+	@Test
+	public void testOtherClientErrorResendsReadOnlyMessage() throws Exception {
+
+		StubHttpClient httpClient = new StubHttpClient(403, 200);
+		PooledXDIClient xdiClient = new PooledXDIClient(httpClient, ENDPOINT, GZIP_WIRE_SETTINGS, null);
+
+		assertNotNull(xdiClient.send(readOnlyMessageEnvelope(), null));
+
+		assertEquals(Arrays.asList("gzip", null), httpClient.contentEncodings);
+		assertEquals(XDICompression.GZIP, xdiClient.getWireSettings().getRequestCompression());
+	}
+
+	@Test
+	public void testOtherClientErrorDoesNotResendWritingMessage() throws Exception {
+
+		StubHttpClient httpClient = new StubHttpClient(403);
+		PooledXDIClient xdiClient = new PooledXDIClient(httpClient, ENDPOINT, GZIP_WIRE_SETTINGS, null);
+
+		assertSendFails(xdiClient, writeMessageEnvelope());
+
+		assertEquals(Arrays.asList("gzip"), httpClient.contentEncodings);
+	}
+
+	@Test
+	public void testServerErrorIsNotSentAgain() throws Exception {
+
+		StubHttpClient httpClient = new StubHttpClient(503);
+		PooledXDIClient xdiClient = new PooledXDIClient(httpClient, ENDPOINT, GZIP_WIRE_SETTINGS, null);
+
+		assertSendFails(xdiClient, readOnlyMessageEnvelope());
+
+		assertEquals(Arrays.asList("gzip"), httpClient.contentEncodings);
+		assertEquals(XDICompression.GZIP, xdiClient.getWireSettings().getRequestCompression());
+	}
+
+	@Test
+	public void testNoResendOnceCompressionIsConfirmed() throws Exception {
+
+		StubHttpClient httpClient = new StubHttpClient(200, 400);
+		PooledXDIClient xdiClient = new PooledXDIClient(httpClient, ENDPOINT, GZIP_WIRE_SETTINGS, null);
+
+		assertNotNull(xdiClient.send(writeMessageEnvelope(), null));
+		assertSendFails(xdiClient, writeMessageEnvelope());
+
+		assertEquals(Arrays.asList("gzip", "gzip"), httpClient.contentEncodings);
+		assertEquals(XDICompression.GZIP, xdiClient.getWireSettings().getRequestCompression());
+	}
+
+	/*
+	 * Helper methods
+	 */
+
+	private static MessageEnvelope readOnlyMessageEnvelope() {
+
+		MessageEnvelope messageEnvelope = new MessageEnvelope();
+		Message message = messageEnvelope.createMessage(XDI3Segment.create("[@]!:uuid:1"));
+		message.createGetOperation(XDI3Segment.create("(=alice)"));
+
+		return messageEnvelope;
+	}
+
+	private static MessageEnvelope writeMessageEnvelope() {
+
+		MessageEnvelope messageEnvelope = new MessageEnvelope();
+		Message message = messageEnvelope.createMessage(XDI3Segment.create("[@]!:uuid:1"));
+		message.createSetOperation(XDI3Statement.create("(=alice)/$ref/{}"));
+
+		return messageEnvelope;
+	}
+
+	private static void assertSendFails(PooledXDIClient xdiClient, MessageEnvelope messageEnvelope) {
+
+		try {
+
+			xdiClient.send(messageEnvelope, null);
+			fail();
+		} catch (Xdi2ClientException ex) {
+
+			assertNull(ex.getErrorMessageResult());
+			assertTrue(ex.getMessage().startsWith("HTTP code"));
+		}
+	}
+
+	/**
+	 * An HttpClient that answers each request with the next of the given status codes, and records the
+	 * Content-Type and Content-Encoding of each request. Successful responses carry an empty XDI/JSON graph.
+	 */
+	private static class StubHttpClient extends CloseableHttpClient {
+
+		private final LinkedList<Integer> statusCodes;
+		private final List<String> contentTypes = new ArrayList<String> ();
+		private final List<String> contentEncodings = new ArrayList<String> ();
+
+		private StubHttpClient(Integer... statusCodes) {
+
+			this.statusCodes = new LinkedList<Integer> (Arrays.asList(statusCodes));
+		}
+
+		@Override
+		protected CloseableHttpResponse doExecute(HttpHost target, HttpRequest request, HttpContext context) {
+
+			this.contentTypes.add(headerValue(request.getFirstHeader("Content-Type")));
+			this.contentEncodings.add(headerValue(request.getFirstHeader("Content-Encoding")));
+
+			int statusCode = this.statusCodes.removeFirst().intValue();
+
+			HttpResponse httpResponse = new BasicHttpResponse(HttpVersion.HTTP_1_1, statusCode, "Status " + statusCode);
+
+			if (statusCode < 300) {
+
+				httpResponse.setHeader("Content-Type", XDIWireSettings.MIME_TYPE_XDI_JSON);
+				httpResponse.setEntity(new StringEntity("{}", ContentType.create("application/xdi+json", "UTF-8")));
+			}
+
+			return closeable(httpResponse);
+		}
+
+		public void close() {
+
+		}
+
+		@Deprecated
+		public HttpParams getParams() {
+
+			throw new UnsupportedOperationException();
+		}
+
+		@Deprecated
+		public ClientConnectionManager getConnectionManager() {
+
+			throw new UnsupportedOperationException();
+		}
+
+		private static String headerValue(Header header) {
+
+			return header == null ? null : header.getValue();
+		}
+
+		private static CloseableHttpResponse closeable(final HttpResponse httpResponse) {
+
+			return (CloseableHttpResponse) Proxy.newProxyInstance(CloseableHttpResponse.class.getClassLoader(), new Class<?>[] { CloseableHttpResponse.class }, new InvocationHandler() {
+
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+
+					if ("close".equals(method.getName())) return null;
+
+					try {
+
+						return method.invoke(httpResponse, args);
+					} catch (InvocationTargetException ex) {
+
+						throw ex.getCause();
+					}
+				}
+			});
+		}
+	}
+}
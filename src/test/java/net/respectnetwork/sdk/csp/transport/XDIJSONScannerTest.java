@@ -0,0 +1,138 @@
+package net.respectnetwork.sdk.csp.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class XDIJSONScannerTest {
+
+	private static final Set<String> SUBJECTS = new HashSet<String> (Arrays.asList("(=alice)", "(=bob)", "(=carol)"));
+
+	@Test
+	public void testSelectedRelations() throws Exception {
+
+		Map<String, String> relationTargets = scan("{\"(=alice)/$ref\":[\"([=]!:uuid:1)\"],\"(=bob)/$ref\":[\"([=]!:uuid:2)\"]}");
+
+		assertEquals(2, relationTargets.size());
+		assertEquals("([=]!:uuid:1)", relationTargets.get("(=alice)"));
+		assertEquals("([=]!:uuid:2)", relationTargets.get("(=bob)"));
+	}
+
+	@Test
+	public void testFirstTargetWins() throws Exception {
+
+		Map<String, String> relationTargets = scan("{\"(=alice)/$ref\":[\"([=]!:uuid:1)\",\"([=]!:uuid:2)\"],\"(=alice)/$ref\":[\"([=]!:uuid:3)\"]}");
+
+		assertEquals("([=]!:uuid:1)", relationTargets.get("(=alice)"));
+	}
+
+	@Test
+	public void testOtherStatementsAreSkipped() throws Exception {
+
+		Map<String, String> relationTargets = scan(
+				"{ \"(=dave)/$ref\" : [ \"([=]!:uuid:4)\" ],\n" +
+				"  \"(=alice)/$is$ref\" : [ \"([=]!:uuid:5)\" ],\n" +
+				"  \"(=alice)<$t>&/&\" : 1398333000,\n" +
+				"  \"(=alice)/$ref/x\" : [ \"([=]!:uuid:6)\" ],\n" +
+				"  \"(=alice)$do/$ref\" : { \"nested\" : [ \"a]\", \"b}\\\"\" ] },\n" +
+				"  \"([=]!:uuid:1)/(=alice)/$ref\" : [ true, false, null ],\n" +
+				"  \"(=carol)/$ref\" : [ \"([=]!:uuid:7)\" ] }");
+
+		assertEquals(1, relationTargets.size());
+		assertEquals("([=]!:uuid:7)", relationTargets.get("(=carol)"));
+	}
+
+	@Test
+	public void testSlashesInsideXrefsAreNotSeparators() throws Exception {
+
+		Map<String, String> relationTargets = scan("{\"(=alice)(http://a/b)/$ref\":[\"x\"],\"(=bob)/$ref\":[\"(http://c/d)\"]}");
+
+		assertEquals(1, relationTargets.size());
+		assertEquals("(http://c/d)", relationTargets.get("(=bob)"));
+	}
+
+	@Test
+	public void testEscapes() throws Exception {
+
+		Map<String, String> relationTargets = scan("{\"(=alice)/$ref\":[\"a\\\"b\\\\c\\/d\\u0041\\n\"]}");
+
+		assertEquals("a\"b\\c/dA\n", relationTargets.get("(=alice)"));
+	}
+
+	@Test
+	public void testEmptyGraph() throws Exception {
+
+		assertTrue(scan("{}").isEmpty());
+		assertTrue(scan("  { } ").isEmpty());
+	}
+
+	@Test
+	public void testErrorResultIsNotScanned() throws Exception {
+
+		assertNull(scan("{\"$false/$error\":[\"x\"]}"));
+		assertNull(scan("{\"[=]!:uuid:1$msg$error<$t>&/&\":\"2014-01-01\"}"));
+	}
+
+	@Test
+	public void testMalformedInput() throws Exception {
+
+		assertNull(scan(""));
+		assertNull(scan("[]"));
+		assertNull(scan("{\"(=alice)/$ref\":[\"x\""));
+		assertNull(scan("{\"(=alice)/$ref\":\"x\"}"));
+		assertNull(scan("{\"(=alice)/$ref\":[\"x\"] \"(=bob)/$ref\":[\"y\"]}"));
+		assertNull(scan("{\"(=alice)\":[\"x\"]}"));
+		assertNull(scan("{\"(=alice)/$ref\":[\"\\q\"]}"));
+		assertNull(scan("{\"(=dave)/$ref\":[\"x\"}"));
+	}
+
+	@Test
+	public void testInputLargerThanBufferReadInSmallPieces() throws Exception {
+
+		StringBuilder json = new StringBuilder("{");
+
+		for (int i = 0; i < 2000; i++) json.append("\"(=other" + i + ")/$ref\":[\"([=]!:uuid:" + i + ")\"],\"(=other" + i + ")<$n>&/&\":" + i + ",");
+
+		json.append("\"(=alice)/$ref\":[\"([=]!:uuid:1)\"]}");
+
+		Map<String, String> relationTargets = XDIJSONScanner.scanRelations(new OneCharReader(new StringReader(json.toString())), "$ref", SUBJECTS);
+
+		assertEquals(1, relationTargets.size());
+		assertEquals("([=]!:uuid:1)", relationTargets.get("(=alice)"));
+		assertEquals(relationTargets, scan(json.toString()));
+	}
+
+	/*
+	 * Helper methods
+	 */
+
+	private static Map<String, String> scan(String json) throws IOException {
+
+		return XDIJSONScanner.scanRelations(new StringReader(json), "$ref", SUBJECTS);
+	}
+
+	private static class OneCharReader extends FilterReader {
+
+		private OneCharReader(Reader reader) {
+
+			super(reader);
+		}
+
+		@Override
+		public int read(char[] buffer, int offset, int length) throws IOException {
+
+			return super.read(buffer, offset, Math.min(length, 1));
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package net.respectnetwork.sdk.csp.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TokenBucketTest {
+
+	@Test
+	public void testUnlimited() throws Exception {
+
+		TokenBucket tokenBucket = new TokenBucket(0, 1);
+
+		for (int i = 0; i < 1000; i++) assertTrue(tokenBucket.tryAcquire());
+		assertEquals(0, tokenBucket.reserve());
+	}
+
+	@Test
+	public void testBurst() throws Exception {
+
+		TokenBucket tokenBucket = new TokenBucket(1, 5);
+
+		for (int i = 0; i < 5; i++) assertTrue(tokenBucket.tryAcquire());
+		assertFalse(tokenBucket.tryAcquire());
+	}
+
+	@Test
+	public void testReserve() throws Exception {
+
+		TokenBucket tokenBucket = new TokenBucket(10, 1);
+
+		assertEquals(0, tokenBucket.reserve());
+
+		long waitNanos = tokenBucket.reserve();
+		assertTrue("waited " + waitNanos + " ns", waitNanos > TimeUnit.MILLISECONDS.toNanos(50) && waitNanos <= TimeUnit.MILLISECONDS.toNanos(100));
+
+		// a second reservation queues behind the first
+
+		waitNanos = tokenBucket.reserve();
+		assertTrue("waited " + waitNanos + " ns", waitNanos > TimeUnit.MILLISECONDS.toNanos(150) && waitNanos <= TimeUnit.MILLISECONDS.toNanos(200));
+	}
+
+	@Test
+	public void testRefill() throws Exception {
+
+		TokenBucket tokenBucket = new TokenBucket(100, 1);
+
+		assertTrue(tokenBucket.tryAcquire());
+		assertFalse(tokenBucket.tryAcquire());
+
+		Thread.sleep(50);
+
+		assertTrue(tokenBucket.tryAcquire());
+	}
+
+	@Test
+	public void testRefillIsCappedAtBurst() throws Exception {
+
+		TokenBucket tokenBucket = new TokenBucket(1000, 3);
+
+		Thread.sleep(50);
+
+		for (int i = 0; i < 3; i++) assertTrue(tokenBucket.tryAcquire());
+		assertFalse(tokenBucket.tryAcquire());
+	}
+
+	@Test
+	public void testAcquireKeepsRate() throws Exception {
+
+		TokenBucket tokenBucket = new TokenBucket(50, 1);
+
+		long start = System.nanoTime();
+		for (int i = 0; i < 11; i++) tokenBucket.acquire();
+		long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		assertTrue("took " + elapsedMillis + " ms", elapsedMillis >= 190);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidBurst() throws Exception {
+
+		new TokenBucket(1, 0);
+	}
+}